@@ -33,6 +33,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
@@ -110,10 +111,78 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 		}
 	}
 
+	/**
+	 * Presence flag and source transforms (for all mipmap levels) of this
+	 * source at one timepoint. Instances are immutable and may be shared
+	 * between threads without synchronization.
+	 */
+	protected static final class TimepointData
+	{
+		protected final boolean isPresent;
+
+		private final AffineTransform3D[] sourceTransforms;
+
+		protected TimepointData( final boolean isPresent, final AffineTransform3D[] sourceTransforms )
+		{
+			this.isPresent = isPresent;
+			this.sourceTransforms = sourceTransforms;
+		}
+
+		/**
+		 * Get the source transform for mipmap {@code level}.
+		 *
+		 * @param level
+		 *            mipmap level
+		 * @param transform
+		 *            is set to the source transform.
+		 */
+		protected void getSourceTransform( final int level, final AffineTransform3D transform )
+		{
+			transform.set( sourceTransforms[ level ] );
+		}
+	}
+
+	/**
+	 * {@link TimepointData} for each timepoint index, created lazily by
+	 * {@link #getTimepointData(int)}. Entries are never modified after they
+	 * have been set, so they can be read without locking from any number of
+	 * threads, for any number of timepoints at once.
+	 */
+	private final AtomicReferenceArray< TimepointData > timepointData;
+
+	/**
+	 * {@link TimepointData} returned for timepoint indices that are out of
+	 * range: not present, identity transforms.
+	 */
+	private final TimepointData notPresent;
+
+	/**
+	 * Timepoint index of the last {@link #loadTimepoint(int)} call.
+	 *
+	 * @deprecated Lookups no longer go through a "current" timepoint. This is
+	 *             only updated by {@link #loadTimepoint(int)}, for subclasses
+	 *             that read it. Use {@link #getTimepointData(int)} instead.
+	 */
+	@Deprecated
 	protected int currentTimePointIndex;
 
+	/**
+	 * Whether the source is present at {@link #currentTimePointIndex}.
+	 *
+	 * @deprecated Only updated by {@link #loadTimepoint(int)}. Use
+	 *             {@link #getTimepointData(int)} instead.
+	 */
+	@Deprecated
 	protected boolean currentTimePointIsPresent;
 
+	/**
+	 * Source transforms (for all mipmap levels) at
+	 * {@link #currentTimePointIndex}.
+	 *
+	 * @deprecated Only updated by {@link #loadTimepoint(int)}. Use
+	 *             {@link #getTimepointData(int)} instead.
+	 */
+	@Deprecated
 	protected final AffineTransform3D[] currentSourceTransforms;
 
 	protected final int setupId;
@@ -178,33 +247,79 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 				new BoundedSoftRefLoaderCache<>( 3 * numMipmapLevels * numInterpolationMethods ),
 				interpolLoader ) );
 
-		currentSourceTransforms = new AffineTransform3D[ numMipmapLevels ];
-		for ( int level = 0; level < numMipmapLevels; level++ )
-			currentSourceTransforms[ level ] = new AffineTransform3D();
-
+		timepointData = new AtomicReferenceArray<>( timePointsOrdered.size() );
+		notPresent = new TimepointData( false, identityTransforms() );
+		currentSourceTransforms = identityTransforms();
 	}
 
-	protected void loadTimepoint( final int timepointIndex )
+	/**
+	 * (Re-)compute the {@link TimepointData} for the given timepoint index
+	 * from the current {@link #viewRegistrations} and {@link #missingViews}.
+	 * Call this after changing the registrations of a timepoint, for
+	 * subsequent queries to return the new source transforms.
+	 * <p>
+	 * This also updates the deprecated {@link #currentTimePointIndex},
+	 * {@link #currentTimePointIsPresent}, and
+	 * {@link #currentSourceTransforms} fields.
+	 */
+	protected synchronized void loadTimepoint( final int timepointIndex )
 	{
-		currentTimePointIndex = timepointIndex;
-		currentTimePointIsPresent = isPresent( timepointIndex );
-		if ( currentTimePointIsPresent )
+		final TimepointData data;
+		if ( timepointIndex < 0 || timepointIndex >= timepointData.length() )
+			data = notPresent;
+		else
 		{
-			final int timepointId = timePointsOrdered.get( timepointIndex ).getId();
-			final ViewId viewId = new ViewId( timepointId, setupId );
-			final AffineTransform3D reg = viewRegistrations.get( viewId ).getModel();
-			for ( int level = 0; level < currentSourceTransforms.length; level++ )
-			{
-				final AffineTransform3D mipmapTransform = getMipmapTransforms()[ level ];
-				currentSourceTransforms[ level ].set( reg );
-				currentSourceTransforms[ level ].concatenate( mipmapTransform );
-			}
+			data = createTimepointData( timepointIndex );
+			timepointData.set( timepointIndex, data );
 		}
-		else
+
+		currentTimePointIndex = timepointIndex;
+		currentTimePointIsPresent = data.isPresent;
+		for ( int level = 0; level < numMipmapLevels; level++ )
+			data.getSourceTransform( level, currentSourceTransforms[ level ] );
+	}
+
+	/**
+	 * Get the (immutable) {@link TimepointData} for the given timepoint index.
+	 * This never blocks. If the data for {@code timepointIndex} has not been
+	 * computed yet, it is computed and stored. Concurrent callers may compute
+	 * it more than once, but will all see the same instance afterwards.
+	 */
+	protected TimepointData getTimepointData( final int timepointIndex )
+	{
+		if ( timepointIndex < 0 || timepointIndex >= timepointData.length() )
+			return notPresent;
+		final TimepointData data = timepointData.get( timepointIndex );
+		if ( data != null )
+			return data;
+		timepointData.compareAndSet( timepointIndex, null, createTimepointData( timepointIndex ) );
+		return timepointData.get( timepointIndex );
+	}
+
+	private TimepointData createTimepointData( final int timepointIndex )
+	{
+		final int timepointId = timePointsOrdered.get( timepointIndex ).getId();
+		final ViewId viewId = new ViewId( timepointId, setupId );
+		if ( missingViews.contains( viewId ) )
+			return new TimepointData( false, identityTransforms() );
+
+		final AffineTransform3D reg = viewRegistrations.get( viewId ).getModel();
+		final AffineTransform3D[] mipmapTransforms = getMipmapTransforms();
+		final AffineTransform3D[] sourceTransforms = new AffineTransform3D[ numMipmapLevels ];
+		for ( int level = 0; level < numMipmapLevels; level++ )
 		{
-			for ( final AffineTransform3D t : currentSourceTransforms )
-				t.identity();
+			sourceTransforms[ level ] = reg.copy();
+			sourceTransforms[ level ].concatenate( mipmapTransforms[ level ] );
 		}
+		return new TimepointData( true, sourceTransforms );
+	}
+
+	private AffineTransform3D[] identityTransforms()
+	{
+		final AffineTransform3D[] transforms = new AffineTransform3D[ numMipmapLevels ];
+		for ( int level = 0; level < numMipmapLevels; level++ )
+			transforms[ level ] = new AffineTransform3D();
+		return transforms;
 	}
 
 	protected abstract AffineTransform3D[] getMipmapTransforms();
@@ -214,7 +329,7 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 	@Override
 	public boolean isPresent( final int t )
 	{
-		return t >= 0 && t < timePointsOrdered.size() && !missingViews.contains( new ViewId( timePointsOrdered.get( t ).getId(), setupId ) );
+		return getTimepointData( t ).isPresent;
 	}
 
 	@Override
@@ -223,11 +338,9 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 		return getSource( t, level, Thread.currentThread().getThreadGroup() );
 	}
 
-	public synchronized RandomAccessibleInterval< T > getSource( final int t, final int level, final ThreadGroup threadGroup )
+	public RandomAccessibleInterval< T > getSource( final int t, final int level, final ThreadGroup threadGroup )
 	{
-		if ( t != currentTimePointIndex )
-			loadTimepoint( t );
-		return currentTimePointIsPresent
+		return isPresent( t )
 				? cachedSources.get( new ImgKey( t, level, null, threadGroup ) )
 				: null;
 	}
@@ -238,21 +351,17 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 		return getInterpolatedSource( t, level, method, Thread.currentThread().getThreadGroup() );
 	}
 
-	public synchronized RealRandomAccessible< T > getInterpolatedSource( final int t, final int level, final Interpolation method, final ThreadGroup threadGroup )
+	public RealRandomAccessible< T > getInterpolatedSource( final int t, final int level, final Interpolation method, final ThreadGroup threadGroup )
 	{
-		if ( t != currentTimePointIndex )
-			loadTimepoint( t );
-		return currentTimePointIsPresent
+		return isPresent( t )
 				? cachedInterpolatedSources.get( new ImgKey( t, level, method, threadGroup ) )
 				: null;
 	}
 
 	@Override
-	public synchronized void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+	public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
 	{
-		if ( t != currentTimePointIndex )
-			loadTimepoint( t );
-		transform.set( currentSourceTransforms[ level ] );
+		getTimepointData( t ).getSourceTransform( level, transform );
 	}
 
 	@Override
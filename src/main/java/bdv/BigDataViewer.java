@@ -86,10 +86,13 @@ import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.sequence.Angle;
 import mpicbg.spim.data.sequence.Channel;
 import net.imglib2.Volatile;
+import net.imglib2.display.LookupTableARGBColorConverter;
 import net.imglib2.display.RealARGBColorConverter;
 import net.imglib2.display.ScaledARGBConverter;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.volatiles.VolatileARGBType;
 
 public class BigDataViewer
@@ -162,6 +165,20 @@ public class BigDataViewer
 		return name;
 	}
 
+	/**
+	 * Get the size of the {@link LookupTableARGBColorConverter} table for
+	 * sources of {@code type}, or 0 if values of {@code type} should be
+	 * converted by a {@link RealARGBColorConverter}.
+	 */
+	private static int getLookupTableSize( final RealType< ? > type )
+	{
+		if ( type instanceof UnsignedShortType )
+			return 1 << 16;
+		if ( type instanceof UnsignedByteType )
+			return 1 << 8;
+		return 0;
+	}
+
 	private static < T extends RealType< T >, V extends Volatile< T > & RealType< V > > void initSetupRealType(
 			final AbstractSpimData< ? > spimData,
 			final BasicViewSetup setup,
@@ -176,9 +193,14 @@ public class BigDataViewer
 		}
 		final double typeMin = Math.max( 0, Math.min( type.getMinValue(), 65535 ) );
 		final double typeMax = Math.max( 0, Math.min( type.getMaxValue(), 65535 ) );
-		final RealARGBColorConverter< V > vconverter = new RealARGBColorConverter.Imp0<>( typeMin, typeMax );
+		final int lutSize = getLookupTableSize( type );
+		final RealARGBColorConverter< V > vconverter = lutSize > 0
+				? new LookupTableARGBColorConverter.Imp0<>( typeMin, typeMax, lutSize )
+				: new RealARGBColorConverter.Imp0<>( typeMin, typeMax );
 		vconverter.setColor( new ARGBType( 0xffffffff ) );
-		final RealARGBColorConverter< T > converter = new RealARGBColorConverter.Imp1<>( typeMin, typeMax );
+		final RealARGBColorConverter< T > converter = lutSize > 0
+				? new LookupTableARGBColorConverter.Imp1<>( typeMin, typeMax, lutSize )
+				: new RealARGBColorConverter.Imp1<>( typeMin, typeMax );
 		converter.setColor( new ARGBType( 0xffffffff ) );
 
 		final int setupId = setup.getId();
@@ -207,7 +229,10 @@ public class BigDataViewer
 	{
 		final double typeMin = type.getMinValue();
 		final double typeMax = type.getMaxValue();
-		final RealARGBColorConverter< T > converter = new RealARGBColorConverter.Imp1<>( typeMin, typeMax );
+		final int lutSize = getLookupTableSize( type );
+		final RealARGBColorConverter< T > converter = lutSize > 0
+				? new LookupTableARGBColorConverter.Imp1<>( typeMin, typeMax, lutSize )
+				: new RealARGBColorConverter.Imp1<>( typeMin, typeMax );
 		converter.setColor( new ARGBType( 0xffffffff ) );
 
 		final int setupId = setup.getId();
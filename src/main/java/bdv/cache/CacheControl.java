@@ -29,6 +29,8 @@
  */
 package bdv.cache;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import bdv.img.cache.VolatileGlobalCellCache;
@@ -56,6 +58,27 @@ public interface CacheControl
 	 */
 	public void prepareNextFrame();
 
+	/**
+	 * Add a {@link CellLoadListener} that is notified when cells finished
+	 * loading. The default implementation does nothing, that is, the cache
+	 * does not publish loading notifications.
+	 */
+	public default void addCellLoadListener( final CellLoadListener listener )
+	{}
+
+	/**
+	 * Remove a {@link CellLoadListener}.
+	 */
+	public default void removeCellLoadListener( final CellLoadListener listener )
+	{}
+
+	/**
+	 * Pause loading for {@code ms} milliseconds, for example to give IO
+	 * bandwidth to another cache. The default implementation does nothing.
+	 */
+	public default void pauseFetcherThreadsFor( final long ms )
+	{}
+
 	/**
 	 * {@link CacheControl} that does nothing.
 	 */
@@ -69,14 +92,20 @@ public interface CacheControl
 	/**
 	 * {@link CacheControl} backed by a set of {@link CacheControl}s.
 	 * {@link #prepareNextFrame()} forwards to all of them.
+	 * {@link CellLoadListener}s are added to all current and future
+	 * {@link CacheControl}s of the set.
 	 */
 	public static class CacheControls implements CacheControl
 	{
 		private final CopyOnWriteArrayList< CacheControl > cacheControls = new CopyOnWriteArrayList<>();
 
+		private final CopyOnWriteArrayList< CellLoadListener > cellLoadListeners = new CopyOnWriteArrayList<>();
+
 		public synchronized void addCacheControl( final CacheControl cacheControl, final int index )
 		{
-			cacheControls.remove( cacheControl );
+			if ( !cacheControls.remove( cacheControl ) )
+				for ( final CellLoadListener l : cellLoadListeners )
+					cacheControl.addCellLoadListener( l );
 			final int s = cacheControls.size();
 			cacheControls.add( index < 0 ? 0 : index > s ? s : index, cacheControl );
 		}
@@ -86,12 +115,16 @@ public interface CacheControl
 			if ( !cacheControls.contains( cacheControl ) )
 			{
 				cacheControls.add( cacheControl );
+				for ( final CellLoadListener l : cellLoadListeners )
+					cacheControl.addCellLoadListener( l );
 			}
 		}
 
 		public synchronized void removeCacheControl( final CacheControl cacheControl )
 		{
-			cacheControls.remove( cacheControl );
+			if ( cacheControls.remove( cacheControl ) )
+				for ( final CellLoadListener l : cellLoadListeners )
+					cacheControl.removeCellLoadListener( l );
 		}
 
 		@Override
@@ -100,5 +133,36 @@ public interface CacheControl
 			for ( final CacheControl c : cacheControls )
 				c.prepareNextFrame();
 		}
+
+		@Override
+		public void pauseFetcherThreadsFor( final long ms )
+		{
+			for ( final CacheControl c : cacheControls )
+				c.pauseFetcherThreadsFor( ms );
+		}
+
+		/**
+		 * Get the {@link CacheControl}s of the set.
+		 */
+		public List< CacheControl > getCacheControls()
+		{
+			return Collections.unmodifiableList( cacheControls );
+		}
+
+		@Override
+		public synchronized void addCellLoadListener( final CellLoadListener listener )
+		{
+			if ( cellLoadListeners.addIfAbsent( listener ) )
+				for ( final CacheControl c : cacheControls )
+					c.addCellLoadListener( listener );
+		}
+
+		@Override
+		public synchronized void removeCellLoadListener( final CellLoadListener listener )
+		{
+			if ( cellLoadListeners.remove( listener ) )
+				for ( final CacheControl c : cacheControls )
+					c.removeCellLoadListener( listener );
+		}
 	}
 }
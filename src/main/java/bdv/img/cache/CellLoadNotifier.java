@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import bdv.cache.CellLoadListener;
+
+/**
+ * Collects cell-loaded events from fetcher threads and forwards them to
+ * {@link CellLoadListener}s in batches. Events for the same timepoint,
+ * setup, and level that arrive within {@link #BATCH_MILLIS} are reported in
+ * one notification. Listeners are called on a single shared daemon thread.
+ * <p>
+ * Cell loaders report a cell before the cache publishes it. A listener that
+ * repaints immediately could therefore miss the cell, and would not be
+ * notified again. Therefore, each event carries a check whether the cell is
+ * published, and is only delivered once that check succeeds (or after
+ * {@link #MAX_ATTEMPTS} batches, if the cell was evicted in the meantime).
+ * The per-image loaded cell counter of the event is incremented at the same
+ * time, before the listeners are notified. Therefore, a reader that sees an
+ * unchanged count can rely on no cell having become valid in between.
+ */
+class CellLoadNotifier
+{
+	/**
+	 * How long (in milliseconds) events are collected before listeners are
+	 * notified.
+	 */
+	static final long BATCH_MILLIS = 5;
+
+	/**
+	 * How many batches an event waits at most for its cell to be published.
+	 */
+	static final int MAX_ATTEMPTS = 200;
+
+	private final CopyOnWriteArrayList< CellLoadListener > listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Loaded cells that were not yet reported.
+	 */
+	private final ConcurrentLinkedQueue< PendingCell > pending = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Whether a {@link #flush()} is scheduled.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	public void addListener( final CellLoadListener listener )
+	{
+		listeners.addIfAbsent( listener );
+	}
+
+	public void removeListener( final CellLoadListener listener )
+	{
+		listeners.remove( listener );
+	}
+
+	/**
+	 * Record that a cell finished loading. This is called by the fetcher
+	 * threads (or rendering threads that load cells synchronously) and only
+	 * schedules a notification.
+	 *
+	 * @param isPublished
+	 *            checks whether the loaded cell is visible to readers of the
+	 *            cache.
+	 * @param numLoadedCells
+	 *            counter of loaded cells of the image the cell belongs to.
+	 *            It is incremented once the cell is published.
+	 */
+	public void cellLoaded( final int timepoint, final int setup, final int level, final BooleanSupplier isPublished, final AtomicLong numLoadedCells )
+	{
+		pending.add( new PendingCell( new LevelKey( timepoint, setup, level ), isPublished, numLoadedCells ) );
+		schedule();
+	}
+
+	private void schedule()
+	{
+		if ( scheduled.compareAndSet( false, true ) )
+			Dispatcher.executor.schedule( this::flush, BATCH_MILLIS, TimeUnit.MILLISECONDS );
+	}
+
+	private void flush()
+	{
+		// reset before draining, such that events arriving while draining schedule another flush
+		scheduled.set( false );
+		final Map< LevelKey, Integer > published = new HashMap<>();
+		final List< PendingCell > unpublished = new ArrayList<>();
+		PendingCell cell;
+		while ( ( cell = pending.poll() ) != null )
+		{
+			if ( cell.isPublished.getAsBoolean() || ++cell.attempts >= MAX_ATTEMPTS )
+			{
+				cell.numLoadedCells.incrementAndGet();
+				published.merge( cell.key, 1, Integer::sum );
+			}
+			else
+				unpublished.add( cell );
+		}
+		if ( !unpublished.isEmpty() )
+		{
+			pending.addAll( unpublished );
+			schedule();
+		}
+		published.forEach( ( key, numCells ) -> {
+			for ( final CellLoadListener l : listeners )
+				l.cellsLoaded( key.timepoint, key.setup, key.level, numCells );
+		} );
+	}
+
+	private static final class PendingCell
+	{
+		final LevelKey key;
+
+		final BooleanSupplier isPublished;
+
+		final AtomicLong numLoadedCells;
+
+		int attempts;
+
+		PendingCell( final LevelKey key, final BooleanSupplier isPublished, final AtomicLong numLoadedCells )
+		{
+			this.key = key;
+			this.isPublished = isPublished;
+			this.numLoadedCells = numLoadedCells;
+		}
+	}
+
+	private static final class LevelKey
+	{
+		final int timepoint;
+
+		final int setup;
+
+		final int level;
+
+		final int hashcode;
+
+		LevelKey( final int timepoint, final int setup, final int level )
+		{
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
+			int value = level;
+			value = 31 * value + setup;
+			value = 31 * value + timepoint;
+			hashcode = value;
+		}
+
+		@Override
+		public boolean equals( final Object other )
+		{
+			if ( this == other )
+				return true;
+			if ( !( other instanceof LevelKey ) )
+				return false;
+			final LevelKey that = ( LevelKey ) other;
+			return ( this.timepoint == that.timepoint ) && ( this.setup == that.setup ) && ( this.level == that.level );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
+
+	/**
+	 * Lazily created thread that delivers notifications of all
+	 * {@link CellLoadNotifier}s.
+	 */
+	private static final class Dispatcher
+	{
+		static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor( r -> {
+			final Thread thread = new Thread( r, "cell-load-notifier" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+}
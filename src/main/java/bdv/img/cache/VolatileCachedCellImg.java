@@ -1,5 +1,6 @@
 package bdv.img.cache;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import bdv.cache.CacheControl;
@@ -43,6 +44,12 @@ public class VolatileCachedCellImg< T extends NativeType< T >, A >
 		T get( long index, CacheHints cacheHints );
 	}
 
+	/**
+	 * Number of cells of this image that finished loading. May be {@code null}
+	 * if the image was created without a loading counter.
+	 */
+	private final AtomicLong numLoadedCells;
+
 	public VolatileCachedCellImg(
 			final CellGrid grid,
 			final Fraction entitiesPerPixel,
@@ -52,15 +59,42 @@ public class VolatileCachedCellImg< T extends NativeType< T >, A >
 	{
 		super( grid, new VolatileCachedCells<>( grid.getGridDimensions(), get, cacheHints ), entitiesPerPixel );
 		setLinkedType( typeFactory.apply( this ) );
+		numLoadedCells = null;
 	}
 
 	public VolatileCachedCellImg( final CellGrid grid, final T type, final CacheHints cacheHints, final Get< Cell< A > > get )
+	{
+		this( grid, type, cacheHints, get, null );
+	}
+
+	/**
+	 * @param numLoadedCells
+	 *            counter that is incremented by the cache whenever a cell of
+	 *            this image finished loading and is visible to readers. May be
+	 *            {@code null}.
+	 */
+	public VolatileCachedCellImg( final CellGrid grid, final T type, final CacheHints cacheHints, final Get< Cell< A > > get, final AtomicLong numLoadedCells )
 	{
 		super( grid, new VolatileCachedCells<>( grid.getGridDimensions(), get, cacheHints ), type.getEntitiesPerPixel() );
 
 		@SuppressWarnings( "unchecked" )
 		final NativeTypeFactory< T, ? super A > typeFactory = ( NativeTypeFactory< T, ? super A > ) type.getNativeTypeFactory();
 		setLinkedType( typeFactory.createLinkedType( this ) );
+		this.numLoadedCells = numLoadedCells;
+	}
+
+	/**
+	 * Get the number of cells of this image that finished loading so far. This
+	 * can be used to find out cheaply whether anything changed since the image
+	 * was last looked at: If the count did not change, no cell that was
+	 * invalid before can have become valid.
+	 *
+	 * @return number of loaded cells, or {@code -1} if this image does not
+	 *         count loaded cells.
+	 */
+	public long getNumLoadedCells()
+	{
+		return numLoadedCells == null ? -1 : numLoadedCells.get();
 	}
 
 	/**
@@ -111,6 +145,20 @@ public class VolatileCachedCellImg< T extends NativeType< T >, A >
 		return cells.defaultCacheHints;
 	}
 
+	/**
+	 * Get a view of the cells of this image that handles cell requests with
+	 * the given {@link CacheHints}, independent of the hints
+	 * {@link #setCacheHints(CacheHints) set} on this image. Use this to access
+	 * cells with special hints without affecting other users of the image.
+	 *
+	 * @param cacheHints
+	 *            describe handling of cell requests through the returned view.
+	 */
+	public VolatileCachedCells< Cell< A > > getCells( final CacheHints cacheHints )
+	{
+		return new VolatileCachedCells<>( grid.getGridDimensions(), cells.get, cacheHints );
+	}
+
 	@Override
 	public ImgFactory< T > factory()
 	{
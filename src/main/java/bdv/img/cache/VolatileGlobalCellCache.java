@@ -30,8 +30,11 @@
 package bdv.img.cache;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import bdv.cache.CacheControl;
+import bdv.cache.CellLoadListener;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.LoaderCache;
@@ -41,7 +44,9 @@ import net.imglib2.cache.ref.SoftRefLoaderCache;
 import net.imglib2.cache.ref.WeakRefVolatileCache;
 import net.imglib2.cache.util.KeyBimap;
 import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.cache.volatiles.UncheckedVolatileCache;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.NativeType;
@@ -110,10 +115,26 @@ public class VolatileGlobalCellCache implements CacheControl
 		}
 	}
 
+	/**
+	 * Hints for looking up cells without loading them.
+	 */
+	private static final CacheHints DONTLOAD = new CacheHints( LoadingStrategy.DONTLOAD, 0, false );
+
 	private final BlockingFetchQueues< Callable< ? > > queue;
 
+	/**
+	 * The threads that serve {@link #queue}, or {@code null} if they are not
+	 * owned by this cache.
+	 */
+	private final FetcherThreads fetchers;
+
 	protected final LoaderCache< Key, Cell< ? > > backingCache;
 
+	/**
+	 * Publishes batched notifications about loaded cells.
+	 */
+	private final CellLoadNotifier cellLoadNotifier = new CellLoadNotifier();
+
 	/**
 	 * Create a new global cache with a new fetch queue served by the specified
 	 * number of fetcher threads.
@@ -126,7 +147,7 @@ public class VolatileGlobalCellCache implements CacheControl
 	public VolatileGlobalCellCache( final int maxNumLevels, final int numFetcherThreads )
 	{
 		queue = new BlockingFetchQueues<>( maxNumLevels );
-		new FetcherThreads( queue, numFetcherThreads );
+		fetchers = new FetcherThreads( queue, numFetcherThreads );
 		backingCache = new SoftRefLoaderCache<>();
 	}
 
@@ -140,6 +161,7 @@ public class VolatileGlobalCellCache implements CacheControl
 	public VolatileGlobalCellCache( final BlockingFetchQueues< Callable< ? > > queue )
 	{
 		this.queue = queue;
+		fetchers = null;
 		backingCache = new SoftRefLoaderCache<>();
 	}
 
@@ -154,6 +176,34 @@ public class VolatileGlobalCellCache implements CacheControl
 		queue.clearToPrefetch();
 	}
 
+	/**
+	 * Pause the fetcher threads for {@code ms} milliseconds. Does nothing if
+	 * the fetcher threads were created by the caller.
+	 */
+	@Override
+	public void pauseFetcherThreadsFor( final long ms )
+	{
+		if ( fetchers != null )
+			fetchers.pauseFetcherThreadsFor( ms );
+	}
+
+	/**
+	 * Add a {@link CellLoadListener} that is notified whenever cells of
+	 * images created by this cache finished loading. Notifications are
+	 * batched by timepoint, setup, and level.
+	 */
+	@Override
+	public void addCellLoadListener( final CellLoadListener listener )
+	{
+		cellLoadNotifier.addListener( listener );
+	}
+
+	@Override
+	public void removeCellLoadListener( final CellLoadListener listener )
+	{
+		cellLoadNotifier.removeListener( listener );
+	}
+
 	/**
 	 * Remove all references to loaded data as well as all enqueued requests
 	 * from the cache.
@@ -202,6 +252,8 @@ public class VolatileGlobalCellCache implements CacheControl
 			final CacheArrayLoader< A > cacheArrayLoader,
 			final T type )
 	{
+		final AtomicLong numLoadedCells = new AtomicLong();
+		final AtomicReference< UncheckedVolatileCache< Long, Cell< ? > > > volatileCache = new AtomicReference<>();
 		final CacheLoader< Long, Cell< ? > > loader = new CacheLoader< Long, Cell< ? > >()
 		{
 			@Override
@@ -211,10 +263,13 @@ public class VolatileGlobalCellCache implements CacheControl
 				final long[] cellMin = new long[ n ];
 				final int[] cellDims = new int[ n ];
 				grid.getCellDimensions( key, cellMin, cellDims );
-				return new Cell<>(
+				final Cell< A > cell = new Cell<>(
 						cellDims,
 						cellMin,
 						cacheArrayLoader.loadArray( timepoint, setup, level, cellDims, cellMin ) );
+				// numLoadedCells is only incremented once the cell is published
+				cellLoadNotifier.cellLoaded( timepoint, setup, level, () -> isValid( volatileCache.get().get( key, DONTLOAD ) ), numLoadedCells );
+				return cell;
 			}
 		};
 
@@ -234,11 +289,24 @@ public class VolatileGlobalCellCache implements CacheControl
 		final UncheckedVolatileCache< Long, Cell< ? > > vcache = new WeakRefVolatileCache<>(
 				cache, queue, createInvalid )
 						.unchecked();
+		volatileCache.set( vcache );
 
 		@SuppressWarnings( "unchecked" )
 		final VolatileCachedCellImg< T, A > img = new VolatileCachedCellImg<>( grid, type, cacheHints,
-				( i, h ) -> ( Cell< A > ) vcache.get( i, h ) );
+				( i, h ) -> ( Cell< A > ) vcache.get( i, h ), numLoadedCells );
 
 		return img;
 	}
+
+	/**
+	 * Check whether {@code cell} is loaded, that is, whether it exists and its
+	 * data is not an invalid {@link VolatileAccess}.
+	 */
+	private static boolean isValid( final Cell< ? > cell )
+	{
+		if ( cell == null )
+			return false;
+		final Object data = cell.getData();
+		return !( data instanceof VolatileAccess ) || ( ( VolatileAccess ) data ).isValid();
+	}
 }
@@ -0,0 +1,217 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import bdv.export.ProgressWriter;
+import bdv.viewer.render.OffscreenRenderer;
+import bdv.viewer.state.ViewerState;
+
+/**
+ * Records a sequence of frames with an {@link OffscreenRenderer} as a
+ * pipeline:
+ * <ul>
+ * <li>The cells of upcoming frames are prefetched through the volatile cache,
+ * such that the fetcher threads load them while earlier frames are rendered.</li>
+ * <li>Several frames are rendered concurrently, but at most
+ * {@code maxFramesInFlight} frames are held in memory at any time.</li>
+ * <li>Rendered frames are handed to a {@link FrameWriter} (e.g., PNG encoding)
+ * on separate writer threads, so that encoding does not block rendering.</li>
+ * </ul>
+ * Frames may be written out of order.
+ */
+public class MovieRecorder
+{
+	/**
+	 * Receives rendered frames. Called concurrently from the writer threads.
+	 */
+	@FunctionalInterface
+	public interface FrameWriter
+	{
+		/**
+		 * @param frameIndex
+		 *            index of the frame in the list of recorded frames.
+		 * @param state
+		 *            the state that was rendered.
+		 * @param image
+		 *            the rendered frame.
+		 */
+		public void write( int frameIndex, ViewerState state, BufferedImage image ) throws IOException;
+	}
+
+	private final OffscreenRenderer renderer;
+
+	private final int prefetchAhead;
+
+	private final int maxFramesInFlight;
+
+	private final int numWriterThreads;
+
+	/**
+	 * Create a recorder that prefetches {@code 2 * parallelism} frames ahead,
+	 * uses {@code parallelism / 2} writer threads, and keeps as many frames in
+	 * flight as fit into a quarter of the maximum heap size (but not more than
+	 * are needed to keep rendering and writer threads busy).
+	 */
+	public MovieRecorder( final OffscreenRenderer renderer )
+	{
+		this( renderer,
+				2 * renderer.getParallelism(),
+				defaultMaxFramesInFlight( renderer ),
+				Math.max( 1, renderer.getParallelism() / 2 ) );
+	}
+
+	/**
+	 * @param renderer
+	 *            renders the frames.
+	 * @param prefetchAhead
+	 *            how many frames ahead of the one currently submitted for
+	 *            rendering cells are prefetched.
+	 * @param maxFramesInFlight
+	 *            maximum number of frames that are rendered or waiting to be
+	 *            written at the same time.
+	 * @param numWriterThreads
+	 *            how many threads call the {@link FrameWriter}.
+	 */
+	public MovieRecorder( final OffscreenRenderer renderer, final int prefetchAhead, final int maxFramesInFlight, final int numWriterThreads )
+	{
+		this.renderer = renderer;
+		this.prefetchAhead = prefetchAhead;
+		this.maxFramesInFlight = Math.max( 1, maxFramesInFlight );
+		this.numWriterThreads = Math.max( 1, numWriterThreads );
+	}
+
+	/**
+	 * Render all {@code frames} and pass them to {@code writer}. Returns when
+	 * all frames are written, or throws the first exception that occurred
+	 * while rendering or writing a frame. After an exception, no further frames
+	 * are started.
+	 */
+	public void record( final List< ViewerState > frames, final FrameWriter writer, final ProgressWriter progressWriter ) throws IOException
+	{
+		final int numFrames = frames.size();
+		final ExecutorService writerExecutorService = Executors.newFixedThreadPool( numWriterThreads, new WriterThreadFactory() );
+		final Semaphore inFlight = new Semaphore( maxFramesInFlight );
+		final AtomicReference< Throwable > failure = new AtomicReference<>();
+		final AtomicInteger numWritten = new AtomicInteger();
+		if ( progressWriter != null )
+			progressWriter.setProgress( 0 );
+		try
+		{
+			int numPrefetched = 0;
+			for ( int i = 0; i < numFrames && failure.get() == null; ++i )
+			{
+				final int prefetchEnd = Math.min( numFrames, i + 1 + prefetchAhead );
+				for ( ; numPrefetched < prefetchEnd; ++numPrefetched )
+					renderer.prefetch( frames.get( numPrefetched ) );
+
+				inFlight.acquire();
+				final int frameIndex = i;
+				final ViewerState state = frames.get( i );
+				renderer.renderARGBAsync( state )
+						.thenAcceptAsync( argb -> {
+							try
+							{
+								writer.write( frameIndex, state, renderer.toBufferedImage( argb ) );
+							}
+							catch ( final IOException e )
+							{
+								throw new UncheckedIOException( e );
+							}
+						}, writerExecutorService )
+						.whenComplete( ( result, throwable ) -> {
+							if ( throwable != null )
+								failure.compareAndSet( null, throwable );
+							else if ( progressWriter != null )
+								progressWriter.setProgress( ( double ) numWritten.incrementAndGet() / numFrames );
+							inFlight.release();
+						} );
+			}
+			inFlight.acquire( maxFramesInFlight );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "movie recording was interrupted" );
+		}
+		finally
+		{
+			writerExecutorService.shutdown();
+		}
+
+		Throwable t = failure.get();
+		if ( t == null )
+			return;
+		if ( t instanceof CompletionException && t.getCause() != null )
+			t = t.getCause();
+		if ( t instanceof UncheckedIOException )
+			throw ( ( UncheckedIOException ) t ).getCause();
+		if ( t instanceof RuntimeException )
+			throw ( RuntimeException ) t;
+		if ( t instanceof Error )
+			throw ( Error ) t;
+		throw new IOException( t );
+	}
+
+	private static int defaultMaxFramesInFlight( final OffscreenRenderer renderer )
+	{
+		// a frame is held as an ARGB array, plus the screen image it was rendered to
+		final long bytesPerFrame = 2L * 4 * renderer.getWidth() * renderer.getHeight();
+		final long budget = Runtime.getRuntime().maxMemory() / 4;
+		final int parallelism = renderer.getParallelism();
+		final int busy = 2 * parallelism + Math.max( 1, parallelism / 2 );
+		return ( int ) Math.max( 1, Math.min( busy, budget / Math.max( 1, bytesPerFrame ) ) );
+	}
+
+	private static final class WriterThreadFactory implements ThreadFactory
+	{
+		private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread t = new Thread( r, "movie-writer-" + threadNumber.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		}
+	}
+}
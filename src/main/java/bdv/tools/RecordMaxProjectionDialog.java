@@ -37,9 +37,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
@@ -61,22 +62,15 @@ import javax.swing.WindowConstants;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
-import net.imglib2.Cursor;
 import net.imglib2.display.screenimage.awt.ARGBScreenImage;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.realtransform.AffineTransform3D;
-import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.ui.OverlayRenderer;
-import net.imglib2.ui.PainterThread;
-import net.imglib2.ui.RenderTarget;
 import net.imglib2.util.LinAlgHelpers;
-import bdv.cache.CacheControl;
 import bdv.export.ProgressWriter;
 import bdv.util.Prefs;
 import bdv.viewer.ViewerPanel;
 import bdv.viewer.overlay.ScaleBarOverlayRenderer;
-import bdv.viewer.render.MultiResolutionRenderer;
+import bdv.viewer.render.MaxProjectionRenderer;
 import bdv.viewer.state.ViewerState;
 
 public class RecordMaxProjectionDialog extends JDialog implements OverlayRenderer
@@ -297,8 +291,6 @@ public class RecordMaxProjectionDialog extends JDialog implements OverlayRendere
 		tGV.set( tGV.get( 0, 3 ) + width / 2, 0, 3 );
 		tGV.set( tGV.get( 1, 3 ) + height / 2, 1, 3 );
 
-		final AffineTransform3D affine = new AffineTransform3D();
-
 		// get voxel width transformed to current viewer coordinates
 		final AffineTransform3D tSV = new AffineTransform3D();
 		renderState.getSources().get( 0 ).getSpimSource().getSourceTransform( 0, 0, tSV );
@@ -314,85 +306,34 @@ public class RecordMaxProjectionDialog extends JDialog implements OverlayRendere
 
 		final ScaleBarOverlayRenderer scalebar = Prefs.showScaleBarInMovie() ? new ScaleBarOverlayRenderer() : null;
 
-		class MyTarget implements RenderTarget
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		final ExecutorService executorService = Executors.newFixedThreadPool( numThreads );
+		final MaxProjectionRenderer renderer = new MaxProjectionRenderer( width, height, numThreads, executorService );
+		renderState.setViewerTransform( tGV );
+		progressWriter.setProgress( 0 );
+		try
 		{
-			final ARGBScreenImage accumulated;
-
-			public MyTarget()
+			for ( int timepoint = minTimepointIndex; timepoint <= maxTimepointIndex; ++timepoint )
 			{
-				accumulated = new ARGBScreenImage( width, height );
-			}
-
-			public void clear()
-			{
-				for ( final ARGBType acc : accumulated )
-					acc.setZero();
-			}
+				renderState.setCurrentTimepoint( timepoint );
+				final int[] projection = renderer.render( renderState, 0, dd * stepSize, numSteps );
+				final BufferedImage bi = new ARGBScreenImage( width, height, projection ).image();
 
-			@Override
-			public BufferedImage setBufferedImage( final BufferedImage bufferedImage )
-			{
-				final Img< ARGBType > argbs = ArrayImgs.argbs( ( ( DataBufferInt ) bufferedImage.getData().getDataBuffer() ).getData(), width, height );
-				final Cursor< ARGBType > c = argbs.cursor();
-				for ( final ARGBType acc : accumulated )
+				if ( Prefs.showScaleBarInMovie() )
 				{
-					final int current = acc.get();
-					final int in = c.next().get();
-					acc.set( ARGBType.rgba(
-							Math.max( ARGBType.red( in ), ARGBType.red( current ) ),
-							Math.max( ARGBType.green( in ), ARGBType.green( current ) ),
-							Math.max( ARGBType.blue( in ), ARGBType.blue( current ) ),
-							Math.max( ARGBType.alpha( in ), ARGBType.alpha( current ) )	) );
+					final Graphics2D g2 = bi.createGraphics();
+					g2.setClip( 0, 0, width, height );
+					scalebar.setViewerState( renderState );
+					scalebar.paint( g2 );
 				}
-				return null;
-			}
 
-			@Override
-			public final int getWidth()
-			{
-				return width;
-			}
-
-			@Override
-			public int getHeight()
-			{
-				return height;
+				ImageIO.write( bi, "png", new File( String.format( "%s/img-%03d.png", dir, timepoint ) ) );
+				progressWriter.setProgress( ( double ) (timepoint - minTimepointIndex + 1) / (maxTimepointIndex - minTimepointIndex + 1) );
 			}
 		}
-		final MyTarget target = new MyTarget();
-		final MultiResolutionRenderer renderer = new MultiResolutionRenderer(
-				target, new PainterThread( null ), new double[] { 1 }, 0, false, 1, null, false,
-				viewer.getOptionValues().getAccumulateProjectorFactory(), new CacheControl.Dummy() );
-		progressWriter.setProgress( 0 );
-		for ( int timepoint = minTimepointIndex; timepoint <= maxTimepointIndex; ++timepoint )
+		finally
 		{
-			target.clear();
-			renderState.setCurrentTimepoint( timepoint );
-
-			for ( int step = 0; step < numSteps; ++step )
-			{
-				affine.set(
-						1, 0, 0, 0,
-						0, 1, 0, 0,
-						0, 0, 1, -dd * stepSize * step );
-				affine.concatenate( tGV );
-				renderState.setViewerTransform( affine );
-				renderer.requestRepaint();
-				renderer.paint( renderState );
-			}
-
-			final BufferedImage bi = target.accumulated.image();
-
-			if ( Prefs.showScaleBarInMovie() )
-			{
-				final Graphics2D g2 = bi.createGraphics();
-				g2.setClip( 0, 0, width, height );
-				scalebar.setViewerState( renderState );
-				scalebar.paint( g2 );
-			}
-
-			ImageIO.write( bi, "png", new File( String.format( "%s/img-%03d.png", dir, timepoint ) ) );
-			progressWriter.setProgress( ( double ) (timepoint - minTimepointIndex + 1) / (maxTimepointIndex - minTimepointIndex + 1) );
+			executorService.shutdown();
 		}
 	}
 
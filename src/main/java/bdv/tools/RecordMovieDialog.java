@@ -36,9 +36,10 @@ import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
@@ -60,17 +61,14 @@ import javax.swing.WindowConstants;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
-import bdv.cache.CacheControl;
 import bdv.export.ProgressWriter;
 import bdv.util.Prefs;
 import bdv.viewer.ViewerPanel;
 import bdv.viewer.overlay.ScaleBarOverlayRenderer;
-import bdv.viewer.render.MultiResolutionRenderer;
+import bdv.viewer.render.OffscreenRenderer;
 import bdv.viewer.state.ViewerState;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.ui.OverlayRenderer;
-import net.imglib2.ui.PainterThread;
-import net.imglib2.ui.RenderTarget;
 
 public class RecordMovieDialog extends JDialog implements OverlayRenderer
 {
@@ -268,52 +266,34 @@ public class RecordMovieDialog extends JDialog implements OverlayRenderer
 		affine.set( affine.get( 1, 3 ) + height / 2, 1, 3 );
 		renderState.setViewerTransform( affine );
 
-		final ScaleBarOverlayRenderer scalebar = Prefs.showScaleBarInMovie() ? new ScaleBarOverlayRenderer() : null;
-
-		class MyTarget implements RenderTarget
+		final List< ViewerState > frames = new ArrayList<>();
+		for ( int timepoint = minTimepointIndex; timepoint <= maxTimepointIndex; ++timepoint )
 		{
-			BufferedImage bi;
-
-			@Override
-			public BufferedImage setBufferedImage( final BufferedImage bufferedImage )
-			{
-				bi = bufferedImage;
-				return null;
-			}
-
-			@Override
-			public int getWidth()
-			{
-				return width;
-			}
+			final ViewerState frame = renderState.copy();
+			frame.setCurrentTimepoint( timepoint );
+			frames.add( frame );
+		}
 
-			@Override
-			public int getHeight()
-			{
-				return height;
-			}
+		final boolean showScaleBar = Prefs.showScaleBarInMovie();
+		final OffscreenRenderer renderer = new OffscreenRenderer( width, height, viewer.getOptionValues().getAccumulateProjectorFactory() );
+		try
+		{
+			new MovieRecorder( renderer ).record( frames, ( frameIndex, state, bi ) -> {
+				if ( showScaleBar )
+				{
+					final ScaleBarOverlayRenderer scalebar = new ScaleBarOverlayRenderer();
+					final Graphics2D g2 = bi.createGraphics();
+					g2.setClip( 0, 0, width, height );
+					scalebar.setViewerState( state );
+					scalebar.paint( g2 );
+				}
+				final int timepoint = minTimepointIndex + frameIndex;
+				ImageIO.write( bi, "png", new File( String.format( "%s/img-%03d.png", dir, timepoint ) ) );
+			}, progressWriter );
 		}
-		final MyTarget target = new MyTarget();
-		final MultiResolutionRenderer renderer = new MultiResolutionRenderer(
-				target, new PainterThread( null ), new double[] { 1 }, 0, false, 1, null, false,
-				viewer.getOptionValues().getAccumulateProjectorFactory(), new CacheControl.Dummy() );
-		progressWriter.setProgress( 0 );
-		for ( int timepoint = minTimepointIndex; timepoint <= maxTimepointIndex; ++timepoint )
+		finally
 		{
-			renderState.setCurrentTimepoint( timepoint );
-			renderer.requestRepaint();
-			renderer.paint( renderState );
-
-			if ( Prefs.showScaleBarInMovie() )
-			{
-				final Graphics2D g2 = target.bi.createGraphics();
-				g2.setClip( 0, 0, width, height );
-				scalebar.setViewerState( renderState );
-				scalebar.paint( g2 );
-			}
-
-			ImageIO.write( target.bi, "png", new File( String.format( "%s/img-%03d.png", dir, timepoint ) ) );
-			progressWriter.setProgress( ( double ) (timepoint - minTimepointIndex + 1) / (maxTimepointIndex - minTimepointIndex + 1) );
+			renderer.shutdown();
 		}
 	}
 
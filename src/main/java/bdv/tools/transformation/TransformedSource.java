@@ -29,6 +29,8 @@
  */
 package bdv.tools.transformation;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import bdv.viewer.Interpolation;
 import bdv.viewer.Source;
 import bdv.viewer.render.DefaultMipmapOrdering;
@@ -82,6 +84,12 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 	 */
 	protected final AffineTransform3D composed;
 
+	/**
+	 * Incremented whenever the extra transformation changes. Shared with
+	 * sources that share the transformation.
+	 */
+	protected final AtomicLong transformVersion;
+
 	/**
 	 * Instantiates a new {@link TransformedSource} wrapping the specified
 	 * source with the identity transform.
@@ -94,7 +102,8 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 		this( source,
 				new AffineTransform3D(),
 				new AffineTransform3D(),
-				new AffineTransform3D() );
+				new AffineTransform3D(),
+				new AtomicLong() );
 	}
 
 	public TransformedSource( final Source< T > source, final TransformedSource< ? > shareTransform )
@@ -102,14 +111,16 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 		this( source,
 				shareTransform.incrementalTransform,
 				shareTransform.fixedTransform,
-				shareTransform.sourceTransform );
+				shareTransform.sourceTransform,
+				shareTransform.transformVersion );
 	}
 
 	private TransformedSource(
 			final Source< T > source,
 			final AffineTransform3D incrementalTransform,
 			final AffineTransform3D fixedTransform,
-			final AffineTransform3D sourceTransform )
+			final AffineTransform3D sourceTransform,
+			final AtomicLong transformVersion )
 	{
 		this.source = source;
 
@@ -120,6 +131,7 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 		this.fixedTransform = fixedTransform;
 		this.sourceTransform = sourceTransform;
 		this.composed = new AffineTransform3D();
+		this.transformVersion = transformVersion;
 	}
 
 	/*
@@ -144,6 +156,7 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 		fixedTransform.set( transform );
 		sourceTransform.set( incrementalTransform );
 		sourceTransform.concatenate( fixedTransform );
+		transformVersion.incrementAndGet();
 	}
 
 	/**
@@ -179,6 +192,7 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 		incrementalTransform.set( transform );
 		sourceTransform.set( incrementalTransform );
 		sourceTransform.concatenate( fixedTransform );
+		transformVersion.incrementAndGet();
 	}
 
 	/**
@@ -196,6 +210,20 @@ public class TransformedSource< T > implements Source< T >, MipmapOrdering
 		transform.set( incrementalTransform );
 	}
 
+	/**
+	 * Get the version of the extra transformation, which is incremented
+	 * whenever the {@link #setFixedTransform(AffineTransform3D) fixed} or
+	 * {@link #setIncrementalTransform(AffineTransform3D) incremental}
+	 * transform is set. This can be used to detect changes of the source
+	 * transform, e.g., to update cached bounding boxes.
+	 *
+	 * @return version of the extra transformation.
+	 */
+	public long getTransformVersion()
+	{
+		return transformVersion.get();
+	}
+
 	/*
 	 * SOURCE methods
 	 */
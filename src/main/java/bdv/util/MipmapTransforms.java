@@ -121,11 +121,32 @@ public class MipmapTransforms
 	 * @return index of the best-matching mipmap level
 	 */
 	public static int getBestMipMapLevel( final AffineTransform3D screenTransform, final Source< ? > source, final int timepoint )
+	{
+		return getBestMipMapLevel( screenTransform, source, timepoint, 1.0 );
+	}
+
+	/**
+	 * Get the mipmap level whose projected voxel size best matches
+	 * {@code targetVoxelScreenSize} for the given source. Assumes that mipmap
+	 * indices in the source are ordered by decreasing resolution.
+	 *
+	 * @param screenTransform
+	 *            transforms screen coordinates to global coordinates.
+	 * @param source
+	 *            the source
+	 * @param timepoint
+	 *            for which timepoint to query the source
+	 * @param targetVoxelScreenSize
+	 *            the desired voxel size in screen pixels, e.g., the step size
+	 *            when sampling along viewing rays.
+	 * @return index of the best-matching mipmap level
+	 */
+	public static int getBestMipMapLevel( final AffineTransform3D screenTransform, final Source< ? > source, final int timepoint, final double targetVoxelScreenSize )
 	{
 		int targetLevel = source.getNumMipmapLevels() - 1;
 		for ( int level = targetLevel - 1; level >= 0; level-- )
 		{
-			if ( getVoxelScreenSize( screenTransform, source, timepoint, level ) >= 0.99 /* 1.0 */)
+			if ( getVoxelScreenSize( screenTransform, source, timepoint, level ) >= 0.99 * targetVoxelScreenSize )
 				targetLevel = level;
 			else
 				break;
@@ -134,7 +155,7 @@ public class MipmapTransforms
 		{
 			final double size1 = getVoxelScreenSize( screenTransform, source, timepoint, targetLevel );
 			final double size0 = getVoxelScreenSize( screenTransform, source, timepoint, targetLevel - 1 );
-			if ( Math.abs( size1 - 1.0 ) / 2 > Math.abs( size0 - 1.0 ) )
+			if ( Math.abs( size1 - targetVoxelScreenSize ) / 2 > Math.abs( size0 - targetVoxelScreenSize ) )
 				targetLevel--;
 		}
 		return targetLevel;
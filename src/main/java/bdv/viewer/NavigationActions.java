@@ -43,11 +43,13 @@ public class NavigationActions extends Actions
 	public static final String TOGGLE_INTERPOLATION = "toggle interpolation";
 	public static final String TOGGLE_FUSED_MODE = "toggle fused mode";
 	public static final String TOGGLE_GROUPING = "toggle grouping";
+	public static final String TOGGLE_PROJECTION_MODE = "toggle projection mode";
 	public static final String SET_CURRENT_SOURCE = "set current source %d";
 	public static final String TOGGLE_SOURCE_VISIBILITY = "toggle source visibility %d";
 	public static final String ALIGN_PLANE = "align %s plane";
 	public static final String NEXT_TIMEPOINT = "next timepoint";
 	public static final String PREVIOUS_TIMEPOINT = "previous timepoint";
+	public static final String TOGGLE_PLAYBACK = "toggle playback";
 
 	/**
 	 * Create navigation actions and install them in the specified
@@ -98,6 +100,9 @@ public class NavigationActions extends Actions
 		runnableAction(
 				() -> viewer.getVisibilityAndGrouping().setGroupingEnabled( !viewer.visibilityAndGrouping.isGroupingEnabled() ),
 				TOGGLE_GROUPING, "G" );
+		runnableAction(
+				() -> viewer.toggleProjectionMode(),
+				TOGGLE_PROJECTION_MODE, "P" );
 	}
 
 	public void time( final ViewerPanel viewer )
@@ -108,6 +113,9 @@ public class NavigationActions extends Actions
 		runnableAction(
 				() -> viewer.previousTimePoint(),
 				PREVIOUS_TIMEPOINT, "OPEN_BRACKET", "N" );
+		runnableAction(
+				() -> viewer.togglePlayback(),
+				TOGGLE_PLAYBACK, "shift M" );
 	}
 
 	public void sources( final ViewerPanel viewer )
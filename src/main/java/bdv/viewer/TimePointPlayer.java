@@ -0,0 +1,479 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.MipmapTransforms;
+import bdv.viewer.render.Prefetcher;
+import bdv.viewer.state.SourceState;
+import bdv.viewer.state.ViewerState;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Plays back the timepoints of a {@link ViewerPanel} at a target frame rate.
+ * <p>
+ * At every frame, the cells that are visible in a window of upcoming
+ * timepoints are prefetched at the <em>minimum level</em>, i.e., the mipmap
+ * level that the viewer would show at screen scale
+ * {@link #setMinLevelScreenScale(double) minLevelScreenScale}. The cells of
+ * the best level are prefetched for the next timepoint only. Playback advances
+ * to the next timepoint only when the minimum level of all visible sources is
+ * loaded for the visible region. If loading falls behind, frames that are due
+ * are dropped: playback jumps to the furthest due timepoint that is loaded. If
+ * none is loaded, playback waits.
+ * <p>
+ * The achieved frame rate and number of dropped frames are reported to
+ * {@link PlaybackListener PlaybackListeners}.
+ */
+public class TimePointPlayer
+{
+	public interface PlaybackListener
+	{
+		/**
+		 * Called after playback advanced to a new timepoint.
+		 *
+		 * @param timepoint
+		 *            the timepoint that is shown now.
+		 * @param achievedFps
+		 *            frames per second, over the last few frames.
+		 * @param droppedFrames
+		 *            number of frames dropped since playback started.
+		 */
+		public void playbackUpdated( int timepoint, double achievedFps, long droppedFrames );
+	}
+
+	/**
+	 * Over how many shown frames the achieved frame rate is averaged.
+	 */
+	private static final int FPS_WINDOW = 16;
+
+	private final ViewerPanel viewer;
+
+	private final CopyOnWriteArrayList< PlaybackListener > listeners = new CopyOnWriteArrayList<>();
+
+	private double targetFps = 10;
+
+	private int prefetchWindow = 10;
+
+	private double minLevelScreenScale = 0.25;
+
+	private ScheduledExecutorService executor;
+
+	private ScheduledFuture< ? > ticks;
+
+	private long lastShownNanoTime;
+
+	private final long[] shownNanoTimes = new long[ FPS_WINDOW ];
+
+	private int numShown;
+
+	private long droppedFrames;
+
+	/**
+	 * The timepoint shown (or about to be shown) by playback. The viewer
+	 * state lags behind this until the {@code setTimepoint} that was queued on
+	 * the event dispatch thread has run.
+	 */
+	private int timepoint;
+
+	/**
+	 * Whether a {@code setTimepoint} is queued on the event dispatch thread.
+	 */
+	private boolean settingTimepoint;
+
+	public TimePointPlayer( final ViewerPanel viewer )
+	{
+		this.viewer = viewer;
+	}
+
+	/**
+	 * Start playback at the current timepoint. Does nothing if already
+	 * playing.
+	 */
+	public synchronized void start()
+	{
+		if ( ticks != null )
+			return;
+		if ( executor == null )
+			executor = Executors.newSingleThreadScheduledExecutor( r -> {
+				final Thread t = new Thread( r, "TimePointPlayer" );
+				t.setDaemon( true );
+				return t;
+			} );
+		timepoint = viewer.getState().getCurrentTimepoint();
+		settingTimepoint = false;
+		lastShownNanoTime = System.nanoTime();
+		numShown = 0;
+		droppedFrames = 0;
+		final long periodNanos = ( long ) ( 1e9 / targetFps );
+		ticks = executor.scheduleAtFixedRate( this::tick, 0, periodNanos, TimeUnit.NANOSECONDS );
+	}
+
+	/**
+	 * Stop playback.
+	 */
+	public synchronized void stop()
+	{
+		if ( ticks != null )
+		{
+			ticks.cancel( false );
+			ticks = null;
+		}
+	}
+
+	public synchronized void toggle()
+	{
+		if ( isPlaying() )
+			stop();
+		else
+			start();
+	}
+
+	public synchronized boolean isPlaying()
+	{
+		return ticks != null;
+	}
+
+	/**
+	 * Stop playback and release the playback thread.
+	 */
+	public synchronized void kill()
+	{
+		stop();
+		if ( executor != null )
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Set the target frame rate. Takes effect immediately if playing.
+	 */
+	public synchronized void setTargetFps( final double fps )
+	{
+		targetFps = fps;
+		if ( isPlaying() )
+		{
+			stop();
+			start();
+		}
+	}
+
+	public synchronized double getTargetFps()
+	{
+		return targetFps;
+	}
+
+	/**
+	 * Set how many upcoming timepoints are prefetched. This is also the
+	 * maximum number of frames that are dropped at once.
+	 */
+	public synchronized void setPrefetchWindow( final int numTimepoints )
+	{
+		prefetchWindow = Math.max( 1, numTimepoints );
+	}
+
+	public synchronized int getPrefetchWindow()
+	{
+		return prefetchWindow;
+	}
+
+	/**
+	 * Set the screen scale that determines the minimum mipmap level that must
+	 * be loaded before a timepoint is shown (e.g., 0.25 means the level that
+	 * would be rendered at a quarter of the display resolution).
+	 */
+	public synchronized void setMinLevelScreenScale( final double screenScale )
+	{
+		minLevelScreenScale = screenScale;
+	}
+
+	public synchronized double getMinLevelScreenScale()
+	{
+		return minLevelScreenScale;
+	}
+
+	/**
+	 * Get the frame rate achieved over the last few shown frames.
+	 */
+	public synchronized double getAchievedFps()
+	{
+		final int n = Math.min( numShown, FPS_WINDOW );
+		if ( n < 2 )
+			return 0;
+		final long newest = shownNanoTimes[ ( numShown - 1 ) % FPS_WINDOW ];
+		final long oldest = shownNanoTimes[ ( numShown - n ) % FPS_WINDOW ];
+		return newest > oldest ? ( n - 1 ) * 1e9 / ( newest - oldest ) : 0;
+	}
+
+	/**
+	 * Get the number of frames dropped since playback started.
+	 */
+	public synchronized long getDroppedFrames()
+	{
+		return droppedFrames;
+	}
+
+	public void addPlaybackListener( final PlaybackListener listener )
+	{
+		listeners.add( listener );
+	}
+
+	public void removePlaybackListener( final PlaybackListener listener )
+	{
+		listeners.remove( listener );
+	}
+
+	private void tick()
+	{
+		try
+		{
+			advance();
+		}
+		catch ( final RuntimeException e )
+		{
+			// An exception escaping here would silently cancel the periodic
+			// task, leaving isPlaying() true. Stop playback and report it.
+			stop();
+			final Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException( thread, e );
+		}
+	}
+
+	private void advance()
+	{
+		final ViewerState state = viewer.getState();
+		final int numTimepoints = state.getNumTimepoints();
+		if ( numTimepoints <= 1 )
+			return;
+
+		final int window;
+		final double frameNanos;
+		final double levelScale;
+		synchronized ( this )
+		{
+			window = prefetchWindow;
+			frameNanos = 1e9 / targetFps;
+			levelScale = minLevelScreenScale;
+		}
+
+		final int displayWidth = Math.max( 1, viewer.getDisplay().getWidth() );
+		final int displayHeight = Math.max( 1, viewer.getDisplay().getHeight() );
+		final Dimensions displaySize = new FinalDimensions( displayWidth, displayHeight );
+		final Dimensions screenSize = new FinalDimensions(
+				Math.max( 1, ( long ) ( displayWidth * levelScale ) ),
+				Math.max( 1, ( long ) ( displayHeight * levelScale ) ) );
+		final AffineTransform3D screenScaleTransform = new AffineTransform3D();
+		screenScaleTransform.set( levelScale, 0, 0 );
+		screenScaleTransform.set( levelScale, 1, 1 );
+		screenScaleTransform.set( 0.5 * levelScale - 0.5, 0, 3 );
+		screenScaleTransform.set( 0.5 * levelScale - 0.5, 1, 3 );
+
+		final int current;
+		synchronized ( this )
+		{
+			// adopt timepoint changes made by someone else, e.g., the slider
+			if ( !settingTimepoint )
+				timepoint = state.getCurrentTimepoint();
+			current = timepoint;
+		}
+		final long now = System.nanoTime();
+		final int due = Math.min( window, Math.max( 1, ( int ) ( ( now - lastShownNanoTime ) / frameNanos ) ) );
+
+		// show the furthest due timepoint that is loaded
+		int next = -1;
+		for ( int k = due; k >= 1; --k )
+		{
+			final int timepoint = ( current + k ) % numTimepoints;
+			state.setCurrentTimepoint( timepoint );
+			if ( isMinLevelLoaded( state, screenScaleTransform, screenSize ) )
+			{
+				next = timepoint;
+				synchronized ( this )
+				{
+					droppedFrames += k - 1;
+				}
+				break;
+			}
+		}
+
+		final int first = next >= 0 ? next : current;
+		for ( int k = 1; k <= window; ++k )
+		{
+			state.setCurrentTimepoint( ( first + k ) % numTimepoints );
+			prefetch( state, screenScaleTransform, screenSize, displaySize, k == 1 );
+		}
+
+		if ( next >= 0 )
+		{
+			final int timepoint = next;
+			final double fps;
+			final long dropped;
+			synchronized ( this )
+			{
+				lastShownNanoTime = now;
+				shownNanoTimes[ numShown % FPS_WINDOW ] = now;
+				++numShown;
+				fps = getAchievedFps();
+				dropped = droppedFrames;
+				this.timepoint = timepoint;
+				settingTimepoint = true;
+			}
+			SwingUtilities.invokeLater( () -> {
+				viewer.setTimepoint( timepoint );
+				synchronized ( this )
+				{
+					if ( this.timepoint == timepoint )
+						settingTimepoint = false;
+				}
+			} );
+			for ( final PlaybackListener l : listeners )
+				l.playbackUpdated( timepoint, fps, dropped );
+		}
+	}
+
+	/**
+	 * Check whether the minimum level of all visible sources is loaded for the
+	 * visible region, at the current timepoint of {@code state}. This does not
+	 * trigger loading.
+	 */
+	private static boolean isMinLevelLoaded( final ViewerState state, final AffineTransform3D screenScaleTransform, final Dimensions screenSize )
+	{
+		final CacheHints dontLoad = new CacheHints( LoadingStrategy.DONTLOAD, 0, false );
+		final List< SourceState< ? > > sources = state.getSources();
+		for ( final int i : state.getVisibleSourceIndices() )
+		{
+			final Source< ? > source = getVolatileSource( sources.get( i ) );
+			final int t = state.getCurrentTimepoint();
+			if ( !source.isPresent( t ) )
+				continue;
+			final AffineTransform3D screenTransform = getScreenTransform( state, screenScaleTransform );
+			final int level = MipmapTransforms.getBestMipMapLevel( screenTransform, source, t );
+			final RandomAccessibleInterval< ? > img = source.getSource( t, level );
+			if ( img instanceof VolatileCachedCellImg )
+			{
+				final VolatileCachedCellImg< ?, ? > cellImg = ( VolatileCachedCellImg< ?, ? > ) img;
+				if ( !Prefetcher.cellsValid( getSourceToScreen( screenTransform, source, t, level ), getCellDimensions( cellImg ), getDimensions( cellImg ), screenSize, state.getInterpolation(), cellImg.getCells( dontLoad ).randomAccess() ) )
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Enqueue the cells of the minimum level (and, if {@code bestLevel}, also
+	 * of the best level) of all visible sources that are needed for the
+	 * visible region, at the current timepoint of {@code state}.
+	 */
+	private static void prefetch( final ViewerState state, final AffineTransform3D screenScaleTransform, final Dimensions screenSize, final Dimensions displaySize, final boolean bestLevel )
+	{
+		final List< SourceState< ? > > sources = state.getSources();
+		for ( final int i : state.getVisibleSourceIndices() )
+		{
+			final Source< ? > source = getVolatileSource( sources.get( i ) );
+			final int t = state.getCurrentTimepoint();
+			if ( !source.isPresent( t ) )
+				continue;
+			final int maxLevel = source.getNumMipmapLevels() - 1;
+			final AffineTransform3D screenTransform = getScreenTransform( state, screenScaleTransform );
+			final int minLevel = MipmapTransforms.getBestMipMapLevel( screenTransform, source, t );
+			prefetch( state, source, screenTransform, minLevel, new CacheHints( LoadingStrategy.VOLATILE, maxLevel - minLevel, false ), screenSize );
+			if ( bestLevel )
+			{
+				final AffineTransform3D fullScreenTransform = getScreenTransform( state, new AffineTransform3D() );
+				final int level = MipmapTransforms.getBestMipMapLevel( fullScreenTransform, source, t );
+				if ( level != minLevel )
+					prefetch( state, source, fullScreenTransform, level, new CacheHints( LoadingStrategy.VOLATILE, maxLevel, false ), displaySize );
+			}
+		}
+	}
+
+	private static void prefetch( final ViewerState state, final Source< ? > source, final AffineTransform3D screenTransform, final int level, final CacheHints hints, final Dimensions screenSize )
+	{
+		final int t = state.getCurrentTimepoint();
+		final RandomAccessibleInterval< ? > img = source.getSource( t, level );
+		if ( img instanceof VolatileCachedCellImg )
+		{
+			final VolatileCachedCellImg< ?, ? > cellImg = ( VolatileCachedCellImg< ?, ? > ) img;
+			Prefetcher.fetchCells( getSourceToScreen( screenTransform, source, t, level ), getCellDimensions( cellImg ), getDimensions( cellImg ), screenSize, state.getInterpolation(), cellImg.getCells( hints ).randomAccess() );
+		}
+	}
+
+	private static Source< ? > getVolatileSource( final SourceState< ? > source )
+	{
+		return source.asVolatile() != null ? source.asVolatile().getSpimSource() : source.getSpimSource();
+	}
+
+	private static AffineTransform3D getScreenTransform( final ViewerState state, final AffineTransform3D screenScaleTransform )
+	{
+		final AffineTransform3D screenTransform = new AffineTransform3D();
+		state.getViewerTransform( screenTransform );
+		screenTransform.preConcatenate( screenScaleTransform );
+		return screenTransform;
+	}
+
+	private static AffineTransform3D getSourceToScreen( final AffineTransform3D screenTransform, final Source< ? > source, final int t, final int level )
+	{
+		final AffineTransform3D sourceToScreen = screenTransform.copy();
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( t, level, sourceTransform );
+		sourceToScreen.concatenate( sourceTransform );
+		return sourceToScreen;
+	}
+
+	private static int[] getCellDimensions( final VolatileCachedCellImg< ?, ? > cellImg )
+	{
+		final int[] cellDimensions = new int[ 3 ];
+		cellImg.getCellGrid().cellDimensions( cellDimensions );
+		return cellDimensions;
+	}
+
+	private static long[] getDimensions( final VolatileCachedCellImg< ?, ? > cellImg )
+	{
+		final long[] dimensions = new long[ 3 ];
+		cellImg.dimensions( dimensions );
+		return dimensions;
+	}
+}
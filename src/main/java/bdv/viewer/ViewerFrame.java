@@ -106,6 +106,12 @@ public class ViewerFrame extends JFrame
 			{
 				viewer.stop();
 			}
+
+			@Override
+			public void windowActivated( final WindowEvent e )
+			{
+				viewer.requestRenderPriority();
+			}
 		} );
 
 		SwingUtilities.replaceUIActionMap( getRootPane(), keybindings.getConcatenatedActionMap() );
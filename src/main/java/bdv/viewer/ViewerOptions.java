@@ -30,6 +30,8 @@
 package bdv.viewer;
 
 import java.awt.event.KeyListener;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 
 import org.scijava.ui.behaviour.KeyPressedManager;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
@@ -38,8 +40,11 @@ import bdv.BehaviourTransformEventHandler3D;
 import bdv.viewer.animate.MessageOverlayAnimator;
 import bdv.viewer.render.AccumulateProjector;
 import bdv.viewer.render.AccumulateProjectorARGB;
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
 import bdv.viewer.render.AccumulateProjectorFactory;
 import bdv.viewer.render.MultiResolutionRenderer;
+import bdv.viewer.render.RenderScheduler;
+import bdv.viewer.render.RenderThreadFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.ui.TransformEventHandlerFactory;
@@ -125,10 +130,15 @@ public class ViewerOptions
 	}
 
 	/**
-	 * Set how many threads to use for rendering.
+	 * Set how many threads to use for rendering. With a
+	 * {@link #renderScheduler(RenderScheduler) renderScheduler}, this is the
+	 * number of threads of the shared pool that the panel uses (that is,
+	 * into how many parallel tasks rendering work is split). By default, that
+	 * is all threads of the pool, or 3 without a scheduler.
 	 *
 	 * @param n
-	 *            How many threads to use for rendering.
+	 *            How many threads to use for rendering, or a value &lt; 1
+	 *            for the default.
 	 * @see MultiResolutionRenderer
 	 */
 	public ViewerOptions numRenderingThreads( final int n )
@@ -137,6 +147,90 @@ public class ViewerOptions
 		return this;
 	}
 
+	/**
+	 * Set the {@link ExecutorService} to use for rendering. This can be used
+	 * to share rendering threads between several {@link ViewerPanel}s. A
+	 * {@link ForkJoinPool} is recommended, because rendering work is split
+	 * adaptively and balanced by work stealing then. The executor is not shut
+	 * down when the panel is stopped.
+	 * <p>
+	 * Note that IO statistics and the {@link #ioBudget(long[]) IO budget} are
+	 * accounted per {@link ThreadGroup}. If the executor is shared between
+	 * panels, its threads are not in the thread group of the panel that
+	 * renders, and IO time is not charged to that panel. Leave this
+	 * {@code null} to render on the shared pool of the
+	 * {@link #renderScheduler(RenderScheduler) renderScheduler}, which
+	 * accounts IO per panel.
+	 *
+	 * @param e
+	 *            the {@link ExecutorService} to use for rendering, or
+	 *            {@code null} to use the pool of the
+	 *            {@link #renderScheduler(RenderScheduler) renderScheduler}
+	 *            (or, without a scheduler, to create a {@link ForkJoinPool}
+	 *            with {@link #numRenderingThreads(int) numRenderingThreads}
+	 *            threads in the thread group of the panel, see
+	 *            {@link RenderThreadFactory}).
+	 * @see MultiResolutionRenderer
+	 */
+	public ViewerOptions renderingExecutorService( final ExecutorService e )
+	{
+		values.renderingExecutorService = e;
+		return this;
+	}
+
+	/**
+	 * Set the {@link RenderScheduler} that coordinates rendering of this
+	 * panel with other panels. By default, all panels use the process-wide
+	 * {@link RenderScheduler#getInstance() shared scheduler}: The panel of the
+	 * focused window gets priority for rendering and loading, and other
+	 * panels are held back while it renders. All panels render on the shared
+	 * pool of the scheduler (unless a
+	 * {@link #renderingExecutorService(ExecutorService) renderingExecutorService}
+	 * is set), one rendering pass at a time.
+	 *
+	 * @param s
+	 *            the {@link RenderScheduler} to use, or {@code null} to render
+	 *            independently of other panels, with a
+	 *            {@link ForkJoinPool} with
+	 *            {@link #numRenderingThreads(int) numRenderingThreads} threads
+	 *            for each panel.
+	 */
+	public ViewerOptions renderScheduler( final RenderScheduler s )
+	{
+		values.renderScheduler = s;
+		values.renderSchedulerSet = true;
+		return this;
+	}
+
+	/**
+	 * Set the IO time budget for rendering a frame.
+	 *
+	 * @param b
+	 *            for each priority level (0 is highest), the time in
+	 *            nanoseconds that rendering may spend in blocking IO, or
+	 *            {@code null} for no blocking IO.
+	 * @see MultiResolutionRenderer#setIoBudget(long[])
+	 */
+	public ViewerOptions ioBudget( final long[] b )
+	{
+		values.ioBudget = b;
+		return this;
+	}
+
+	/**
+	 * Set whether cells of all mipmap levels that will be rendered should be
+	 * enqueued for loading before rendering starts.
+	 *
+	 * @param p
+	 *            whether to prefetch cells.
+	 * @see MultiResolutionRenderer#setPrefetchCells(boolean)
+	 */
+	public ViewerOptions prefetchCells( final boolean p )
+	{
+		values.prefetchCells = p;
+		return this;
+	}
+
 	/**
 	 * Set how many source groups there are initially.
 	 *
@@ -189,6 +283,45 @@ public class ViewerOptions
 		return this;
 	}
 
+	/**
+	 * Set whether multiple visible sources should be rendered directly into
+	 * the screen image, instead of rendering each source into a separate image
+	 * and combining these with the {@link AccumulateProjectorFactory}. This
+	 * avoids allocating a full-size image and mask per visible source, which
+	 * is useful with many visible sources.
+	 *
+	 * @param blendMode
+	 *            how to combine sources, or {@code null} to use the
+	 *            {@link #accumulateProjectorFactory(AccumulateProjectorFactory)
+	 *            accumulateProjectorFactory}.
+	 * @see MultiResolutionRenderer#setFusedCompositing(BlendMode)
+	 */
+	public ViewerOptions fusedCompositing( final BlendMode blendMode )
+	{
+		values.fusedBlendMode = blendMode;
+		return this;
+	}
+
+	/**
+	 * Set whether multiple visible sources should be rendered as a mosaic of
+	 * overlapping tiles. Sources are then rendered directly into the screen
+	 * image (as with {@link #fusedCompositing(BlendMode)}). Overlapping
+	 * sources of the same channel are combined by an average that is weighted
+	 * to fall off smoothly towards the source borders, and the channels are
+	 * combined according to the fused {@link BlendMode}.
+	 *
+	 * @param blendWidth
+	 *            width (in full-resolution voxels) of the band along the
+	 *            source borders in which the weight falls off, or 0 to
+	 *            disable mosaic blending.
+	 * @see MultiResolutionRenderer#setMosaicBlending(double)
+	 */
+	public ViewerOptions mosaicBlending( final double blendWidth )
+	{
+		values.mosaicBlendWidth = blendWidth;
+		return this;
+	}
+
 	/**
 	 * Set the {@link InputTriggerConfig} from which keyboard and mouse action mapping is loaded.
 	 *
@@ -234,7 +367,25 @@ public class ViewerOptions
 
 		private boolean doubleBuffered = true;
 
-		private int numRenderingThreads = 3;
+		/**
+		 * Number of rendering threads, or &lt; 1 to use the parallelism of
+		 * the {@link #renderScheduler} (or 3 without a scheduler).
+		 */
+		private int numRenderingThreads = -1;
+
+		private ExecutorService renderingExecutorService = null;
+
+		private RenderScheduler renderScheduler = null;
+
+		/**
+		 * Whether {@link #renderScheduler} was set explicitly. Otherwise the
+		 * shared instance is used, which is created lazily.
+		 */
+		private boolean renderSchedulerSet = false;
+
+		private long[] ioBudget = new long[] { 100l * 1000000l, 10l * 1000000l };
+
+		private boolean prefetchCells = true;
 
 		private int numSourceGroups = 10;
 
@@ -246,6 +397,10 @@ public class ViewerOptions
 
 		private AccumulateProjectorFactory< ARGBType > accumulateProjectorFactory = AccumulateProjectorARGB.factory;
 
+		private BlendMode fusedBlendMode = null;
+
+		private double mosaicBlendWidth = 0;
+
 		private InputTriggerConfig inputTriggerConfig = null;
 
 		private KeyPressedManager keyPressedManager = null;
@@ -259,11 +414,17 @@ public class ViewerOptions
 				targetRenderNanos( targetRenderNanos ).
 				doubleBuffered( doubleBuffered ).
 				numRenderingThreads( numRenderingThreads ).
+				renderingExecutorService( renderingExecutorService ).
+				renderScheduler( getRenderScheduler() ).
+				ioBudget( ioBudget ).
+				prefetchCells( prefetchCells ).
 				numSourceGroups( numSourceGroups ).
 				useVolatileIfAvailable( useVolatileIfAvailable ).
 				msgOverlay( msgOverlay ).
 				transformEventHandlerFactory( transformEventHandlerFactory ).
 				accumulateProjectorFactory( accumulateProjectorFactory ).
+				fusedCompositing( fusedBlendMode ).
+				mosaicBlending( mosaicBlendWidth ).
 				inputTriggerConfig( inputTriggerConfig );
 		}
 
@@ -294,7 +455,30 @@ public class ViewerOptions
 
 		public int getNumRenderingThreads()
 		{
-			return numRenderingThreads;
+			if ( numRenderingThreads >= 1 )
+				return numRenderingThreads;
+			final RenderScheduler scheduler = getRenderScheduler();
+			return scheduler != null ? scheduler.getParallelism() : 3;
+		}
+
+		public ExecutorService getRenderingExecutorService()
+		{
+			return renderingExecutorService;
+		}
+
+		public RenderScheduler getRenderScheduler()
+		{
+			return renderSchedulerSet ? renderScheduler : RenderScheduler.getInstance();
+		}
+
+		public long[] getIoBudget()
+		{
+			return ioBudget;
+		}
+
+		public boolean isPrefetchCells()
+		{
+			return prefetchCells;
 		}
 
 		public int getNumSourceGroups()
@@ -322,6 +506,16 @@ public class ViewerOptions
 			return accumulateProjectorFactory;
 		}
 
+		public BlendMode getFusedCompositing()
+		{
+			return fusedBlendMode;
+		}
+
+		public double getMosaicBlendWidth()
+		{
+			return mosaicBlendWidth;
+		}
+
 		public InputTriggerConfig getInputTriggerConfig()
 		{
 			return inputTriggerConfig;
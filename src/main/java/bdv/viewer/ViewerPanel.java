@@ -45,6 +45,8 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -54,8 +56,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -81,7 +82,11 @@ import bdv.viewer.animate.TextOverlayAnimator.TextPosition;
 import bdv.viewer.overlay.MultiBoxOverlayRenderer;
 import bdv.viewer.overlay.ScaleBarOverlayRenderer;
 import bdv.viewer.overlay.SourceInfoOverlayRenderer;
+import bdv.viewer.render.FrameStatsListener;
 import bdv.viewer.render.MultiResolutionRenderer;
+import bdv.viewer.render.RenderScheduler;
+import bdv.viewer.render.RenderThreadFactory;
+import bdv.viewer.render.SourceBoundsIndex;
 import bdv.viewer.render.TransformAwareBufferedImageOverlayRenderer;
 import bdv.viewer.state.SourceGroup;
 import bdv.viewer.state.SourceState;
@@ -125,6 +130,11 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	 */
 	protected final MultiResolutionRenderer imageRenderer;
 
+	/**
+	 * Plays back timepoints at a target frame rate.
+	 */
+	protected final TimePointPlayer timePointPlayer = new TimePointPlayer( this );
+
 	/**
 	 * TODO
 	 */
@@ -136,6 +146,13 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	// TODO: move to specialized class
 	protected final MultiBoxOverlayRenderer multiBoxOverlayRenderer;
 
+	/**
+	 * Bounding boxes of the sources, shared by the {@link #imageRenderer} (to
+	 * skip sources that are not on screen), the
+	 * {@link #multiBoxOverlayRenderer}, and {@link #visibilityAndGrouping}.
+	 */
+	protected final SourceBoundsIndex sourceBoundsIndex;
+
 	/**
 	 * Overlay current source name and current timepoint.
 	 */
@@ -162,8 +179,8 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 
 	/**
 	 * A {@link ThreadGroup} for (only) the threads used by this
-	 * {@link ViewerPanel}, that is, {@link #painterThread} and
-	 * {@link #renderingExecutorService}.
+	 * {@link ViewerPanel}, that is, {@link #painterThread} and, if the
+	 * panel renders on a pool of its own, {@link #renderingExecutorService}.
 	 */
 	protected ThreadGroup threadGroup;
 
@@ -177,6 +194,20 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	 */
 	protected final ExecutorService renderingExecutorService;
 
+	/**
+	 * Whether {@link #renderingExecutorService} was created by this panel
+	 * (and should be shut down by {@link #stop()}), or is shared (the pool of
+	 * the {@link #renderScheduler}, or an executor given through
+	 * {@link ViewerOptions#renderingExecutorService(ExecutorService)}).
+	 */
+	protected final boolean ownsRenderingExecutorService;
+
+	/**
+	 * Coordinates rendering of this panel with other panels, or {@code null}.
+	 * See {@link ViewerOptions#renderScheduler(RenderScheduler)}.
+	 */
+	protected final RenderScheduler renderScheduler;
+
 	/**
 	 * Keeps track of the current mouse coordinates, which are used to provide
 	 * the current global position (see {@link #getGlobalMouseCoordinates(RealPositionable)}).
@@ -267,7 +298,9 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 
 		if ( !sources.isEmpty() )
 			state.setCurrentSource( 0 );
+		sourceBoundsIndex = new SourceBoundsIndex();
 		multiBoxOverlayRenderer = new MultiBoxOverlayRenderer();
+		multiBoxOverlayRenderer.setSourceBoundsIndex( sourceBoundsIndex );
 		sourceInfoOverlayRenderer = new SourceInfoOverlayRenderer();
 		scaleBarOverlayRenderer = Prefs.showScaleBar() ? new ScaleBarOverlayRenderer() : null;
 
@@ -283,19 +316,34 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		display.addOverlayRenderer( renderTarget );
 		display.addOverlayRenderer( this );
 
-		renderingExecutorService = Executors.newFixedThreadPool(
-				options.getNumRenderingThreads(),
-				new RenderThreadFactory() );
+		renderScheduler = options.getRenderScheduler();
+		final int numRenderingThreads = options.getNumRenderingThreads();
+		ownsRenderingExecutorService = options.getRenderingExecutorService() == null && renderScheduler == null;
+		if ( options.getRenderingExecutorService() != null )
+			renderingExecutorService = options.getRenderingExecutorService();
+		else if ( renderScheduler != null )
+			renderingExecutorService = renderScheduler.getExecutorService();
+		else
+		{
+			final String namePrefix = "bdv-panel-" + panelNumber.getAndIncrement();
+			renderingExecutorService = new ForkJoinPool( numRenderingThreads, new RenderThreadFactory( threadGroup, namePrefix ), null, false );
+		}
 		imageRenderer = new MultiResolutionRenderer(
 				renderTarget, painterThread,
 				options.getScreenScales(),
 				options.getTargetRenderNanos(),
 				options.isDoubleBuffered(),
-				options.getNumRenderingThreads(),
+				numRenderingThreads,
 				renderingExecutorService,
 				options.isUseVolatileIfAvailable(),
 				options.getAccumulateProjectorFactory(),
 				cacheControl );
+		imageRenderer.setFusedCompositing( options.getFusedCompositing() );
+		imageRenderer.setMosaicBlending( options.getMosaicBlendWidth() );
+		imageRenderer.setIoBudget( options.getIoBudget() );
+		imageRenderer.setPrefetchCells( options.isPrefetchCells() );
+		imageRenderer.setRenderScheduler( renderScheduler );
+		imageRenderer.setSourceBoundsIndex( sourceBoundsIndex );
 
 		mouseCoordinates = new MouseCoordinateListener();
 		display.addHandler( mouseCoordinates );
@@ -329,6 +377,15 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		overlayAnimators.add( msgOverlay );
 		overlayAnimators.add( new TextOverlayAnimator( "Press <F1> for help.", 3000, TextPosition.CENTER ) );
 
+		display.addFocusListener( new FocusAdapter()
+		{
+			@Override
+			public void focusGained( final FocusEvent e )
+			{
+				requestRenderPriority();
+			}
+		} );
+
 		display.addComponentListener( new ComponentAdapter()
 		{
 			@Override
@@ -482,7 +539,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	@Override
 	public void paint()
 	{
-		imageRenderer.paint( state );
+		imageRenderer.paint( state.snapshot() );
 
 		display.repaint();
 
@@ -563,7 +620,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		state.setViewerTransform( transform );
 		for ( final TransformListener< AffineTransform3D > l : transformListeners )
 			l.transformChanged( viewerTransform );
-		requestRepaint();
+		imageRenderer.transformChanged( viewerTransform );
 	}
 
 	@Override
@@ -710,6 +767,45 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		}
 	}
 
+	/**
+	 * Switch to next projection mode (plane, max-intensity slab projection,
+	 * alpha-composited slab projection).
+	 */
+	public synchronized void toggleProjectionMode()
+	{
+		final int i = state.getProjectionMode().ordinal();
+		final int n = ProjectionMode.values().length;
+		setProjectionMode( ProjectionMode.values()[ ( i + 1 ) % n ] );
+	}
+
+	/**
+	 * Set the {@link ProjectionMode}.
+	 */
+	public synchronized void setProjectionMode( final ProjectionMode mode )
+	{
+		if ( mode != state.getProjectionMode() )
+		{
+			state.setProjectionMode( mode );
+			showMessage( mode.getName() );
+			requestRepaint();
+		}
+	}
+
+	/**
+	 * Set the thickness (in viewer coordinates) of the slab around the current
+	 * plane that is projected in {@link ProjectionMode#MAX} and
+	 * {@link ProjectionMode#COMPOSITE} modes.
+	 */
+	public synchronized void setSlabThickness( final double thickness )
+	{
+		if ( thickness != state.getSlabThickness() )
+		{
+			state.setSlabThickness( thickness );
+			if ( state.getProjectionMode() != ProjectionMode.PLANE )
+				requestRepaint();
+		}
+	}
+
 	/**
 	 * Set the {@link DisplayMode}.
 	 */
@@ -754,6 +850,39 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 			sliderTime.setValue( sliderTime.getValue() + 1 );
 	}
 
+	/**
+	 * Give this panel priority for rendering and loading over other panels
+	 * that share its {@link RenderScheduler}. This is called when the display
+	 * gains the keyboard focus, and by {@link ViewerFrame} when the window is
+	 * activated.
+	 */
+	public void requestRenderPriority()
+	{
+		if ( renderScheduler != null )
+			renderScheduler.setFocused( imageRenderer );
+	}
+
+	/**
+	 * Start or stop playback of time-points (see {@link #getTimePointPlayer()}).
+	 */
+	public void togglePlayback()
+	{
+		if ( state.getNumTimepoints() > 1 )
+		{
+			timePointPlayer.toggle();
+			showMessage( timePointPlayer.isPlaying() ? "play" : "pause" );
+		}
+	}
+
+	/**
+	 * Get the {@link TimePointPlayer} that plays back time-points of this
+	 * viewer at a target frame rate.
+	 */
+	public TimePointPlayer getTimePointPlayer()
+	{
+		return timePointPlayer;
+	}
+
 	/**
 	 * Show the previous time-point.
 	 */
@@ -1005,6 +1134,56 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		}
 	}
 
+	/**
+	 * Set the IO time budget for rendering a frame.
+	 *
+	 * @param budget
+	 *            for each priority level (0 is highest), the time in
+	 *            nanoseconds that rendering may spend in blocking IO, or
+	 *            {@code null} for no blocking IO.
+	 */
+	public void setIoBudget( final long[] budget )
+	{
+		imageRenderer.setIoBudget( budget );
+		requestRepaint();
+	}
+
+	/**
+	 * Set whether cells of all mipmap levels that will be rendered should be
+	 * enqueued for loading before rendering starts.
+	 */
+	public void setPrefetchCells( final boolean prefetchCells )
+	{
+		imageRenderer.setPrefetchCells( prefetchCells );
+		requestRepaint();
+	}
+
+	/**
+	 * Add a {@link FrameStatsListener} to notify about rendering statistics.
+	 * Listeners are notified on the painter thread after each rendering pass,
+	 * with the screen scale, pass number, invalid pixels per mipmap level,
+	 * rendering and IO time, etc. The same statistics are also emitted as Java
+	 * Flight Recorder events ({@code bdv.RenderPass}) if JFR is available.
+	 *
+	 * @param listener
+	 *            the listener to add.
+	 */
+	public void addFrameStatsListener( final FrameStatsListener listener )
+	{
+		imageRenderer.addFrameStatsListener( listener );
+	}
+
+	/**
+	 * Remove a {@link FrameStatsListener}.
+	 *
+	 * @param listener
+	 *            the listener to remove.
+	 */
+	public void removeFrameStatsListener( final FrameStatsListener listener )
+	{
+		imageRenderer.removeFrameStatsListener( listener );
+	}
+
 	protected class MouseCoordinateListener implements MouseMotionListener, MouseListener
 	{
 		private int x;
@@ -1024,6 +1203,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		{
 			x = e.getX();
 			y = e.getY();
+			imageRenderer.setFocusPoint( x, y );
 		}
 
 		@Override
@@ -1031,6 +1211,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		{
 			x = e.getX();
 			y = e.getY();
+			imageRenderer.setFocusPoint( x, y );
 			display.repaint(); // TODO: only when overlays are visible
 		}
 
@@ -1059,6 +1240,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		public synchronized void mouseExited( final MouseEvent e )
 		{
 			isInside = false;
+			imageRenderer.clearFocusPoint();
 		}
 
 		@Override
@@ -1102,6 +1284,18 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		return visibilityAndGrouping;
 	}
 
+	/**
+	 * Returns the {@link SourceBoundsIndex} that is used to skip rendering of
+	 * sources that are not on screen. Changes of the transforms of
+	 * {@link bdv.tools.transformation.TransformedSource}s are detected
+	 * automatically. After changing the transforms of other sources,
+	 * {@link SourceBoundsIndex#invalidate()} must be called.
+	 */
+	public SourceBoundsIndex getSourceBoundsIndex()
+	{
+		return sourceBoundsIndex;
+	}
+
 	public ViewerOptions.Values getOptionValues()
 	{
 		return options;
@@ -1117,6 +1311,7 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 	 */
 	public void stop()
 	{
+		timePointPlayer.kill();
 		painterThread.interrupt();
 		try
 		{
@@ -1126,35 +1321,14 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		{
 			e.printStackTrace();
 		}
-		renderingExecutorService.shutdown();
+		if ( ownsRenderingExecutorService )
+			renderingExecutorService.shutdown();
 		state.kill();
 		imageRenderer.kill();
 	}
 
 	protected static final AtomicInteger panelNumber = new AtomicInteger( 1 );
 
-	protected class RenderThreadFactory implements ThreadFactory
-	{
-		private final String threadNameFormat = String.format(
-				"bdv-panel-%d-thread-%%d",
-				panelNumber.getAndIncrement() );
-
-		private final AtomicInteger threadNumber = new AtomicInteger( 1 );
-
-		@Override
-		public Thread newThread( final Runnable r )
-		{
-			final Thread t = new Thread( threadGroup, r,
-					String.format( threadNameFormat, threadNumber.getAndIncrement() ),
-					0 );
-			if ( !t.isDaemon() )
-				t.setDaemon( true );
-			if ( t.getPriority() != Thread.NORM_PRIORITY )
-				t.setPriority( Thread.NORM_PRIORITY );
-			return t;
-		}
-	}
-
 	public TransformAwareBufferedImageOverlayRenderer renderTarget()
 	{
 		return this.renderTarget;
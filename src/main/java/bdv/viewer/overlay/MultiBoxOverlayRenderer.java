@@ -31,11 +31,14 @@ package bdv.viewer.overlay;
 
 import java.awt.Graphics2D;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.util.Intervals;
+import bdv.viewer.render.SourceBoundsIndex;
+import bdv.viewer.render.SourceBoundsIndex.SourceBounds;
 import bdv.viewer.state.SourceState;
 import bdv.viewer.state.ViewerState;
 
@@ -64,6 +67,12 @@ public class MultiBoxOverlayRenderer
 
 	protected final ArrayList< IntervalAndTransform > boxSources;
 
+	/**
+	 * If set, source intervals and transforms are taken from this index
+	 * instead of querying each source.
+	 */
+	protected SourceBoundsIndex sourceBoundsIndex;
+
 	public MultiBoxOverlayRenderer()
 	{
 		this( 800, 600 );
@@ -116,6 +125,15 @@ public class MultiBoxOverlayRenderer
 		boxInterval = interval;
 	}
 
+	/**
+	 * Set the {@link SourceBoundsIndex} from which source intervals and
+	 * transforms are taken, or {@code null} to query the sources directly.
+	 */
+	public synchronized void setSourceBoundsIndex( final SourceBoundsIndex index )
+	{
+		sourceBoundsIndex = index;
+	}
+
 	/**
 	 * Update data to show in the box overlay.
 	 */
@@ -124,9 +142,17 @@ public class MultiBoxOverlayRenderer
 		synchronized ( viewerState )
 		{
 			final List< SourceState< ? > > sources = viewerState.getSources();
-			final List< Integer > visible = viewerState.getVisibleSourceIndices();
+			final BitSet visible = new BitSet( sources.size() );
+			for ( final int i : viewerState.getVisibleSourceIndices() )
+				visible.set( i );
 			final int timepoint = viewerState.getCurrentTimepoint();
 
+			if ( sourceBoundsIndex != null )
+			{
+				setSourceBounds( viewerState, sourceBoundsIndex.getSourceBounds( sources, timepoint ), visible );
+				return;
+			}
+
 			final int numSources = sources.size();
 			int numPresentSources = 0;
 			for ( final SourceState< ? > source : sources )
@@ -153,9 +179,30 @@ public class MultiBoxOverlayRenderer
 					sourceToViewer.concatenate( sourceTransform );
 					boxsource.setSourceToViewer( sourceToViewer );
 					boxsource.setSourceInterval( source.getSpimSource().getSource( timepoint, 0 ) );
-					boxsource.setVisible( visible.contains( i ) );
+					boxsource.setVisible( visible.get( i ) );
 				}
 			}
 		}
 	}
+
+	private void setSourceBounds( final ViewerState viewerState, final List< SourceBounds > bounds, final BitSet visible )
+	{
+		while ( boxSources.size() < bounds.size() )
+			boxSources.add( new IntervalAndTransform() );
+		while ( boxSources.size() > bounds.size() )
+			boxSources.remove( boxSources.size() - 1 );
+
+		final AffineTransform3D viewerTransform = new AffineTransform3D();
+		viewerState.getViewerTransform( viewerTransform );
+		final AffineTransform3D sourceToViewer = new AffineTransform3D();
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		for ( int j = 0; j < bounds.size(); ++j )
+		{
+			final SourceBounds b = bounds.get( j );
+			b.getSourceTransform( sourceTransform );
+			sourceToViewer.set( viewerTransform );
+			sourceToViewer.concatenate( sourceTransform );
+			boxSources.get( j ).set( visible.get( b.getSourceIndex() ), b.getSourceInterval(), sourceToViewer );
+		}
+	}
 }
@@ -30,7 +30,8 @@
 package bdv.viewer.render;
 
 import java.util.ArrayList;
-import java.util.concurrent.Callable;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -75,6 +76,17 @@ public abstract class AccumulateProjector< A, B > implements VolatileProjector
 
 	protected final AtomicBoolean interrupted = new AtomicBoolean();
 
+	/**
+	 * The {@link #sourceProjectors} that were mapped in the last
+	 * {@link #map()} call, that is, the ones that were not yet valid.
+	 */
+	protected final ArrayList< VolatileProjector > lastFrameMappedProjectors = new ArrayList<>();
+
+	/**
+	 * Distributes square tiles of the target to rendering threads.
+	 */
+	protected final AdaptiveTileScheduler scheduler;
+
 	protected volatile boolean valid = false;
 
 	public AccumulateProjector(
@@ -92,6 +104,7 @@ public abstract class AccumulateProjector< A, B > implements VolatileProjector
 		this.iterableTarget = Views.flatIterable( target );
 		this.numThreads = numThreads;
 		this.executorService = executorService;
+		scheduler = new AdaptiveTileScheduler( ( int ) target.dimension( 0 ), ( int ) target.dimension( 1 ), AdaptiveTileScheduler.DEFAULT_TILE_SIZE, numThreads );
 		lastFrameRenderNanoTime = -1;
 	}
 
@@ -110,66 +123,29 @@ public abstract class AccumulateProjector< A, B > implements VolatileProjector
 		stopWatch.start();
 
 		valid = true;
+		lastFrameMappedProjectors.clear();
 		for ( final VolatileProjector p : sourceProjectors )
 			if ( !p.isValid() )
+			{
+				lastFrameMappedProjectors.add( p );
 				if ( !p.map( clearUntouchedTargetPixels ) )
 					return false;
 				else
 					valid &= p.isValid();
+			}
 
 		final int width = ( int ) target.dimension( 0 );
-		final int height = ( int ) target.dimension( 1 );
-		final int length = width * height;
 
 		final boolean createExecutor = ( executorService == null );
 		final ExecutorService ex = createExecutor ? Executors.newFixedThreadPool( numThreads ) : executorService;
-		final int numTasks = Math.min( numThreads * 10, height );
-		final double taskLength = ( double ) length / numTasks;
-		final int numSources = sources.size();
-		final ArrayList< Callable< Void > > tasks = new ArrayList<>( numTasks );
-		for ( int taskNum = 0; taskNum < numTasks; ++taskNum )
-		{
-			final int myOffset = ( int ) ( taskNum * taskLength );
-			final int myLength = ( (taskNum == numTasks - 1 ) ? length : ( int ) ( ( taskNum + 1 ) * taskLength ) ) - myOffset;
-
-			final Callable< Void > r = new Callable< Void >()
+		scheduler.run( ex, ( minX, minY, maxX, maxY ) -> {
+			for ( int y = minY; y < maxY; ++y )
 			{
-				@SuppressWarnings( "unchecked" )
-				@Override
-				public Void call()
-				{
-					if ( interrupted.get() )
-						return null;
-
-					final Cursor< ? extends A >[] sourceCursors = new Cursor[ numSources ];
-					for ( int s = 0; s < numSources; ++s )
-					{
-						final Cursor< ? extends A > c = sources.get( s ).cursor();
-						c.jumpFwd( myOffset );
-						sourceCursors[ s ] = c;
-					}
-					final Cursor< B > targetCursor = iterableTarget.cursor();
-					targetCursor.jumpFwd( myOffset );
-
-					for ( int i = 0; i < myLength; ++i )
-					{
-						for ( int s = 0; s < numSources; ++s )
-							sourceCursors[ s ].fwd();
-						accumulate( sourceCursors, targetCursor.next() );
-					}
-					return null;
-				}
-			};
-			tasks.add( r );
-		}
-		try
-		{
-			ex.invokeAll( tasks );
-		}
-		catch ( final InterruptedException e )
-		{
-			Thread.currentThread().interrupt();
-		}
+				if ( interrupted.get() )
+					return;
+				accumulateRange( y * width + minX, maxX - minX );
+			}
+		}, interrupted::get );
 		if ( createExecutor )
 			ex.shutdown();
 
@@ -178,6 +154,36 @@ public abstract class AccumulateProjector< A, B > implements VolatileProjector
 		return !interrupted.get();
 	}
 
+	/**
+	 * Accumulate {@code length} pixels, starting at flat index {@code offset}
+	 * of the target. This is called concurrently for non-overlapping ranges.
+	 * <p>
+	 * The default implementation iterates {@link Cursor}s over all sources and
+	 * calls {@link #accumulate(Cursor[], Object)} for every pixel. Derived
+	 * classes can override this to work directly on the underlying storage.
+	 */
+	@SuppressWarnings( "unchecked" )
+	protected void accumulateRange( final int offset, final int length )
+	{
+		final int numSources = sources.size();
+		final Cursor< ? extends A >[] sourceCursors = new Cursor[ numSources ];
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final Cursor< ? extends A > c = sources.get( s ).cursor();
+			c.jumpFwd( offset );
+			sourceCursors[ s ] = c;
+		}
+		final Cursor< B > targetCursor = iterableTarget.cursor();
+		targetCursor.jumpFwd( offset );
+
+		for ( int i = 0; i < length; ++i )
+		{
+			for ( int s = 0; s < numSources; ++s )
+				sourceCursors[ s ].fwd();
+			accumulate( sourceCursors, targetCursor.next() );
+		}
+	}
+
 	protected abstract void accumulate( final Cursor< ? extends A >[] accesses, final B target );
 
 	@Override
@@ -194,9 +200,26 @@ public abstract class AccumulateProjector< A, B > implements VolatileProjector
 		return lastFrameRenderNanoTime;
 	}
 
+	/**
+	 * Get the {@link #sourceProjectors} that were mapped in the last
+	 * {@link #map()} call.
+	 */
+	public List< VolatileProjector > getLastFrameMappedProjectors()
+	{
+		return Collections.unmodifiableList( lastFrameMappedProjectors );
+	}
+
 	@Override
 	public boolean isValid()
 	{
 		return valid;
 	}
+
+	@Override
+	public void setFocus( final int x, final int y )
+	{
+		for ( final VolatileProjector p : sourceProjectors )
+			p.setFocus( x, y );
+		scheduler.setFocus( x, y );
+	}
 }
@@ -36,37 +36,244 @@ import bdv.viewer.Source;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
 import net.imglib2.type.numeric.ARGBType;
 
+/**
+ * Accumulates ARGB source images according to a {@link BlendMode}.
+ * <p>
+ * If all source images and the target are {@link ARGBScreenImage}s, the
+ * {@code int[]} storage is processed directly, in chunks of
+ * {@link #CHUNK_SIZE} pixels. Each channel of each source is accumulated in a
+ * separate simple loop over (thread-local) scratch arrays, which the JIT can
+ * vectorize. Otherwise, sources are accessed through {@link Cursor}s.
+ */
 public class AccumulateProjectorARGB extends AccumulateProjector< ARGBType, ARGBType >
 {
-	public static AccumulateProjectorFactory< ARGBType > factory = new AccumulateProjectorFactory< ARGBType >()
-	{
-		@Override
-		public AccumulateProjectorARGB createAccumulateProjector(
-				final ArrayList< VolatileProjector > sourceProjectors,
-				final ArrayList< Source< ? > > sources,
-				final ArrayList< ? extends RandomAccessible< ? extends ARGBType > > sourceScreenImages,
-				final RandomAccessibleInterval< ARGBType > targetScreenImages,
-				final int numThreads,
-				final ExecutorService executorService )
+	/**
+	 * How the source images are combined.
+	 */
+	public enum BlendMode
+	{
+		/**
+		 * Per-channel sum, clamped to 255.
+		 */
+		SUM,
+
+		/**
+		 * Per-channel maximum.
+		 */
+		MAX,
+
+		/**
+		 * Per-channel average.
+		 */
+		AVERAGE,
+
+		/**
+		 * Sources are composited on top of each other, in order, with the
+		 * "over" operator (the first source is at the bottom).
+		 */
+		ALPHA_OVER
+	}
+
+	public static AccumulateProjectorFactory< ARGBType > factory = getFactory( BlendMode.SUM );
+
+	/**
+	 * Get a factory for {@link AccumulateProjectorARGB}s with the given
+	 * {@link BlendMode}.
+	 */
+	public static AccumulateProjectorFactory< ARGBType > getFactory( final BlendMode blendMode )
+	{
+		return new AccumulateProjectorFactory< ARGBType >()
 		{
-			return new AccumulateProjectorARGB( sourceProjectors, sourceScreenImages, targetScreenImages, numThreads, executorService );
-		}
-	};
+			@Override
+			public AccumulateProjectorARGB createAccumulateProjector(
+					final ArrayList< VolatileProjector > sourceProjectors,
+					final ArrayList< Source< ? > > sources,
+					final ArrayList< ? extends RandomAccessible< ? extends ARGBType > > sourceScreenImages,
+					final RandomAccessibleInterval< ARGBType > targetScreenImages,
+					final int numThreads,
+					final ExecutorService executorService )
+			{
+				return new AccumulateProjectorARGB( sourceProjectors, sourceScreenImages, targetScreenImages, blendMode, numThreads, executorService );
+			}
+
+			@Override
+			public AccumulateProjectorARGB createAccumulateProjector(
+					final ArrayList< VolatileProjector > sourceProjectors,
+					final ArrayList< Source< ? > > sources,
+					final ArrayList< ? extends RandomAccessible< ? extends ARGBType > > sourceScreenImages,
+					final RandomAccessibleInterval< ARGBType > targetScreenImages,
+					final int numVisibleSources,
+					final int numThreads,
+					final ExecutorService executorService )
+			{
+				return new AccumulateProjectorARGB( sourceProjectors, sourceScreenImages, targetScreenImages, blendMode, numVisibleSources, numThreads, executorService );
+			}
+		};
+	}
+
+	/**
+	 * Number of pixels that are processed at once on the {@code int[]} path.
+	 */
+	static final int CHUNK_SIZE = 256;
+
+	/**
+	 * Per-thread scratch space for the {@code int[]} path.
+	 */
+	private static final ThreadLocal< int[][] > scratch = ThreadLocal.withInitial( () -> new int[ 4 ][ CHUNK_SIZE ] );
+
+	protected final BlendMode blendMode;
+
+	/**
+	 * The number of sources to average over for {@link BlendMode#AVERAGE}.
+	 * This may be larger than the number of source images, if sources that
+	 * cover no pixel of the target were left out.
+	 */
+	protected final int averageDivisor;
+
+	/**
+	 * Storage of the source images, or {@code null} if not all sources are
+	 * {@link ARGBScreenImage}s.
+	 */
+	protected final int[][] sourceData;
+
+	/**
+	 * Storage of the target image, or {@code null} if the target is not an
+	 * {@link ARGBScreenImage}.
+	 */
+	protected final int[] targetData;
+
+	public AccumulateProjectorARGB(
+			final ArrayList< VolatileProjector > sourceProjectors,
+			final ArrayList< ? extends RandomAccessible< ? extends ARGBType > > sources,
+			final RandomAccessibleInterval< ARGBType > target,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this( sourceProjectors, sources, target, BlendMode.SUM, numThreads, executorService );
+	}
 
 	public AccumulateProjectorARGB(
 			final ArrayList< VolatileProjector > sourceProjectors,
 			final ArrayList< ? extends RandomAccessible< ? extends ARGBType > > sources,
 			final RandomAccessibleInterval< ARGBType > target,
+			final BlendMode blendMode,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this( sourceProjectors, sources, target, blendMode, sources.size(), numThreads, executorService );
+	}
+
+	/**
+	 * @param averageDivisor
+	 *            the number of sources to average over for
+	 *            {@link BlendMode#AVERAGE}. If this is larger than the number
+	 *            of {@code sources}, the missing sources are treated as zero.
+	 */
+	public AccumulateProjectorARGB(
+			final ArrayList< VolatileProjector > sourceProjectors,
+			final ArrayList< ? extends RandomAccessible< ? extends ARGBType > > sources,
+			final RandomAccessibleInterval< ARGBType > target,
+			final BlendMode blendMode,
+			final int averageDivisor,
 			final int numThreads,
 			final ExecutorService executorService )
 	{
 		super( sourceProjectors, sources, target, numThreads, executorService );
+		this.blendMode = blendMode;
+		this.averageDivisor = Math.max( averageDivisor, sources.size() );
+
+		int[][] data = null;
+		if ( target instanceof ARGBScreenImage )
+		{
+			data = new int[ sources.size() ][];
+			for ( int s = 0; s < data.length; ++s )
+			{
+				final RandomAccessible< ? extends ARGBType > source = sources.get( s );
+				if ( !( source instanceof ARGBScreenImage )
+						|| ( ( ARGBScreenImage ) source ).dimension( 0 ) != target.dimension( 0 )
+						|| ( ( ARGBScreenImage ) source ).dimension( 1 ) != target.dimension( 1 ) )
+				{
+					data = null;
+					break;
+				}
+				data[ s ] = ( ( ARGBScreenImage ) source ).getData();
+			}
+		}
+		sourceData = data;
+		targetData = data == null ? null : ( ( ARGBScreenImage ) target ).getData();
+	}
+
+	@Override
+	protected void accumulateRange( final int offset, final int length )
+	{
+		if ( sourceData == null )
+		{
+			super.accumulateRange( offset, length );
+			return;
+		}
+
+		final int[][] tmp = scratch.get();
+		final int end = offset + length;
+		for ( int o = offset; o < end; o += CHUNK_SIZE )
+			blend( blendMode, sourceData, sourceData.length, averageDivisor, targetData, o, Math.min( CHUNK_SIZE, end - o ), tmp );
+	}
+
+	/**
+	 * Combine pixels {@code o ... o + n - 1} of the first {@code numSources}
+	 * {@code sources} into {@code target}. At most {@link #CHUNK_SIZE} pixels
+	 * can be processed at once.
+	 *
+	 * @param divisor
+	 *            the number of sources to average over for
+	 *            {@link BlendMode#AVERAGE}. Sources that are not given are
+	 *            treated as zero.
+	 * @param tmp
+	 *            scratch space, 4 arrays of at least {@code n} elements.
+	 */
+	static void blend( final BlendMode blendMode, final int[][] sources, final int numSources, final int divisor, final int[] target, final int o, final int n, final int[][] tmp )
+	{
+		switch ( blendMode )
+		{
+		case SUM:
+			sum( sources, numSources, target, o, n, tmp );
+			break;
+		case MAX:
+			max( sources, numSources, target, o, n, tmp );
+			break;
+		case AVERAGE:
+			average( sources, numSources, divisor, target, o, n, tmp );
+			break;
+		case ALPHA_OVER:
+			alphaOver( sources, numSources, target, o, n, tmp );
+			break;
+		}
 	}
 
 	@Override
 	protected void accumulate( final Cursor< ? extends ARGBType >[] accesses, final ARGBType target )
+	{
+		switch ( blendMode )
+		{
+		case SUM:
+		default:
+			accumulateSum( accesses, target );
+			break;
+		case MAX:
+			accumulateMax( accesses, target );
+			break;
+		case AVERAGE:
+			accumulateAverage( accesses, averageDivisor, target );
+			break;
+		case ALPHA_OVER:
+			accumulateAlphaOver( accesses, target );
+			break;
+		}
+	}
+
+	private static void accumulateSum( final Cursor< ? extends ARGBType >[] accesses, final ARGBType target )
 	{
 		int aSum = 0, rSum = 0, gSum = 0, bSum = 0;
 		for ( final Cursor< ? extends ARGBType > access : accesses )
@@ -91,4 +298,178 @@ public class AccumulateProjectorARGB extends AccumulateProjector< ARGBType, ARGB
 			bSum = 255;
 		target.set( ARGBType.rgba( rSum, gSum, bSum, aSum ) );
 	}
+
+	private static void accumulateMax( final Cursor< ? extends ARGBType >[] accesses, final ARGBType target )
+	{
+		int aMax = 0, rMax = 0, gMax = 0, bMax = 0;
+		for ( final Cursor< ? extends ARGBType > access : accesses )
+		{
+			final int value = access.get().get();
+			aMax = Math.max( aMax, ARGBType.alpha( value ) );
+			rMax = Math.max( rMax, ARGBType.red( value ) );
+			gMax = Math.max( gMax, ARGBType.green( value ) );
+			bMax = Math.max( bMax, ARGBType.blue( value ) );
+		}
+		target.set( ARGBType.rgba( rMax, gMax, bMax, aMax ) );
+	}
+
+	private static void accumulateAverage( final Cursor< ? extends ARGBType >[] accesses, final int divisor, final ARGBType target )
+	{
+		int aSum = 0, rSum = 0, gSum = 0, bSum = 0;
+		for ( final Cursor< ? extends ARGBType > access : accesses )
+		{
+			final int value = access.get().get();
+			aSum += ARGBType.alpha( value );
+			rSum += ARGBType.red( value );
+			gSum += ARGBType.green( value );
+			bSum += ARGBType.blue( value );
+		}
+		final int n = Math.max( 1, divisor );
+		target.set( ARGBType.rgba( ( rSum + n / 2 ) / n, ( gSum + n / 2 ) / n, ( bSum + n / 2 ) / n, ( aSum + n / 2 ) / n ) );
+	}
+
+	private static void accumulateAlphaOver( final Cursor< ? extends ARGBType >[] accesses, final ARGBType target )
+	{
+		int aAcc = 0, rAcc = 0, gAcc = 0, bAcc = 0;
+		for ( final Cursor< ? extends ARGBType > access : accesses )
+		{
+			final int value = access.get().get();
+			final int a = ARGBType.alpha( value );
+			final int ia = 255 - a;
+			rAcc = div255( ARGBType.red( value ) * a + rAcc * ia );
+			gAcc = div255( ARGBType.green( value ) * a + gAcc * ia );
+			bAcc = div255( ARGBType.blue( value ) * a + bAcc * ia );
+			aAcc = a + div255( aAcc * ia );
+		}
+		target.set( ARGBType.rgba( rAcc, gAcc, bAcc, aAcc ) );
+	}
+
+	/**
+	 * Rounded division by 255 for {@code 0 <= x <= 255 * 255}.
+	 */
+	private static int div255( final int x )
+	{
+		final int t = x + 128;
+		return ( t + ( t >> 8 ) ) >> 8;
+	}
+
+	/*
+	 * The following methods combine pixels {@code o ... o + n - 1} of the
+	 * first numSources sources into the target. {@code tmp} holds one scratch array for each of
+	 * the A, R, G, B channels. Loops are kept simple (no calls, no
+	 * branches) such that they can be auto-vectorized.
+	 */
+
+	static void sum( final int[][] sources, final int numSources, final int[] target, final int o, final int n, final int[][] tmp )
+	{
+		final int[] a = tmp[ 0 ], r = tmp[ 1 ], g = tmp[ 2 ], b = tmp[ 3 ];
+		for ( int i = 0; i < n; ++i )
+			a[ i ] = r[ i ] = g[ i ] = b[ i ] = 0;
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final int[] source = sources[ s ];
+			for ( int i = 0; i < n; ++i )
+				a[ i ] += source[ o + i ] >>> 24;
+			for ( int i = 0; i < n; ++i )
+				r[ i ] += ( source[ o + i ] >> 16 ) & 0xff;
+			for ( int i = 0; i < n; ++i )
+				g[ i ] += ( source[ o + i ] >> 8 ) & 0xff;
+			for ( int i = 0; i < n; ++i )
+				b[ i ] += source[ o + i ] & 0xff;
+		}
+		for ( int i = 0; i < n; ++i )
+			target[ o + i ] = ( Math.min( a[ i ], 255 ) << 24 )
+					| ( Math.min( r[ i ], 255 ) << 16 )
+					| ( Math.min( g[ i ], 255 ) << 8 )
+					| Math.min( b[ i ], 255 );
+	}
+
+	static void max( final int[][] sources, final int numSources, final int[] target, final int o, final int n, final int[][] tmp )
+	{
+		final int[] a = tmp[ 0 ], r = tmp[ 1 ], g = tmp[ 2 ], b = tmp[ 3 ];
+		for ( int i = 0; i < n; ++i )
+			a[ i ] = r[ i ] = g[ i ] = b[ i ] = 0;
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final int[] source = sources[ s ];
+			for ( int i = 0; i < n; ++i )
+				a[ i ] = Math.max( a[ i ], source[ o + i ] >>> 24 );
+			for ( int i = 0; i < n; ++i )
+				r[ i ] = Math.max( r[ i ], ( source[ o + i ] >> 16 ) & 0xff );
+			for ( int i = 0; i < n; ++i )
+				g[ i ] = Math.max( g[ i ], ( source[ o + i ] >> 8 ) & 0xff );
+			for ( int i = 0; i < n; ++i )
+				b[ i ] = Math.max( b[ i ], source[ o + i ] & 0xff );
+		}
+		for ( int i = 0; i < n; ++i )
+			target[ o + i ] = ( a[ i ] << 24 ) | ( r[ i ] << 16 ) | ( g[ i ] << 8 ) | b[ i ];
+	}
+
+	static void average( final int[][] sources, final int numSources, final int divisor, final int[] target, final int o, final int n, final int[][] tmp )
+	{
+		final int[] a = tmp[ 0 ], r = tmp[ 1 ], g = tmp[ 2 ], b = tmp[ 3 ];
+		for ( int i = 0; i < n; ++i )
+			a[ i ] = r[ i ] = g[ i ] = b[ i ] = 0;
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final int[] source = sources[ s ];
+			for ( int i = 0; i < n; ++i )
+				a[ i ] += source[ o + i ] >>> 24;
+			for ( int i = 0; i < n; ++i )
+				r[ i ] += ( source[ o + i ] >> 16 ) & 0xff;
+			for ( int i = 0; i < n; ++i )
+				g[ i ] += ( source[ o + i ] >> 8 ) & 0xff;
+			for ( int i = 0; i < n; ++i )
+				b[ i ] += source[ o + i ] & 0xff;
+		}
+		// round to nearest, as in accumulateAverage()
+		final int d = Math.max( 1, divisor );
+		final int half = d / 2;
+		for ( int i = 0; i < n; ++i )
+			target[ o + i ] = ( Math.min( ( a[ i ] + half ) / d, 255 ) << 24 )
+					| ( Math.min( ( r[ i ] + half ) / d, 255 ) << 16 )
+					| ( Math.min( ( g[ i ] + half ) / d, 255 ) << 8 )
+					| Math.min( ( b[ i ] + half ) / d, 255 );
+	}
+
+	static void alphaOver( final int[][] sources, final int numSources, final int[] target, final int o, final int n, final int[][] tmp )
+	{
+		final int[] a = tmp[ 0 ], r = tmp[ 1 ], g = tmp[ 2 ], b = tmp[ 3 ];
+		for ( int i = 0; i < n; ++i )
+			a[ i ] = r[ i ] = g[ i ] = b[ i ] = 0;
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final int[] source = sources[ s ];
+			// x / 255 is computed as ( t + ( t >> 8 ) ) >> 8 with t = x + 128
+			for ( int i = 0; i < n; ++i )
+			{
+				final int v = source[ o + i ];
+				final int sa = v >>> 24;
+				final int t = ( ( v >> 16 ) & 0xff ) * sa + r[ i ] * ( 255 - sa ) + 128;
+				r[ i ] = ( t + ( t >> 8 ) ) >> 8;
+			}
+			for ( int i = 0; i < n; ++i )
+			{
+				final int v = source[ o + i ];
+				final int sa = v >>> 24;
+				final int t = ( ( v >> 8 ) & 0xff ) * sa + g[ i ] * ( 255 - sa ) + 128;
+				g[ i ] = ( t + ( t >> 8 ) ) >> 8;
+			}
+			for ( int i = 0; i < n; ++i )
+			{
+				final int v = source[ o + i ];
+				final int sa = v >>> 24;
+				final int t = ( v & 0xff ) * sa + b[ i ] * ( 255 - sa ) + 128;
+				b[ i ] = ( t + ( t >> 8 ) ) >> 8;
+			}
+			for ( int i = 0; i < n; ++i )
+			{
+				final int sa = source[ o + i ] >>> 24;
+				final int t = a[ i ] * ( 255 - sa ) + 128;
+				a[ i ] = sa + ( ( t + ( t >> 8 ) ) >> 8 );
+			}
+		}
+		for ( int i = 0; i < n; ++i )
+			target[ o + i ] = ( a[ i ] << 24 ) | ( r[ i ] << 16 ) | ( g[ i ] << 8 ) | b[ i ];
+	}
 }
@@ -60,4 +60,30 @@ public interface AccumulateProjectorFactory< A >
 			final RandomAccessibleInterval< A > targetScreenImage,
 			final int numThreads,
 			final ExecutorService executorService );
+
+	/**
+	 * Like
+	 * {@link #createAccumulateProjector(ArrayList, ArrayList, ArrayList, RandomAccessibleInterval, int, ExecutorService)},
+	 * but {@code sources} may be a subset of the visible sources, from which
+	 * sources that do not intersect the screen were removed.
+	 * <p>
+	 * The default implementation ignores {@code numVisibleSources}.
+	 *
+	 * @param numVisibleSources
+	 *            the number of visible sources, including those that were
+	 *            removed from {@code sources}. These cover no pixel of
+	 *            {@code targetScreenImage}, but blend modes that average over
+	 *            sources must still count them.
+	 */
+	public default VolatileProjector createAccumulateProjector(
+			final ArrayList< VolatileProjector > sourceProjectors,
+			final ArrayList< Source< ? > > sources,
+			final ArrayList< ? extends RandomAccessible< ? extends A > > sourceScreenImages,
+			final RandomAccessibleInterval< A > targetScreenImage,
+			final int numVisibleSources,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		return createAccumulateProjector( sourceProjectors, sources, sourceScreenImages, targetScreenImage, numThreads, executorService );
+	}
 }
@@ -0,0 +1,426 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Distributes rendering of a sequence of tiles (for example rows of the
+ * screen image, or square tiles in row-major order) over threads.
+ * <p>
+ * If constructed with {@link #AdaptiveTileScheduler(int, int, int, int) screen
+ * dimensions}, the screen is divided into square tiles, which are ordered
+ * along a Z-order curve. Consecutive ranges of tiles are then compact square
+ * blocks of the screen, at every level of splitting.
+ * <p>
+ * The cost of each tile is estimated from the time measured for it in the
+ * previous {@link #run(ExecutorService, TileRangeTask) run}. Ranges of tiles
+ * are split such that each task has roughly the same estimated cost: ranges
+ * covering expensive regions are split finer, cheap ranges are merged into
+ * larger tasks. If the {@link ExecutorService} is a {@link ForkJoinPool},
+ * ranges are split recursively by {@link RecursiveAction}s, such that idle
+ * threads can steal the remaining halves of expensive ranges. Otherwise, the
+ * ranges are split up front and submitted with
+ * {@link ExecutorService#invokeAll(java.util.Collection)}.
+ * <p>
+ * If a {@link #setFocus(int) focus tile} is set, ranges closer to the focus
+ * tile are rendered first. For the {@link ForkJoinPool}, the half of a range
+ * that contains (or is closer to) the focus tile is computed by the calling
+ * thread, while the other half is left for stealing. Otherwise, the ranges
+ * are submitted in order of increasing distance to the focus tile.
+ */
+public class AdaptiveTileScheduler
+{
+	/**
+	 * Renders a range of tiles.
+	 */
+	@FunctionalInterface
+	public interface TileRangeTask
+	{
+		/**
+		 * Render tiles {@code from} (inclusive) to {@code to} (exclusive).
+		 * This is called concurrently for non-overlapping ranges.
+		 */
+		void render( int from, int to );
+	}
+
+	/**
+	 * Renders a square tile of the screen.
+	 */
+	@FunctionalInterface
+	public interface TileTask
+	{
+		/**
+		 * Render pixels {@code minX} to {@code maxX} (exclusive) of rows
+		 * {@code minY} to {@code maxY} (exclusive). This is called
+		 * concurrently for non-overlapping tiles.
+		 */
+		void render( int minX, int minY, int maxX, int maxY );
+	}
+
+	/**
+	 * Edge length of square screen tiles.
+	 */
+	public static final int DEFAULT_TILE_SIZE = 64;
+
+	/**
+	 * The work is split into approximately this many tasks per thread.
+	 */
+	private static final int TASKS_PER_THREAD = 4;
+
+	private final int numTiles;
+
+	private final int numThreads;
+
+	/**
+	 * Estimated cost (in nanoseconds) of each tile.
+	 */
+	private final double[] cost;
+
+	/**
+	 * Costs measured in the current {@link #run(ExecutorService, TileRangeTask, BooleanSupplier) run}.
+	 * These replace {@link #cost} only if the run was not interrupted.
+	 */
+	private final double[] measuredCost;
+
+	/**
+	 * Screen dimensions and tile size, for square tiles. {@code tileSize} is
+	 * 0 if tiles are not screen tiles.
+	 */
+	private final int width, height, tileSize;
+
+	private final int numTilesX;
+
+	/**
+	 * For square tiles, the tile coordinates of the i-th tile in Z-order.
+	 */
+	private final int[] tileX, tileY;
+
+	/**
+	 * For square tiles, the Z-order index of tile {@code (tx, ty)}, at
+	 * {@code ty * numTilesX + tx}.
+	 */
+	private final int[] tileIndex;
+
+	/**
+	 * Index of the tile to render first, or -1 to render in tile order.
+	 */
+	private volatile int focus = -1;
+
+	/**
+	 * @param numTiles
+	 *            number of tiles.
+	 * @param numThreads
+	 *            number of threads that the work should be distributed to.
+	 */
+	public AdaptiveTileScheduler( final int numTiles, final int numThreads )
+	{
+		this.numTiles = numTiles;
+		this.numThreads = Math.max( 1, numThreads );
+		cost = new double[ numTiles ];
+		measuredCost = new double[ numTiles ];
+		Arrays.fill( cost, 1 );
+		width = height = tileSize = numTilesX = 0;
+		tileX = tileY = tileIndex = null;
+	}
+
+	/**
+	 * Create a scheduler for a screen of {@code width} by {@code height}
+	 * pixels, divided into square tiles of {@code tileSize} pixels (clipped at
+	 * the right and bottom border). Use {@link #run(ExecutorService, TileTask, BooleanSupplier)}
+	 * and {@link #setFocus(int, int)} with pixel coordinates.
+	 *
+	 * @param numThreads
+	 *            number of threads that the work should be distributed to.
+	 */
+	public AdaptiveTileScheduler( final int width, final int height, final int tileSize, final int numThreads )
+	{
+		this.width = width;
+		this.height = height;
+		this.tileSize = tileSize;
+		this.numThreads = Math.max( 1, numThreads );
+		numTilesX = ( width + tileSize - 1 ) / tileSize;
+		final int numTilesY = ( height + tileSize - 1 ) / tileSize;
+		numTiles = numTilesX * numTilesY;
+		cost = new double[ numTiles ];
+		measuredCost = new double[ numTiles ];
+		Arrays.fill( cost, 1 );
+
+		final int ntx = numTilesX;
+		final Integer[] order = new Integer[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+			order[ i ] = i;
+		Arrays.sort( order, Comparator.comparingLong( i -> mortonCode( i % ntx, i / ntx ) ) );
+		tileX = new int[ numTiles ];
+		tileY = new int[ numTiles ];
+		tileIndex = new int[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			tileX[ i ] = order[ i ] % numTilesX;
+			tileY[ i ] = order[ i ] / numTilesX;
+			tileIndex[ order[ i ] ] = i;
+		}
+	}
+
+	/**
+	 * Interleave the bits of {@code x} and {@code y}.
+	 */
+	private static long mortonCode( final int x, final int y )
+	{
+		long code = 0;
+		for ( int b = 0; b < 31; ++b )
+		{
+			code |= ( long ) ( ( x >>> b ) & 1 ) << ( 2 * b );
+			code |= ( long ) ( ( y >>> b ) & 1 ) << ( 2 * b + 1 );
+		}
+		return code;
+	}
+
+	/**
+	 * Set the tile around which rendering should start. Tiles are rendered
+	 * approximately in order of increasing distance to {@code focusTile}. A
+	 * negative value means that tiles are rendered in order.
+	 */
+	public void setFocus( final int focusTile )
+	{
+		focus = focusTile < 0 ? -1 : Math.min( focusTile, numTiles - 1 );
+	}
+
+	/**
+	 * Set the screen pixel around which rendering should start, for
+	 * schedulers of {@link #AdaptiveTileScheduler(int, int, int, int) square
+	 * tiles}.
+	 */
+	public void setFocus( final int x, final int y )
+	{
+		if ( tileIndex == null || numTiles == 0 )
+			return;
+		final int tx = Math.max( 0, Math.min( x / tileSize, numTilesX - 1 ) );
+		final int ty = Math.max( 0, Math.min( y / tileSize, numTiles / numTilesX - 1 ) );
+		focus = tileIndex[ ty * numTilesX + tx ];
+	}
+
+	public int getFocus()
+	{
+		return focus;
+	}
+
+	/**
+	 * Run {@code task} on all tiles, using {@code executorService}, and
+	 * update the cost estimates from the measured times.
+	 */
+	public void run( final ExecutorService executorService, final TileRangeTask task )
+	{
+		run( executorService, task, () -> false );
+	}
+
+	/**
+	 * Run {@code task} on all square tiles, using {@code executorService}.
+	 * The cost estimates are updated from the measured times, unless
+	 * {@code interrupted} is {@code true} after the run. (Tiles of an
+	 * interrupted run return early, and their times do not reflect their
+	 * cost.)
+	 */
+	public void run( final ExecutorService executorService, final TileTask task, final BooleanSupplier interrupted )
+	{
+		if ( tileIndex == null )
+			throw new IllegalStateException( "not a scheduler of square tiles" );
+		run( executorService, ( from, to ) -> {
+			for ( int i = from; i < to; ++i )
+			{
+				final int minX = tileX[ i ] * tileSize;
+				final int minY = tileY[ i ] * tileSize;
+				task.render( minX, minY, Math.min( minX + tileSize, width ), Math.min( minY + tileSize, height ) );
+			}
+		}, interrupted );
+	}
+
+	/**
+	 * Run {@code task} on all tiles, using {@code executorService}. The cost
+	 * estimates are updated from the measured times, unless
+	 * {@code interrupted} is {@code true} after the run. (Tiles of an
+	 * interrupted run return early, and their times do not reflect their
+	 * cost.)
+	 */
+	public void run( final ExecutorService executorService, final TileRangeTask task, final BooleanSupplier interrupted )
+	{
+		if ( numTiles == 0 )
+			return;
+
+		System.arraycopy( cost, 0, measuredCost, 0, numTiles );
+		distribute( executorService, task );
+		if ( !interrupted.getAsBoolean() )
+			System.arraycopy( measuredCost, 0, cost, 0, numTiles );
+	}
+
+	private void distribute( final ExecutorService executorService, final TileRangeTask task )
+	{
+		final double[] prefix = new double[ numTiles + 1 ];
+		for ( int i = 0; i < numTiles; ++i )
+			prefix[ i + 1 ] = prefix[ i ] + cost[ i ];
+		final double targetCost = prefix[ numTiles ] / ( numThreads * TASKS_PER_THREAD );
+		final int focusTile = focus;
+
+		if ( executorService instanceof ForkJoinPool )
+		{
+			final SplitTask split = new SplitTask( task, prefix, targetCost, focusTile, 0, numTiles );
+			// a pass that runs on a worker of the pool (see RenderScheduler) computes the task directly
+			if ( ForkJoinTask.getPool() == executorService )
+				split.invoke();
+			else
+				( ( ForkJoinPool ) executorService ).invoke( split );
+			return;
+		}
+
+		final ArrayList< int[] > ranges = new ArrayList<>();
+		for ( int from = 0; from < numTiles; )
+		{
+			final int to = Math.max( from + 1, findSplit( prefix, from, numTiles, prefix[ from ] + targetCost ) );
+			ranges.add( new int[] { from, to } );
+			from = to;
+		}
+		if ( focusTile >= 0 )
+			ranges.sort( Comparator.comparingInt( r -> distance( focusTile, r[ 0 ], r[ 1 ] ) ) );
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+		for ( final int[] range : ranges )
+			tasks.add( () -> {
+				runTiles( task, range[ 0 ], range[ 1 ] );
+				return null;
+			} );
+		try
+		{
+			executorService.invokeAll( tasks );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Run {@code task} on tiles {@code from} to {@code to} and record the
+	 * time per tile as the measured cost of these tiles.
+	 */
+	private void runTiles( final TileRangeTask task, final int from, final int to )
+	{
+		final long t0 = System.nanoTime();
+		task.render( from, to );
+		final double tileCost = Math.max( 1, System.nanoTime() - t0 ) / ( double ) ( to - from );
+		for ( int i = from; i < to; ++i )
+			measuredCost[ i ] = tileCost;
+	}
+
+	/**
+	 * Find the smallest {@code m} in {@code (from, to]} such that
+	 * {@code prefix[m] >= value}.
+	 */
+	private static int findSplit( final double[] prefix, final int from, final int to, final double value )
+	{
+		int lo = from + 1;
+		int hi = to;
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+			if ( prefix[ mid ] < value )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Distance of tile {@code tile} to the range of tiles {@code from}
+	 * (inclusive) to {@code to} (exclusive).
+	 */
+	private static int distance( final int tile, final int from, final int to )
+	{
+		if ( tile < from )
+			return from - tile;
+		else if ( tile >= to )
+			return tile - to + 1;
+		else
+			return 0;
+	}
+
+	private class SplitTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final TileRangeTask task;
+
+		private final double[] prefix;
+
+		private final double targetCost;
+
+		private final int focusTile;
+
+		private final int from;
+
+		private final int to;
+
+		SplitTask( final TileRangeTask task, final double[] prefix, final double targetCost, final int focusTile, final int from, final int to )
+		{
+			this.task = task;
+			this.prefix = prefix;
+			this.targetCost = targetCost;
+			this.focusTile = focusTile;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( to - from <= 1 || prefix[ to ] - prefix[ from ] <= targetCost )
+			{
+				runTiles( task, from, to );
+				return;
+			}
+			final int m = Math.min( to - 1, findSplit( prefix, from, to, 0.5 * ( prefix[ from ] + prefix[ to ] ) ) );
+			final SplitTask lower = new SplitTask( task, prefix, targetCost, focusTile, from, m );
+			final SplitTask upper = new SplitTask( task, prefix, targetCost, focusTile, m, to );
+			// the first task is computed by this thread, the second is forked
+			if ( focusTile >= m )
+				invokeAll( upper, lower );
+			else
+				invokeAll( lower, upper );
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Lazily computed maximum value of every cell of a {@link RealType} image, used
+ * to skip empty cells when stepping along viewing rays.
+ * <p>
+ * The maximum of a cell is computed in the background the first time it is
+ * {@link #getMax(long, long, long) asked for}. Until then, and while the cell
+ * is not completely loaded (for {@link Volatile} types), it is reported as
+ * unknown. Instances are shared per image via {@link #forImage(RandomAccessibleInterval, Object)}.
+ * The image is only referenced weakly, such that statistics do not keep images
+ * of unused timepoints and levels alive.
+ */
+class CellStatistics
+{
+	/**
+	 * Cell size for images that are not {@link AbstractCellImg cell images}.
+	 */
+	private static final int DEFAULT_CELL_SIZE = 32;
+
+	private static final CacheHints DONTLOAD = new CacheHints( LoadingStrategy.DONTLOAD, 0, false );
+
+	private static final Map< Object, CellStatistics > statistics = new WeakHashMap<>();
+
+	/**
+	 * The image. This must not be referenced strongly, because it is the key
+	 * of this instance in {@link #statistics}.
+	 */
+	private final WeakReference< RandomAccessibleInterval< ? extends RealType< ? > > > img;
+
+	private final long[] imgMin = new long[ 3 ];
+
+	private final long[] imgDimensions = new long[ 3 ];
+
+	private final int[] cellDimensions = new int[ 3 ];
+
+	private final long[] numCells = new long[ 3 ];
+
+	/**
+	 * Maps flattened cell index to maximum value, or {@code NaN} while the
+	 * maximum is being computed.
+	 */
+	private final ConcurrentHashMap< Long, Double > cellMax = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the (shared) statistics for {@code img}, or {@code null} if
+	 * {@code img} is not 3D or its {@code type} is not a {@link RealType}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	static CellStatistics forImage( final RandomAccessibleInterval< ? > img, final Object type )
+	{
+		if ( img.numDimensions() != 3 || !( type instanceof RealType ) )
+			return null;
+		synchronized ( statistics )
+		{
+			CellStatistics s = statistics.get( img );
+			if ( s == null )
+			{
+				s = new CellStatistics( ( RandomAccessibleInterval< ? extends RealType< ? > > ) img );
+				statistics.put( img, s );
+			}
+			return s;
+		}
+	}
+
+	private CellStatistics( final RandomAccessibleInterval< ? extends RealType< ? > > img )
+	{
+		this.img = new WeakReference<>( img );
+		img.min( imgMin );
+		img.dimensions( imgDimensions );
+		if ( img instanceof AbstractCellImg )
+			( ( AbstractCellImg< ?, ?, ?, ? > ) img ).getCellGrid().cellDimensions( cellDimensions );
+		else
+			for ( int d = 0; d < 3; ++d )
+				cellDimensions[ d ] = DEFAULT_CELL_SIZE;
+		for ( int d = 0; d < 3; ++d )
+			numCells[ d ] = ( imgDimensions[ d ] + cellDimensions[ d ] - 1 ) / cellDimensions[ d ];
+	}
+
+	/**
+	 * Get the cell grid coordinate in dimension {@code d} of the cell
+	 * containing the continuous image coordinate {@code position}. Voxel
+	 * {@code i} covers {@code [i - 0.5, i + 0.5)}.
+	 */
+	public long cellPosition( final double position, final int d )
+	{
+		return ( long ) Math.floor( ( position + 0.5 - imgMin[ d ] ) / cellDimensions[ d ] );
+	}
+
+	/**
+	 * Get the continuous image coordinate in dimension {@code d} where cell
+	 * {@code c} starts.
+	 */
+	public double cellMin( final long c, final int d )
+	{
+		return c * cellDimensions[ d ] + imgMin[ d ] - 0.5;
+	}
+
+	/**
+	 * Get the continuous image coordinate in dimension {@code d} where cell
+	 * {@code c} ends (exclusive).
+	 */
+	public double cellMax( final long c, final int d )
+	{
+		return ( c + 1 ) * cellDimensions[ d ] + imgMin[ d ] - 0.5;
+	}
+
+	/**
+	 * Get the maximum value of cell {@code (cx, cy, cz)} (in cell grid
+	 * coordinates).
+	 *
+	 * @return maximum value of the cell, or {@code NaN} if it is not known
+	 *         (yet), or {@link Double#POSITIVE_INFINITY} if the cell is outside
+	 *         the image.
+	 */
+	public double getMax( final long cx, final long cy, final long cz )
+	{
+		if ( cx < 0 || cy < 0 || cz < 0 || cx >= numCells[ 0 ] || cy >= numCells[ 1 ] || cz >= numCells[ 2 ] )
+			return Double.POSITIVE_INFINITY;
+		final long index = cx + numCells[ 0 ] * ( cy + numCells[ 1 ] * cz );
+		final Double max = cellMax.get( index );
+		if ( max != null )
+			return max;
+		if ( cellMax.putIfAbsent( index, Double.NaN ) == null )
+			ForkJoinPool.commonPool().execute( () -> computeMax( index, cx, cy, cz ) );
+		return Double.NaN;
+	}
+
+	private void computeMax( final long index, final long cx, final long cy, final long cz )
+	{
+		final RandomAccessibleInterval< ? extends RealType< ? > > img = this.img.get();
+		if ( img == null )
+		{
+			cellMax.remove( index );
+			return;
+		}
+
+		final long[] min = new long[] { cx * cellDimensions[ 0 ], cy * cellDimensions[ 1 ], cz * cellDimensions[ 2 ] };
+		final long[] max = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			max[ d ] = Math.min( min[ d ] + cellDimensions[ d ], imgDimensions[ d ] ) - 1 + imgMin[ d ];
+		for ( int d = 0; d < 3; ++d )
+			min[ d ] += imgMin[ d ];
+
+		// Look at the cell without loading it, because this runs outside of
+		// any renderer's IO budget. Holding on to the cell keeps it in the
+		// cache while its pixels are read through the img below.
+		Object cell = null;
+		if ( img instanceof VolatileCachedCellImg )
+		{
+			final RandomAccess< ? > cells = ( ( VolatileCachedCellImg< ?, ? > ) img ).getCells( DONTLOAD ).randomAccess();
+			cells.setPosition( new long[] { cx, cy, cz } );
+			cell = cells.get();
+			if ( !isValid( cell ) )
+			{
+				// not loaded yet. try again next time the cell is asked for.
+				cellMax.remove( index );
+				return;
+			}
+		}
+
+		double m = Double.NEGATIVE_INFINITY;
+		final Cursor< ? extends RealType< ? > > cursor = Views.flatIterable( Views.interval( img, new FinalInterval( min, max ) ) ).cursor();
+		while ( cursor.hasNext() )
+		{
+			final RealType< ? > t = cursor.next();
+			if ( t instanceof Volatile && !( ( Volatile< ? > ) t ).isValid() )
+			{
+				// not loaded yet. try again next time the cell is asked for.
+				cellMax.remove( index );
+				return;
+			}
+			final double v = t.getRealDouble();
+			if ( v > m )
+				m = v;
+		}
+		if ( cell != null && !isValid( cell ) )
+		{
+			cellMax.remove( index );
+			return;
+		}
+		cellMax.put( index, m );
+	}
+
+	private static boolean isValid( final Object cell )
+	{
+		final Object data = ( ( Cell< ? > ) cell ).getData();
+		return !( data instanceof VolatileAccess ) || ( ( VolatileAccess ) data ).isValid();
+	}
+}
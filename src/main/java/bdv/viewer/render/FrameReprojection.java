@@ -0,0 +1,264 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.Arrays;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Helpers for reusing the previously rendered frame when only the viewer
+ * transform changed. The relation between the previous and the current frame
+ * is described by the transform from previous screen coordinates to current
+ * screen coordinates, see {@link #getScreenDelta}.
+ */
+final class FrameReprojection
+{
+	/**
+	 * Tolerance for comparing the linear part of a screen delta transform to
+	 * the identity.
+	 */
+	private static final double EPSILON_LINEAR = 1e-6;
+
+	/**
+	 * Tolerance (in screen pixels) for considering a translation to be
+	 * integer.
+	 */
+	private static final double EPSILON_PIXEL = 1e-3;
+
+	private FrameReprojection()
+	{}
+
+	/**
+	 * Compute the transform from screen coordinates of a frame rendered with
+	 * viewer transform {@code previous} to screen coordinates of a frame
+	 * rendered with viewer transform {@code current}, both at the screen scale
+	 * given by {@code screenScaleTransform}.
+	 */
+	static AffineTransform3D getScreenDelta(
+			final AffineTransform3D previous,
+			final AffineTransform3D current,
+			final AffineTransform3D screenScaleTransform )
+	{
+		return getScreenDelta( previous, current, screenScaleTransform, screenScaleTransform );
+	}
+
+	/**
+	 * Compute the transform from screen coordinates of a frame rendered with
+	 * viewer transform {@code previous} at the screen scale given by
+	 * {@code previousScreenScaleTransform} to screen coordinates of a frame
+	 * rendered with viewer transform {@code current} at the screen scale given
+	 * by {@code currentScreenScaleTransform}.
+	 */
+	static AffineTransform3D getScreenDelta(
+			final AffineTransform3D previous,
+			final AffineTransform3D current,
+			final AffineTransform3D previousScreenScaleTransform,
+			final AffineTransform3D currentScreenScaleTransform )
+	{
+		final AffineTransform3D delta = new AffineTransform3D();
+		delta.set( previousScreenScaleTransform.inverse() );
+		delta.preConcatenate( previous.inverse() );
+		delta.preConcatenate( current );
+		delta.preConcatenate( currentScreenScaleTransform );
+		return delta;
+	}
+
+	/**
+	 * Whether {@code delta} maps the screen plane {@code z=0} onto itself,
+	 * that is, it is a combination of in-plane translation, rotation and
+	 * scaling.
+	 */
+	static boolean isInPlane( final AffineTransform3D delta )
+	{
+		return Math.abs( delta.get( 0, 2 ) ) < EPSILON_LINEAR
+				&& Math.abs( delta.get( 1, 2 ) ) < EPSILON_LINEAR
+				&& Math.abs( delta.get( 2, 0 ) ) < EPSILON_LINEAR
+				&& Math.abs( delta.get( 2, 1 ) ) < EPSILON_LINEAR
+				&& Math.abs( delta.get( 2, 2 ) - 1 ) < EPSILON_LINEAR
+				&& Math.abs( delta.get( 2, 3 ) ) < EPSILON_PIXEL;
+	}
+
+	/**
+	 * Check whether {@code delta} is a translation by an integer number of
+	 * pixels in X and Y.
+	 *
+	 * @param delta
+	 *            screen delta transform.
+	 * @param shift
+	 *            if {@code delta} is an integer translation, the X and Y
+	 *            translation is stored here.
+	 * @return whether {@code delta} is an integer translation.
+	 */
+	static boolean isIntegerTranslation( final AffineTransform3D delta, final int[] shift )
+	{
+		if ( !isInPlane( delta )
+				|| Math.abs( delta.get( 0, 0 ) - 1 ) >= EPSILON_LINEAR
+				|| Math.abs( delta.get( 0, 1 ) ) >= EPSILON_LINEAR
+				|| Math.abs( delta.get( 1, 0 ) ) >= EPSILON_LINEAR
+				|| Math.abs( delta.get( 1, 1 ) - 1 ) >= EPSILON_LINEAR )
+			return false;
+		final double tx = delta.get( 0, 3 );
+		final double ty = delta.get( 1, 3 );
+		final long dx = Math.round( tx );
+		final long dy = Math.round( ty );
+		if ( Math.abs( tx - dx ) >= EPSILON_PIXEL || Math.abs( ty - dy ) >= EPSILON_PIXEL )
+			return false;
+		if ( Math.abs( dx ) > Integer.MAX_VALUE || Math.abs( dy ) > Integer.MAX_VALUE )
+			return false;
+		shift[ 0 ] = ( int ) dx;
+		shift[ 1 ] = ( int ) dy;
+		return true;
+	}
+
+	/**
+	 * Copy a {@code width} by {@code height} image from {@code src} to
+	 * {@code dst}, shifted by ({@code dx}, {@code dy}). Pixels of {@code dst}
+	 * that are not covered by {@code src} are set to {@code fill}.
+	 * {@code src} and {@code dst} may be the same array.
+	 */
+	static void shift( final int[] src, final int[] dst, final int width, final int height, final int dx, final int dy, final int fill )
+	{
+		final int x0 = Math.max( 0, dx );
+		final int x1 = Math.min( width, width + dx );
+		final int len = x1 - x0;
+		if ( dy > 0 )
+		{
+			for ( int y = height - 1; y >= 0; --y )
+				shiftRow( src, dst, width, height, y, dy, x0, len, dx, fill );
+		}
+		else
+		{
+			for ( int y = 0; y < height; ++y )
+				shiftRow( src, dst, width, height, y, dy, x0, len, dx, fill );
+		}
+	}
+
+	private static void shiftRow( final int[] src, final int[] dst, final int width, final int height, final int y, final int dy, final int x0, final int len, final int dx, final int fill )
+	{
+		final int o = y * width;
+		final int sy = y - dy;
+		if ( sy < 0 || sy >= height || len <= 0 )
+		{
+			Arrays.fill( dst, o, o + width, fill );
+			return;
+		}
+		System.arraycopy( src, sy * width + x0 - dx, dst, o + x0, len );
+		Arrays.fill( dst, o, o + x0, fill );
+		Arrays.fill( dst, o + x0 + len, o + width, fill );
+	}
+
+	/**
+	 * Copy a {@code width} by {@code height} image from {@code src} to
+	 * {@code dst}, shifted by ({@code dx}, {@code dy}). Pixels of {@code dst}
+	 * that are not covered by {@code src} are set to {@code fill}.
+	 * {@code src} and {@code dst} may be the same array.
+	 */
+	static void shift( final byte[] src, final byte[] dst, final int width, final int height, final int dx, final int dy, final byte fill )
+	{
+		final int x0 = Math.max( 0, dx );
+		final int x1 = Math.min( width, width + dx );
+		final int len = x1 - x0;
+		if ( dy > 0 )
+		{
+			for ( int y = height - 1; y >= 0; --y )
+				shiftRow( src, dst, width, height, y, dy, x0, len, dx, fill );
+		}
+		else
+		{
+			for ( int y = 0; y < height; ++y )
+				shiftRow( src, dst, width, height, y, dy, x0, len, dx, fill );
+		}
+	}
+
+	private static void shiftRow( final byte[] src, final byte[] dst, final int width, final int height, final int y, final int dy, final int x0, final int len, final int dx, final byte fill )
+	{
+		final int o = y * width;
+		final int sy = y - dy;
+		if ( sy < 0 || sy >= height || len <= 0 )
+		{
+			Arrays.fill( dst, o, o + width, fill );
+			return;
+		}
+		System.arraycopy( src, sy * width + x0 - dx, dst, o + x0, len );
+		Arrays.fill( dst, o, o + x0, fill );
+		Arrays.fill( dst, o + x0 + len, o + width, fill );
+	}
+
+	/**
+	 * Resample a {@code width} by {@code height} image {@code src} into
+	 * {@code dst} (which must be a different array) with nearest-neighbor
+	 * interpolation, such that {@code dst(delta(p)) = src(p)}. Pixels of
+	 * {@code dst} that are not covered by {@code src} are set to 0. This is
+	 * used as a quick preview while the exact frame is rendered.
+	 */
+	static void warp( final int[] src, final int[] dst, final int width, final int height, final AffineTransform3D delta )
+	{
+		warp( src, width, height, dst, width, height, delta );
+	}
+
+	/**
+	 * Resample a {@code srcWidth} by {@code srcHeight} image {@code src} into
+	 * the {@code width} by {@code height} image {@code dst} (which must be a
+	 * different array) with nearest-neighbor interpolation, such that
+	 * {@code dst(delta(p)) = src(p)}. Pixels of {@code dst} that are not
+	 * covered by {@code src} are set to 0.
+	 */
+	static void warp( final int[] src, final int srcWidth, final int srcHeight, final int[] dst, final int width, final int height, final AffineTransform3D delta )
+	{
+		final AffineTransform3D inv = delta.inverse();
+		final double m00 = inv.get( 0, 0 );
+		final double m01 = inv.get( 0, 1 );
+		final double m03 = inv.get( 0, 3 );
+		final double m10 = inv.get( 1, 0 );
+		final double m11 = inv.get( 1, 1 );
+		final double m13 = inv.get( 1, 3 );
+		for ( int y = 0; y < height; ++y )
+		{
+			// add 0.5 for rounding to nearest pixel by truncation
+			double sx = m01 * y + m03 + 0.5;
+			double sy = m11 * y + m13 + 0.5;
+			final int o = y * width;
+			for ( int x = 0; x < width; ++x )
+			{
+				if ( sx >= 0 && sy >= 0 )
+				{
+					final int ix = ( int ) sx;
+					final int iy = ( int ) sy;
+					dst[ o + x ] = ( ix < srcWidth && iy < srcHeight ) ? src[ iy * srcWidth + ix ] : 0;
+				}
+				else
+					dst[ o + x ] = 0;
+				sx += m00;
+				sy += m10;
+			}
+		}
+	}
+}
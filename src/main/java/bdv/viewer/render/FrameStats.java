@@ -0,0 +1,231 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.Arrays;
+
+/**
+ * Statistics about one rendering pass of {@link MultiResolutionRenderer}.
+ * <p>
+ * A new frame (after the viewer transform, time point, visible sources, etc.
+ * changed) is rendered in one or more passes: first at coarse screen scales,
+ * then at finer screen scales, and at the finest screen scale repeatedly until
+ * all data is loaded. Each pass is described by one {@link FrameStats}.
+ */
+public class FrameStats
+{
+	private final int screenScaleIndex;
+
+	private final int pass;
+
+	private final int numVisibleSources;
+
+	private final boolean cancelled;
+
+	private final boolean valid;
+
+	private final long renderNanos;
+
+	private final long ioNanos;
+
+	private final int[] invalidPixelsPerLevel;
+
+	/**
+	 * @param screenScaleIndex
+	 *            index of the screen scale that was rendered.
+	 * @param pass
+	 *            number of the pass at this screen scale, starting at 1.
+	 * @param numVisibleSources
+	 *            number of visible sources.
+	 * @param cancelled
+	 *            whether rendering was cancelled.
+	 * @param valid
+	 *            whether all rendered data was valid.
+	 * @param renderNanos
+	 *            rendering time in nanoseconds, excluding blocking IO.
+	 * @param ioNanos
+	 *            time spent in blocking IO in nanoseconds.
+	 * @param invalidPixelsPerLevel
+	 *            for each hierarchy level (in rendering order, i.e., best
+	 *            level first), the number of pixels that were not valid at
+	 *            that level, summed over sources, or -1 if the level was not
+	 *            visited.
+	 */
+	public FrameStats(
+			final int screenScaleIndex,
+			final int pass,
+			final int numVisibleSources,
+			final boolean cancelled,
+			final boolean valid,
+			final long renderNanos,
+			final long ioNanos,
+			final int[] invalidPixelsPerLevel )
+	{
+		this.screenScaleIndex = screenScaleIndex;
+		this.pass = pass;
+		this.numVisibleSources = numVisibleSources;
+		this.cancelled = cancelled;
+		this.valid = valid;
+		this.renderNanos = renderNanos;
+		this.ioNanos = ioNanos;
+		this.invalidPixelsPerLevel = invalidPixelsPerLevel.clone();
+	}
+
+	/**
+	 * Collect statistics of the last {@link VolatileProjector#map() map()}
+	 * call of {@code projector}. For {@link AccumulateProjector}s, IO time and
+	 * invalid pixels are summed over the source projectors that were mapped.
+	 */
+	static FrameStats create(
+			final VolatileProjector projector,
+			final int screenScaleIndex,
+			final int pass,
+			final int numVisibleSources,
+			final boolean success )
+	{
+		final long[] ioNanos = new long[ 1 ];
+		final int[][] invalidPixels = new int[][] { new int[ 0 ] };
+		collect( projector, ioNanos, invalidPixels );
+		return new FrameStats(
+				screenScaleIndex,
+				pass,
+				numVisibleSources,
+				!success,
+				projector.isValid(),
+				projector.getLastFrameRenderNanoTime(),
+				ioNanos[ 0 ],
+				invalidPixels[ 0 ] );
+	}
+
+	private static void collect( final VolatileProjector projector, final long[] ioNanos, final int[][] invalidPixels )
+	{
+		if ( projector instanceof AccumulateProjector )
+		{
+			for ( final VolatileProjector p : ( ( AccumulateProjector< ?, ? > ) projector ).getLastFrameMappedProjectors() )
+				collect( p, ioNanos, invalidPixels );
+		}
+		else if ( projector instanceof VolatileHierarchyProjector )
+		{
+			final VolatileHierarchyProjector< ?, ? > p = ( VolatileHierarchyProjector< ?, ? > ) projector;
+			ioNanos[ 0 ] += p.getLastFrameIoNanoTime();
+			final int[] levels = p.getLastFrameInvalidPixels();
+			int[] sum = invalidPixels[ 0 ];
+			if ( sum.length < levels.length )
+			{
+				final int n = sum.length;
+				sum = Arrays.copyOf( sum, levels.length );
+				Arrays.fill( sum, n, sum.length, -1 );
+				invalidPixels[ 0 ] = sum;
+			}
+			for ( int l = 0; l < levels.length; ++l )
+				if ( levels[ l ] >= 0 )
+					sum[ l ] = Math.max( sum[ l ], 0 ) + levels[ l ];
+		}
+		else if ( projector instanceof FusedVolatileProjector )
+			ioNanos[ 0 ] += ( ( FusedVolatileProjector ) projector ).getLastFrameIoNanoTime();
+	}
+
+	/**
+	 * Get the index of the screen scale that was rendered (0 is full
+	 * resolution).
+	 */
+	public int getScreenScaleIndex()
+	{
+		return screenScaleIndex;
+	}
+
+	/**
+	 * Get the number of this pass at the current screen scale, starting at 1.
+	 * Passes after the first one render data that was not yet loaded in the
+	 * previous passes.
+	 */
+	public int getPass()
+	{
+		return pass;
+	}
+
+	public int getNumVisibleSources()
+	{
+		return numVisibleSources;
+	}
+
+	/**
+	 * Whether rendering was cancelled, for example because the viewer
+	 * transform changed.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Whether all rendered data was valid, i.e., no further passes are needed.
+	 */
+	public boolean isValid()
+	{
+		return valid;
+	}
+
+	/**
+	 * Get the rendering time in nanoseconds, excluding time spent in blocking
+	 * IO.
+	 */
+	public long getRenderNanos()
+	{
+		return renderNanos;
+	}
+
+	/**
+	 * Get the time spent in blocking IO in nanoseconds.
+	 */
+	public long getIoNanos()
+	{
+		return ioNanos;
+	}
+
+	/**
+	 * Get, for each hierarchy level (best level first), the number of pixels
+	 * that were not valid at that level, summed over sources. Levels that were
+	 * not visited are -1. This is empty if the projector does not report
+	 * per-level counts.
+	 */
+	public int[] getInvalidPixelsPerLevel()
+	{
+		return invalidPixelsPerLevel.clone();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "FrameStats{scale=%d, pass=%d, sources=%d, cancelled=%b, valid=%b, render=%.2f ms, io=%.2f ms, invalid=%s}",
+				screenScaleIndex, pass, numVisibleSources, cancelled, valid,
+				renderNanos / 1e6, ioNanos / 1e6, Arrays.toString( invalidPixelsPerLevel ) );
+	}
+}
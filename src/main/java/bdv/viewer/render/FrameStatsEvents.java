@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits {@link FrameStats} as Java Flight Recorder events named
+ * {@code bdv.RenderPass}, if the JFR API ({@code jdk.jfr}) is available at
+ * runtime.
+ * <p>
+ * The event type is defined once, dynamically through
+ * {@code jdk.jfr.EventFactory}, such that this works on Java versions without
+ * JFR. Events are created and filled through {@link MethodHandle}s that are
+ * looked up once, so a rendering pass does not go through reflection. An event
+ * is {@link #begin() begun} when a rendering pass starts and
+ * {@link #commit(Object, FrameStats) committed} when it ends, such that its
+ * duration is the duration of the pass. The per-level invalid pixel counts are
+ * recorded as a comma-separated string, because JFR events cannot have array
+ * fields.
+ */
+final class FrameStatsEvents
+{
+	/**
+	 * Creates a new event of the {@code bdv.RenderPass} type, or {@code null}
+	 * if JFR is not available.
+	 */
+	private static final MethodHandle newEvent;
+
+	private static final MethodHandle isEnabled;
+
+	private static final MethodHandle begin;
+
+	private static final MethodHandle shouldCommit;
+
+	private static final MethodHandle set;
+
+	private static final MethodHandle commit;
+
+	static
+	{
+		MethodHandle ne = null, ie = null, b = null, sc = null, s = null, c = null;
+		try
+		{
+			final Class< ? > annotationElementClass = Class.forName( "jdk.jfr.AnnotationElement" );
+			final Class< ? > valueDescriptorClass = Class.forName( "jdk.jfr.ValueDescriptor" );
+			final Class< ? > eventFactoryClass = Class.forName( "jdk.jfr.EventFactory" );
+			final Class< ? > eventClass = Class.forName( "jdk.jfr.Event" );
+			final Class< ? > nameClass = Class.forName( "jdk.jfr.Name" );
+			final Class< ? > labelClass = Class.forName( "jdk.jfr.Label" );
+			final Class< ? > categoryClass = Class.forName( "jdk.jfr.Category" );
+			final Class< ? > timespanClass = Class.forName( "jdk.jfr.Timespan" );
+
+			final Constructor< ? > annotation = annotationElementClass.getConstructor( Class.class, Object.class );
+			final Constructor< ? > field = valueDescriptorClass.getConstructor( Class.class, String.class, List.class );
+
+			final List< Object > eventAnnotations = Arrays.asList(
+					annotation.newInstance( nameClass, "bdv.RenderPass" ),
+					annotation.newInstance( labelClass, "BigDataViewer Render Pass" ),
+					annotation.newInstance( categoryClass, new String[] { "BigDataViewer" } ) );
+			final List< Object > nanos = Collections.singletonList( annotation.newInstance( timespanClass, "NANOSECONDS" ) );
+			final List< Object > none = Collections.emptyList();
+
+			final List< Object > fields = new ArrayList<>();
+			fields.add( field.newInstance( int.class, "screenScaleIndex", none ) );
+			fields.add( field.newInstance( int.class, "pass", none ) );
+			fields.add( field.newInstance( int.class, "numVisibleSources", none ) );
+			fields.add( field.newInstance( boolean.class, "cancelled", none ) );
+			fields.add( field.newInstance( boolean.class, "valid", none ) );
+			fields.add( field.newInstance( long.class, "renderTime", nanos ) );
+			fields.add( field.newInstance( long.class, "ioTime", nanos ) );
+			fields.add( field.newInstance( String.class, "invalidPixelsPerLevel", none ) );
+
+			final Object factory = eventFactoryClass.getMethod( "create", List.class, List.class ).invoke( null, eventAnnotations, fields );
+
+			final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			final MethodType eventToVoid = MethodType.methodType( void.class, Object.class );
+			final MethodType eventToBoolean = MethodType.methodType( boolean.class, Object.class );
+			ne = lookup.unreflect( eventFactoryClass.getMethod( "newEvent" ) ).bindTo( factory ).asType( MethodType.methodType( Object.class ) );
+			ie = lookup.unreflect( eventClass.getMethod( "isEnabled" ) ).asType( eventToBoolean );
+			b = lookup.unreflect( eventClass.getMethod( "begin" ) ).asType( eventToVoid );
+			sc = lookup.unreflect( eventClass.getMethod( "shouldCommit" ) ).asType( eventToBoolean );
+			s = lookup.unreflect( eventClass.getMethod( "set", int.class, Object.class ) ).asType( MethodType.methodType( void.class, Object.class, int.class, Object.class ) );
+			c = lookup.unreflect( eventClass.getMethod( "commit" ) ).asType( eventToVoid );
+		}
+		catch ( final ReflectiveOperationException | RuntimeException | LinkageError e )
+		{
+			// JFR is not available
+			ne = null;
+		}
+		newEvent = ne;
+		isEnabled = ie;
+		begin = b;
+		shouldCommit = sc;
+		set = s;
+		commit = c;
+	}
+
+	private FrameStatsEvents()
+	{}
+
+	/**
+	 * Begin a JFR event for a rendering pass that starts now.
+	 *
+	 * @return the event, or {@code null} if JFR is not available or the event
+	 *         is not enabled in the current recording.
+	 */
+	static Object begin()
+	{
+		if ( newEvent == null )
+			return null;
+		try
+		{
+			final Object event = ( Object ) newEvent.invokeExact();
+			if ( !( boolean ) isEnabled.invokeExact( event ) )
+				return null;
+			begin.invokeExact( event );
+			return event;
+		}
+		catch ( final Throwable e )
+		{
+			// ignore, instrumentation must never break rendering
+			return null;
+		}
+	}
+
+	/**
+	 * Fill in {@code stats} and commit {@code event}, which was obtained from
+	 * {@link #begin()} when the rendering pass started.
+	 *
+	 * @param event
+	 *            the event, may be {@code null}.
+	 */
+	static void commit( final Object event, final FrameStats stats )
+	{
+		if ( event == null )
+			return;
+		try
+		{
+			if ( !( boolean ) shouldCommit.invokeExact( event ) )
+				return;
+			final int[] invalid = stats.getInvalidPixelsPerLevel();
+			final StringBuilder sb = new StringBuilder();
+			for ( int l = 0; l < invalid.length; ++l )
+			{
+				if ( l > 0 )
+					sb.append( ',' );
+				sb.append( invalid[ l ] );
+			}
+			set.invokeExact( event, 0, ( Object ) stats.getScreenScaleIndex() );
+			set.invokeExact( event, 1, ( Object ) stats.getPass() );
+			set.invokeExact( event, 2, ( Object ) stats.getNumVisibleSources() );
+			set.invokeExact( event, 3, ( Object ) stats.isCancelled() );
+			set.invokeExact( event, 4, ( Object ) stats.isValid() );
+			set.invokeExact( event, 5, ( Object ) stats.getRenderNanos() );
+			set.invokeExact( event, 6, ( Object ) stats.getIoNanos() );
+			set.invokeExact( event, 7, ( Object ) sb.toString() );
+			commit.invokeExact( event );
+		}
+		catch ( final Throwable e )
+		{
+			// ignore, instrumentation must never break rendering
+		}
+	}
+}
@@ -0,0 +1,1061 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.cache.iotiming.CacheIoTiming;
+import net.imglib2.cache.iotiming.IoStatistics;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.LookupTableARGBColorConverter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.ui.util.StopWatch;
+
+/**
+ * {@link VolatileProjector} that renders several sources and combines them
+ * directly into one {@link ARGBScreenImage}, without a full-size intermediate
+ * image and mask per source.
+ * <p>
+ * The target is processed in square tiles of {@link #TILE_SIZE} pixels. For
+ * each tile, every source whose screen bounds overlap the tile is rendered
+ * into a small per-thread buffer, trying hierarchy levels from best to worst
+ * for each pixel as {@link VolatileHierarchyProjector} does. The buffers are
+ * then combined into the target according to a {@link BlendMode}.
+ * <p>
+ * For each source and tile, only the worst hierarchy level that pixels of the
+ * tile were rendered from is remembered (one byte per tile). In subsequent
+ * {@link #map()} calls, a tile is rendered again only if some overlapping
+ * source is not yet perfect in that tile, and new data arrived for that source
+ * since. Then all sources overlapping the tile are sampled again, into
+ * per-thread buffers of one tile each, such that the memory used does not grow
+ * with the number of incomplete tiles.
+ * <p>
+ * The sources overlapping each tile are determined once, when the projector
+ * is created, and within a tile each source is only sampled inside its screen
+ * bounds. For a mosaic of many overlapping tiles (in the dataset sense), the
+ * cost per pixel therefore depends on the number of sources covering it, not
+ * on the total number of sources. Sources created with a blend width (see
+ * {@link FusedSource#FusedSource(List, List, Converter, boolean, Interval, AffineTransform3D, double)})
+ * have weights that fall off smoothly towards their borders. If any source
+ * has weights, sources of the same {@link FusedSource#getGroup() group} (for
+ * example, the tiles of one channel) are combined by weighted average, which
+ * removes seams in overlap regions. The groups are then combined according to
+ * the {@link BlendMode}.
+ */
+public class FusedVolatileProjector implements VolatileProjector
+{
+	/**
+	 * Width and height of the tiles in which the target is processed.
+	 */
+	public static final int TILE_SIZE = 64;
+
+	/**
+	 * A source to be rendered by {@link FusedVolatileProjector}.
+	 *
+	 * @param <T>
+	 *            pixel type
+	 */
+	public static class FusedSource< T >
+	{
+		private final List< ? extends RandomAccessible< T > > levels;
+
+		private final List< ? extends LongSupplier > levelGenerations;
+
+		private final Converter< ? super T, ARGBType > converter;
+
+		private final boolean isVolatile;
+
+		private final Interval screenBounds;
+
+		/**
+		 * Transforms screen coordinates to source voxel coordinates, or
+		 * {@code null} if the source has no blending weights.
+		 */
+		private final AffineTransform3D screenToSource;
+
+		/**
+		 * Source voxel coordinates of the borders of the source, per
+		 * dimension. Infinite in dimensions that are not blended.
+		 */
+		private final double[] sourceMin;
+
+		private final double[] sourceMax;
+
+		/**
+		 * Width (in source voxels) of the band along the borders of the
+		 * source in which its weight falls off to zero.
+		 */
+		private final double blendWidth;
+
+		/**
+		 * Sources of the same group are combined by weighted average, or
+		 * {@code -1} if the source forms a group of its own.
+		 */
+		private final int group;
+
+		/**
+		 * @param levels
+		 *            hierarchy levels (transformed to screen coordinates),
+		 *            ordered from best to worst.
+		 * @param levelGenerations
+		 *            for each level, a counter that changes whenever new data
+		 *            becomes available for that level. May be {@code null}, or
+		 *            contain {@code null} entries.
+		 * @param converter
+		 *            converts source values to ARGB.
+		 * @param isVolatile
+		 *            whether {@code T} is {@link Volatile}. If not, all
+		 *            samples are considered valid.
+		 * @param screenBounds
+		 *            the screen pixels that the source can cover (see
+		 *            {@link FusedVolatileProjector#getScreenBounds(Interval, AffineTransform3D)}),
+		 *            or {@code null} if unknown.
+		 */
+		public FusedSource(
+				final List< ? extends RandomAccessible< T > > levels,
+				final List< ? extends LongSupplier > levelGenerations,
+				final Converter< ? super T, ARGBType > converter,
+				final boolean isVolatile,
+				final Interval screenBounds )
+		{
+			this( levels, levelGenerations, converter, isVolatile, screenBounds, -1 );
+		}
+
+		/**
+		 * @param levels
+		 *            hierarchy levels (transformed to screen coordinates),
+		 *            ordered from best to worst.
+		 * @param levelGenerations
+		 *            for each level, a counter that changes whenever new data
+		 *            becomes available for that level. May be {@code null}, or
+		 *            contain {@code null} entries.
+		 * @param converter
+		 *            converts source values to ARGB.
+		 * @param isVolatile
+		 *            whether {@code T} is {@link Volatile}. If not, all
+		 *            samples are considered valid.
+		 * @param screenBounds
+		 *            the screen pixels that the source can cover (see
+		 *            {@link FusedVolatileProjector#getScreenBounds(Interval, AffineTransform3D)}),
+		 *            or {@code null} if unknown.
+		 * @param group
+		 *            the group of sources that this source is combined with by
+		 *            weighted average, or {@code -1} for a group of its own.
+		 */
+		public FusedSource(
+				final List< ? extends RandomAccessible< T > > levels,
+				final List< ? extends LongSupplier > levelGenerations,
+				final Converter< ? super T, ARGBType > converter,
+				final boolean isVolatile,
+				final Interval screenBounds,
+				final int group )
+		{
+			this.levels = levels;
+			this.levelGenerations = levelGenerations;
+			this.converter = converter;
+			this.isVolatile = isVolatile;
+			this.screenBounds = screenBounds;
+			this.screenToSource = null;
+			this.sourceMin = null;
+			this.sourceMax = null;
+			this.blendWidth = 0;
+			this.group = group;
+		}
+
+		/**
+		 * Create a source with screen bounds computed from its interval and
+		 * transform, and optional blending weights. If
+		 * {@code blendWidth > 0}, the weight of the source is 1 in its
+		 * interior and falls off smoothly to 0 within {@code blendWidth}
+		 * voxels of its borders. Dimensions in which the source is only one
+		 * voxel thick are not blended.
+		 *
+		 * @param levels
+		 *            hierarchy levels (transformed to screen coordinates),
+		 *            ordered from best to worst.
+		 * @param levelGenerations
+		 *            for each level, a counter that changes whenever new data
+		 *            becomes available for that level. May be {@code null}, or
+		 *            contain {@code null} entries.
+		 * @param converter
+		 *            converts source values to ARGB.
+		 * @param isVolatile
+		 *            whether {@code T} is {@link Volatile}. If not, all
+		 *            samples are considered valid.
+		 * @param sourceInterval
+		 *            the interval of the best level.
+		 * @param sourceToScreen
+		 *            transforms voxel coordinates of the best level to screen
+		 *            coordinates.
+		 * @param blendWidth
+		 *            width (in voxels of the best level) of the band along
+		 *            the source borders in which the weight falls off, or 0
+		 *            for no blending weights.
+		 * @param group
+		 *            the group of sources that this source is combined with by
+		 *            weighted average, or {@code -1} for a group of its own.
+		 */
+		public FusedSource(
+				final List< ? extends RandomAccessible< T > > levels,
+				final List< ? extends LongSupplier > levelGenerations,
+				final Converter< ? super T, ARGBType > converter,
+				final boolean isVolatile,
+				final Interval sourceInterval,
+				final AffineTransform3D sourceToScreen,
+				final double blendWidth,
+				final int group )
+		{
+			this.group = group;
+			this.levels = levels;
+			this.levelGenerations = levelGenerations;
+			this.converter = converter;
+			this.isVolatile = isVolatile;
+			this.screenBounds = getScreenBounds( sourceInterval, sourceToScreen );
+			if ( blendWidth > 0 )
+			{
+				this.screenToSource = sourceToScreen.inverse();
+				this.sourceMin = new double[ 3 ];
+				this.sourceMax = new double[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+				{
+					final boolean blend = d < sourceInterval.numDimensions() && sourceInterval.dimension( d ) > 1;
+					sourceMin[ d ] = blend ? sourceInterval.min( d ) - 0.5 : Double.NEGATIVE_INFINITY;
+					sourceMax[ d ] = blend ? sourceInterval.max( d ) + 0.5 : Double.POSITIVE_INFINITY;
+				}
+				this.blendWidth = blendWidth;
+			}
+			else
+			{
+				this.screenToSource = null;
+				this.sourceMin = null;
+				this.sourceMax = null;
+				this.blendWidth = 0;
+			}
+		}
+
+		/**
+		 * Whether this source has blending weights.
+		 */
+		public boolean hasWeights()
+		{
+			return blendWidth > 0;
+		}
+
+		/**
+		 * Get the group of sources that this source is combined with by
+		 * weighted average, or {@code -1} if it forms a group of its own.
+		 */
+		public int getGroup()
+		{
+			return group;
+		}
+	}
+
+	/**
+	 * {@code mask} value for pixels outside the screen bounds of a source.
+	 */
+	private static final byte OUTSIDE = -1;
+
+	/**
+	 * Per-thread buffers for rendering a tile.
+	 */
+	private static class TileBuffers
+	{
+		int[][] sourceTiles = new int[ 0 ][];
+
+		float[][] sourceWeights = new float[ 0 ][];
+
+		int[][] groupTiles = new int[ 0 ][];
+
+		int[] groupMembers = new int[ 0 ];
+
+		boolean[] grouped = new boolean[ 0 ];
+
+		final int[] blended = new int[ TILE_SIZE * TILE_SIZE ];
+
+		final byte[] mask = new byte[ TILE_SIZE * TILE_SIZE ];
+
+		final boolean[] touched = new boolean[ TILE_SIZE * TILE_SIZE ];
+
+		final int[][] tmp = new int[ 4 ][ AccumulateProjectorARGB.CHUNK_SIZE ];
+
+		final ARGBType argb = new ARGBType();
+
+		final double[] pos = new double[ 3 ];
+
+		void ensureSourceWeights( final int numSources )
+		{
+			if ( sourceWeights.length < numSources )
+			{
+				final float[][] weights = Arrays.copyOf( sourceWeights, numSources );
+				for ( int i = sourceWeights.length; i < numSources; ++i )
+					weights[ i ] = new float[ TILE_SIZE * TILE_SIZE ];
+				sourceWeights = weights;
+			}
+		}
+
+		void ensureGroupTiles( final int numSources )
+		{
+			if ( groupTiles.length < numSources )
+			{
+				final int[][] tiles = Arrays.copyOf( groupTiles, numSources );
+				for ( int i = groupTiles.length; i < numSources; ++i )
+					tiles[ i ] = new int[ TILE_SIZE * TILE_SIZE ];
+				groupTiles = tiles;
+				groupMembers = new int[ numSources ];
+				grouped = new boolean[ numSources ];
+			}
+		}
+
+		void ensureSourceTiles( final int numSources )
+		{
+			if ( sourceTiles.length < numSources )
+			{
+				final int[][] tiles = Arrays.copyOf( sourceTiles, numSources );
+				for ( int i = sourceTiles.length; i < numSources; ++i )
+					tiles[ i ] = new int[ TILE_SIZE * TILE_SIZE ];
+				sourceTiles = tiles;
+			}
+		}
+	}
+
+	private static final ThreadLocal< TileBuffers > tileBuffers = ThreadLocal.withInitial( TileBuffers::new );
+
+	private final ArrayList< FusedSource< ? > > sources;
+
+	private final BlendMode blendMode;
+
+	/**
+	 * The number of sources to average over for {@link BlendMode#AVERAGE}.
+	 */
+	private final int averageDivisor;
+
+	private final int[] targetData;
+
+	private final int width;
+
+	private final int height;
+
+	private final int numTilesX;
+
+	private final int numTilesY;
+
+	/**
+	 * Whether some source has blending weights. If so, sources of the same
+	 * group are combined by weighted average, and the groups by
+	 * {@link #blendMode}.
+	 */
+	private final boolean weighted;
+
+	/**
+	 * For each source, its {@link FusedSource#getGroup() group}. Sources that
+	 * form a group of their own get distinct negative values.
+	 */
+	private final int[] sourceGroups;
+
+	/**
+	 * For each source, the pixels {@code [minX, maxX, minY, maxY]}
+	 * (inclusive) of the target that its {@link FusedSource#screenBounds
+	 * screen bounds} overlap.
+	 */
+	private final int[][] sourcePixelBounds;
+
+	/**
+	 * The sources overlapping tile {@code t} are
+	 * {@code tileSources[tileSourcesStart[t]]} to
+	 * {@code tileSources[tileSourcesStart[t + 1] - 1]}, in increasing order.
+	 */
+	private final int[] tileSourcesStart;
+
+	private final int[] tileSources;
+
+	/**
+	 * For each source and tile, the worst hierarchy level that pixels of the
+	 * tile were rendered from, or {@code Byte.MAX_VALUE} if some pixels are
+	 * not rendered yet.
+	 */
+	private final byte[][] tileLevels;
+
+	/**
+	 * For each tile, whether it was written to the target at least once.
+	 */
+	private final boolean[] tileDone;
+
+	/**
+	 * For each source, the sum of level generations observed in the last
+	 * {@link #map()} call.
+	 */
+	private final long[] visitedGeneration;
+
+	/**
+	 * For each source, whether the last {@link #map()} call was already the
+	 * second one with unchanged {@link #visitedGeneration}.
+	 */
+	private final boolean[] confirmedGeneration;
+
+	private final int numThreads;
+
+	private final ExecutorService executorService;
+
+	/**
+	 * Distributes ranges of tiles to rendering threads, according to the time
+	 * spent on each tile in the previous pass.
+	 */
+	private final AdaptiveTileScheduler scheduler;
+
+	private volatile boolean valid = false;
+
+	/**
+	 * Time needed for rendering the last frame, in nano-seconds.
+	 * This does not include time spent in blocking IO.
+	 */
+	private long lastFrameRenderNanoTime;
+
+	/**
+	 * Time spent in blocking IO rendering the last frame, in nano-seconds.
+	 */
+	private long lastFrameIoNanoTime;
+
+	/**
+	 * Number of tiles that are not yet perfect after the current rendering pass.
+	 */
+	private final AtomicInteger numInvalidTiles = new AtomicInteger();
+
+	/**
+	 * Flag to indicate that someone is trying to interrupt rendering.
+	 */
+	private final AtomicBoolean interrupted = new AtomicBoolean();
+
+	public FusedVolatileProjector(
+			final List< ? extends FusedSource< ? > > sources,
+			final ARGBScreenImage target,
+			final BlendMode blendMode,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this( sources, target, blendMode, sources.size(), numThreads, executorService );
+	}
+
+	/**
+	 * @param averageDivisor
+	 *            the number of sources (or groups, if sources have blending
+	 *            weights) to average over for {@link BlendMode#AVERAGE}. This
+	 *            may be larger than the number of {@code sources}, if sources
+	 *            that do not intersect the screen were left out. Missing
+	 *            sources are treated as zero.
+	 */
+	public FusedVolatileProjector(
+			final List< ? extends FusedSource< ? > > sources,
+			final ARGBScreenImage target,
+			final BlendMode blendMode,
+			final int averageDivisor,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this.sources = new ArrayList<>( sources );
+		this.blendMode = blendMode;
+		this.averageDivisor = Math.max( 1, averageDivisor );
+		this.numThreads = numThreads;
+		this.executorService = executorService;
+
+		targetData = target.getData();
+		width = ( int ) target.dimension( 0 );
+		height = ( int ) target.dimension( 1 );
+		numTilesX = ( width + TILE_SIZE - 1 ) / TILE_SIZE;
+		numTilesY = ( height + TILE_SIZE - 1 ) / TILE_SIZE;
+		scheduler = new AdaptiveTileScheduler( numTilesX * numTilesY, numThreads );
+
+		final int numSources = sources.size();
+		final int numTiles = numTilesX * numTilesY;
+		boolean anyWeights = false;
+		sourcePixelBounds = new int[ numSources ][];
+		tileLevels = new byte[ numSources ][ numTiles ];
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final FusedSource< ? > source = sources.get( s );
+			final Interval bounds = source.screenBounds;
+			final int[] b = new int[] { 0, width - 1, 0, height - 1 };
+			if ( bounds != null )
+			{
+				b[ 0 ] = ( int ) Math.max( b[ 0 ], bounds.min( 0 ) );
+				b[ 1 ] = ( int ) Math.min( b[ 1 ], bounds.max( 0 ) );
+				b[ 2 ] = ( int ) Math.max( b[ 2 ], bounds.min( 1 ) );
+				b[ 3 ] = ( int ) Math.min( b[ 3 ], bounds.max( 1 ) );
+			}
+			sourcePixelBounds[ s ] = b;
+			Arrays.fill( tileLevels[ s ], Byte.MAX_VALUE );
+			anyWeights |= source.hasWeights();
+		}
+		weighted = anyWeights;
+
+		sourceGroups = new int[ numSources ];
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final int group = sources.get( s ).group;
+			sourceGroups[ s ] = group >= 0 ? group : -1 - s;
+		}
+
+		// list the sources overlapping each tile
+		tileSourcesStart = new int[ numTiles + 1 ];
+		for ( int s = 0; s < numSources; ++s )
+			forEachTile( sourcePixelBounds[ s ], tile -> ++tileSourcesStart[ tile + 1 ] );
+		for ( int t = 0; t < numTiles; ++t )
+			tileSourcesStart[ t + 1 ] += tileSourcesStart[ t ];
+		tileSources = new int[ tileSourcesStart[ numTiles ] ];
+		final int[] next = Arrays.copyOf( tileSourcesStart, numTiles );
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final int source = s;
+			forEachTile( sourcePixelBounds[ s ], tile -> tileSources[ next[ tile ]++ ] = source );
+		}
+
+		tileDone = new boolean[ numTilesX * numTilesY ];
+		visitedGeneration = new long[ numSources ];
+		confirmedGeneration = new boolean[ numSources ];
+		Arrays.fill( visitedGeneration, Long.MIN_VALUE );
+
+		lastFrameRenderNanoTime = -1;
+	}
+
+	/**
+	 * Call {@code action} with the index of every tile that overlaps the
+	 * pixels {@code [minX, maxX, minY, maxY]} (inclusive).
+	 */
+	private void forEachTile( final int[] pixelBounds, final IntConsumer action )
+	{
+		if ( pixelBounds[ 0 ] > pixelBounds[ 1 ] || pixelBounds[ 2 ] > pixelBounds[ 3 ] )
+			return;
+		for ( int ty = pixelBounds[ 2 ] / TILE_SIZE; ty <= pixelBounds[ 3 ] / TILE_SIZE; ++ty )
+			for ( int tx = pixelBounds[ 0 ] / TILE_SIZE; tx <= pixelBounds[ 1 ] / TILE_SIZE; ++tx )
+				action.accept( ty * numTilesX + tx );
+	}
+
+	/**
+	 * Get the bounding box (in screen pixels) of {@code sourceInterval}
+	 * transformed by {@code sourceToScreen}, padded by one pixel to account for
+	 * interpolation.
+	 *
+	 * @return the bounding box. This is empty if the transformed interval does
+	 *         not intersect the screen plane.
+	 */
+	public static Interval getScreenBounds( final Interval sourceInterval, final AffineTransform3D sourceToScreen )
+	{
+		final double[] min = new double[ 3 ];
+		final double[] max = new double[ 3 ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		final double[] corner = new double[ 3 ];
+		final double[] screen = new double[ 3 ];
+		final int n = Math.min( 3, sourceInterval.numDimensions() );
+		for ( int c = 0; c < 8; ++c )
+		{
+			for ( int d = 0; d < n; ++d )
+				corner[ d ] = ( ( c >> d ) & 1 ) == 0
+						? sourceInterval.min( d ) - 0.5
+						: sourceInterval.max( d ) + 0.5;
+			sourceToScreen.apply( corner, screen );
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], screen[ d ] );
+				max[ d ] = Math.max( max[ d ], screen[ d ] );
+			}
+		}
+		if ( min[ 2 ] > 1 || max[ 2 ] < -1 )
+			return new FinalInterval( new long[] { 0, 0 }, new long[] { -1, -1 } );
+		return new FinalInterval(
+				new long[] { ( long ) Math.floor( min[ 0 ] ) - 1, ( long ) Math.floor( min[ 1 ] ) - 1 },
+				new long[] { ( long ) Math.ceil( max[ 0 ] ) + 1, ( long ) Math.ceil( max[ 1 ] ) + 1 } );
+	}
+
+	@Override
+	public void cancel()
+	{
+		interrupted.set( true );
+	}
+
+	@Override
+	public long getLastFrameRenderNanoTime()
+	{
+		return lastFrameRenderNanoTime;
+	}
+
+	public long getLastFrameIoNanoTime()
+	{
+		return lastFrameIoNanoTime;
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return valid;
+	}
+
+	/**
+	 * Tiles are processed in row-major order, so tiles in rows closer to the
+	 * focus tile are rendered first.
+	 */
+	@Override
+	public void setFocus( final int x, final int y )
+	{
+		final int tx = Math.max( 0, Math.min( x / TILE_SIZE, numTilesX - 1 ) );
+		final int ty = Math.max( 0, Math.min( y / TILE_SIZE, numTilesY - 1 ) );
+		scheduler.setFocus( ty * numTilesX + tx );
+	}
+
+	@Override
+	public boolean map()
+	{
+		return map( true );
+	}
+
+	/**
+	 * Render all tiles that are not yet perfect and for which new data
+	 * arrived. If {@code clearUntouchedTargetPixels == false}, target pixels
+	 * that are valid on no level of any source keep their previous value
+	 * (for example, stale data of the previous timepoint). Otherwise, every
+	 * tile is written completely when it is rendered.
+	 */
+	@Override
+	@SuppressWarnings( "unchecked" )
+	public boolean map( final boolean clearUntouchedTargetPixels )
+	{
+		interrupted.set( false );
+
+		final StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+		final IoStatistics iostat = CacheIoTiming.getIoStatistics();
+		final long startTimeIo = iostat.getIoNanoTime();
+		final long startTimeIoCumulative = iostat.getCumulativeIoNanoTime();
+
+		final boolean[] changed = new boolean[ sources.size() ];
+		for ( int s = 0; s < changed.length; ++s )
+			changed[ s ] = sourceChanged( s );
+
+		final Converter< ?, ARGBType >[] converters = new Converter[ sources.size() ];
+		for ( int s = 0; s < converters.length; ++s )
+			converters[ s ] = LookupTableARGBColorConverter.fixTable( sources.get( s ).converter );
+
+		numInvalidTiles.set( 0 );
+		final boolean createExecutor = ( executorService == null );
+		final ExecutorService ex = createExecutor ? Executors.newFixedThreadPool( numThreads ) : executorService;
+		scheduler.run( ex, ( from, to ) -> {
+			if ( !interrupted.get() )
+				mapTiles( from, to, changed, converters, !clearUntouchedTargetPixels );
+		}, interrupted::get );
+		if ( createExecutor )
+			ex.shutdown();
+
+		if ( interrupted.get() )
+		{
+			Arrays.fill( visitedGeneration, Long.MIN_VALUE );
+			return false;
+		}
+
+		valid = numInvalidTiles.get() == 0;
+		lastFrameIoNanoTime = iostat.getIoNanoTime() - startTimeIo;
+		lastFrameRenderNanoTime = stopWatch.nanoTime() - ( iostat.getCumulativeIoNanoTime() - startTimeIoCumulative ) / numThreads;
+		return true;
+	}
+
+	/**
+	 * Check whether new data arrived for source {@code s} since the last
+	 * {@link #map()} call. As in {@link VolatileHierarchyProjector}, a source
+	 * is only considered unchanged if its generation was unchanged for two
+	 * passes.
+	 */
+	private boolean sourceChanged( final int s )
+	{
+		final List< ? extends LongSupplier > generations = sources.get( s ).levelGenerations;
+		if ( generations == null )
+			return true;
+		long generation = 0;
+		for ( final LongSupplier supplier : generations )
+		{
+			if ( supplier == null )
+				return true;
+			final long g = supplier.getAsLong();
+			if ( g < 0 )
+				return true;
+			generation += g;
+		}
+		if ( generation != visitedGeneration[ s ] )
+		{
+			visitedGeneration[ s ] = generation;
+			confirmedGeneration[ s ] = false;
+			return true;
+		}
+		if ( !confirmedGeneration[ s ] )
+		{
+			confirmedGeneration[ s ] = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Render all tiles with (row-major) indices {@code from} (inclusive) to
+	 * {@code to} (exclusive) that need rendering, converting the values of
+	 * each source with the respective entry of {@code converters}.
+	 */
+	private void mapTiles( final int from, final int to, final boolean[] changed, final Converter< ?, ARGBType >[] converters, final boolean keepUntouched )
+	{
+		final TileBuffers buf = tileBuffers.get();
+		final RandomAccess< ? >[][] accesses = new RandomAccess< ? >[ sources.size() ][];
+
+		int myNumInvalidTiles = 0;
+		for ( int tile = from; tile < to; ++tile )
+		{
+			final int tx = tile % numTilesX;
+			final int ty = tile / numTilesX;
+			final int x0 = tx * TILE_SIZE;
+			final int y0 = ty * TILE_SIZE;
+			final int tw = Math.min( TILE_SIZE, width - x0 );
+			final int th = Math.min( TILE_SIZE, height - y0 );
+
+			final int start = tileSourcesStart[ tile ];
+			final int numOverlapping = tileSourcesStart[ tile + 1 ] - start;
+			boolean render = !tileDone[ tile ];
+			boolean perfect = true;
+			for ( int k = 0; k < numOverlapping; ++k )
+			{
+				final int s = tileSources[ start + k ];
+				if ( tileLevels[ s ][ tile ] != 0 )
+				{
+					perfect = false;
+					render |= changed[ s ];
+				}
+			}
+			if ( !render )
+			{
+				if ( !perfect )
+					++myNumInvalidTiles;
+				continue;
+			}
+
+			final int n = tw * th;
+			buf.ensureSourceTiles( numOverlapping );
+			if ( weighted )
+				buf.ensureSourceWeights( numOverlapping );
+			perfect = true;
+			boolean untouched = false;
+			if ( keepUntouched )
+				Arrays.fill( buf.touched, 0, n, false );
+			for ( int k = 0; k < numOverlapping; ++k )
+			{
+				if ( interrupted.get() )
+					return;
+				final int s = tileSources[ start + k ];
+				final FusedSource< ? > source = sources.get( s );
+				if ( accesses[ s ] == null )
+					accesses[ s ] = new RandomAccess< ? >[ source.levels.size() ];
+				final byte level = renderSourceTile( source, converters[ s ], accesses[ s ], sourcePixelBounds[ s ], x0, y0, tw, th, buf.sourceTiles[ k ], buf.mask, buf.argb );
+				tileLevels[ s ][ tile ] = level;
+				perfect &= level == 0;
+				if ( weighted )
+					computeWeights( source, x0, y0, tw, th, buf.mask, buf.sourceWeights[ k ], buf.pos );
+				if ( keepUntouched )
+				{
+					untouched |= level == Byte.MAX_VALUE;
+					for ( int i = 0; i < n; ++i )
+						if ( buf.mask[ i ] != Byte.MAX_VALUE && buf.mask[ i ] != OUTSIDE )
+							buf.touched[ i ] = true;
+				}
+			}
+
+			if ( weighted )
+			{
+				// weighted average within groups, then blend the groups
+				buf.ensureGroupTiles( numOverlapping );
+				Arrays.fill( buf.grouped, 0, numOverlapping, false );
+				int numGroups = 0;
+				for ( int k = 0; k < numOverlapping; ++k )
+				{
+					if ( buf.grouped[ k ] )
+						continue;
+					final int group = sourceGroups[ tileSources[ start + k ] ];
+					int numMembers = 0;
+					for ( int m = k; m < numOverlapping; ++m )
+					{
+						if ( sourceGroups[ tileSources[ start + m ] ] == group )
+						{
+							buf.grouped[ m ] = true;
+							buf.groupMembers[ numMembers++ ] = m;
+						}
+					}
+					blendWeighted( buf.sourceTiles, buf.sourceWeights, buf.groupMembers, numMembers, buf.groupTiles[ numGroups++ ], n );
+				}
+				for ( int o = 0; o < n; o += AccumulateProjectorARGB.CHUNK_SIZE )
+					AccumulateProjectorARGB.blend( blendMode, buf.groupTiles, numGroups, averageDivisor, buf.blended, o, Math.min( AccumulateProjectorARGB.CHUNK_SIZE, n - o ), buf.tmp );
+			}
+			else
+			{
+				for ( int o = 0; o < n; o += AccumulateProjectorARGB.CHUNK_SIZE )
+					AccumulateProjectorARGB.blend( blendMode, buf.sourceTiles, numOverlapping, averageDivisor, buf.blended, o, Math.min( AccumulateProjectorARGB.CHUNK_SIZE, n - o ), buf.tmp );
+			}
+			if ( untouched )
+			{
+				// only write pixels for which some source had valid data
+				for ( int y = 0; y < th; ++y )
+				{
+					final int o = ( y0 + y ) * width + x0;
+					for ( int x = 0; x < tw; ++x )
+						if ( buf.touched[ y * tw + x ] )
+							targetData[ o + x ] = buf.blended[ y * tw + x ];
+				}
+			}
+			else
+			{
+				for ( int y = 0; y < th; ++y )
+					System.arraycopy( buf.blended, y * tw, targetData, ( y0 + y ) * width + x0, tw );
+			}
+
+			tileDone[ tile ] = true;
+			if ( !perfect )
+				++myNumInvalidTiles;
+		}
+		numInvalidTiles.addAndGet( myNumInvalidTiles );
+	}
+
+	/**
+	 * Render the {@code tw} by {@code th} tile at {@code (x0, y0)} of
+	 * {@code source} into {@code tile}. Each pixel within
+	 * {@code pixelBounds} is rendered from the best hierarchy level that is
+	 * valid there. Pixels that are valid on no level, or outside
+	 * {@code pixelBounds}, are set to 0. The latter are marked
+	 * {@link #OUTSIDE} in {@code mask}.
+	 *
+	 * @param converter
+	 *            converts values of {@code source} to ARGB for this pass.
+	 * @param accesses
+	 *            {@link RandomAccess}es for the hierarchy levels of
+	 *            {@code source}. {@code null} entries are created as needed.
+	 * @param pixelBounds
+	 *            the target pixels {@code [minX, maxX, minY, maxY]}
+	 *            (inclusive) that {@code source} can cover.
+	 * @return the worst hierarchy level that pixels within
+	 *         {@code pixelBounds} were rendered from, or
+	 *         {@code Byte.MAX_VALUE} if some of them are not valid on any
+	 *         level.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static < T > byte renderSourceTile(
+			final FusedSource< T > source,
+			final Converter< ?, ARGBType > converter,
+			final RandomAccess< ? >[] accesses,
+			final int[] pixelBounds,
+			final int x0,
+			final int y0,
+			final int tw,
+			final int th,
+			final int[] tile,
+			final byte[] mask,
+			final ARGBType argb )
+	{
+		final int n = tw * th;
+		final int minX = Math.max( x0, pixelBounds[ 0 ] ) - x0;
+		final int maxX = Math.min( x0 + tw - 1, pixelBounds[ 1 ] ) - x0;
+		final int minY = Math.max( y0, pixelBounds[ 2 ] ) - y0;
+		final int maxY = Math.min( y0 + th - 1, pixelBounds[ 3 ] ) - y0;
+		Arrays.fill( tile, 0, n, 0 );
+		Arrays.fill( mask, 0, n, OUTSIDE );
+		if ( minX > maxX || minY > maxY )
+			return 0;
+		for ( int y = minY; y <= maxY; ++y )
+			Arrays.fill( mask, y * tw + minX, y * tw + maxX + 1, Byte.MAX_VALUE );
+
+		int numInvalid = ( maxX - minX + 1 ) * ( maxY - minY + 1 );
+		byte worstLevel = 0;
+		final Converter< ? super T, ARGBType > passConverter = ( Converter< ? super T, ARGBType > ) converter;
+		final int numLevels = source.levels.size();
+		for ( int l = 0; l < numLevels && numInvalid > 0; ++l )
+		{
+			RandomAccess< T > access = ( RandomAccess< T > ) accesses[ l ];
+			if ( access == null )
+			{
+				access = source.levels.get( l ).randomAccess();
+				for ( int d = 2; d < access.numDimensions(); ++d )
+					access.setPosition( 0, d );
+				accesses[ l ] = access;
+			}
+
+			final byte level = ( byte ) l;
+			int numRendered = 0;
+			for ( int y = minY; y <= maxY; ++y )
+			{
+				access.setPosition( x0 + minX, 0 );
+				access.setPosition( y0 + y, 1 );
+				final int offset = y * tw;
+				for ( int x = minX; x <= maxX; ++x )
+				{
+					if ( mask[ offset + x ] > level )
+					{
+						final T value = access.get();
+						if ( !source.isVolatile || ( ( Volatile< ? > ) value ).isValid() )
+						{
+							passConverter.convert( value, argb );
+							tile[ offset + x ] = argb.get();
+							mask[ offset + x ] = level;
+							++numRendered;
+						}
+					}
+					access.fwd( 0 );
+				}
+			}
+			if ( numRendered > 0 )
+			{
+				worstLevel = level;
+				numInvalid -= numRendered;
+			}
+		}
+
+		return numInvalid > 0 ? Byte.MAX_VALUE : worstLevel;
+	}
+
+	/**
+	 * Compute the blending weights of {@code source} for the {@code tw} by
+	 * {@code th} tile at {@code (x0, y0)}. Pixels that were not rendered
+	 * (according to {@code mask}) get weight 0. If the source has no
+	 * blending weights, rendered pixels get weight 1.
+	 */
+	private static void computeWeights(
+			final FusedSource< ? > source,
+			final int x0,
+			final int y0,
+			final int tw,
+			final int th,
+			final byte[] mask,
+			final float[] weights,
+			final double[] pos )
+	{
+		final AffineTransform3D t = source.screenToSource;
+		for ( int y = 0; y < th; ++y )
+		{
+			final int offset = y * tw;
+			if ( t != null )
+			{
+				pos[ 0 ] = x0;
+				pos[ 1 ] = y0 + y;
+				pos[ 2 ] = 0;
+				t.apply( pos, pos );
+			}
+			for ( int x = 0; x < tw; ++x )
+			{
+				final byte m = mask[ offset + x ];
+				if ( m == OUTSIDE || m == Byte.MAX_VALUE )
+					weights[ offset + x ] = 0;
+				else if ( t == null )
+					weights[ offset + x ] = 1;
+				else
+					weights[ offset + x ] = weight( source, pos );
+				if ( t != null )
+					for ( int d = 0; d < 3; ++d )
+						pos[ d ] += t.get( d, 0 );
+			}
+		}
+	}
+
+	/**
+	 * Get the blending weight of {@code source} at source voxel coordinates
+	 * {@code pos}. The weight is the product over dimensions of a smoothstep
+	 * ramp from 0 at the source border to 1 at {@code blendWidth} voxels
+	 * inside.
+	 */
+	private static float weight( final FusedSource< ? > source, final double[] pos )
+	{
+		double w = 1;
+		for ( int d = 0; d < 3; ++d )
+		{
+			final double dist = Math.min( pos[ d ] - source.sourceMin[ d ], source.sourceMax[ d ] - pos[ d ] );
+			if ( dist <= 0 )
+				return 0;
+			if ( dist < source.blendWidth )
+			{
+				final double r = dist / source.blendWidth;
+				w *= r * r * ( 3 - 2 * r );
+			}
+		}
+		return ( float ) w;
+	}
+
+	/**
+	 * Combine the first {@code n} pixels of the source tiles
+	 * {@code members[0 ... numMembers - 1]} into {@code target}, by
+	 * per-channel average weighted by {@code weights}. Pixels where all
+	 * weights are 0 are set to 0.
+	 */
+	private static void blendWeighted( final int[][] tiles, final float[][] weights, final int[] members, final int numMembers, final int[] target, final int n )
+	{
+		for ( int i = 0; i < n; ++i )
+		{
+			float sw = 0, a = 0, r = 0, g = 0, b = 0;
+			for ( int m = 0; m < numMembers; ++m )
+			{
+				final int k = members[ m ];
+				final float w = weights[ k ][ i ];
+				if ( w > 0 )
+				{
+					final int v = tiles[ k ][ i ];
+					sw += w;
+					a += w * ( ( v >> 24 ) & 0xff );
+					r += w * ( ( v >> 16 ) & 0xff );
+					g += w * ( ( v >> 8 ) & 0xff );
+					b += w * ( v & 0xff );
+				}
+			}
+			if ( sw > 0 )
+			{
+				final float s = 1 / sw;
+				target[ i ] =
+						( Math.min( 255, ( int ) ( a * s + 0.5f ) ) << 24 ) |
+						( Math.min( 255, ( int ) ( r * s + 0.5f ) ) << 16 ) |
+						( Math.min( 255, ( int ) ( g * s + 0.5f ) ) << 8 ) |
+						Math.min( 255, ( int ) ( b * s + 0.5f ) );
+			}
+			else
+				target[ i ] = 0;
+		}
+	}
+}
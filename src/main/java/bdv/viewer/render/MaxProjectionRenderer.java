@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import bdv.util.MipmapTransforms;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.state.SourceState;
+import bdv.viewer.state.ViewerState;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.LookupTableARGBColorConverter;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Renders maximum intensity projections of a slab of the current view, without
+ * a {@link bdv.viewer.ViewerPanel}.
+ * <p>
+ * The slab consists of the viewer planes {@code z = zMin + k * zStep} for
+ * {@code k = 0 ... numSteps - 1}. Instead of rendering every plane and taking
+ * the maximum of the ARGB images, each screen pixel steps along its viewing
+ * ray through the slab in source coordinates. For {@link RealType} sources the
+ * maximum is taken over the raw values, which are color converted only once.
+ * For other source types, every sample is converted and the per-channel
+ * maximum is taken. The mipmap level of each source is chosen such that its
+ * voxel size matches the step size (but at least one screen pixel).
+ * <p>
+ * Screen rows are projected in parallel. Multiple sources are projected
+ * separately and summed.
+ */
+public class MaxProjectionRenderer
+{
+	private final int width;
+
+	private final int height;
+
+	private final int numThreads;
+
+	private final ExecutorService executorService;
+
+	/**
+	 * @param width
+	 *            width of the rendered images.
+	 * @param height
+	 *            height of the rendered images.
+	 * @param numThreads
+	 *            into how many parallel tasks projection is split.
+	 * @param executorService
+	 *            if non-null, this is used for rendering. Otherwise, a thread
+	 *            pool is created for each rendered image.
+	 */
+	public MaxProjectionRenderer( final int width, final int height, final int numThreads, final ExecutorService executorService )
+	{
+		this.width = width;
+		this.height = height;
+		this.numThreads = numThreads;
+		this.executorService = executorService;
+	}
+
+	/**
+	 * Render the maximum projection of {@code state} over the viewer planes
+	 * {@code z = zMin + k * zStep}, {@code k = 0 ... numSteps - 1}.
+	 *
+	 * @return ARGB image of size {@code width * height}.
+	 */
+	public int[] render( final ViewerState state, final double zMin, final double zStep, final int numSteps )
+	{
+		final int[] target = new int[ width * height ];
+		final List< Integer > visibleSourceIndices = state.getVisibleSourceIndices();
+		if ( visibleSourceIndices.isEmpty() )
+			return target;
+
+		final boolean createExecutor = ( executorService == null );
+		final ExecutorService ex = createExecutor ? Executors.newFixedThreadPool( numThreads ) : executorService;
+		try
+		{
+			final List< SourceState< ? > > sources = state.getSources();
+			final int[] sourceTarget = visibleSourceIndices.size() == 1 ? target : new int[ width * height ];
+			for ( final int i : visibleSourceIndices )
+			{
+				project( state, sources.get( i ), zMin, zStep, numSteps, sourceTarget, ex );
+				if ( sourceTarget != target )
+					addClamped( sourceTarget, target );
+			}
+		}
+		finally
+		{
+			if ( createExecutor )
+				ex.shutdown();
+		}
+		return target;
+	}
+
+	private < T > void project(
+			final ViewerState state,
+			final SourceAndConverter< T > soc,
+			final double zMin,
+			final double zStep,
+			final int numSteps,
+			final int[] target,
+			final ExecutorService ex )
+	{
+		final Source< T > source = soc.getSpimSource();
+		final int timepoint = state.getCurrentTimepoint();
+		final AffineTransform3D viewerTransform = new AffineTransform3D();
+		state.getViewerTransform( viewerTransform );
+		final int level = MipmapTransforms.getBestMipMapLevel( viewerTransform, source, timepoint, Math.max( 1, Math.abs( zStep ) ) );
+
+		final AffineTransform3D sourceToScreen = viewerTransform.copy();
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( timepoint, level, sourceTransform );
+		sourceToScreen.concatenate( sourceTransform );
+		final AffineTransform3D screenToSource = sourceToScreen.inverse();
+
+		final RealRandomAccessible< T > img = source.getInterpolatedSource( timepoint, level, state.getInterpolation() );
+		final Converter< ? super T, ARGBType > converter = LookupTableARGBColorConverter.fixTable( soc.getConverter() );
+		final T type = source.getType();
+		final boolean isRealType = type instanceof RealType;
+
+		final AdaptiveTileScheduler scheduler = new AdaptiveTileScheduler( height, numThreads );
+		scheduler.run( ex, ( minY, maxY ) -> {
+			final SlabRay< T > ray = new SlabRay<>( img.realRandomAccess(), screenToSource, zMin, zStep, numSteps );
+			if ( isRealType )
+				projectRowsReal( ray, converter, type, target, minY, maxY );
+			else
+				projectRowsARGB( ray, converter, target, minY, maxY );
+		} );
+	}
+
+	/**
+	 * Steps along viewing rays through the slab in source coordinates.
+	 */
+	private static class SlabRay< T >
+	{
+		final RealRandomAccess< T > access;
+
+		final AffineTransform3D screenToSource;
+
+		final double zMin;
+
+		final int numSteps;
+
+		/** source step when moving one screen pixel in X */
+		final double[] dx = new double[ 3 ];
+
+		/** source step when moving {@code zStep} along the viewing ray */
+		final double[] dz = new double[ 3 ];
+
+		/** source position of the first sample of the current pixel */
+		final double[] start = new double[ 3 ];
+
+		SlabRay( final RealRandomAccess< T > access, final AffineTransform3D screenToSource, final double zMin, final double zStep, final int numSteps )
+		{
+			this.access = access;
+			this.screenToSource = screenToSource;
+			this.zMin = zMin;
+			this.numSteps = numSteps;
+			for ( int d = 0; d < 3; ++d )
+			{
+				dx[ d ] = screenToSource.get( d, 0 );
+				dz[ d ] = screenToSource.get( d, 2 ) * zStep;
+			}
+		}
+
+		void startRow( final int y )
+		{
+			screenToSource.apply( new double[] { 0, y, zMin }, start );
+		}
+
+		void startPixel()
+		{
+			access.setPosition( start );
+		}
+
+		void nextSample()
+		{
+			access.move( dz );
+		}
+
+		void nextPixel()
+		{
+			for ( int d = 0; d < 3; ++d )
+				start[ d ] += dx[ d ];
+		}
+	}
+
+	/**
+	 * Maximum over raw values, converted once per pixel.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private < T > void projectRowsReal( final SlabRay< T > ray, final Converter< ? super T, ARGBType > converter, final T type, final int[] target, final int minY, final int maxY )
+	{
+		final T max = ( T ) ( ( Type ) type ).createVariable();
+		final ARGBType argb = new ARGBType();
+		for ( int y = minY; y < maxY; ++y )
+		{
+			ray.startRow( y );
+			int o = y * width;
+			for ( int x = 0; x < width; ++x, ++o )
+			{
+				ray.startPixel();
+				double maxValue = Double.NEGATIVE_INFINITY;
+				for ( int k = 0; k < ray.numSteps; ++k )
+				{
+					final T t = ray.access.get();
+					final double value = ( ( RealType ) t ).getRealDouble();
+					if ( value > maxValue )
+					{
+						maxValue = value;
+						( ( Type ) max ).set( ( Type ) t );
+					}
+					ray.nextSample();
+				}
+				converter.convert( max, argb );
+				target[ o ] = argb.get();
+				ray.nextPixel();
+			}
+		}
+	}
+
+	/**
+	 * Per-channel maximum over converted values, for types that have no
+	 * natural order.
+	 */
+	private < T > void projectRowsARGB( final SlabRay< T > ray, final Converter< ? super T, ARGBType > converter, final int[] target, final int minY, final int maxY )
+	{
+		final ARGBType argb = new ARGBType();
+		for ( int y = minY; y < maxY; ++y )
+		{
+			ray.startRow( y );
+			int o = y * width;
+			for ( int x = 0; x < width; ++x, ++o )
+			{
+				ray.startPixel();
+				int aMax = 0, rMax = 0, gMax = 0, bMax = 0;
+				for ( int k = 0; k < ray.numSteps; ++k )
+				{
+					converter.convert( ray.access.get(), argb );
+					final int value = argb.get();
+					aMax = Math.max( aMax, ARGBType.alpha( value ) );
+					rMax = Math.max( rMax, ARGBType.red( value ) );
+					gMax = Math.max( gMax, ARGBType.green( value ) );
+					bMax = Math.max( bMax, ARGBType.blue( value ) );
+					ray.nextSample();
+				}
+				target[ o ] = ARGBType.rgba( rMax, gMax, bMax, aMax );
+				ray.nextPixel();
+			}
+		}
+	}
+
+	private static void addClamped( final int[] source, final int[] target )
+	{
+		for ( int i = 0; i < target.length; ++i )
+		{
+			final int s = source[ i ];
+			final int t = target[ i ];
+			target[ i ] = ARGBType.rgba(
+					Math.min( 255, ARGBType.red( s ) + ARGBType.red( t ) ),
+					Math.min( 255, ARGBType.green( s ) + ARGBType.green( t ) ),
+					Math.min( 255, ARGBType.blue( s ) + ARGBType.blue( t ) ),
+					Math.min( 255, ARGBType.alpha( s ) + ARGBType.alpha( t ) ) );
+		}
+	}
+}
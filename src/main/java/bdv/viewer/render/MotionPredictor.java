@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Tracks the velocity of the viewer transform and extrapolates where the view
+ * will be in the next few frames, such that the cells needed there can be
+ * requested before they are rendered.
+ * <p>
+ * The velocity of every entry of the transformation matrix, and the interval
+ * between transform changes, are smoothed exponentially. Motion is considered
+ * stopped if the transform did not change for {@link #STOP_NANOS}. Then, no
+ * transforms are predicted until the next two changes establish a new
+ * velocity.
+ */
+public class MotionPredictor
+{
+	/**
+	 * If the transform did not change for this long, motion has stopped.
+	 */
+	static final long STOP_NANOS = 150_000_000L;
+
+	/**
+	 * Weight of the newest observation in the exponential smoothing.
+	 */
+	static final double SMOOTHING = 0.5;
+
+	private final AffineTransform3D last = new AffineTransform3D();
+
+	private long lastNanoTime = -1;
+
+	/**
+	 * Velocity of each of the 12 matrix entries, per nanosecond.
+	 */
+	private final double[] velocity = new double[ 12 ];
+
+	/**
+	 * Smoothed interval between transform changes, in nanoseconds.
+	 */
+	private double interval;
+
+	private boolean moving = false;
+
+	/**
+	 * Record that the viewer transform changed to {@code transform} at
+	 * {@code nanoTime}.
+	 */
+	public synchronized void transformChanged( final AffineTransform3D transform, final long nanoTime )
+	{
+		final long dt = nanoTime - lastNanoTime;
+		if ( lastNanoTime >= 0 && dt > 0 && dt < STOP_NANOS )
+		{
+			for ( int i = 0; i < 12; ++i )
+			{
+				final double v = ( transform.get( i / 4, i % 4 ) - last.get( i / 4, i % 4 ) ) / dt;
+				velocity[ i ] = moving ? SMOOTHING * v + ( 1 - SMOOTHING ) * velocity[ i ] : v;
+			}
+			interval = moving ? SMOOTHING * dt + ( 1 - SMOOTHING ) * interval : dt;
+			moving = true;
+		}
+		else
+			moving = false;
+		last.set( transform );
+		lastNanoTime = nanoTime;
+	}
+
+	/**
+	 * Whether the transform is currently changing.
+	 */
+	public synchronized boolean isMoving( final long nanoTime )
+	{
+		return moving && nanoTime - lastNanoTime < STOP_NANOS;
+	}
+
+	/**
+	 * Extrapolate the transform {@code 1 ... numFrames} transform change
+	 * intervals ahead of the last observed transform.
+	 *
+	 * @return predicted transforms, or an empty list if not
+	 *         {@link #isMoving(long) moving}.
+	 */
+	public synchronized List< AffineTransform3D > predict( final int numFrames, final long nanoTime )
+	{
+		if ( !isMoving( nanoTime ) || numFrames <= 0 )
+			return Collections.emptyList();
+
+		final ArrayList< AffineTransform3D > predicted = new ArrayList<>( numFrames );
+		for ( int k = 1; k <= numFrames; ++k )
+		{
+			final double dt = ( nanoTime - lastNanoTime ) + k * interval;
+			final AffineTransform3D t = new AffineTransform3D();
+			for ( int i = 0; i < 12; ++i )
+				t.set( last.get( i / 4, i % 4 ) + velocity[ i ] * dt, i / 4, i % 4 );
+			predicted.add( t );
+		}
+		return predicted;
+	}
+
+	/**
+	 * Forget the observed motion.
+	 */
+	public synchronized void reset()
+	{
+		moving = false;
+		lastNanoTime = -1;
+	}
+}
@@ -29,37 +29,55 @@
  */
 package bdv.viewer.render;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.function.LongSupplier;
 
+import bdv.AbstractSpimSource;
 import bdv.cache.CacheControl;
+import bdv.cache.CellLoadListener;
 import bdv.img.cache.VolatileCachedCellImg;
+import bdv.tools.transformation.TransformedSource;
+import bdv.util.MipmapTransforms;
 import bdv.viewer.Interpolation;
+import bdv.viewer.ProjectionMode;
 import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
 import bdv.viewer.render.MipmapOrdering.Level;
 import bdv.viewer.render.MipmapOrdering.MipmapHints;
 import bdv.viewer.state.SourceState;
 import bdv.viewer.state.ViewerState;
 import net.imglib2.Dimensions;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.Volatile;
 import net.imglib2.cache.iotiming.CacheIoTiming;
+import net.imglib2.cache.iotiming.IoTimeBudget;
 import net.imglib2.cache.volatiles.CacheHints;
 import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.display.RealARGBColorConverter;
 import net.imglib2.display.screenimage.awt.ARGBScreenImage;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
 import net.imglib2.ui.PainterThread;
 import net.imglib2.ui.RenderTarget;
 import net.imglib2.ui.Renderer;
@@ -94,12 +112,10 @@ import net.imglib2.ui.util.GuiUtil;
  * display remains interactive.
  * <p>
  * The renderer tries to maintain a per-frame rendering time close to a desired
- * number of <code>targetRenderNanos</code> nanoseconds. If the rendering time
- * (in nanoseconds) for the (currently) highest scaled screen image is above
- * this threshold, a coarser screen scale is chosen as the highest screen scale
- * to use. Similarly, if the rendering time for the (currently) second-highest
- * scaled screen image is below this threshold, this finer screen scale chosen
- * as the highest screen scale to use.
+ * number of <code>targetRenderNanos</code> nanoseconds. For each new frame, a
+ * {@link ScreenScaleController} predicts the finest screen scale that can be
+ * rendered within this time, and this is chosen as the highest screen scale
+ * to use. The controller is updated with the measured rendering times.
  * <p>
  * The renderer uses multiple threads (if desired) and double-buffering (if
  * desired).
@@ -119,7 +135,9 @@ import net.imglib2.ui.util.GuiUtil;
  * and all coarser levels is rendered to a {@link #renderImages temporary image}
  * for each visible source. Then the temporary images are combined to the final
  * image for display. The number of passes required until all data is valid
- * might differ between visible sources.
+ * might differ between visible sources. Alternatively, with
+ * {@link #setFusedCompositing(BlendMode) fused compositing}, all visible
+ * sources are rendered and combined directly into the image for display.
  * <p>
  * Rendering timing is tied to a {@link CacheControl} control for IO budgeting, etc.
  *
@@ -135,6 +153,8 @@ public class MultiResolutionRenderer
 	/**
 	 * Thread that triggers repainting of the display.
 	 * Requests for repainting are send there.
+	 * May be {@code null} for offscreen rendering, where {@link #paint(ViewerState)}
+	 * is called directly.
 	 */
 	protected final PainterThread painterThread;
 
@@ -209,12 +229,10 @@ public class MultiResolutionRenderer
 	protected AffineTransform3D[] screenScaleTransforms;
 
 	/**
-	 * If the rendering time (in nanoseconds) for the (currently) highest scaled
-	 * screen image is above this threshold, increase the
-	 * {@link #maxScreenScaleIndex index} of the highest screen scale to use.
-	 * Similarly, if the rendering time for the (currently) second-highest
-	 * scaled screen image is below this threshold, decrease the
-	 * {@link #maxScreenScaleIndex index} of the highest screen scale to use.
+	 * Target rendering time (in nanoseconds) for the highest scaled screen
+	 * image. The {@link #screenScaleController} selects the
+	 * {@link #maxScreenScaleIndex index} of the highest screen scale to use
+	 * such that this target is met.
 	 */
 	protected final long targetRenderNanos;
 
@@ -255,6 +273,23 @@ public class MultiResolutionRenderer
 	 */
 	protected final AccumulateProjectorFactory< ARGBType > accumulateProjectorFactory;
 
+	/**
+	 * If non-null, multiple visible sources are rendered by a
+	 * {@link FusedVolatileProjector} and combined with this blend mode,
+	 * instead of rendering each source to a separate {@link #renderImages
+	 * render image} and combining them with the
+	 * {@link #accumulateProjectorFactory}.
+	 */
+	protected BlendMode fusedBlendMode;
+
+	/**
+	 * If positive, multiple visible sources are rendered by a
+	 * {@link FusedVolatileProjector} as a mosaic: each source is weighted
+	 * by a ramp over this many (full-resolution) voxels along its borders,
+	 * and overlapping sources are combined by weighted average.
+	 */
+	protected double mosaicBlendWidth;
+
 	/**
 	 * Controls IO budgeting and fetcher queue.
 	 */
@@ -271,24 +306,213 @@ public class MultiResolutionRenderer
 	 */
 	protected boolean newFrameRequest;
 
+	/**
+	 * Whether the pending {@link #newFrameRequest new frame request} is only
+	 * due to a change of the viewer transform (see
+	 * {@link #requestRepaintTransformChanged()}). In that case, the previous
+	 * frame may be reused.
+	 */
+	protected boolean transformOnlyRequest;
+
+	/**
+	 * The screen scale index of the last successfully rendered frame, if its
+	 * contents (screen image, and render images and masks of individual
+	 * sources) are still available for reuse. Otherwise -1.
+	 */
+	protected int reusableScreenScaleIndex;
+
+	/**
+	 * Double-buffer index of the last successfully rendered frame.
+	 */
+	protected int reusableRenderId;
+
+	/**
+	 * Number of visible sources in the last successfully rendered frame.
+	 */
+	protected int reusableNumVisibleSources;
+
+	/**
+	 * Indices of the rendered sources in the last successfully rendered
+	 * frame. The per-source render images can only be reused for the same
+	 * sources.
+	 */
+	protected List< Integer > reusableSourceIndices = Collections.emptyList();
+
+	/**
+	 * Viewer transform of the last successfully rendered frame.
+	 */
+	protected final AffineTransform3D reusableTransform = new AffineTransform3D();
+
+	/**
+	 * Double-buffer index that the {@link #projector current projector} renders to.
+	 */
+	protected int projectorRenderId;
+
+	/**
+	 * Number of visible sources of the {@link #projector current projector}.
+	 */
+	protected int projectorNumVisibleSources;
+
+	/**
+	 * How often the {@link #projector current projector} was mapped.
+	 */
+	protected int projectorPass;
+
+	/**
+	 * The {@link ViewerState} (usually a {@link ViewerState#snapshot()
+	 * snapshot}) for which the {@link #projector current projector} was
+	 * created. Used to determine which {@link ViewerState.Aspect aspects}
+	 * changed for the next frame.
+	 */
+	protected ViewerState projectorState;
+
+	/**
+	 * Indices of the sources that the {@link #projector current projector}
+	 * renders: the visible sources that intersect the screen slab (if a
+	 * {@link #sourceBoundsIndex} is set).
+	 */
+	protected List< Integer > projectorSourceIndices = Collections.emptyList();
+
+	/**
+	 * Index of source bounding boxes that is used to skip visible sources
+	 * that do not intersect the screen slab, or {@code null} to render all
+	 * visible sources.
+	 */
+	private volatile SourceBoundsIndex sourceBoundsIndex;
+
+	/**
+	 * Listeners that are notified with {@link FrameStats} after each rendering
+	 * pass.
+	 */
+	protected final CopyOnWriteArrayList< FrameStatsListener > frameStatsListeners = new CopyOnWriteArrayList<>();
+
 	/**
 	 * The timepoint for which last a projector was
-	 * {@link #createProjector(ViewerState, ARGBScreenImage) created}.
+	 * {@link #createProjector(ViewerState, ARGBScreenImage, boolean) created}.
 	 */
 	protected int previousTimepoint;
 
-	// TODO: should be settable
+	/**
+	 * Whether, after a timepoint change, pixels that have no valid data at
+	 * the new timepoint yet keep the value of the previously displayed frame,
+	 * instead of being cleared. See {@link #setKeepStaleTimepoint(boolean)}.
+	 */
+	protected boolean keepStaleTimepoint = true;
+
+	/**
+	 * Whether the last rendered frame may still show pixels of a previous
+	 * timepoint, because they had no valid data at the current timepoint yet.
+	 * Then projectors for further screen scales of the current timepoint are
+	 * also {@link #fillStaleFrame filled} with that frame, until a frame was
+	 * rendered {@link VolatileProjector#isValid() completely}.
+	 */
+	protected boolean staleFrame;
+
+	/**
+	 * Counters of loaded cells for all images that the
+	 * {@link #projector current projector} may render from, or {@code null}
+	 * if some of these images do not count loaded cells. See
+	 * {@link #getProjectorGenerations(ViewerState)}.
+	 */
+	protected LongSupplier[] projectorGenerations;
+
+	/**
+	 * Values of {@link #projectorGenerations} at the start of the previous
+	 * pass of the current projector, or {@code null} before the first pass.
+	 */
+	protected long[] previousPassGenerations;
+
+	/**
+	 * Values of {@link #projectorGenerations} that the renderer is waiting to
+	 * change, or {@code null} if it is not waiting for cells. While the
+	 * current frame is incomplete, but no relevant cells arrived during the
+	 * last complete pass, no repaint is requested until the
+	 * {@link #cellLoadListener} sees relevant cells arrive.
+	 */
+	protected long[] waitingGenerations;
+
+	/**
+	 * Wakes the renderer when cells that are relevant to the current projector
+	 * finished loading.
+	 */
+	protected final CellLoadListener cellLoadListener = ( timepoint, setup, level, numCells ) -> cellsLoaded( timepoint );
+
+	/**
+	 * Coordinates rendering and cache access with other renderers, or
+	 * {@code null}.
+	 */
+	protected volatile RenderScheduler renderScheduler = null;
+
+	/**
+	 * IO time budget (in nanoseconds) for each priority level, see
+	 * {@link #setIoBudget(long[])}.
+	 */
 	protected long[] iobudget = new long[] { 100l * 1000000l,  10l * 1000000l };
 
-	// TODO: should be settable
+	/**
+	 * What is left of {@link #iobudget} for the current projector, or
+	 * {@code null} if there is no budget.
+	 */
+	private volatile long[] ioBudgetLeft;
+
+	/**
+	 * Whether cells of all rendered mipmap levels are prefetched before
+	 * rendering.
+	 */
 	protected boolean prefetchCells = true;
 
+	/**
+	 * Extrapolates the viewer transform from its recent changes, to prefetch
+	 * cells for upcoming frames.
+	 */
+	protected final MotionPredictor motionPredictor = new MotionPredictor();
+
+	/**
+	 * For how many upcoming frames cells are prefetched while the viewer
+	 * transform is changing.
+	 */
+	protected int numPredictedFrames = 3;
+
+	/**
+	 * The point (in display coordinates) around which cells are loaded and
+	 * the screen image is refined first, or {@code null} for the center of
+	 * the display.
+	 */
+	protected volatile double[] focusPoint = null;
+
+	/**
+	 * Selects the {@link #maxScreenScaleIndex} for each new frame.
+	 */
+	protected ScreenScaleController screenScaleController = new PredictiveScreenScaleController();
+
+	/**
+	 * Whether the {@link #screenScaleController} should select a new
+	 * {@link #maxScreenScaleIndex} in the next {@link #paint(ViewerState)}.
+	 */
+	protected boolean selectScreenScale;
+
+	/**
+	 * For each screen scale, the work of rendering the current frame, as
+	 * passed to the {@link #screenScaleController}.
+	 */
+	protected List< ScreenScaleController.Work > screenScaleWork;
+
+	/**
+	 * The work of rendering the first pass of the current {@link #projector},
+	 * that is reported to the {@link #screenScaleController}. This is
+	 * replaced together with the projector, and {@code null} if the projector
+	 * only renders newly exposed parts of the previous frame.
+	 */
+	private ScreenScaleController.Work projectorWork;
+
 	/**
 	 * @param display
 	 *            The canvas that will display the images we render.
 	 * @param painterThread
 	 *            Thread that triggers repainting of the display. Requests for
-	 *            repainting are send there.
+	 *            repainting are send there. May be {@code null}, if
+	 *            {@link #paint(ViewerState)} is called directly (for example,
+	 *            see {@link OffscreenRenderer}).
 	 * @param screenScales
 	 *            Scale factors from the viewer canvas to screen images of
 	 *            different resolutions. A scale factor of 1 means 1 pixel in
@@ -352,7 +576,11 @@ public class MultiResolutionRenderer
 		this.accumulateProjectorFactory = accumulateProjectorFactory;
 		this.cacheControl = cacheControl;
 		newFrameRequest = false;
+		transformOnlyRequest = false;
+		reusableScreenScaleIndex = -1;
 		previousTimepoint = -1;
+		staleFrame = false;
+		cacheControl.addCellLoadListener( cellLoadListener );
 	}
 
 	/**
@@ -383,7 +611,7 @@ public class MultiResolutionRenderer
 						screenImages[ i ][ b ] = ( i == 0 ) ?
 								new ARGBScreenImage( w, h ) :
 								new ARGBScreenImage( w, h, screenImages[ 0 ][ b ].getData() );
-						final BufferedImage bi = GuiUtil.getBufferedImage( screenImages[ i ][ b ] );
+						final BufferedImage bi = getBufferedImage( screenImages[ i ][ b ] );
 						bufferedImages[ i ][ b ] = bi;
 						bufferedImageToRenderId.put( bi, b );
 					}
@@ -391,7 +619,7 @@ public class MultiResolutionRenderer
 				else
 				{
 					screenImages[ i ][ 0 ] = new ARGBScreenImage( w, h );
-					bufferedImages[ i ][ 0 ] = GuiUtil.getBufferedImage( screenImages[ i ][ 0 ] );
+					bufferedImages[ i ][ 0 ] = getBufferedImage( screenImages[ i ][ 0 ] );
 				}
 				final AffineTransform3D scale = new AffineTransform3D();
 				final double xScale = ( double ) w / componentW;
@@ -408,6 +636,53 @@ public class MultiResolutionRenderer
 		return false;
 	}
 
+	/**
+	 * Set whether multiple visible sources should be rendered directly into
+	 * the screen image by a {@link FusedVolatileProjector}. In this mode, no
+	 * {@link #renderImages render images} and {@link #renderMaskArrays masks}
+	 * are allocated per visible source, so screen memory does not grow with
+	 * the number of visible sources. The {@link AccumulateProjectorFactory} is
+	 * not used then.
+	 *
+	 * @param blendMode
+	 *            how to combine sources in fused mode, or {@code null} to
+	 *            render sources separately and combine them with the
+	 *            {@link AccumulateProjectorFactory}.
+	 */
+	public synchronized void setFusedCompositing( final BlendMode blendMode )
+	{
+		if ( fusedBlendMode != blendMode )
+		{
+			fusedBlendMode = blendMode;
+			requestRepaint();
+		}
+	}
+
+	/**
+	 * Set whether multiple visible sources should be rendered as a mosaic of
+	 * overlapping tiles. This uses {@link #setFusedCompositing(BlendMode)
+	 * fused compositing}, where each screen tile only samples the sources
+	 * that cover it. Additionally, the weight of each source falls off
+	 * smoothly towards its borders, and overlapping sources of the same
+	 * {@link #getMosaicGroupKey(SourceAndConverter) group} (for example, the
+	 * tiles of one channel) are combined by weighted average, so that no seams
+	 * are visible in overlap regions. The groups are combined according to the
+	 * fused {@link BlendMode} ({@link BlendMode#SUM} if none is set).
+	 *
+	 * @param blendWidth
+	 *            width (in full-resolution voxels) of the band along the
+	 *            source borders in which the weight falls off, or 0 to
+	 *            disable mosaic blending.
+	 */
+	public synchronized void setMosaicBlending( final double blendWidth )
+	{
+		if ( mosaicBlendWidth != blendWidth )
+		{
+			mosaicBlendWidth = blendWidth;
+			requestRepaint();
+		}
+	}
+
 	protected boolean checkRenewRenderImages( final int numVisibleSources )
 	{
 		final int n = numVisibleSources > 1 ? numVisibleSources : 0;
@@ -452,12 +727,19 @@ public class MultiResolutionRenderer
 	/**
 	 * Render image at the {@link #requestedScreenScaleIndex requested screen
 	 * scale}.
+	 * <p>
+	 * {@code state} should be a {@link ViewerState#snapshot() snapshot}, such
+	 * that rendering does not contend with modifications of the state, and
+	 * unnecessary work can be skipped depending on which
+	 * {@link ViewerState.Aspect aspects} changed since the last frame.
 	 */
 	public boolean paint( final ViewerState state )
 	{
 		if ( display.getWidth() <= 0 || display.getHeight() <= 0 )
 			return false;
 
+		final Object event = FrameStatsEvents.begin();
+
 		final boolean resized = checkResize();
 
 		// the BufferedImage that is rendered to (to paint to the canvas)
@@ -470,31 +752,98 @@ public class MultiResolutionRenderer
 
 		final boolean createProjector;
 
+		// whether the previous frame is reused, i.e., only newly exposed parts are rendered.
+		boolean reuseFrame = false;
+
+		// whether the screen image was filled with the frame of the previous timepoint, which should not be cleared.
+		boolean keepStale = false;
+
+		// loaded cell counters before mapping the projector
+		final long[] generations;
+
 		synchronized ( this )
 		{
+			if ( selectScreenScale || resized )
+			{
+				screenScaleWork = getScreenScaleWork( state );
+				if ( selectScreenScale )
+				{
+					maxScreenScaleIndex = screenScaleController.getMaxScreenScaleIndex( screenScaleWork, targetRenderNanos );
+					requestedScreenScaleIndex = maxScreenScaleIndex;
+				}
+				selectScreenScale = false;
+			}
+
 			// Rendering may be cancelled unless we are rendering at coarsest
 			// screen scale and coarsest mipmap level.
 			renderingMayBeCancelled = ( requestedScreenScaleIndex < maxScreenScaleIndex );
 
-			clearQueue = newFrameRequest;
+			// after changing only converter settings, the same cells are needed as before
+			clearQueue = newFrameRequest && !onlyConverterChanged( state );
+			final RenderScheduler scheduler = renderScheduler;
 			if ( clearQueue )
-				cacheControl.prepareNextFrame();
+			{
+				if ( scheduler == null )
+					cacheControl.prepareNextFrame();
+				else
+					scheduler.prepareNextFrame( this, cacheControl );
+			}
 			createProjector = newFrameRequest || resized || ( requestedScreenScaleIndex != currentScreenScaleIndex );
+			final boolean transformOnly = newFrameRequest && transformOnlyRequest && !resized;
 			newFrameRequest = false;
+			transformOnlyRequest = false;
 
 			if ( createProjector )
 			{
-				final int renderId = renderIdQueue.peek();
-				currentScreenScaleIndex = requestedScreenScaleIndex;
-				bufferedImage = bufferedImages[ currentScreenScaleIndex ][ renderId ];
-				final ARGBScreenImage screenImage = screenImages[ currentScreenScaleIndex ][ renderId ];
 				synchronized ( state )
 				{
-					final int numVisibleSources = state.getVisibleSourceIndices().size();
-					checkRenewRenderImages( numVisibleSources );
-					checkRenewMaskArrays( numVisibleSources );
-					p = createProjector( state, screenImage );
+					projectorSourceIndices = getRenderedSourceIndices( state );
+					final int numVisibleSources = projectorSourceIndices.size();
+					final boolean fused = useFusedProjector( state );
+					final boolean renewedImages = checkRenewRenderImages( fused ? 0 : numVisibleSources );
+					final boolean renewedMasks = checkRenewMaskArrays( fused ? Math.min( 1, numVisibleSources ) : numVisibleSources );
+					if ( transformOnly && !renewedImages && !renewedMasks )
+						reuseFrame = reusePreviousFrame( state, numVisibleSources );
+
+					if ( reuseFrame )
+					{
+						currentScreenScaleIndex = reusableScreenScaleIndex;
+						renderingMayBeCancelled = ( currentScreenScaleIndex < maxScreenScaleIndex );
+					}
+					else
+						currentScreenScaleIndex = requestedScreenScaleIndex;
+
+					final int renderId = renderIdQueue.peek();
+					bufferedImage = bufferedImages[ currentScreenScaleIndex ][ renderId ];
+					final ARGBScreenImage screenImage = screenImages[ currentScreenScaleIndex ][ renderId ];
+					if ( reuseFrame && numVisibleSources == 1 )
+					{
+						final int w = ( int ) screenImage.dimension( 0 );
+						final int h = ( int ) screenImage.dimension( 1 );
+						final int[] src = screenImages[ currentScreenScaleIndex ][ reusableRenderId ].getData();
+						FrameReprojection.shift( src, screenImage.getData(), w, h, reuseShift[ 0 ], reuseShift[ 1 ], 0 );
+					}
+					if ( !reuseFrame )
+					{
+						staleFrame = keepStaleTimepoint && fillStaleFrame( state, screenImage, fused, numVisibleSources, renewedImages );
+						keepStale = staleFrame;
+					}
+					p = createProjector( state, screenImage, reuseFrame );
+					// after createProjector, such that the current frame is enqueued first
+					if ( clearQueue && prefetchCells )
+						prefetchPredicted( state, screenImage );
+					projectorGenerations = getProjectorGenerations( state );
+					previousPassGenerations = null;
+					final double[] focus = getScreenImageFocus( screenImage );
+					p.setFocus( ( int ) focus[ 0 ], ( int ) focus[ 1 ] );
+					projectorRenderId = renderId;
+					projectorNumVisibleSources = numVisibleSources;
+					projectorWork = reuseFrame ? null : getScreenScaleWork( state, projectorSourceIndices, currentScreenScaleIndex );
+					projectorPass = 0;
+					projectorState = state;
 				}
+				// contents of the previous frame are overwritten from now on
+				reusableScreenScaleIndex = -1;
 				projector = p;
 			}
 			else
@@ -504,14 +853,23 @@ public class MultiResolutionRenderer
 			}
 
 			requestedScreenScaleIndex = 0;
+			waitingGenerations = null;
+			generations = getGenerations( projectorGenerations );
 		}
 
 		// try rendering
-		final boolean success = p.map( createProjector );
+		final boolean clearUntouched = createProjector && !keepStale;
+		final RenderScheduler scheduler = renderScheduler;
+		final boolean success = scheduler == null
+				? mapWithIoBudget( p, clearUntouched )
+				: scheduler.runPass( this, renderingExecutorService, () -> mapWithIoBudget( p, clearUntouched ) );
 		final long rendertime = p.getLastFrameRenderNanoTime();
 
+		final FrameStats stats;
 		synchronized ( this )
 		{
+			stats = FrameStats.create( p, currentScreenScaleIndex, ++projectorPass, projectorNumVisibleSources, success );
+
 			// if rendering was not cancelled...
 			if ( success )
 			{
@@ -526,26 +884,22 @@ public class MultiResolutionRenderer
 							renderIdQueue.add( id );
 					}
 
-					if ( currentScreenScaleIndex == maxScreenScaleIndex )
-					{
-						if ( rendertime > targetRenderNanos && maxScreenScaleIndex < screenScales.length - 1 )
-							maxScreenScaleIndex++;
-						else if ( rendertime < targetRenderNanos / 3 && maxScreenScaleIndex > 0 )
-							maxScreenScaleIndex--;
-					}
-					else if ( currentScreenScaleIndex == maxScreenScaleIndex - 1 )
-					{
-						if ( rendertime < targetRenderNanos && maxScreenScaleIndex > 0 )
-							maxScreenScaleIndex--;
-					}
-//					System.out.println( String.format( "rendering:%4d ms", rendertime / 1000000 ) );
-//					System.out.println( "scale = " + currentScreenScaleIndex );
-//					System.out.println( "maxScreenScaleIndex = " + maxScreenScaleIndex + "  (" + screenImages[ maxScreenScaleIndex ][ 0 ].dimension( 0 ) + " x " + screenImages[ maxScreenScaleIndex ][ 0 ].dimension( 1 ) + ")" );
+					// rendering only newly exposed parts says nothing about how long a full frame takes
+					if ( projectorWork != null )
+						screenScaleController.rendered( projectorWork, rendertime, getSourceRenderNanos( p ) );
 				}
 
+				reusableScreenScaleIndex = currentScreenScaleIndex;
+				reusableRenderId = projectorRenderId;
+				reusableNumVisibleSources = projectorNumVisibleSources;
+				reusableSourceIndices = projectorSourceIndices;
+				reusableTransform.set( currentProjectorTransform );
+				if ( p.isValid() )
+					staleFrame = false;
+
 				if ( currentScreenScaleIndex > 0 )
 					requestRepaint( currentScreenScaleIndex - 1 );
-				else if ( !p.isValid() )
+				else if ( !p.isValid() && !waitForCells( generations ) )
 				{
 					try
 					{
@@ -561,124 +915,690 @@ public class MultiResolutionRenderer
 			}
 		}
 
+		FrameStatsEvents.commit( event, stats );
+		for ( final FrameStatsListener l : frameStatsListeners )
+			l.frameRendered( stats );
+
 		return success;
 	}
 
 	/**
-	 * Request a repaint of the display from the painter thread, with maximum
-	 * screen scale index and mipmap level.
+	 * Check whether the only {@link ViewerState.Aspect aspect} of
+	 * {@code state} that changed since the {@link #projectorState current
+	 * projector} was created are converter settings. Then the fetch queues
+	 * need not be cleared, because the same cells are needed.
 	 */
-	public synchronized void requestRepaint()
+	private boolean onlyConverterChanged( final ViewerState state )
 	{
-		newFrameRequest = true;
-		requestRepaint( maxScreenScaleIndex );
+		final EnumSet< ViewerState.Aspect > changed = state.getChangedAspects( projectorState );
+		return changed.size() == 1 && changed.contains( ViewerState.Aspect.CONVERTER );
 	}
 
 	/**
-	 * Request a repaint of the display from the painter thread. The painter
-	 * thread will trigger a {@link #paint(ViewerState)} as soon as possible (that is,
-	 * immediately or after the currently running {@link #paint(ViewerState)} has
-	 * completed).
+	 * Decide whether to wait for the {@link #cellLoadListener} after a pass
+	 * that left the frame incomplete, instead of repainting immediately.
+	 * Like {@link VolatileHierarchyProjector}, this requires that the loaded
+	 * cell counters were unchanged for one complete pass, because a counter is
+	 * incremented slightly before the loaded cell becomes visible in the
+	 * cache.
+	 *
+	 * @param generations
+	 *            counter values at the start of the pass that just finished.
+	 * @return {@code true} if the renderer now waits for relevant cells.
 	 */
-	public synchronized void requestRepaint( final int screenScaleIndex )
+	private boolean waitForCells( final long[] generations )
 	{
-		if ( renderingMayBeCancelled && projector != null )
-			projector.cancel();
-		if ( screenScaleIndex > requestedScreenScaleIndex )
-			requestedScreenScaleIndex = screenScaleIndex;
-		painterThread.requestRepaint();
+		if ( generations == null || newFrameRequest )
+			return false;
+		final boolean confirmed = Arrays.equals( generations, previousPassGenerations );
+		previousPassGenerations = generations;
+		if ( !confirmed || !Arrays.equals( generations, getGenerations( projectorGenerations ) ) )
+			return false;
+		waitingGenerations = generations;
+		return true;
 	}
 
 	/**
-	 * DON'T USE THIS.
-	 * <p>
-	 * This is a work around for JDK bug
-	 * https://bugs.openjdk.java.net/browse/JDK-8029147 which leads to
-	 * ViewerPanel not being garbage-collected when ViewerFrame is closed. So
-	 * instead we need to manually let go of resources...
+	 * Called by the {@link #cellLoadListener} when cells of {@code timepoint}
+	 * finished loading. If the renderer is {@link #waitingGenerations waiting}
+	 * and cells of an image of the current projector arrived, request a
+	 * repaint.
 	 */
-	public void kill()
+	private synchronized void cellsLoaded( final int timepoint )
 	{
-		if ( display instanceof TransformAwareBufferedImageOverlayRenderer )
-			( ( TransformAwareBufferedImageOverlayRenderer ) display ).kill();
-		projector = null;
-		renderIdQueue.clear();
-		bufferedImageToRenderId.clear();
-		for ( int i = 0; i < renderImages.length; ++i )
-			renderImages[ i ] = null;
-		for ( int i = 0; i < renderMaskArrays.length; ++i )
-			renderMaskArrays[ i ] = null;
-		for ( int i = 0; i < screenImages.length; ++i )
-			screenImages[ i ] = null;
-		for ( int i = 0; i < bufferedImages.length; ++i )
-			bufferedImages[ i ] = null;
+		if ( waitingGenerations == null || timepoint != previousTimepoint )
+			return;
+		if ( !Arrays.equals( waitingGenerations, getGenerations( projectorGenerations ) ) )
+		{
+			waitingGenerations = null;
+			requestRepaint( currentScreenScaleIndex );
+		}
 	}
 
-	private VolatileProjector createProjector(
-			final ViewerState viewerState,
-			final ARGBScreenImage screenImage )
+	/**
+	 * Get the loaded cell counters of the images that a projector for
+	 * {@code state} at the current screen scale may render from: all mipmap
+	 * levels of the visible sources from the best level to the coarsest.
+	 *
+	 * @return the counters, or {@code null} if some image does not count
+	 *         loaded cells, in which case the renderer has to poll.
+	 */
+	private LongSupplier[] getProjectorGenerations( final ViewerState state )
 	{
-		/*
-		 * This shouldn't be necessary, with
-		 * CacheHints.LoadingStrategy==VOLATILE
-		 */
-//		CacheIoTiming.getIoTimeBudget().clear(); // clear time budget such that prefetching doesn't wait for loading blocks.
-		final List< SourceState< ? > > sourceStates = viewerState.getSources();
-		final List< Integer > visibleSourceIndices = viewerState.getVisibleSourceIndices();
-		VolatileProjector projector;
-		if ( visibleSourceIndices.isEmpty() )
-			projector = new EmptyProjector<>( screenImage );
-		else if ( visibleSourceIndices.size() == 1 )
-		{
-			final int i = visibleSourceIndices.get( 0 );
-			projector = createSingleSourceProjector( viewerState, sourceStates.get( i ), i, currentScreenScaleIndex, screenImage, renderMaskArrays[ 0 ] );
-		}
-		else
+		final int t = state.getCurrentTimepoint();
+		final List< SourceState< ? > > sources = state.getSources();
+		final ArrayList< LongSupplier > generations = new ArrayList<>();
+		for ( final int i : projectorSourceIndices )
 		{
-			final ArrayList< VolatileProjector > sourceProjectors = new ArrayList<>();
-			final ArrayList< ARGBScreenImage > sourceImages = new ArrayList<>();
-			final ArrayList< Source< ? > > sources = new ArrayList<>();
-			int j = 0;
-			for ( final int i : visibleSourceIndices )
+			final SourceState< ? > source = sources.get( i );
+			final Source< ? > spimSource = useVolatileIfAvailable && source.asVolatile() != null
+					? source.asVolatile().getSpimSource()
+					: source.getSpimSource();
+			final int bestLevel = state.getBestMipMapLevel( screenScaleTransforms[ currentScreenScaleIndex ], i );
+			for ( int level = bestLevel; level < spimSource.getNumMipmapLevels(); ++level )
 			{
-				final ARGBScreenImage renderImage = renderImages[ currentScreenScaleIndex ][ j ];
-				final byte[] maskArray = renderMaskArrays[ j ];
-				++j;
-				final VolatileProjector p = createSingleSourceProjector(
-						viewerState, sourceStates.get( i ), i, currentScreenScaleIndex,
-						renderImage, maskArray );
-				sourceProjectors.add( p );
-				sources.add( sourceStates.get( i ).getSpimSource() );
-				sourceImages.add( renderImage );
+				final LongSupplier generation = getLevelGeneration( spimSource, t, level );
+				if ( generation == null )
+					return null;
+				generations.add( generation );
 			}
-			projector = accumulateProjectorFactory.createAccumulateProjector( sourceProjectors, sources, sourceImages, screenImage, numRenderingThreads, renderingExecutorService );
 		}
-		previousTimepoint = viewerState.getCurrentTimepoint();
-		viewerState.getViewerTransform( currentProjectorTransform );
-		CacheIoTiming.getIoTimeBudget().reset( iobudget );
-		return projector;
+		return generations.toArray( new LongSupplier[ 0 ] );
 	}
 
-	private static class SimpleVolatileProjector< A, B > extends SimpleInterruptibleProjector< A, B > implements VolatileProjector
+	private static long[] getGenerations( final LongSupplier[] suppliers )
 	{
-		private boolean valid = false;
+		if ( suppliers == null )
+			return null;
+		final long[] generations = new long[ suppliers.length ];
+		for ( int i = 0; i < suppliers.length; ++i )
+			generations[ i ] = suppliers[ i ].getAsLong();
+		return generations;
+	}
 
-		public SimpleVolatileProjector(
-				final RandomAccessible< A > source,
-				final Converter< ? super A, B > converter,
-				final RandomAccessibleInterval< B > target,
-				final int numThreads,
-				final ExecutorService executorService )
+	/**
+	 * Add a {@link FrameStatsListener} that is notified after each rendering
+	 * pass.
+	 */
+	public void addFrameStatsListener( final FrameStatsListener listener )
+	{
+		frameStatsListeners.add( listener );
+	}
+
+	/**
+	 * Remove a {@link FrameStatsListener}.
+	 */
+	public void removeFrameStatsListener( final FrameStatsListener listener )
+	{
+		frameStatsListeners.remove( listener );
+	}
+
+	/**
+	 * Shift of the previous frame (in screen pixels) if it is
+	 * {@link #reusePreviousFrame(ViewerState, int) reused}.
+	 */
+	private final int[] reuseShift = new int[ 2 ];
+
+	/**
+	 * Try to reuse the last successfully rendered frame for rendering
+	 * {@code state}, assuming that only the viewer transform changed since.
+	 * <p>
+	 * If the new viewer transform differs from the previous one only by a
+	 * translation of an integer number of screen pixels, the render images
+	 * and masks of individual sources are shifted accordingly, the shift is
+	 * stored in {@link #reuseShift}, and {@code true} is returned. Then only
+	 * newly exposed pixels need to be rendered at the
+	 * {@link #reusableScreenScaleIndex screen scale of the previous frame}.
+	 * <p>
+	 * Otherwise, if the new viewer transform differs by an in-plane
+	 * translation, rotation, or scaling, the previous frame is warped and
+	 * displayed immediately as a preview, and {@code false} is returned.
+	 *
+	 * @return whether the previous frame is reused.
+	 */
+	private boolean reusePreviousFrame( final ViewerState state, final int numVisibleSources )
+	{
+		final int s = reusableScreenScaleIndex;
+		if ( s < 0 || numVisibleSources == 0 || numVisibleSources != reusableNumVisibleSources
+				|| !projectorSourceIndices.equals( reusableSourceIndices ) )
+			return false;
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		state.getViewerTransform( transform );
+		final AffineTransform3D delta = FrameReprojection.getScreenDelta( reusableTransform, transform, screenScaleTransforms[ s ] );
+		final ARGBScreenImage previous = screenImages[ s ][ reusableRenderId ];
+		final int w = ( int ) previous.dimension( 0 );
+		final int h = ( int ) previous.dimension( 1 );
+
+		// without per-source render images (fused compositing), only single sources can be shifted
+		final boolean canShift = numVisibleSources == 1 || renderImages[ s ].length == numVisibleSources;
+		if ( canShift && FrameReprojection.isIntegerTranslation( delta, reuseShift ) )
 		{
-			super( source, converter, target, numThreads, executorService );
+			final int dx = reuseShift[ 0 ];
+			final int dy = reuseShift[ 1 ];
+			if ( numVisibleSources == 1 )
+				FrameReprojection.shift( renderMaskArrays[ 0 ], renderMaskArrays[ 0 ], w, h, dx, dy, Byte.MAX_VALUE );
+			else
+			{
+				for ( int j = 0; j < numVisibleSources; ++j )
+				{
+					final int[] data = renderImages[ s ][ j ].getData();
+					FrameReprojection.shift( data, data, w, h, dx, dy, 0 );
+					FrameReprojection.shift( renderMaskArrays[ j ], renderMaskArrays[ j ], w, h, dx, dy, Byte.MAX_VALUE );
+				}
+			}
+			return true;
 		}
 
-		@Override
-		public boolean map( final boolean clearUntouchedTargetPixels )
+		if ( doubleBuffered && FrameReprojection.isInPlane( delta ) )
 		{
-			final boolean success = super.map();
-			valid |= success;
-			return success;
+			final int renderId = renderIdQueue.peek();
+			FrameReprojection.warp( previous.getData(), screenImages[ s ][ renderId ].getData(), w, h, delta );
+			final BufferedImage bi = display.setBufferedImageAndTransform( bufferedImages[ s ][ renderId ], transform );
+			renderIdQueue.pop();
+			final Integer id = bufferedImageToRenderId.get( bi );
+			if ( id != null )
+				renderIdQueue.add( id );
+		}
+		return false;
+	}
+
+	/**
+	 * If the timepoint changed since the last successfully rendered frame, or
+	 * that frame still shows {@link #staleFrame stale} pixels, fill the images
+	 * that the new projector renders to with that frame, resampled to the
+	 * current screen scale and viewer transform. Pixels keep this stale value
+	 * (their render mask marks them as not yet written) until data of at least
+	 * the coarsest mipmap level of the new timepoint is available, instead of
+	 * being cleared to black. This holds for the projectors of all screen
+	 * scales of the new timepoint, not only for the first one.
+	 * <p>
+	 * For a single source or {@link #useFusedProjector(ViewerState) fused}
+	 * rendering, the screen image is filled. Otherwise, the
+	 * {@link #renderImages} of the individual sources are filled, which is only
+	 * possible if they were not renewed.
+	 *
+	 * @return whether the stale frame was filled in. In that case, untouched
+	 *         pixels must not be cleared when mapping the new projector.
+	 */
+	private boolean fillStaleFrame(
+			final ViewerState state,
+			final ARGBScreenImage screenImage,
+			final boolean fused,
+			final int numVisibleSources,
+			final boolean renewedImages )
+	{
+		final int s = reusableScreenScaleIndex;
+		if ( s < 0 || numVisibleSources == 0 || numVisibleSources != reusableNumVisibleSources
+				|| !projectorSourceIndices.equals( reusableSourceIndices )
+				|| ( !staleFrame && ( previousTimepoint < 0 || previousTimepoint == state.getCurrentTimepoint() ) )
+				|| state.getProjectionMode() != ProjectionMode.PLANE )
+			return false;
+		if ( !fused && numVisibleSources > 1 && renewedImages )
+			return false;
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		state.getViewerTransform( transform );
+		final AffineTransform3D delta = FrameReprojection.getScreenDelta( reusableTransform, transform, screenScaleTransforms[ s ], screenScaleTransforms[ currentScreenScaleIndex ] );
+		if ( !FrameReprojection.isInPlane( delta ) )
+			return false;
+
+		if ( fused || numVisibleSources == 1 )
+			resampleFrame( screenImages[ s ][ reusableRenderId ], screenImage, delta );
+		else
+			for ( int j = 0; j < numVisibleSources; ++j )
+				resampleFrame( renderImages[ s ][ j ], renderImages[ currentScreenScaleIndex ][ j ], delta );
+		return true;
+	}
+
+	/**
+	 * Resample {@code src} into {@code dst} such that
+	 * {@code dst(delta(p)) = src(p)}. {@code src} and {@code dst} may be the
+	 * same image.
+	 */
+	private static void resampleFrame( final ARGBScreenImage src, final ARGBScreenImage dst, final AffineTransform3D delta )
+	{
+		final int[] srcData = src.getData();
+		final int[] dstData = dst.getData();
+		final int sw = ( int ) src.dimension( 0 );
+		final int sh = ( int ) src.dimension( 1 );
+		final int w = ( int ) dst.dimension( 0 );
+		final int h = ( int ) dst.dimension( 1 );
+		final int[] shift = new int[ 2 ];
+		if ( sw == w && sh == h && FrameReprojection.isIntegerTranslation( delta, shift ) )
+		{
+			if ( srcData != dstData || shift[ 0 ] != 0 || shift[ 1 ] != 0 )
+				FrameReprojection.shift( srcData, dstData, w, h, shift[ 0 ], shift[ 1 ], 0 );
+		}
+		else
+			FrameReprojection.warp( srcData == dstData ? srcData.clone() : srcData, sw, sh, dstData, w, h, delta );
+	}
+
+	/**
+	 * Get the indices of the visible sources of {@code state} that need to be
+	 * rendered. If a {@link #sourceBoundsIndex} is set, these are only the
+	 * ones that intersect the screen slab (the screen rectangle in the plane
+	 * {@code z = 0}, or extended by half the slab thickness to both sides in
+	 * slab projection modes).
+	 */
+	private List< Integer > getRenderedSourceIndices( final ViewerState state )
+	{
+		final List< Integer > visible = state.getVisibleSourceIndices();
+		final SourceBoundsIndex index = sourceBoundsIndex;
+		if ( index == null )
+			return visible;
+		final double depth = state.getProjectionMode() == ProjectionMode.PLANE ? 0 : state.getSlabThickness() / 2;
+		final RealInterval screenSlab = new FinalRealInterval(
+				new double[] { 0, 0, -depth },
+				new double[] { display.getWidth(), display.getHeight(), depth } );
+		return index.cull( state, visible, screenSlab );
+	}
+
+	/**
+	 * Describe the work of rendering each screen scale for the
+	 * {@link #screenScaleController}.
+	 */
+	private List< ScreenScaleController.Work > getScreenScaleWork( final ViewerState state )
+	{
+		final ArrayList< ScreenScaleController.Work > work = new ArrayList<>( screenScales.length );
+		synchronized ( state )
+		{
+			final List< Integer > visibleSourceIndices = getRenderedSourceIndices( state );
+			for ( int s = 0; s < screenScales.length; ++s )
+				work.add( getScreenScaleWork( state, visibleSourceIndices, s ) );
+		}
+		return work;
+	}
+
+	/**
+	 * Describe the work of rendering the sources {@code sourceIndices} of
+	 * {@code state} at screen scale {@code screenScaleIndex}.
+	 */
+	private ScreenScaleController.Work getScreenScaleWork( final ViewerState state, final List< Integer > sourceIndices, final int screenScaleIndex )
+	{
+		final List< SourceState< ? > > sourceStates = state.getSources();
+		final ArrayList< Source< ? > > sources = new ArrayList<>( sourceIndices.size() );
+		final int[] levels = new int[ sourceIndices.size() ];
+		for ( int j = 0; j < levels.length; ++j )
+		{
+			final int i = sourceIndices.get( j );
+			sources.add( sourceStates.get( i ).getSpimSource() );
+			levels[ j ] = state.getBestMipMapLevel( screenScaleTransforms[ screenScaleIndex ], i );
+		}
+		return new ScreenScaleController.Work( sources, levels, screenImages[ screenScaleIndex ][ 0 ].size() );
+	}
+
+	/**
+	 * Get the rendering time of each source (in the order of
+	 * {@link #projectorSourceIndices}) in the last pass of projector
+	 * {@code p}, or {@code null} if not known.
+	 */
+	private long[] getSourceRenderNanos( final VolatileProjector p )
+	{
+		final long[] nanos;
+		if ( p instanceof AccumulateProjector )
+		{
+			final List< VolatileProjector > sourceProjectors = ( ( AccumulateProjector< ?, ? > ) p ).sourceProjectors;
+			nanos = new long[ sourceProjectors.size() ];
+			for ( int i = 0; i < nanos.length; ++i )
+				nanos[ i ] = sourceProjectors.get( i ).getLastFrameRenderNanoTime();
+		}
+		else if ( projectorSourceIndices.size() == 1 && !( p instanceof FusedVolatileProjector ) )
+			nanos = new long[] { p.getLastFrameRenderNanoTime() };
+		else
+			return null;
+		for ( final long t : nanos )
+			if ( t < 0 ) // not rendered in this pass
+				return null;
+		return nanos.length == projectorSourceIndices.size() ? nanos : null;
+	}
+
+	/**
+	 * Set the {@link ScreenScaleController} that selects the screen scale with
+	 * which to start rendering each new frame.
+	 */
+	public synchronized void setScreenScaleController( final ScreenScaleController controller )
+	{
+		screenScaleController = controller;
+	}
+
+	/**
+	 * Set the IO time budget for rendering a frame.
+	 *
+	 * @param budget
+	 *            for each priority level, the time (in nanoseconds) that
+	 *            rendering threads may spend in blocking IO for loading data
+	 *            of that (and higher) priority. Level 0 is the highest priority
+	 *            (the best mipmap level). If {@code null}, there is no budget,
+	 *            and rendering threads never wait for data to load.
+	 */
+	public synchronized void setIoBudget( final long[] budget )
+	{
+		iobudget = budget == null ? null : budget.clone();
+	}
+
+	/**
+	 * Get the IO time budget for rendering a frame, or {@code null} if there
+	 * is none.
+	 */
+	public synchronized long[] getIoBudget()
+	{
+		return iobudget == null ? null : iobudget.clone();
+	}
+
+	/**
+	 * Set whether cells of all mipmap levels that will be rendered are
+	 * enqueued for loading (prefetched) before rendering starts.
+	 */
+	public synchronized void setPrefetchCells( final boolean prefetchCells )
+	{
+		this.prefetchCells = prefetchCells;
+	}
+
+	public synchronized boolean isPrefetchCells()
+	{
+		return prefetchCells;
+	}
+
+	/**
+	 * Set the {@link RenderScheduler} that coordinates this renderer with
+	 * other renderers, or {@code null} to render independently. The renderer
+	 * is registered with the scheduler (and unregistered from the previous
+	 * one).
+	 * <p>
+	 * Note that the {@link ExecutorService} for rendering is set in the
+	 * constructor. Use the {@link RenderScheduler#getExecutorService() shared
+	 * pool} of the scheduler to share rendering threads with other renderers.
+	 */
+	public synchronized void setRenderScheduler( final RenderScheduler scheduler )
+	{
+		if ( renderScheduler != null )
+			renderScheduler.unregister( this );
+		renderScheduler = scheduler;
+		if ( scheduler != null )
+			scheduler.register( this, cacheControl );
+	}
+
+	public RenderScheduler getRenderScheduler()
+	{
+		return renderScheduler;
+	}
+
+	/**
+	 * Set the {@link SourceBoundsIndex} that is used to skip (not create
+	 * projectors for, and not prefetch) visible sources that do not intersect
+	 * the screen slab, or {@code null} to render all visible sources.
+	 */
+	public synchronized void setSourceBoundsIndex( final SourceBoundsIndex index )
+	{
+		sourceBoundsIndex = index;
+	}
+
+	public SourceBoundsIndex getSourceBoundsIndex()
+	{
+		return sourceBoundsIndex;
+	}
+
+	/**
+	 * Set whether, after a timepoint change, pixels that have no valid data
+	 * at the new timepoint yet keep showing the previous timepoint until at
+	 * least the coarsest mipmap level arrives. This avoids black flashes
+	 * during playback and scrubbing. If {@code false}, such pixels are
+	 * cleared.
+	 */
+	public synchronized void setKeepStaleTimepoint( final boolean keepStaleTimepoint )
+	{
+		this.keepStaleTimepoint = keepStaleTimepoint;
+	}
+
+	public synchronized boolean isKeepStaleTimepoint()
+	{
+		return keepStaleTimepoint;
+	}
+
+	/**
+	 * Set for how many upcoming frames cells are speculatively prefetched while
+	 * the viewer transform is changing (see {@link #transformChanged(AffineTransform3D)}).
+	 * 0 disables speculative prefetching.
+	 */
+	public synchronized void setNumPredictedFrames( final int numPredictedFrames )
+	{
+		this.numPredictedFrames = numPredictedFrames;
+	}
+
+	public synchronized int getNumPredictedFrames()
+	{
+		return numPredictedFrames;
+	}
+
+	/**
+	 * Set the point (in display coordinates) around which cells are loaded
+	 * and the screen image is refined first, for example the mouse position.
+	 * Cells are enqueued and image regions are rendered in order of
+	 * increasing distance to the focus point.
+	 */
+	public void setFocusPoint( final double x, final double y )
+	{
+		focusPoint = new double[] { x, y };
+	}
+
+	/**
+	 * Reset the focus point to the center of the display.
+	 *
+	 * @see #setFocusPoint(double, double)
+	 */
+	public void clearFocusPoint()
+	{
+		focusPoint = null;
+	}
+
+	/**
+	 * Get the {@link #focusPoint} in coordinates of {@code screenImage} at
+	 * the {@link #currentScreenScaleIndex current screen scale}.
+	 */
+	private double[] getScreenImageFocus( final ARGBScreenImage screenImage )
+	{
+		final double[] p = focusPoint;
+		if ( p == null )
+			return new double[] { 0.5 * screenImage.dimension( 0 ), 0.5 * screenImage.dimension( 1 ) };
+		final double[] focus = new double[ 3 ];
+		screenScaleTransforms[ currentScreenScaleIndex ].apply( new double[] { p[ 0 ], p[ 1 ], 0 }, focus );
+		return focus;
+	}
+
+	/**
+	 * Notify the renderer that the viewer transform changed to
+	 * {@code transform}, and {@link #requestRepaintTransformChanged() request
+	 * a repaint}. The transform changes are used to track the velocity of the
+	 * view, and to prefetch cells for the next few frames while it is moving.
+	 */
+	public void transformChanged( final AffineTransform3D transform )
+	{
+		motionPredictor.transformChanged( transform, System.nanoTime() );
+		requestRepaintTransformChanged();
+	}
+
+	/**
+	 * Request a repaint of the display from the painter thread, with maximum
+	 * screen scale index and mipmap level, after only the viewer transform
+	 * changed. If possible, the previous frame is reused: For translations
+	 * by an integer number of pixels only newly exposed parts are rendered.
+	 * For other in-plane transformations the previous frame is shown warped
+	 * while the new frame is rendered.
+	 */
+	public synchronized void requestRepaintTransformChanged()
+	{
+		if ( !newFrameRequest )
+			transformOnlyRequest = true;
+		newFrameRequest = true;
+		selectScreenScale = true;
+		requestRepaint( maxScreenScaleIndex );
+	}
+
+	/**
+	 * Request a repaint of the display from the painter thread, with maximum
+	 * screen scale index and mipmap level.
+	 */
+	public synchronized void requestRepaint()
+	{
+		newFrameRequest = true;
+		selectScreenScale = true;
+		transformOnlyRequest = false;
+		requestRepaint( maxScreenScaleIndex );
+	}
+
+	/**
+	 * Request a repaint of the display from the painter thread. The painter
+	 * thread will trigger a {@link #paint(ViewerState)} as soon as possible (that is,
+	 * immediately or after the currently running {@link #paint(ViewerState)} has
+	 * completed).
+	 */
+	public synchronized void requestRepaint( final int screenScaleIndex )
+	{
+		if ( renderingMayBeCancelled && projector != null )
+			projector.cancel();
+		if ( screenScaleIndex > requestedScreenScaleIndex )
+			requestedScreenScaleIndex = screenScaleIndex;
+		if ( painterThread != null )
+			painterThread.requestRepaint();
+	}
+
+	/**
+	 * DON'T USE THIS.
+	 * <p>
+	 * This is a work around for JDK bug
+	 * https://bugs.openjdk.java.net/browse/JDK-8029147 which leads to
+	 * ViewerPanel not being garbage-collected when ViewerFrame is closed. So
+	 * instead we need to manually let go of resources...
+	 */
+	public void kill()
+	{
+		cacheControl.removeCellLoadListener( cellLoadListener );
+		setRenderScheduler( null );
+		if ( display instanceof TransformAwareBufferedImageOverlayRenderer )
+			( ( TransformAwareBufferedImageOverlayRenderer ) display ).kill();
+		projector = null;
+		projectorState = null;
+		renderIdQueue.clear();
+		bufferedImageToRenderId.clear();
+		for ( int i = 0; i < renderImages.length; ++i )
+			renderImages[ i ] = null;
+		for ( int i = 0; i < renderMaskArrays.length; ++i )
+			renderMaskArrays[ i ] = null;
+		for ( int i = 0; i < screenImages.length; ++i )
+			screenImages[ i ] = null;
+		for ( int i = 0; i < bufferedImages.length; ++i )
+			bufferedImages[ i ] = null;
+	}
+
+	/**
+	 * @param preserveMasks
+	 *            whether the render images and masks of the previous frame
+	 *            should be kept, i.e., only not yet rendered pixels are
+	 *            rendered.
+	 */
+	private VolatileProjector createProjector(
+			final ViewerState viewerState,
+			final ARGBScreenImage screenImage,
+			final boolean preserveMasks )
+	{
+		/*
+		 * This shouldn't be necessary, with
+		 * CacheHints.LoadingStrategy==VOLATILE
+		 */
+//		CacheIoTiming.getIoTimeBudget().clear(); // clear time budget such that prefetching doesn't wait for loading blocks.
+		final List< SourceState< ? > > sourceStates = viewerState.getSources();
+		final List< Integer > visibleSourceIndices = projectorSourceIndices;
+		VolatileProjector projector;
+		if ( visibleSourceIndices.isEmpty() )
+			projector = new EmptyProjector<>( screenImage );
+		else if ( visibleSourceIndices.size() == 1 && !averagesCulledSources( viewerState ) )
+		{
+			final int i = visibleSourceIndices.get( 0 );
+			projector = createSingleSourceProjector( viewerState, sourceStates.get( i ), i, currentScreenScaleIndex, screenImage, renderMaskArrays[ 0 ], preserveMasks );
+		}
+		else if ( useFusedProjector( viewerState ) )
+			projector = createFusedProjector( viewerState, screenImage );
+		else
+		{
+			final ArrayList< VolatileProjector > sourceProjectors = new ArrayList<>();
+			final ArrayList< ARGBScreenImage > sourceImages = new ArrayList<>();
+			final ArrayList< Source< ? > > sources = new ArrayList<>();
+			int j = 0;
+			for ( final int i : visibleSourceIndices )
+			{
+				final ARGBScreenImage renderImage = renderImages[ currentScreenScaleIndex ][ j ];
+				final byte[] maskArray = renderMaskArrays[ j ];
+				++j;
+				final VolatileProjector p = createSingleSourceProjector(
+						viewerState, sourceStates.get( i ), i, currentScreenScaleIndex,
+						renderImage, maskArray, preserveMasks );
+				sourceProjectors.add( p );
+				sources.add( sourceStates.get( i ).getSpimSource() );
+				sourceImages.add( renderImage );
+			}
+			final int numVisibleSources = viewerState.getVisibleSourceIndices().size();
+			projector = accumulateProjectorFactory.createAccumulateProjector( sourceProjectors, sources, sourceImages, screenImage, numVisibleSources, numRenderingThreads, renderingExecutorService );
+		}
+		previousTimepoint = viewerState.getCurrentTimepoint();
+		viewerState.getViewerTransform( currentProjectorTransform );
+		ioBudgetLeft = iobudget == null ? null : iobudget.clone();
+		return projector;
+	}
+
+	/**
+	 * Map {@code p} with the IO budget that is left for the current projector.
+	 * The IO budget is kept per {@link ThreadGroup}, and the group of the
+	 * calling thread may be shared with other renderers (see
+	 * {@link RenderScheduler}). Therefore the budget is installed before the
+	 * pass, and what is left of it is saved after the pass.
+	 */
+	private boolean mapWithIoBudget( final VolatileProjector p, final boolean clearUntouchedTargetPixels )
+	{
+		// Non-volatile sources do not use the budget. Don't touch it, because
+		// such renderers (see OffscreenRenderer) may share the thread group
+		// with a pass of a volatile renderer.
+		if ( !useVolatileIfAvailable )
+			return p.map( clearUntouchedTargetPixels );
+
+		final long[] budgetLeft = ioBudgetLeft;
+		final IoTimeBudget budget = CacheIoTiming.getIoTimeBudget();
+		if ( budgetLeft == null )
+			budget.clear();
+		else
+			budget.reset( budgetLeft );
+		try
+		{
+			return p.map( clearUntouchedTargetPixels );
+		}
+		finally
+		{
+			if ( budgetLeft != null )
+				for ( int l = 0; l < budgetLeft.length; ++l )
+					budgetLeft[ l ] = budget.timeLeft( l );
+		}
+	}
+
+	private static class SimpleVolatileProjector< A, B > extends SimpleInterruptibleProjector< A, B > implements VolatileProjector
+	{
+		private boolean valid = false;
+
+		public SimpleVolatileProjector(
+				final RandomAccessible< A > source,
+				final Converter< ? super A, B > converter,
+				final RandomAccessibleInterval< B > target,
+				final int numThreads,
+				final ExecutorService executorService )
+		{
+			super( source, converter, target, numThreads, executorService );
+		}
+
+		@Override
+		public boolean map( final boolean clearUntouchedTargetPixels )
+		{
+			final boolean success = super.map();
+			valid |= success;
+			return success;
 		}
 
 		@Override
@@ -688,23 +1608,53 @@ public class MultiResolutionRenderer
 		}
 	}
 
+	/**
+	 * Whether sources are {@link #useFusedProjector(ViewerState) fused} with
+	 * {@link BlendMode#AVERAGE}, and sources that do not intersect the screen
+	 * were culled. Then a single remaining source must still be rendered by a
+	 * {@link FusedVolatileProjector}, to be divided by the number of visible
+	 * sources.
+	 */
+	private boolean averagesCulledSources( final ViewerState viewerState )
+	{
+		return useFusedProjector( viewerState ) && fusedBlendMode == BlendMode.AVERAGE
+				&& viewerState.getVisibleSourceIndices().size() > projectorSourceIndices.size();
+	}
+
+	/**
+	 * Whether multiple sources are rendered by a {@link FusedVolatileProjector}.
+	 * Slab projections are always rendered per source.
+	 */
+	private boolean useFusedProjector( final ViewerState viewerState )
+	{
+		return ( fusedBlendMode != null || mosaicBlendWidth > 0 ) && viewerState.getProjectionMode() == ProjectionMode.PLANE;
+	}
+
 	private < T > VolatileProjector createSingleSourceProjector(
 			final ViewerState viewerState,
 			final SourceState< T > source,
 			final int sourceIndex,
 			final int screenScaleIndex,
 			final ARGBScreenImage screenImage,
-			final byte[] maskArray )
+			final byte[] maskArray,
+			final boolean preserveMask )
 	{
+		if ( viewerState.getProjectionMode() != ProjectionMode.PLANE )
+		{
+			if ( useVolatileIfAvailable && source.asVolatile() != null )
+				return createSlabProjector( viewerState, source.asVolatile(), screenImage );
+			return createSlabProjector( viewerState, source, screenImage );
+		}
+
 		if ( useVolatileIfAvailable )
 		{
 			if ( source.asVolatile() != null )
-				return createSingleSourceVolatileProjector( viewerState, source.asVolatile(), sourceIndex, screenScaleIndex, screenImage, maskArray );
+				return createSingleSourceVolatileProjector( viewerState, source.asVolatile(), sourceIndex, screenScaleIndex, screenImage, maskArray, preserveMask );
 			else if ( source.getSpimSource().getType() instanceof Volatile )
 			{
 				@SuppressWarnings( "unchecked" )
 				final SourceState< ? extends Volatile< ? > > vsource = ( SourceState< ? extends Volatile< ? > > ) source;
-				return createSingleSourceVolatileProjector( viewerState, vsource, sourceIndex, screenScaleIndex, screenImage, maskArray );
+				return createSingleSourceVolatileProjector( viewerState, vsource, sourceIndex, screenScaleIndex, screenImage, maskArray, preserveMask );
 			}
 		}
 
@@ -721,11 +1671,127 @@ public class MultiResolutionRenderer
 			final int sourceIndex,
 			final int screenScaleIndex,
 			final ARGBScreenImage screenImage,
-			final byte[] maskArray )
+			final byte[] maskArray,
+			final boolean preserveMask )
 	{
-		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		final Source< T > spimSource = source.getSpimSource();
 		final ArrayList< RandomAccessible< T > > renderList = new ArrayList<>();
+		final ArrayList< LongSupplier > levelGenerations = new ArrayList<>();
+		final List< Level > levels = getRenderLevels( viewerState, spimSource, screenImage, renderList, levelGenerations );
+
+		final VolatileProjector unsignedShortProjector = createUnsignedShortProjector(
+				viewerState, spimSource, source.getConverter(), levels, renderList, levelGenerations, screenImage, maskArray, preserveMask );
+		if ( unsignedShortProjector != null )
+			return unsignedShortProjector;
+
+		return new VolatileHierarchyProjector<>( renderList, levelGenerations, source.getConverter(), screenImage, maskArray, !preserveMask, numRenderingThreads, renderingExecutorService );
+	}
+
+	/**
+	 * Create a {@link SlabProjector} for the slab of
+	 * {@link ViewerState#getSlabThickness() thickness} around the current
+	 * plane. Sampling starts at the best mipmap level for the current screen
+	 * scale, with all coarser levels as fallback for data that is not loaded
+	 * yet.
+	 */
+	private < T > VolatileProjector createSlabProjector(
+			final ViewerState viewerState,
+			final SourceAndConverter< T > source,
+			final ARGBScreenImage screenImage )
+	{
 		final Source< T > spimSource = source.getSpimSource();
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		final int t = viewerState.getCurrentTimepoint();
+		final Interpolation interpolation = viewerState.getInterpolation();
+
+		final AffineTransform3D screenTransform = new AffineTransform3D();
+		viewerState.getViewerTransform( screenTransform );
+		screenTransform.preConcatenate( screenScaleTransform );
+		final int bestLevel = MipmapTransforms.getBestMipMapLevel( screenTransform, spimSource, t );
+
+		if ( prefetchCells )
+			prefetch( viewerState, spimSource, screenScaleTransform, bestLevel, null, screenImage, getScreenImageFocus( screenImage ) );
+
+		final ArrayList< RealRandomAccessible< T > > levels = new ArrayList<>();
+		final ArrayList< AffineTransform3D > screenToSource = new ArrayList<>();
+		for ( int level = bestLevel; level < spimSource.getNumMipmapLevels(); ++level )
+		{
+			final AffineTransform3D sourceToScreen = screenTransform.copy();
+			final AffineTransform3D sourceTransform = new AffineTransform3D();
+			spimSource.getSourceTransform( t, level, sourceTransform );
+			sourceToScreen.concatenate( sourceTransform );
+			levels.add( spimSource.getInterpolatedSource( t, level, interpolation ) );
+			screenToSource.add( sourceToScreen.inverse() );
+		}
+
+		final CellStatistics cellStatistics = CellStatistics.forImage( spimSource.getSource( t, bestLevel ), spimSource.getType() );
+		final double halfThickness = viewerState.getSlabThickness() / 2;
+		return new SlabProjector<>(
+				levels, screenToSource, cellStatistics, interpolation == Interpolation.NLINEAR,
+				source.getConverter(), spimSource.getType(), viewerState.getProjectionMode(),
+				-halfThickness, halfThickness, screenImage, numRenderingThreads, renderingExecutorService );
+	}
+
+	/**
+	 * If the viewer transform is changing, enqueue the cells needed for the
+	 * next {@link #numPredictedFrames} extrapolated transforms, at the lowest
+	 * priority and behind the requests for the current frame. Speculative
+	 * requests are not renewed once motion stops, and requests that are still
+	 * queued are demoted at every new frame by
+	 * {@link CacheControl#prepareNextFrame()}.
+	 * <p>
+	 * The lowest priority is also the priority of the best mipmap level of the
+	 * current frame. This must therefore be called after the projector for the
+	 * current frame was created (which prefetches its cells), such that the
+	 * speculative requests are queued behind those of the current frame.
+	 */
+	private void prefetchPredicted( final ViewerState viewerState, final ARGBScreenImage screenImage )
+	{
+		final List< AffineTransform3D > predicted = motionPredictor.predict( numPredictedFrames, System.nanoTime() );
+		if ( predicted.isEmpty() )
+			return;
+
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		final int t = viewerState.getCurrentTimepoint();
+		final List< SourceState< ? > > sources = viewerState.getSources();
+		final ViewerState predictedState = viewerState.copy();
+		final double[] focus = getScreenImageFocus( screenImage );
+		for ( final AffineTransform3D transform : predicted )
+		{
+			predictedState.setViewerTransform( transform );
+			final AffineTransform3D screenTransform = transform.copy();
+			screenTransform.preConcatenate( screenScaleTransform );
+			// sources that are off-screen now may come into view, and vice versa
+			for ( final int i : getRenderedSourceIndices( predictedState ) )
+			{
+				final SourceState< ? > source = sources.get( i );
+				final Source< ? > spimSource = source.asVolatile() != null
+						? source.asVolatile().getSpimSource()
+						: source.getSpimSource();
+				final int level = MipmapTransforms.getBestMipMapLevel( screenTransform, spimSource, t );
+				final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, spimSource.getNumMipmapLevels() - 1, false );
+				prefetch( predictedState, spimSource, screenScaleTransform, level, hints, screenImage, focus );
+			}
+		}
+	}
+
+	/**
+	 * Determine the mipmap levels of {@code spimSource} to render, prefetch
+	 * them if {@link #prefetchCells} is set, and add the transformed levels
+	 * (ordered from best to worst) to {@code renderList} and their
+	 * {@link #getLevelGeneration(Source, int, int) generation counters} to
+	 * {@code levelGenerations}.
+	 *
+	 * @return the mipmap levels, in render order.
+	 */
+	private < T extends Volatile< ? > > List< Level > getRenderLevels(
+			final ViewerState viewerState,
+			final Source< T > spimSource,
+			final ARGBScreenImage screenImage,
+			final List< RandomAccessible< T > > renderList,
+			final List< LongSupplier > levelGenerations )
+	{
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
 		final int t = viewerState.getCurrentTimepoint();
 
 		final MipmapOrdering ordering = MipmapOrdering.class.isInstance( spimSource ) ?
@@ -739,23 +1805,283 @@ public class MultiResolutionRenderer
 
 		if ( prefetchCells )
 		{
+			final double[] focus = getScreenImageFocus( screenImage );
 			Collections.sort( levels, MipmapOrdering.prefetchOrderComparator );
 			for ( final Level l : levels )
 			{
 				final CacheHints cacheHints = l.getPrefetchCacheHints();
 				if ( cacheHints == null || cacheHints.getLoadingStrategy() != LoadingStrategy.DONTLOAD )
-					prefetch( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel(), cacheHints, screenImage );
+					prefetch( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel(), cacheHints, screenImage, focus );
 			}
 		}
 
 		Collections.sort( levels, MipmapOrdering.renderOrderComparator );
 		for ( final Level l : levels )
+		{
 			renderList.add( getTransformedSource( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel(), l.getRenderCacheHints() ) );
+			levelGenerations.add( getLevelGeneration( spimSource, t, l.getMipmapLevel() ) );
+		}
 
 		if ( hints.renewHintsAfterPaintingOnce() )
 			newFrameRequest = true;
 
-		return new VolatileHierarchyProjector<>( renderList, source.getConverter(), screenImage, maskArray, numRenderingThreads, renderingExecutorService );
+		return levels;
+	}
+
+	/**
+	 * Create a {@link FusedVolatileProjector} that renders all visible sources
+	 * of {@code viewerState} directly into {@code screenImage}.
+	 */
+	private VolatileProjector createFusedProjector(
+			final ViewerState viewerState,
+			final ARGBScreenImage screenImage )
+	{
+		final List< SourceState< ? > > sourceStates = viewerState.getSources();
+
+		// number the mosaic groups of all visible sources, including culled ones
+		final HashMap< Object, Integer > groups = new HashMap<>();
+		for ( final int i : viewerState.getVisibleSourceIndices() )
+			groups.putIfAbsent( getMosaicGroupKey( sourceStates.get( i ) ), groups.size() );
+
+		final ArrayList< FusedVolatileProjector.FusedSource< ? > > fusedSources = new ArrayList<>();
+		for ( final int i : projectorSourceIndices )
+		{
+			final SourceState< ? > source = sourceStates.get( i );
+			final int group = mosaicBlendWidth > 0 ? groups.get( getMosaicGroupKey( source ) ) : -1;
+			fusedSources.add( createFusedSource( viewerState, source, i, group, screenImage ) );
+		}
+		final BlendMode blendMode = fusedBlendMode == null ? BlendMode.SUM : fusedBlendMode;
+		final int averageDivisor = mosaicBlendWidth > 0 ? groups.size() : viewerState.getVisibleSourceIndices().size();
+		return new FusedVolatileProjector( fusedSources, screenImage, blendMode, averageDivisor, numRenderingThreads, renderingExecutorService );
+	}
+
+	/**
+	 * Get the key by which sources are grouped for {@link #setMosaicBlending(double)
+	 * mosaic blending}. Sources with equal keys are combined by weighted
+	 * average, and the groups are combined according to the fused
+	 * {@link BlendMode}.
+	 * <p>
+	 * Sources with a {@link ColorConverter} are grouped by color, because the
+	 * tiles of one channel are usually shown in the same color. Other sources
+	 * are grouped by converter instance. Derived classes may override this,
+	 * for example, to group by channel.
+	 */
+	protected Object getMosaicGroupKey( final SourceAndConverter< ? > source )
+	{
+		final Converter< ?, ARGBType > converter = source.getConverter();
+		if ( converter instanceof ColorConverter )
+			return ( ( ColorConverter ) converter ).getColor().get();
+		return converter;
+	}
+
+	/**
+	 * @param group
+	 *            the {@link FusedVolatileProjector.FusedSource#getGroup()
+	 *            group} of the source.
+	 */
+	private < T > FusedVolatileProjector.FusedSource< ? > createFusedSource(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int sourceIndex,
+			final int group,
+			final ARGBScreenImage screenImage )
+	{
+		if ( useVolatileIfAvailable )
+		{
+			if ( source.asVolatile() != null )
+				return createVolatileFusedSource( viewerState, source.asVolatile(), group, screenImage );
+			else if ( source.getSpimSource().getType() instanceof Volatile )
+			{
+				@SuppressWarnings( "unchecked" )
+				final SourceState< ? extends Volatile< ? > > vsource = ( SourceState< ? extends Volatile< ? > > ) source;
+				return createVolatileFusedSource( viewerState, vsource, group, screenImage );
+			}
+		}
+
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		final int bestLevel = viewerState.getBestMipMapLevel( screenScaleTransform, sourceIndex );
+		final Source< T > spimSource = source.getSpimSource();
+		return newFusedSource(
+				viewerState,
+				spimSource,
+				bestLevel,
+				Collections.singletonList( getTransformedSource( viewerState, spimSource, screenScaleTransform, bestLevel, null ) ),
+				null,
+				source.getConverter(),
+				false,
+				group );
+	}
+
+	private < T extends Volatile< ? > > FusedVolatileProjector.FusedSource< T > createVolatileFusedSource(
+			final ViewerState viewerState,
+			final SourceState< T > source,
+			final int group,
+			final ARGBScreenImage screenImage )
+	{
+		final Source< T > spimSource = source.getSpimSource();
+		final ArrayList< RandomAccessible< T > > renderList = new ArrayList<>();
+		final ArrayList< LongSupplier > levelGenerations = new ArrayList<>();
+		final List< Level > levels = getRenderLevels( viewerState, spimSource, screenImage, renderList, levelGenerations );
+		return newFusedSource(
+				viewerState,
+				spimSource,
+				levels.get( 0 ).getMipmapLevel(),
+				renderList,
+				levelGenerations,
+				source.getConverter(),
+				true,
+				group );
+	}
+
+	/**
+	 * Create a {@link FusedVolatileProjector.FusedSource}. If
+	 * {@link #mosaicBlendWidth} is positive, it has blending weights with
+	 * respect to the full-resolution level of {@code spimSource}.
+	 *
+	 * @param bestLevel
+	 *            the mipmap level of the first of {@code levels}.
+	 * @param group
+	 *            the {@link FusedVolatileProjector.FusedSource#getGroup()
+	 *            group} of the source.
+	 */
+	private < T > FusedVolatileProjector.FusedSource< T > newFusedSource(
+			final ViewerState viewerState,
+			final Source< ? > spimSource,
+			final int bestLevel,
+			final List< ? extends RandomAccessible< T > > levels,
+			final List< ? extends LongSupplier > levelGenerations,
+			final Converter< ? super T, ARGBType > converter,
+			final boolean isVolatile,
+			final int group )
+	{
+		if ( mosaicBlendWidth > 0 )
+		{
+			final RandomAccessibleInterval< ? > img = spimSource.getSource( viewerState.getCurrentTimepoint(), 0 );
+			if ( img != null )
+			{
+				final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+				return new FusedVolatileProjector.FusedSource<>(
+						levels,
+						levelGenerations,
+						converter,
+						isVolatile,
+						img,
+						getSourceToScreen( viewerState, spimSource, screenScaleTransform, 0 ),
+						mosaicBlendWidth,
+						group );
+			}
+		}
+		return new FusedVolatileProjector.FusedSource<>(
+				levels,
+				levelGenerations,
+				converter,
+				isVolatile,
+				getScreenBounds( viewerState, spimSource, bestLevel ),
+				group );
+	}
+
+	/**
+	 * Get the bounds of {@code source} in the current screen image, see
+	 * {@link FusedVolatileProjector#getScreenBounds(Interval, AffineTransform3D)}.
+	 *
+	 * @return the bounds, or {@code null} if unknown.
+	 */
+	private Interval getScreenBounds( final ViewerState viewerState, final Source< ? > source, final int mipmapIndex )
+	{
+		final RandomAccessibleInterval< ? > img = source.getSource( viewerState.getCurrentTimepoint(), mipmapIndex );
+		if ( img == null )
+			return null;
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		return FusedVolatileProjector.getScreenBounds( img, getSourceToScreen( viewerState, source, screenScaleTransform, mipmapIndex ) );
+	}
+
+	/**
+	 * Create a {@link UnsignedShortVolatileHierarchyProjector} if the source is
+	 * suitable, that is, all its levels are {@link VolatileUnsignedShortType}
+	 * {@link VolatileCachedCellImg}s of a {@link AbstractSpimSource}, it is
+	 * converted by a {@link RealARGBColorConverter}, and the interpolation is
+	 * nearest-neighbor.
+	 *
+	 * @return the projector, or {@code null} if the source is not suitable.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private VolatileProjector createUnsignedShortProjector(
+			final ViewerState viewerState,
+			final Source< ? > spimSource,
+			final Converter< ?, ARGBType > converter,
+			final List< Level > levels,
+			final List< ? extends RandomAccessible< ? > > renderList,
+			final List< LongSupplier > levelGenerations,
+			final ARGBScreenImage screenImage,
+			final byte[] maskArray,
+			final boolean preserveMask )
+	{
+		if ( viewerState.getInterpolation() != Interpolation.NEARESTNEIGHBOR
+				|| !( converter instanceof RealARGBColorConverter )
+				|| !( spimSource.getType() instanceof VolatileUnsignedShortType ) )
+			return null;
+
+		Source< ? > s = spimSource;
+		while ( s instanceof TransformedSource )
+			s = ( ( TransformedSource< ? > ) s ).getWrappedSource();
+		if ( !( s instanceof AbstractSpimSource ) )
+			return null;
+
+		final int t = viewerState.getCurrentTimepoint();
+		final AffineTransform3D screenScaleTransform = screenScaleTransforms[ currentScreenScaleIndex ];
+		final ArrayList< VolatileCachedCellImg< VolatileUnsignedShortType, ? > > imgs = new ArrayList<>();
+		final ArrayList< AffineTransform3D > sourceToScreens = new ArrayList<>();
+		for ( final Level l : levels )
+		{
+			final RandomAccessibleInterval< ? > img = spimSource.getSource( t, l.getMipmapLevel() );
+			if ( !( img instanceof VolatileCachedCellImg ) || img.numDimensions() != 3 )
+				return null;
+			imgs.add( ( VolatileCachedCellImg< VolatileUnsignedShortType, ? > ) img );
+			sourceToScreens.add( getSourceToScreen( viewerState, spimSource, screenScaleTransform, l.getMipmapLevel() ) );
+		}
+
+		return new UnsignedShortVolatileHierarchyProjector(
+				( List< RandomAccessible< VolatileUnsignedShortType > > ) ( List< ? > ) renderList,
+				levelGenerations,
+				imgs,
+				sourceToScreens,
+				( RealARGBColorConverter< VolatileUnsignedShortType > ) converter,
+				screenImage,
+				maskArray,
+				!preserveMask,
+				numRenderingThreads,
+				renderingExecutorService );
+	}
+
+	private static AffineTransform3D getSourceToScreen(
+			final ViewerState viewerState,
+			final Source< ? > source,
+			final AffineTransform3D screenScaleTransform,
+			final int mipmapIndex )
+	{
+		final AffineTransform3D sourceToScreen = new AffineTransform3D();
+		viewerState.getViewerTransform( sourceToScreen );
+		final AffineTransform3D sourceTransform = new AffineTransform3D();
+		source.getSourceTransform( viewerState.getCurrentTimepoint(), mipmapIndex, sourceTransform );
+		sourceToScreen.concatenate( sourceTransform );
+		sourceToScreen.preConcatenate( screenScaleTransform );
+		return sourceToScreen;
+	}
+
+	/**
+	 * Get a counter that changes whenever new data becomes available for the
+	 * given {@code source} level. This is used by
+	 * {@link VolatileHierarchyProjector} to skip levels for which nothing
+	 * changed.
+	 *
+	 * @return the counter, or {@code null} if it cannot be determined.
+	 */
+	private static LongSupplier getLevelGeneration( final Source< ? > source, final int timepoint, final int mipmapIndex )
+	{
+		final RandomAccessibleInterval< ? > img = source.getSource( timepoint, mipmapIndex );
+		if ( VolatileCachedCellImg.class.isInstance( img ) )
+			return ( ( VolatileCachedCellImg< ?, ? > ) img )::getNumLoadedCells;
+		return null;
 	}
 
 	private static < T > RandomAccessible< T > getTransformedSource(
@@ -784,13 +2110,31 @@ public class MultiResolutionRenderer
 		return RealViews.affine( ipimg, sourceToScreen );
 	}
 
-	private static < T > void prefetch(
+	static < T > void prefetch(
 			final ViewerState viewerState,
 			final Source< T > source,
 			final AffineTransform3D screenScaleTransform,
 			final int mipmapIndex,
 			final CacheHints prefetchCacheHints,
 			final Dimensions screenInterval )
+	{
+		final double[] center = new double[] { 0.5 * screenInterval.dimension( 0 ), 0.5 * screenInterval.dimension( 1 ) };
+		prefetch( viewerState, source, screenScaleTransform, mipmapIndex, prefetchCacheHints, screenInterval, center );
+	}
+
+	/**
+	 * Enqueue the cells of mipmap level {@code mipmapIndex} of {@code source}
+	 * that are needed to render {@code screenInterval}, in order of increasing
+	 * distance to {@code focus} (in screen image coordinates).
+	 */
+	static < T > void prefetch(
+			final ViewerState viewerState,
+			final Source< T > source,
+			final AffineTransform3D screenScaleTransform,
+			final int mipmapIndex,
+			final CacheHints prefetchCacheHints,
+			final Dimensions screenInterval,
+			final double[] focus )
 	{
 		final int timepoint = viewerState.getCurrentTimepoint();
 		final RandomAccessibleInterval< T > img = source.getSource( timepoint, mipmapIndex );
@@ -804,12 +2148,13 @@ public class MultiResolutionRenderer
 				final CacheHints d = cellImg.getDefaultCacheHints();
 				hints = new CacheHints( LoadingStrategy.VOLATILE, d.getQueuePriority(), false );
 			}
-			cellImg.setCacheHints( hints );
 			final int[] cellDimensions = new int[ 3 ];
 			cellImg.getCellGrid().cellDimensions( cellDimensions );
 			final long[] dimensions = new long[ 3 ];
 			cellImg.dimensions( dimensions );
-			final RandomAccess< ? > cellsRandomAccess = cellImg.getCells().randomAccess();
+			// Use a view with its own hints: the img is shared with the projectors
+			// of the current frame, whose hints must not be changed here.
+			final RandomAccess< ? > cellsRandomAccess = cellImg.getCells( hints ).randomAccess();
 
 			final Interpolation interpolation = viewerState.getInterpolation();
 
@@ -820,10 +2165,22 @@ public class MultiResolutionRenderer
 			sourceToScreen.concatenate( sourceTransform );
 			sourceToScreen.preConcatenate( screenScaleTransform );
 
-			Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+			Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess, focus, hints.isEnqueuToFront() );
 		}
 	}
 
+	/**
+	 * Get a {@link BufferedImage} wrapping the data of {@code screenImage}.
+	 * Without a display, there is no screen-compatible color model to convert
+	 * to, and the image is used as is.
+	 */
+	private static BufferedImage getBufferedImage( final ARGBScreenImage screenImage )
+	{
+		return GraphicsEnvironment.isHeadless()
+				? screenImage.image()
+				: GuiUtil.getBufferedImage( screenImage );
+	}
+
 	private static TransformAwareRenderTarget wrapTransformAwareRenderTarget( final RenderTarget t )
 	{
 		if ( t instanceof TransformAwareRenderTarget )
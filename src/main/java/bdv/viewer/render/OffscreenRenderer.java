@@ -0,0 +1,446 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import bdv.cache.CacheControl;
+import bdv.viewer.Source;
+import bdv.viewer.state.SourceState;
+import bdv.viewer.state.ViewerState;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.ui.RenderTarget;
+
+/**
+ * Renders {@link ViewerState ViewerStates} to images, without a
+ * {@link bdv.viewer.ViewerPanel} or any other Swing component. This works with
+ * {@code java.awt.headless=true}.
+ * <p>
+ * Frames are rendered at full resolution by {@link MultiResolutionRenderer}s,
+ * using non-volatile sources, i.e., rendering blocks until all required data is
+ * loaded. The {@link MultiResolutionRenderer}s (and their screen images) are
+ * reused from frame to frame, with one per frame that is rendered
+ * concurrently. When rendering several frames, these are rendered in parallel
+ * on the {@link ExecutorService} given at construction, or on the
+ * process-wide rendering pool of {@link RenderScheduler#getInstance()}, which
+ * is shared with the viewer windows.
+ * <p>
+ * The states passed to the render methods are copied, and may be modified
+ * while rendering is in progress.
+ */
+public class OffscreenRenderer
+{
+	private final int width;
+
+	private final int height;
+
+	private final AccumulateProjectorFactory< ARGBType > accumulateProjectorFactory;
+
+	private final ExecutorService executorService;
+
+	private final int parallelism;
+
+	/**
+	 * Renderers that are not currently rendering a frame.
+	 */
+	private final ConcurrentLinkedQueue< FrameRenderer > idleRenderers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Create a renderer for {@code width} &times; {@code height} images that
+	 * sums sources and renders on the process-wide rendering pool.
+	 */
+	public OffscreenRenderer( final int width, final int height )
+	{
+		this( width, height, AccumulateProjectorARGB.factory );
+	}
+
+	/**
+	 * Create a renderer for {@code width} &times; {@code height} images that
+	 * renders on the process-wide rendering pool (see
+	 * {@link RenderScheduler#getExecutorService()}). Use
+	 * {@link #OffscreenRenderer(int, int, AccumulateProjectorFactory, ExecutorService)}
+	 * to render on a separate pool instead.
+	 */
+	public OffscreenRenderer( final int width, final int height, final AccumulateProjectorFactory< ARGBType > accumulateProjectorFactory )
+	{
+		this( width, height, accumulateProjectorFactory, RenderScheduler.getInstance().getExecutorService() );
+	}
+
+	/**
+	 * @param width
+	 *            width of the rendered images.
+	 * @param height
+	 *            height of the rendered images.
+	 * @param accumulateProjectorFactory
+	 *            how sources are combined.
+	 * @param executorService
+	 *            frames are rendered in parallel on this. If it is a
+	 *            {@link ForkJoinPool}, it is also used for rendering the tiles
+	 *            of each frame. Otherwise, frames are rendered single-threaded,
+	 *            because nested blocking tasks could deadlock a fixed size
+	 *            pool. The caller owns {@code executorService}, it is not shut
+	 *            down by {@link #shutdown()}.
+	 */
+	public OffscreenRenderer(
+			final int width,
+			final int height,
+			final AccumulateProjectorFactory< ARGBType > accumulateProjectorFactory,
+			final ExecutorService executorService )
+	{
+		this.width = width;
+		this.height = height;
+		this.accumulateProjectorFactory = accumulateProjectorFactory;
+		this.executorService = executorService;
+		this.parallelism = ( executorService instanceof ForkJoinPool )
+				? ( ( ForkJoinPool ) executorService ).getParallelism()
+				: Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Release the {@link MultiResolutionRenderer}s (and their screen images)
+	 * that are kept for reuse. The {@link ExecutorService} is not shut down,
+	 * it is either shared or owned by the caller.
+	 */
+	public void shutdown()
+	{
+		idleRenderers.clear();
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Get the number of frames that are rendered concurrently. Callers that
+	 * process long sequences of frames can render in batches of this size to
+	 * bound memory use.
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Render {@code state} into a new ARGB array of size {@code width * height}.
+	 */
+	public int[] renderARGB( final ViewerState state )
+	{
+		return renderFrame( state.copy(), parallelism );
+	}
+
+	/**
+	 * Render {@code state} into a new {@link BufferedImage}.
+	 */
+	public BufferedImage render( final ViewerState state )
+	{
+		return toBufferedImage( renderARGB( state ) );
+	}
+
+	/**
+	 * Render {@code state} into a new ARGB array of size
+	 * {@code width * height}, asynchronously on the {@link ExecutorService} of
+	 * this renderer. Use this to keep several frames in flight, while
+	 * processing the frames that are already done.
+	 */
+	public CompletableFuture< int[] > renderARGBAsync( final ViewerState state )
+	{
+		final ViewerState copy = state.copy();
+		return CompletableFuture.supplyAsync( () -> renderFrame( copy, 1 ), executorService );
+	}
+
+	/**
+	 * Request the cells that are needed to render {@code state}, without
+	 * waiting for them to load. The volatile versions of the sources are used,
+	 * if available, such that the cells are enqueued for loading by the fetcher
+	 * threads of the cache. Frames that are rendered later then find their data
+	 * in the cache, instead of loading it serially in the rendering thread.
+	 */
+	public void prefetch( final ViewerState state )
+	{
+		final AffineTransform3D screenScaleTransform = new AffineTransform3D();
+		final Dimensions screenInterval = new FinalDimensions( width, height );
+		final List< SourceState< ? > > sources = state.getSources();
+		for ( final int i : state.getVisibleSourceIndices() )
+		{
+			final SourceState< ? > source = sources.get( i );
+			final Source< ? > spimSource = source.asVolatile() != null
+					? source.asVolatile().getSpimSource()
+					: source.getSpimSource();
+			final int level = state.getBestMipMapLevel( screenScaleTransform, i );
+			MultiResolutionRenderer.prefetch( state, spimSource, screenScaleTransform, level, null, screenInterval );
+		}
+	}
+
+	/**
+	 * Render {@code states} in parallel into new ARGB arrays of size
+	 * {@code width * height}.
+	 */
+	public List< int[] > renderARGB( final List< ViewerState > states )
+	{
+		final List< ViewerState > copies = new ArrayList<>( states.size() );
+		for ( final ViewerState state : states )
+			copies.add( state.copy() );
+		return renderFrames( copies );
+	}
+
+	/**
+	 * Render {@code states} in parallel into new {@link BufferedImage
+	 * BufferedImages}.
+	 */
+	public List< BufferedImage > render( final List< ViewerState > states )
+	{
+		return toBufferedImages( renderARGB( states ) );
+	}
+
+	/**
+	 * Render {@code state} with each of the given viewer {@code transforms}, in
+	 * parallel.
+	 */
+	public List< int[] > renderTransformsARGB( final ViewerState state, final List< AffineTransform3D > transforms )
+	{
+		final List< ViewerState > copies = new ArrayList<>( transforms.size() );
+		for ( final AffineTransform3D transform : transforms )
+		{
+			final ViewerState copy = state.copy();
+			copy.setViewerTransform( transform );
+			copies.add( copy );
+		}
+		return renderFrames( copies );
+	}
+
+	/**
+	 * Render {@code state} with each of the given viewer {@code transforms}, in
+	 * parallel.
+	 */
+	public List< BufferedImage > renderTransforms( final ViewerState state, final List< AffineTransform3D > transforms )
+	{
+		return toBufferedImages( renderTransformsARGB( state, transforms ) );
+	}
+
+	/**
+	 * Render {@code state} at each of the given {@code timepoints}, in
+	 * parallel.
+	 */
+	public List< int[] > renderTimepointsARGB( final ViewerState state, final List< Integer > timepoints )
+	{
+		final List< ViewerState > copies = new ArrayList<>( timepoints.size() );
+		for ( final int timepoint : timepoints )
+		{
+			final ViewerState copy = state.copy();
+			copy.setCurrentTimepoint( timepoint );
+			copies.add( copy );
+		}
+		return renderFrames( copies );
+	}
+
+	/**
+	 * Render {@code state} at each of the given {@code timepoints}, in
+	 * parallel.
+	 */
+	public List< BufferedImage > renderTimepoints( final ViewerState state, final List< Integer > timepoints )
+	{
+		return toBufferedImages( renderTimepointsARGB( state, timepoints ) );
+	}
+
+	/**
+	 * Wrap an ARGB array rendered by this {@link OffscreenRenderer} into a
+	 * {@link BufferedImage} (without copying).
+	 */
+	public BufferedImage toBufferedImage( final int[] argb )
+	{
+		final DirectColorModel cm = ( DirectColorModel ) ColorModel.getRGBdefault();
+		final DataBufferInt buffer = new DataBufferInt( argb, argb.length );
+		final WritableRaster raster = Raster.createPackedRaster( buffer, width, height, width, cm.getMasks(), null );
+		return new BufferedImage( cm, raster, false, null );
+	}
+
+	private List< BufferedImage > toBufferedImages( final List< int[] > frames )
+	{
+		final List< BufferedImage > images = new ArrayList<>( frames.size() );
+		for ( final int[] argb : frames )
+			images.add( toBufferedImage( argb ) );
+		return images;
+	}
+
+	private List< int[] > renderFrames( final List< ViewerState > states )
+	{
+		if ( states.size() == 1 )
+		{
+			final List< int[] > frames = new ArrayList<>( 1 );
+			frames.add( renderFrame( states.get( 0 ), parallelism ) );
+			return frames;
+		}
+
+		final List< Callable< int[] > > tasks = new ArrayList<>( states.size() );
+		for ( final ViewerState state : states )
+			tasks.add( () -> renderFrame( state, 1 ) );
+		try
+		{
+			final List< Future< int[] > > futures = executorService.invokeAll( tasks );
+			final List< int[] > frames = new ArrayList<>( futures.size() );
+			for ( final Future< int[] > future : futures )
+				frames.add( future.get() );
+			return frames;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			throw new RuntimeException( cause );
+		}
+	}
+
+	/**
+	 * Render one frame. {@code state} is not copied and must not be shared.
+	 */
+	private int[] renderFrame( final ViewerState state, final int numRenderingThreads )
+	{
+		final boolean parallel = executorService instanceof ForkJoinPool;
+		final FrameRenderer renderer = acquireRenderer( parallel ? numRenderingThreads : 1 );
+		try
+		{
+			return renderer.render( state );
+		}
+		finally
+		{
+			idleRenderers.add( renderer );
+		}
+	}
+
+	/**
+	 * Take an idle {@link FrameRenderer} with {@code numRenderingThreads}
+	 * threads, or create one if there is none.
+	 */
+	private FrameRenderer acquireRenderer( final int numRenderingThreads )
+	{
+		for ( final FrameRenderer renderer : idleRenderers )
+			if ( renderer.numRenderingThreads == numRenderingThreads && idleRenderers.remove( renderer ) )
+				return renderer;
+		return new FrameRenderer( numRenderingThreads );
+	}
+
+	/**
+	 * A {@link MultiResolutionRenderer} with its {@link FrameTarget}, which
+	 * renders one frame at a time.
+	 */
+	private class FrameRenderer
+	{
+		final int numRenderingThreads;
+
+		final FrameTarget target = new FrameTarget();
+
+		final MultiResolutionRenderer renderer;
+
+		FrameRenderer( final int numRenderingThreads )
+		{
+			this.numRenderingThreads = numRenderingThreads;
+			final ExecutorService renderingExecutorService = ( executorService instanceof ForkJoinPool ) ? executorService : null;
+			renderer = new MultiResolutionRenderer(
+					target, null, new double[] { 1 }, 0, false,
+					numRenderingThreads,
+					renderingExecutorService, false, accumulateProjectorFactory, new CacheControl.Dummy() );
+			// consecutive frames are unrelated, previous frames must not show through
+			renderer.setKeepStaleTimepoint( false );
+		}
+
+		/**
+		 * Render {@code state} into a new ARGB array. The screen image of the
+		 * renderer is reused for the next frame, so it is copied.
+		 */
+		int[] render( final ViewerState state )
+		{
+			renderer.requestRepaint();
+			renderer.paint( state );
+			return target.getARGB().clone();
+		}
+	}
+
+	private class FrameTarget implements RenderTarget
+	{
+		private BufferedImage bi;
+
+		@Override
+		public BufferedImage setBufferedImage( final BufferedImage bufferedImage )
+		{
+			bi = bufferedImage;
+			return null;
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return width;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return height;
+		}
+
+		int[] getARGB()
+		{
+			if ( bi == null )
+				return new int[ width * height ];
+			if ( bi.getType() == BufferedImage.TYPE_INT_ARGB && bi.getRaster().getDataBuffer() instanceof DataBufferInt )
+				return ( ( DataBufferInt ) bi.getRaster().getDataBuffer() ).getData();
+			return bi.getRGB( 0, 0, width, height, null, 0, width );
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import bdv.viewer.Source;
+
+/**
+ * {@link ScreenScaleController} that keeps a model of the rendering time per
+ * screen pixel for each source and mipmap level, as an exponential moving
+ * average of measured times. Before rendering a new frame, it predicts the
+ * rendering time of each screen scale and selects the finest screen scale
+ * that fits the time budget.
+ * <p>
+ * Because each source and level is modelled separately, the prediction
+ * remains stable when fast and slow sources are mixed, instead of stepping up
+ * and down between screen scales.
+ */
+public class PredictiveScreenScaleController implements ScreenScaleController
+{
+	/**
+	 * Weight of a new measurement in the moving average.
+	 */
+	private final double alpha;
+
+	/**
+	 * For each source, the nanoseconds per pixel for each mipmap level
+	 * ({@code NaN} if unknown).
+	 */
+	private final Map< Source< ? >, double[] > nanosPerPixel = new WeakHashMap<>();
+
+	public PredictiveScreenScaleController()
+	{
+		this( 0.3 );
+	}
+
+	/**
+	 * @param alpha
+	 *            weight of a new measurement in the moving average of
+	 *            nanoseconds per pixel, in {@code (0, 1]}.
+	 */
+	public PredictiveScreenScaleController( final double alpha )
+	{
+		this.alpha = alpha;
+	}
+
+	@Override
+	public synchronized int getMaxScreenScaleIndex( final List< Work > work, final long targetRenderNanos )
+	{
+		final int coarsest = work.size() - 1;
+		final double fallback = getMeanNanosPerPixel();
+		if ( Double.isNaN( fallback ) )
+			return coarsest;
+		for ( int i = 0; i < coarsest; ++i )
+			if ( predictRenderNanos( work.get( i ), fallback ) <= targetRenderNanos )
+				return i;
+		return coarsest;
+	}
+
+	/**
+	 * Predict the rendering time of {@code work} in nanoseconds.
+	 *
+	 * @param fallback
+	 *            nanoseconds per pixel to assume for sources and levels
+	 *            without measurements.
+	 */
+	public synchronized double predictRenderNanos( final Work work, final double fallback )
+	{
+		final List< Source< ? > > sources = work.getSources();
+		double nanos = 0;
+		for ( int s = 0; s < sources.size(); ++s )
+		{
+			final double npp = getNanosPerPixel( sources.get( s ), work.getLevel( s ) );
+			nanos += ( Double.isNaN( npp ) ? fallback : npp ) * work.getNumPixels();
+		}
+		return nanos;
+	}
+
+	@Override
+	public synchronized void rendered( final Work work, final long renderNanos, final long[] sourceRenderNanos )
+	{
+		final List< Source< ? > > sources = work.getSources();
+		final int n = sources.size();
+		if ( n == 0 || work.getNumPixels() <= 0 )
+			return;
+
+		// time not attributed to individual sources (e.g., accumulating them) is shared equally
+		long attributed = 0;
+		if ( sourceRenderNanos != null )
+			for ( final long t : sourceRenderNanos )
+				attributed += t;
+		final double shared = Math.max( 0, renderNanos - attributed ) / ( double ) n;
+
+		for ( int s = 0; s < n; ++s )
+		{
+			final double nanos = ( sourceRenderNanos != null ? sourceRenderNanos[ s ] : 0 ) + shared;
+			update( sources.get( s ), work.getLevel( s ), nanos / work.getNumPixels() );
+		}
+	}
+
+	private double getNanosPerPixel( final Source< ? > source, final int level )
+	{
+		final double[] levels = nanosPerPixel.get( source );
+		return ( levels == null || level < 0 || level >= levels.length ) ? Double.NaN : levels[ level ];
+	}
+
+	private void update( final Source< ? > source, final int level, final double npp )
+	{
+		if ( level < 0 )
+			return;
+		double[] levels = nanosPerPixel.get( source );
+		if ( levels == null || levels.length <= level )
+		{
+			final int n = levels == null ? 0 : levels.length;
+			levels = levels == null ? new double[ level + 1 ] : Arrays.copyOf( levels, level + 1 );
+			Arrays.fill( levels, n, levels.length, Double.NaN );
+			nanosPerPixel.put( source, levels );
+		}
+		levels[ level ] = Double.isNaN( levels[ level ] ) ? npp : ( 1 - alpha ) * levels[ level ] + alpha * npp;
+	}
+
+	/**
+	 * Get the mean of all known nanoseconds per pixel, or {@code NaN} if
+	 * nothing was measured yet.
+	 */
+	private double getMeanNanosPerPixel()
+	{
+		double sum = 0;
+		int n = 0;
+		for ( final double[] levels : nanosPerPixel.values() )
+			for ( final double npp : levels )
+				if ( !Double.isNaN( npp ) )
+				{
+					sum += npp;
+					++n;
+				}
+		return n == 0 ? Double.NaN : sum / n;
+	}
+}
@@ -29,9 +29,15 @@
  */
 package bdv.viewer.render;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.function.Predicate;
+
 import net.imglib2.Dimensions;
 import net.imglib2.RandomAccess;
 import net.imglib2.RealPoint;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellImg;
 import net.imglib2.realtransform.AffineTransform3D;
 import bdv.viewer.Interpolation;
@@ -56,7 +62,114 @@ public class Prefetcher
 	 */
 	public static void fetchCells( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval,  final Interpolation interpolation, final RandomAccess< ? > cellsRandomAccess )
 	{
-		new Prefetcher().scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+		new Prefetcher().scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess, access -> {
+			access.get();
+			return true;
+		} );
+	}
+
+	/**
+	 * Access cells that will be needed for rendering to the screen, in order
+	 * of increasing distance to a focus point on the screen.
+	 * <p>
+	 * The squared screen distance of the projected cell center to
+	 * {@code focus} is used as a continuous priority within the queue
+	 * priority (mipmap level) given by the cache hints of the underlying
+	 * image. Because the fetch queues only distinguish discrete priorities,
+	 * the continuous priority is realized by the order in which cells are
+	 * enqueued: If cells are added to the back of the queue, the nearest cell
+	 * is accessed first. If cells are added to the front of the queue
+	 * ({@code enqueueToFront}), the nearest cell is accessed last, such that
+	 * it ends up at the head of the queue.
+	 *
+	 * @param sourceToScreen
+	 *            source-to-screen transform
+	 * @param cellDimensions
+	 *            standard size of a source cell
+	 * @param dimensions
+	 *            dimensions of the source {@link CellImg}
+	 * @param screenInterval
+	 *            the interval of the screen that will be rendered
+	 * @param interpolation
+	 *            the interpolation method
+	 * @param cellsRandomAccess
+	 *            access to the source cells
+	 * @param focus
+	 *            focus point (x, y) in screen coordinates
+	 * @param enqueueToFront
+	 *            whether missing cells are added to the front of the fetch
+	 *            queue, see {@link net.imglib2.cache.volatiles.CacheHints#isEnqueuToFront()}.
+	 */
+	public static void fetchCells( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval,  final Interpolation interpolation, final RandomAccess< ? > cellsRandomAccess, final double[] focus, final boolean enqueueToFront )
+	{
+		final ArrayList< FocusedCell > cells = new ArrayList<>();
+		final double[] center = new double[ 3 ];
+		final double[] screen = new double[ 3 ];
+		new Prefetcher().scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess, access -> {
+			final long[] position = new long[ 3 ];
+			access.localize( position );
+			for ( int d = 0; d < 3; ++d )
+				center[ d ] = ( position[ d ] + 0.5 ) * cellDimensions[ d ];
+			sourceToScreen.apply( center, screen );
+			final double dx = screen[ 0 ] - focus[ 0 ];
+			final double dy = screen[ 1 ] - focus[ 1 ];
+			cells.add( new FocusedCell( position, dx * dx + dy * dy ) );
+			return true;
+		} );
+
+		cells.sort( Comparator.comparingDouble( c -> c.distance ) );
+		final int n = cells.size();
+		for ( int i = 0; i < n; ++i )
+		{
+			cellsRandomAccess.setPosition( cells.get( enqueueToFront ? n - 1 - i : i ).position );
+			cellsRandomAccess.get();
+		}
+	}
+
+	/**
+	 * A cell grid position and the squared screen distance of the cell center
+	 * to the focus point.
+	 */
+	private static class FocusedCell
+	{
+		final long[] position;
+
+		final double distance;
+
+		FocusedCell( final long[] position, final double distance )
+		{
+			this.position = position;
+			this.distance = distance;
+		}
+	}
+
+	/**
+	 * Check whether all cells that are needed for rendering to the screen are
+	 * loaded. Cells are accessed through {@code cellsRandomAccess}, so
+	 * whether missing cells are enqueued for loading depends on the cache
+	 * hints of the underlying image.
+	 *
+	 * @param sourceToScreen
+	 *            source-to-screen transform
+	 * @param cellDimensions
+	 *            standard size of a source cell
+	 * @param dimensions
+	 *            dimensions of the source {@link CellImg}
+	 * @param screenInterval
+	 *            the interval of the screen that will be rendered
+	 * @param interpolation
+	 *            the interpolation method
+	 * @param cellsRandomAccess
+	 *            access to the source cells
+	 * @return {@code true} if the data of all needed cells is
+	 *         {@link VolatileAccess#isValid() valid} (or not volatile).
+	 */
+	public static boolean cellsValid( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval,  final Interpolation interpolation, final RandomAccess< ? extends Cell< ? > > cellsRandomAccess )
+	{
+		return new Prefetcher().scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess, access -> {
+			final Object data = ( ( Cell< ? > ) access.get() ).getData();
+			return !( data instanceof VolatileAccess ) || ( ( VolatileAccess ) data ).isValid();
+		} );
 	}
 
 	private Prefetcher()
@@ -97,8 +210,12 @@ public class Prefetcher
 	 *            the interpolation method
 	 * @param cellsRandomAccess
 	 *            access to the source cells
+	 * @param visitor
+	 *            is called with {@code cellsRandomAccess} positioned at every
+	 *            needed cell. If it returns false, the scan is aborted.
+	 * @return false if the scan was aborted by {@code visitor}.
 	 */
-	private void scan( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval, final Interpolation interpolation, final RandomAccess< ? > cellsRandomAccess )
+	private boolean scan( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval, final Interpolation interpolation, final RandomAccess< ? > cellsRandomAccess, final Predicate< RandomAccess< ? > > visitor )
 	{
 		final RealPoint pSource = new RealPoint( 3 );
 		final RealPoint pScreen = new RealPoint( 3 );
@@ -192,12 +309,14 @@ public class Prefetcher
 							( y + offsetPos[ 1 ] >= 0 ) &&
 							( y + offsetNeg[ 1 ] < h ) )
 					{
-						cellsRandomAccess.get();
+						if ( !visitor.test( cellsRandomAccess ) )
+							return false;
 					}
 					pSource.move( cellDimensions[ 0 ], 0 );
 				}
 			}
 		}
+		return true;
 	}
 
 	/**
@@ -0,0 +1,336 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+package bdv.viewer.render;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
+import bdv.cache.CacheControl;
+import net.imglib2.cache.iotiming.CacheIoTiming;
+
+/**
+ * Coordinates rendering of several {@link MultiResolutionRenderer}s (for
+ * example, of several viewer windows) in one process.
+ * <p>
+ * All renderers render on one shared {@link #getExecutorService() pool} of
+ * {@link #getParallelism()} threads, such that several windows do not
+ * oversubscribe the processors. Rendering passes of the registered renderers
+ * are run one at a time, each pass on all threads of the pool. Because IO
+ * statistics and IO time budgets are accounted per {@link ThreadGroup} (see
+ * {@link CacheIoTiming}), and the pool threads are in one group, this is also
+ * what charges IO to the right renderer: during a pass, all IO of the pool
+ * threads is caused by the renderer of that pass, which installs its own IO
+ * budget when the pass starts.
+ * <p>
+ * One of the renderers can be {@link #setFocused(MultiResolutionRenderer)
+ * focused} (typically the one of the active window). The focused renderer
+ * gets priority:
+ * <ul>
+ * <li>Its passes are run before waiting passes of other renderers. A pass of
+ * another renderer waits for at most {@link #MAX_BACKGROUND_WAIT_MILLIS} for
+ * the focused renderer to become idle, such that background windows are
+ * slowed down but never starved.</li>
+ * <li>Fetch queues are arbitrated: Only the focused renderer may
+ * {@link CacheControl#prepareNextFrame() prepare a new frame} of caches that
+ * it shares with other renderers. Otherwise, every new frame of a background
+ * window would demote the pending requests of the focused window to
+ * prefetch. Caches that are used only by other renderers
+ * {@link CacheControl#pauseFetcherThreadsFor(long) pause loading} while the
+ * focused renderer renders, such that they do not compete for IO
+ * bandwidth.</li>
+ * </ul>
+ * If no renderer is focused, all renderers are treated equally.
+ */
+public class RenderScheduler
+{
+	/**
+	 * How long (in milliseconds) a rendering pass of a background renderer
+	 * waits at most for the focused renderer. This is also how long loading
+	 * for background renderers is paused by a pass of the focused renderer.
+	 */
+	public static final long MAX_BACKGROUND_WAIT_MILLIS = 100;
+
+	private static final class SharedInstance
+	{
+		static final RenderScheduler instance = new RenderScheduler( Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Get the process-wide {@link RenderScheduler}.
+	 */
+	public static RenderScheduler getInstance()
+	{
+		return SharedInstance.instance;
+	}
+
+	private final int parallelism;
+
+	/**
+	 * The group of the threads of {@link #pool}.
+	 */
+	private final ThreadGroup threadGroup;
+
+	/**
+	 * The shared rendering pool, created lazily.
+	 */
+	private ForkJoinPool pool;
+
+	/**
+	 * Registered renderers and the {@link CacheControl} they render from.
+	 */
+	private final IdentityHashMap< MultiResolutionRenderer, CacheControl > renderers = new IdentityHashMap<>();
+
+	private MultiResolutionRenderer focused;
+
+	/**
+	 * The renderer whose pass is running, or {@code null}.
+	 */
+	private MultiResolutionRenderer running;
+
+	/**
+	 * Renderers that wait to run a pass.
+	 */
+	private final Set< MultiResolutionRenderer > waiting = Collections.newSetFromMap( new IdentityHashMap<>() );
+
+	/**
+	 * @param numThreads
+	 *            number of threads of the shared rendering pool.
+	 */
+	public RenderScheduler( final int numThreads )
+	{
+		parallelism = Math.max( 1, numThreads );
+		threadGroup = new ThreadGroup( "bdv-render" );
+	}
+
+	/**
+	 * Get the shared rendering pool, with {@link #getParallelism()} threads.
+	 * The pool is created on first use. Its threads are daemon threads, and
+	 * idle threads time out, so it need not be shut down.
+	 */
+	public synchronized ExecutorService getExecutorService()
+	{
+		if ( pool == null )
+			pool = new ForkJoinPool( parallelism, new RenderThreadFactory( threadGroup, "bdv-render" ), null, false );
+		return pool;
+	}
+
+	/**
+	 * Get the number of threads of the shared rendering pool.
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Register a renderer that renders from {@code cacheControl}. This is
+	 * called by {@link MultiResolutionRenderer#setRenderScheduler(RenderScheduler)}.
+	 */
+	synchronized void register( final MultiResolutionRenderer renderer, final CacheControl cacheControl )
+	{
+		renderers.put( renderer, cacheControl );
+	}
+
+	/**
+	 * Unregister a renderer. If it was focused, no renderer is focused
+	 * afterwards.
+	 */
+	synchronized void unregister( final MultiResolutionRenderer renderer )
+	{
+		renderers.remove( renderer );
+		if ( focused == renderer )
+			setFocused( null );
+	}
+
+	/**
+	 * Give {@code renderer} priority over all other renderers, or treat all
+	 * renderers equally if {@code renderer == null}.
+	 */
+	public synchronized void setFocused( final MultiResolutionRenderer renderer )
+	{
+		if ( focused != renderer )
+		{
+			focused = renderer;
+			notifyAll();
+		}
+	}
+
+	public synchronized MultiResolutionRenderer getFocused()
+	{
+		return focused;
+	}
+
+	/**
+	 * Run a rendering pass of {@code renderer}, after passes of other
+	 * renderers finished. If another renderer is focused and waits to render,
+	 * its pass goes first, unless this pass waited for
+	 * {@link #MAX_BACKGROUND_WAIT_MILLIS} already.
+	 * <p>
+	 * If {@code executorService} is the {@link #getExecutorService() shared
+	 * pool}, the pass is run on a thread of the pool, such that IO is
+	 * accounted in the thread group of the pool. Otherwise it is run by the
+	 * calling thread.
+	 *
+	 * @param executorService
+	 *            the {@link ExecutorService} that {@code renderer} renders
+	 *            on.
+	 * @param pass
+	 *            renders the pass and returns whether it completed.
+	 * @return the result of {@code pass}, or {@code false} if the calling
+	 *         thread was interrupted while waiting.
+	 */
+	boolean runPass( final MultiResolutionRenderer renderer, final ExecutorService executorService, final BooleanSupplier pass )
+	{
+		if ( !acquire( renderer ) )
+			return false;
+		try
+		{
+			final ForkJoinPool p;
+			synchronized ( this )
+			{
+				p = pool;
+			}
+			if ( p != null && p == executorService && ForkJoinTask.getPool() != p )
+				return p.submit( () -> pass.getAsBoolean() ).join();
+			else
+				return pass.getAsBoolean();
+		}
+		finally
+		{
+			release();
+		}
+	}
+
+	private boolean acquire( final MultiResolutionRenderer renderer )
+	{
+		final boolean isFocused;
+		synchronized ( this )
+		{
+			isFocused = focused == renderer;
+			final long deadline = System.currentTimeMillis() + MAX_BACKGROUND_WAIT_MILLIS;
+			waiting.add( renderer );
+			try
+			{
+				while ( true )
+				{
+					final long remaining = deadline - System.currentTimeMillis();
+					final boolean yieldToFocused = focused != renderer && remaining > 0 && waiting.contains( focused );
+					if ( running == null && !yieldToFocused )
+						break;
+					wait( running == null ? remaining : 0 );
+				}
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			finally
+			{
+				waiting.remove( renderer );
+			}
+			running = renderer;
+		}
+		if ( isFocused )
+			pauseBackgroundFetchers( renderer );
+		return true;
+	}
+
+	private synchronized void release()
+	{
+		running = null;
+		notifyAll();
+	}
+
+	/**
+	 * {@link CacheControl#prepareNextFrame() Prepare a new frame} of the
+	 * caches of {@code cacheControl} that are not shared with the focused
+	 * renderer (all of them if {@code renderer} is focused, or no renderer
+	 * is focused).
+	 */
+	void prepareNextFrame( final MultiResolutionRenderer renderer, final CacheControl cacheControl )
+	{
+		final Set< CacheControl > caches = getCaches( cacheControl );
+		final CacheControl focusedCacheControl;
+		synchronized ( this )
+		{
+			focusedCacheControl = ( focused == null || focused == renderer ) ? null : renderers.get( focused );
+		}
+		if ( focusedCacheControl != null )
+			caches.removeAll( getCaches( focusedCacheControl ) );
+		for ( final CacheControl c : caches )
+			c.prepareNextFrame();
+	}
+
+	/**
+	 * Pause loading for {@link #MAX_BACKGROUND_WAIT_MILLIS} in all caches of
+	 * registered renderers that are not used by {@code renderer}.
+	 */
+	private void pauseBackgroundFetchers( final MultiResolutionRenderer renderer )
+	{
+		final Set< CacheControl > caches = Collections.newSetFromMap( new IdentityHashMap<>() );
+		final CacheControl own;
+		synchronized ( this )
+		{
+			if ( renderers.size() < 2 )
+				return;
+			for ( final CacheControl c : renderers.values() )
+				addCaches( c, caches );
+			own = renderers.get( renderer );
+		}
+		caches.removeAll( getCaches( own ) );
+		for ( final CacheControl c : caches )
+			c.pauseFetcherThreadsFor( MAX_BACKGROUND_WAIT_MILLIS );
+	}
+
+	/**
+	 * Get the individual caches of {@code cacheControl}, that is, the members
+	 * of (nested) {@link CacheControl.CacheControls}.
+	 */
+	private static Set< CacheControl > getCaches( final CacheControl cacheControl )
+	{
+		final Set< CacheControl > caches = Collections.newSetFromMap( new IdentityHashMap<>() );
+		addCaches( cacheControl, caches );
+		return caches;
+	}
+
+	private static void addCaches( final CacheControl cacheControl, final Set< CacheControl > caches )
+	{
+		if ( cacheControl instanceof CacheControl.CacheControls )
+			for ( final CacheControl c : ( ( CacheControl.CacheControls ) cacheControl ).getCacheControls() )
+				addCaches( c, caches );
+		else if ( cacheControl != null )
+			caches.add( cacheControl );
+	}
+}
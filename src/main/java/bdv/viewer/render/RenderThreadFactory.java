@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imglib2.cache.iotiming.CacheIoTiming;
+
+/**
+ * Creates daemon rendering threads in a given {@link ThreadGroup}, both plain
+ * threads and {@link ForkJoinWorkerThread}s for a {@link ForkJoinPool}.
+ * <p>
+ * IO statistics and IO time budgets (see {@link CacheIoTiming}) are kept per
+ * {@link ThreadGroup}. For the IO time spent in rendering threads to be
+ * accounted to the viewer that renders, its rendering threads must be in its
+ * thread group. {@link ForkJoinWorkerThread}s cannot be given a thread group
+ * explicitly, they get the group of the thread that constructs them. That is
+ * whichever thread happens to make the pool spawn a worker. Therefore,
+ * workers are constructed by a short-lived helper thread in the right group,
+ * unless the calling thread is already in that group.
+ */
+public class RenderThreadFactory implements ThreadFactory, ForkJoinWorkerThreadFactory
+{
+	private final ThreadGroup threadGroup;
+
+	private final String namePrefix;
+
+	private final String threadNameFormat;
+
+	private final AtomicInteger threadNumber = new AtomicInteger( 1 );
+
+	/**
+	 * @param threadGroup
+	 *            the group of the created threads.
+	 * @param namePrefix
+	 *            threads are named {@code namePrefix-thread-N}.
+	 */
+	public RenderThreadFactory( final ThreadGroup threadGroup, final String namePrefix )
+	{
+		this.threadGroup = threadGroup;
+		this.namePrefix = namePrefix;
+		this.threadNameFormat = namePrefix + "-thread-%d";
+	}
+
+	public ThreadGroup getThreadGroup()
+	{
+		return threadGroup;
+	}
+
+	@Override
+	public Thread newThread( final Runnable r )
+	{
+		return configure( new Thread( threadGroup, r, nextName(), 0 ) );
+	}
+
+	@Override
+	public ForkJoinWorkerThread newThread( final ForkJoinPool pool )
+	{
+		if ( Thread.currentThread().getThreadGroup() == threadGroup )
+			return configure( new Worker( pool ) );
+
+		final AtomicReference< ForkJoinWorkerThread > worker = new AtomicReference<>();
+		final Thread creator;
+		try
+		{
+			creator = new Thread( threadGroup, () -> worker.set( new Worker( pool ) ), namePrefix + "-creator", 0 );
+			creator.start();
+		}
+		catch ( final IllegalThreadStateException e )
+		{
+			// the thread group was destroyed
+			return null;
+		}
+
+		// Wait uninterruptibly: The worker registers with the pool when it is
+		// constructed, so it must be returned (and started) by this method.
+		boolean interrupted = false;
+		while ( creator.isAlive() )
+		{
+			try
+			{
+				creator.join();
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+			}
+		}
+		if ( interrupted )
+			Thread.currentThread().interrupt();
+
+		final ForkJoinWorkerThread t = worker.get();
+		return t == null ? null : configure( t );
+	}
+
+	private String nextName()
+	{
+		return String.format( threadNameFormat, threadNumber.getAndIncrement() );
+	}
+
+	private < T extends Thread > T configure( final T t )
+	{
+		if ( t instanceof ForkJoinWorkerThread )
+			t.setName( nextName() );
+		if ( !t.isDaemon() )
+			t.setDaemon( true );
+		if ( t.getPriority() != Thread.NORM_PRIORITY )
+			t.setPriority( Thread.NORM_PRIORITY );
+		return t;
+	}
+
+	private static class Worker extends ForkJoinWorkerThread
+	{
+		Worker( final ForkJoinPool pool )
+		{
+			super( pool );
+		}
+	}
+}
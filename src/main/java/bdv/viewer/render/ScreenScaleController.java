@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.List;
+
+import bdv.viewer.Source;
+
+/**
+ * Selects the screen scale with which {@link MultiResolutionRenderer} starts
+ * rendering a new frame, that is, the coarsest screen scale that is rendered.
+ * Finer screen scales are rendered afterwards, until full resolution is
+ * reached.
+ */
+public interface ScreenScaleController
+{
+	/**
+	 * The work of rendering one pass at a particular screen scale.
+	 */
+	public static class Work
+	{
+		private final List< Source< ? > > sources;
+
+		private final int[] levels;
+
+		private final long numPixels;
+
+		/**
+		 * @param sources
+		 *            the visible sources.
+		 * @param levels
+		 *            for each source, the mipmap level that is rendered.
+		 * @param numPixels
+		 *            number of pixels of the screen image.
+		 */
+		public Work( final List< Source< ? > > sources, final int[] levels, final long numPixels )
+		{
+			this.sources = sources;
+			this.levels = levels;
+			this.numPixels = numPixels;
+		}
+
+		public List< Source< ? > > getSources()
+		{
+			return sources;
+		}
+
+		public int getLevel( final int sourceIndex )
+		{
+			return levels[ sourceIndex ];
+		}
+
+		public long getNumPixels()
+		{
+			return numPixels;
+		}
+	}
+
+	/**
+	 * Select the index of the screen scale with which to start rendering a
+	 * new frame.
+	 *
+	 * @param work
+	 *            for each screen scale index (0 is full resolution), the work
+	 *            of rendering that screen scale.
+	 * @param targetRenderNanos
+	 *            target rendering time in nanoseconds.
+	 * @return index of the coarsest screen scale to render.
+	 */
+	public int getMaxScreenScaleIndex( List< Work > work, long targetRenderNanos );
+
+	/**
+	 * Report the measured time of rendering the first pass of {@code work}.
+	 *
+	 * @param work
+	 *            the rendered work.
+	 * @param renderNanos
+	 *            total rendering time in nanoseconds.
+	 * @param sourceRenderNanos
+	 *            rendering time in nanoseconds for each source in
+	 *            {@code work}, or {@code null} if not known.
+	 */
+	public void rendered( Work work, long renderNanos, long[] sourceRenderNanos );
+}
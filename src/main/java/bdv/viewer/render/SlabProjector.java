@@ -0,0 +1,586 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bdv.viewer.ProjectionMode;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.Volatile;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.display.LookupTableARGBColorConverter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.ui.util.StopWatch;
+
+/**
+ * {@link VolatileProjector} for {@link ProjectionMode#MAX} and
+ * {@link ProjectionMode#COMPOSITE} projections of a slab around the viewer
+ * plane {@code z = 0}.
+ * <p>
+ * Every screen pixel steps along its viewing ray through the slab, in the
+ * coordinates of the best mipmap level (the first of {@code levels}). The step
+ * size is one voxel of that level, so coarse screen scales (which use coarse
+ * levels) take correspondingly fewer samples. If a sample is not
+ * {@link Volatile#isValid() valid}, the coarser levels are tried in order.
+ * <p>
+ * As in {@link VolatileHierarchyProjector}, the worst level that samples of
+ * each pixel came from is remembered. {@link #isValid()} returns true only if
+ * all pixels were rendered from the best level, such that the renderer
+ * repaints until the coarse data is replaced. In subsequent {@link #map()}
+ * calls, pixels that were already rendered from the best level are skipped.
+ * <p>
+ * To keep this interactive:
+ * <ul>
+ * <li>Rays terminate early, in {@link ProjectionMode#MAX} mode when the value
+ * saturates the color conversion, in {@link ProjectionMode#COMPOSITE} mode when
+ * the accumulated opacity reaches {@link #OPAQUE}.</li>
+ * <li>Cells whose maximum (see {@link CellStatistics}) maps to black are
+ * skipped in a single step.</li>
+ * </ul>
+ * In {@link ProjectionMode#COMPOSITE} mode, samples are composited front to
+ * back, where the opacity of a sample is the brightness of its color.
+ *
+ * @param <T>
+ *            pixel type
+ */
+public class SlabProjector< T > implements VolatileProjector
+{
+	/**
+	 * Accumulated opacity at which compositing rays are terminated.
+	 */
+	static final double OPAQUE = 0.99;
+
+	/**
+	 * Maximum number of samples per ray.
+	 */
+	static final int MAX_STEPS = 4096;
+
+	private final List< ? extends RealRandomAccessible< T > > levels;
+
+	/**
+	 * For each level, transforms screen coordinates to level coordinates.
+	 */
+	private final AffineTransform3D[] screenToSource;
+
+	/**
+	 * Cell maxima of the best level, or {@code null} if empty cells cannot be
+	 * skipped.
+	 */
+	private final CellStatistics cellStatistics;
+
+	/**
+	 * How far samples must stay from a cell border to depend only on voxels of
+	 * that cell (depends on interpolation).
+	 */
+	private final double cellMargin;
+
+	private final Converter< ? super T, ARGBType > converter;
+
+	private final T type;
+
+	private final ProjectionMode mode;
+
+	private final boolean isReal;
+
+	private final boolean isVolatile;
+
+	/**
+	 * Values {@code <=} this map to black. {@link Double#NEGATIVE_INFINITY} if
+	 * there is no such value.
+	 */
+	private final double emptyThreshold;
+
+	/**
+	 * Values {@code >=} this saturate the color conversion.
+	 */
+	private final double saturationThreshold;
+
+	private final double zMin;
+
+	private final double zStep;
+
+	private final int numSteps;
+
+	/**
+	 * Step in best level coordinates when moving by {@link #zStep}.
+	 */
+	private final double[] dz = new double[ 3 ];
+
+	private final ARGBScreenImage target;
+
+	/**
+	 * For each pixel, the worst level that its samples came from, or
+	 * {@code Byte.MAX_VALUE} if some sample was not valid at any level.
+	 */
+	private final byte[] pixelLevels;
+
+	private final int width;
+
+	private final int height;
+
+	private final int numThreads;
+
+	private final ExecutorService executorService;
+
+	private final AdaptiveTileScheduler scheduler;
+
+	private final AtomicBoolean interrupted = new AtomicBoolean();
+
+	private volatile boolean valid = false;
+
+	private long lastFrameRenderNanoTime = -1;
+
+	/**
+	 * @param levels
+	 *            interpolated mipmap levels of the source, ordered from best to
+	 *            worst, in their own coordinates.
+	 * @param screenToSource
+	 *            for each level, the transform from screen coordinates to level
+	 *            coordinates.
+	 * @param cellStatistics
+	 *            cell maxima of the best level, or {@code null}.
+	 * @param linearInterpolation
+	 *            whether {@code levels} are interpolated n-linearly.
+	 * @param converter
+	 *            converts samples to ARGB.
+	 * @param type
+	 *            an instance of the pixel type.
+	 * @param mode
+	 *            {@link ProjectionMode#MAX} or {@link ProjectionMode#COMPOSITE}.
+	 * @param zMin
+	 *            front of the slab, in screen coordinates.
+	 * @param zMax
+	 *            back of the slab, in screen coordinates.
+	 * @param target
+	 *            the projected image.
+	 * @param numThreads
+	 *            how many threads to use for rendering.
+	 * @param executorService
+	 *            if non-null, this is used for rendering.
+	 */
+	public SlabProjector(
+			final List< ? extends RealRandomAccessible< T > > levels,
+			final List< AffineTransform3D > screenToSource,
+			final CellStatistics cellStatistics,
+			final boolean linearInterpolation,
+			final Converter< ? super T, ARGBType > converter,
+			final T type,
+			final ProjectionMode mode,
+			final double zMin,
+			final double zMax,
+			final ARGBScreenImage target,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this.levels = levels;
+		this.screenToSource = screenToSource.toArray( new AffineTransform3D[ 0 ] );
+		this.converter = converter;
+		this.type = type;
+		this.mode = mode;
+		this.target = target;
+		this.width = ( int ) target.dimension( 0 );
+		this.height = ( int ) target.dimension( 1 );
+		this.pixelLevels = new byte[ width * height ];
+		Arrays.fill( pixelLevels, Byte.MAX_VALUE );
+		this.numThreads = numThreads;
+		this.executorService = executorService;
+		scheduler = new AdaptiveTileScheduler( height, numThreads );
+
+		isReal = type instanceof RealType;
+		isVolatile = type instanceof Volatile;
+		if ( converter instanceof ColorConverter )
+		{
+			final ColorConverter colorConverter = ( ColorConverter ) converter;
+			// with a colormap, values <= min map to the first colormap entry,
+			// which need not be black. Don't skip empty cells then.
+			emptyThreshold = colorConverter.supportsColor() ? colorConverter.getMin() : Double.NEGATIVE_INFINITY;
+			saturationThreshold = colorConverter.getMax();
+		}
+		else
+		{
+			emptyThreshold = Double.NEGATIVE_INFINITY;
+			saturationThreshold = Double.POSITIVE_INFINITY;
+		}
+		this.cellStatistics = ( isReal && emptyThreshold > Double.NEGATIVE_INFINITY ) ? cellStatistics : null;
+		cellMargin = linearInterpolation ? 0.5 : 0;
+
+		// step by at most one voxel of the best level in every dimension
+		final AffineTransform3D t = this.screenToSource[ 0 ];
+		double maxStep = 0;
+		for ( int d = 0; d < 3; ++d )
+			maxStep = Math.max( maxStep, Math.abs( t.get( d, 2 ) ) );
+		final double thickness = Math.max( 0, zMax - zMin );
+		double step = maxStep > 0 ? 1 / maxStep : thickness;
+		if ( step <= 0 || thickness / step >= MAX_STEPS )
+			step = thickness / ( MAX_STEPS - 1 );
+		this.zMin = zMin;
+		this.zStep = step;
+		this.numSteps = step > 0 ? ( int ) ( thickness / step ) + 1 : 1;
+		for ( int d = 0; d < 3; ++d )
+			dz[ d ] = t.get( d, 2 ) * zStep;
+	}
+
+	@Override
+	public void cancel()
+	{
+		interrupted.set( true );
+	}
+
+	@Override
+	public long getLastFrameRenderNanoTime()
+	{
+		return lastFrameRenderNanoTime;
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return valid;
+	}
+
+	@Override
+	public void setFocus( final int x, final int y )
+	{
+		scheduler.setFocus( y );
+	}
+
+	@Override
+	public boolean map()
+	{
+		return map( true );
+	}
+
+	@Override
+	public boolean map( final boolean clearUntouchedTargetPixels )
+	{
+		interrupted.set( false );
+
+		final StopWatch stopWatch = new StopWatch();
+		stopWatch.start();
+
+		final int[] data = target.getData();
+		final AtomicBoolean allValid = new AtomicBoolean( true );
+		final Converter< ? super T, ARGBType > passConverter = LookupTableARGBColorConverter.fixTable( converter );
+
+		final boolean createExecutor = ( executorService == null );
+		final ExecutorService ex = createExecutor ? Executors.newFixedThreadPool( numThreads ) : executorService;
+		scheduler.run( ex, ( minY, maxY ) -> {
+			if ( interrupted.get() )
+				return;
+			final Ray ray = new Ray( passConverter );
+			for ( int y = minY; y < maxY; ++y )
+			{
+				if ( interrupted.get() )
+					return;
+				if ( !ray.renderRow( y, data ) )
+					allValid.set( false );
+			}
+		}, interrupted::get );
+		if ( createExecutor )
+			ex.shutdown();
+
+		lastFrameRenderNanoTime = stopWatch.nanoTime();
+
+		final boolean success = !interrupted.get();
+		if ( success )
+			valid = allValid.get();
+		return success;
+	}
+
+	/**
+	 * Per-thread state for stepping along viewing rays.
+	 */
+	private class Ray
+	{
+		private final RealRandomAccess< T >[] accesses;
+
+		/** current sample position in best level coordinates */
+		private final double[] pos = new double[ 3 ];
+
+		private final double[] screen = new double[ 3 ];
+
+		private final double[] fallbackPos = new double[ 3 ];
+
+		/** cell containing {@link #pos}, if {@link #cellIsSet} */
+		private final long[] cell = new long[ 3 ];
+
+		private boolean cellIsSet;
+
+		/**
+		 * The worst level that samples of the current pixel came from, or
+		 * {@code Byte.MAX_VALUE} if some sample was not valid at any level.
+		 */
+		private byte worstLevel;
+
+		private final T max;
+
+		private final T zero;
+
+		private final ARGBType argb = new ARGBType();
+
+		private final Converter< ? super T, ARGBType > converter;
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		Ray( final Converter< ? super T, ARGBType > converter )
+		{
+			this.converter = converter;
+			accesses = new RealRandomAccess[ levels.size() ];
+			for ( int l = 0; l < accesses.length; ++l )
+				accesses[ l ] = levels.get( l ).realRandomAccess();
+			if ( type instanceof Type )
+			{
+				max = ( T ) ( ( Type ) type ).createVariable();
+				zero = ( T ) ( ( Type ) type ).createVariable();
+			}
+			else
+			{
+				max = null;
+				zero = null;
+			}
+		}
+
+		/**
+		 * Render the pixels of row {@code y} that are not yet rendered from
+		 * the best level into {@code data}.
+		 *
+		 * @return whether all pixels of the row are rendered from the best
+		 *         level.
+		 */
+		boolean renderRow( final int y, final int[] data )
+		{
+			boolean rowValid = true;
+			int o = y * width;
+			for ( int x = 0; x < width; ++x, ++o )
+			{
+				if ( pixelLevels[ o ] == 0 )
+					continue;
+				screen[ 0 ] = x;
+				screen[ 1 ] = y;
+				screen[ 2 ] = zMin;
+				screenToSource[ 0 ].apply( screen, pos );
+				cellIsSet = false;
+				worstLevel = 0;
+				if ( mode == ProjectionMode.COMPOSITE )
+					composite( x, y, data, o );
+				else if ( isReal && max != null )
+					maxReal( x, y, data, o );
+				else
+					maxARGB( x, y, data, o );
+				pixelLevels[ o ] = worstLevel;
+				rowValid &= worstLevel == 0;
+			}
+			return rowValid;
+		}
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		private void maxReal( final int x, final int y, final int[] data, final int o )
+		{
+			boolean found = false;
+			double maxValue = Double.NEGATIVE_INFINITY;
+			for ( int k = 0; k < numSteps; )
+			{
+				final int skip = emptySamples();
+				if ( skip > 0 )
+				{
+					k += skip;
+					advance( skip );
+					continue;
+				}
+				final T t = sample( x, y, k );
+				if ( t != null )
+				{
+					final double value = ( ( RealType ) t ).getRealDouble();
+					if ( value > maxValue )
+					{
+						maxValue = value;
+						( ( Type ) max ).set( ( Type ) t );
+						found = true;
+						if ( value >= saturationThreshold )
+							break;
+					}
+				}
+				++k;
+				advance( 1 );
+			}
+			converter.convert( found ? max : zero, argb );
+			data[ o ] = argb.get();
+		}
+
+		private void maxARGB( final int x, final int y, final int[] data, final int o )
+		{
+			int aMax = 0, rMax = 0, gMax = 0, bMax = 0;
+			for ( int k = 0; k < numSteps; ++k, advance( 1 ) )
+			{
+				final T t = sample( x, y, k );
+				if ( t == null )
+					continue;
+				converter.convert( t, argb );
+				final int value = argb.get();
+				aMax = Math.max( aMax, ARGBType.alpha( value ) );
+				rMax = Math.max( rMax, ARGBType.red( value ) );
+				gMax = Math.max( gMax, ARGBType.green( value ) );
+				bMax = Math.max( bMax, ARGBType.blue( value ) );
+			}
+			data[ o ] = ARGBType.rgba( rMax, gMax, bMax, aMax );
+		}
+
+		private void composite( final int x, final int y, final int[] data, final int o )
+		{
+			double r = 0, g = 0, b = 0, a = 0;
+			for ( int k = 0; k < numSteps; )
+			{
+				final int skip = emptySamples();
+				if ( skip > 0 )
+				{
+					k += skip;
+					advance( skip );
+					continue;
+				}
+				final T t = sample( x, y, k );
+				if ( t != null )
+				{
+					converter.convert( t, argb );
+					final int value = argb.get();
+					final int sr = ARGBType.red( value );
+					final int sg = ARGBType.green( value );
+					final int sb = ARGBType.blue( value );
+					final double w = ( 1 - a ) * Math.max( sr, Math.max( sg, sb ) ) / 255.0;
+					r += w * sr;
+					g += w * sg;
+					b += w * sb;
+					a += w;
+					if ( a >= OPAQUE )
+						break;
+				}
+				++k;
+				advance( 1 );
+			}
+			data[ o ] = ARGBType.rgba( ( int ) r, ( int ) g, ( int ) b, ( int ) ( a * 255 ) );
+		}
+
+		private void advance( final int steps )
+		{
+			for ( int d = 0; d < 3; ++d )
+				pos[ d ] += steps * dz[ d ];
+		}
+
+		/**
+		 * Get the sample at step {@code k} of the ray through pixel
+		 * {@code (x, y)}, trying coarser levels if it is not valid. Updates
+		 * {@link #worstLevel} with the level that the sample came from.
+		 *
+		 * @return the sample, or {@code null} if it is not valid at any level.
+		 */
+		private T sample( final int x, final int y, final int k )
+		{
+			accesses[ 0 ].setPosition( pos );
+			final T t = accesses[ 0 ].get();
+			if ( !isVolatile || ( ( Volatile< ? > ) t ).isValid() )
+				return t;
+
+			screen[ 0 ] = x;
+			screen[ 1 ] = y;
+			screen[ 2 ] = zMin + k * zStep;
+			for ( int l = 1; l < accesses.length; ++l )
+			{
+				screenToSource[ l ].apply( screen, fallbackPos );
+				accesses[ l ].setPosition( fallbackPos );
+				final T tl = accesses[ l ].get();
+				if ( ( ( Volatile< ? > ) tl ).isValid() )
+				{
+					worstLevel = ( byte ) Math.max( worstLevel, l );
+					return tl;
+				}
+			}
+			worstLevel = Byte.MAX_VALUE;
+			return null;
+		}
+
+		/**
+		 * If the current sample lies in a cell that is known to map to black,
+		 * get the number of samples until the ray leaves that cell.
+		 *
+		 * @return number of samples that can be skipped, or 0.
+		 */
+		private int emptySamples()
+		{
+			if ( cellStatistics == null )
+				return 0;
+
+			boolean sameCell = cellIsSet;
+			for ( int d = 0; d < 3; ++d )
+			{
+				final long c = cellStatistics.cellPosition( pos[ d ], d );
+				if ( c != cell[ d ] )
+				{
+					cell[ d ] = c;
+					sameCell = false;
+				}
+			}
+			if ( sameCell )
+				// cell was checked when the ray entered it, and was not empty
+				return 0;
+			cellIsSet = true;
+
+			final double cellMax = cellStatistics.getMax( cell[ 0 ], cell[ 1 ], cell[ 2 ] );
+			if ( !( cellMax <= emptyThreshold ) )
+				return 0;
+
+			double tExit = Double.POSITIVE_INFINITY;
+			for ( int d = 0; d < 3; ++d )
+			{
+				final double lower = cellStatistics.cellMin( cell[ d ], d ) + cellMargin;
+				final double upper = cellStatistics.cellMax( cell[ d ], d ) - cellMargin;
+				if ( pos[ d ] < lower || pos[ d ] >= upper )
+				{
+					// near the border, samples may depend on neighboring cells
+					cellIsSet = false;
+					return 0;
+				}
+				if ( dz[ d ] > 0 )
+					tExit = Math.min( tExit, ( upper - pos[ d ] ) / dz[ d ] );
+				else if ( dz[ d ] < 0 )
+					tExit = Math.min( tExit, ( lower - pos[ d ] ) / dz[ d ] );
+			}
+			cellIsSet = false;
+			return ( int ) Math.min( numSteps, Math.max( 1, Math.ceil( tExit ) ) );
+		}
+	}
+}
@@ -0,0 +1,519 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bdv.tools.transformation.TransformedSource;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.state.ViewerState;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Bounding-volume hierarchy over the bounding boxes (in global coordinates)
+ * of the full resolution level of a list of sources, for quickly finding the
+ * sources that intersect a box in viewer coordinates, e.g., the screen slab
+ * that is rendered. This allows to skip sources that are not on screen when
+ * there are thousands of them (e.g., tiles of a stitched acquisition).
+ * <p>
+ * A hierarchy is built lazily for each timepoint that is queried and reused
+ * as long as the list of sources stays the same. Changes of the transforms of
+ * {@link TransformedSource}s (e.g., by
+ * {@link bdv.tools.transformation.ManualTransformationEditor manual
+ * transformation}) are detected by their
+ * {@link TransformedSource#getTransformVersion() transform version}, and the
+ * hierarchy is rebuilt. Other sources are assumed to have constant
+ * transforms. When they change, {@link #invalidate()} must be called.
+ */
+public class SourceBoundsIndex
+{
+	/**
+	 * Bounds of one source at one timepoint.
+	 */
+	public static class SourceBounds
+	{
+		private final int sourceIndex;
+
+		private final Interval sourceInterval;
+
+		private final AffineTransform3D sourceTransform;
+
+		/**
+		 * Bounding box in global coordinates (with a margin of one source
+		 * voxel).
+		 */
+		private final double[] min = new double[ 3 ];
+
+		private final double[] max = new double[ 3 ];
+
+		SourceBounds( final int sourceIndex, final Interval sourceInterval, final AffineTransform3D sourceTransform )
+		{
+			this.sourceIndex = sourceIndex;
+			this.sourceInterval = sourceInterval;
+			this.sourceTransform = sourceTransform;
+			getBoundingBox( sourceInterval, sourceTransform, min, max );
+		}
+
+		/**
+		 * Get the index of the source in the list of sources.
+		 */
+		public int getSourceIndex()
+		{
+			return sourceIndex;
+		}
+
+		/**
+		 * Get the interval of the full resolution level in source-local
+		 * coordinates.
+		 */
+		public Interval getSourceInterval()
+		{
+			return sourceInterval;
+		}
+
+		/**
+		 * Get the transform of the full resolution level from source-local
+		 * to global coordinates.
+		 */
+		public void getSourceTransform( final AffineTransform3D transform )
+		{
+			transform.set( sourceTransform );
+		}
+
+		double center( final int d )
+		{
+			return 0.5 * ( min[ d ] + max[ d ] );
+		}
+	}
+
+	/**
+	 * Maximum number of sources in a leaf node.
+	 */
+	private static final int LEAF_SIZE = 4;
+
+	/**
+	 * Maximum number of timepoints for which hierarchies are kept.
+	 */
+	private static final int MAX_CACHED_TIMEPOINTS = 8;
+
+	private static class Node
+	{
+		final double[] min = new double[ 3 ];
+
+		final double[] max = new double[ 3 ];
+
+		Node left;
+
+		Node right;
+
+		/**
+		 * The bounds contained in a leaf node, {@code null} for inner nodes.
+		 */
+		SourceBounds[] leaves;
+	}
+
+	/**
+	 * Hierarchy of all present sources at one timepoint.
+	 */
+	private static class Tree
+	{
+		/**
+		 * The sources that the tree was built for, to detect changes of the
+		 * source list.
+		 */
+		final Source< ? >[] sources;
+
+		/**
+		 * {@link #getTransformVersion(Source) Transform versions} of the
+		 * sources when the tree was built.
+		 */
+		final long[] transformVersions;
+
+		/**
+		 * Bounds of all present sources, ordered by source index.
+		 */
+		final List< SourceBounds > bounds;
+
+		final Node root;
+
+		Tree( final Source< ? >[] sources, final long[] transformVersions, final List< SourceBounds > bounds )
+		{
+			this.sources = sources;
+			this.transformVersions = transformVersions;
+			this.bounds = Collections.unmodifiableList( bounds );
+			final SourceBounds[] b = bounds.toArray( new SourceBounds[ 0 ] );
+			root = b.length == 0 ? null : build( b, 0, b.length );
+		}
+	}
+
+	private final Map< Integer, Tree > trees = new LinkedHashMap< Integer, Tree >( 16, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< Integer, Tree > eldest )
+		{
+			return size() > MAX_CACHED_TIMEPOINTS;
+		}
+	};
+
+	/**
+	 * Discard all hierarchies. This must be called when source transforms
+	 * change.
+	 */
+	public synchronized void invalidate()
+	{
+		trees.clear();
+	}
+
+	/**
+	 * Get the bounds of all sources that are present at {@code timepoint},
+	 * ordered by source index.
+	 *
+	 * @param sources
+	 *            the sources.
+	 * @param timepoint
+	 *            timepoint index.
+	 * @return unmodifiable list of bounds.
+	 */
+	public List< SourceBounds > getSourceBounds( final List< ? extends SourceAndConverter< ? > > sources, final int timepoint )
+	{
+		return getTree( sources, timepoint ).bounds;
+	}
+
+	/**
+	 * Find the sources whose bounding box at {@code timepoint} intersects
+	 * {@code viewerBox}.
+	 *
+	 * @param sources
+	 *            the sources.
+	 * @param timepoint
+	 *            timepoint index.
+	 * @param viewerTransform
+	 *            transform from global to viewer coordinates.
+	 * @param viewerBox
+	 *            box in viewer coordinates.
+	 * @return the indices (into {@code sources}) of intersecting sources.
+	 */
+	public BitSet intersect(
+			final List< ? extends SourceAndConverter< ? > > sources,
+			final int timepoint,
+			final AffineTransform3D viewerTransform,
+			final RealInterval viewerBox )
+	{
+		final BitSet result = new BitSet( sources.size() );
+		final Tree tree = getTree( sources, timepoint );
+		if ( tree.root != null )
+		{
+			final double[] boxMin = new double[ 3 ];
+			final double[] boxMax = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				boxMin[ d ] = viewerBox.realMin( d );
+				boxMax[ d ] = viewerBox.realMax( d );
+			}
+			final double[] globalMin = new double[ 3 ];
+			final double[] globalMax = new double[ 3 ];
+			transformBoundingBox( boxMin, boxMax, viewerTransform.inverse(), globalMin, globalMax );
+			new Query( viewerTransform, boxMin, boxMax, globalMin, globalMax, result ).visit( tree.root );
+		}
+		return result;
+	}
+
+	/**
+	 * Filter {@code sourceIndices} of sources of {@code state} to the ones
+	 * that intersect {@code viewerBox} at the current timepoint of
+	 * {@code state}.
+	 *
+	 * @param state
+	 *            the viewer state, providing sources, timepoint, and viewer
+	 *            transform.
+	 * @param sourceIndices
+	 *            source indices to filter, e.g., the visible sources.
+	 * @param viewerBox
+	 *            box in viewer coordinates.
+	 * @return the indices of intersecting sources, in the order of
+	 *         {@code sourceIndices}.
+	 */
+	public List< Integer > cull( final ViewerState state, final List< Integer > sourceIndices, final RealInterval viewerBox )
+	{
+		if ( sourceIndices.isEmpty() )
+			return sourceIndices;
+		final AffineTransform3D viewerTransform = new AffineTransform3D();
+		final BitSet intersecting;
+		synchronized ( state )
+		{
+			state.getViewerTransform( viewerTransform );
+			intersecting = intersect( state.getSources(), state.getCurrentTimepoint(), viewerTransform, viewerBox );
+		}
+		final ArrayList< Integer > culled = new ArrayList<>( sourceIndices.size() );
+		for ( final int i : sourceIndices )
+			if ( intersecting.get( i ) )
+				culled.add( i );
+		return culled;
+	}
+
+	private synchronized Tree getTree( final List< ? extends SourceAndConverter< ? > > sourceList, final int timepoint )
+	{
+		final Source< ? >[] sources = new Source< ? >[ sourceList.size() ];
+		final long[] transformVersions = new long[ sources.length ];
+		for ( int i = 0; i < sources.length; ++i )
+		{
+			sources[ i ] = sourceList.get( i ).getSpimSource();
+			transformVersions[ i ] = getTransformVersion( sources[ i ] );
+		}
+
+		Tree tree = trees.get( timepoint );
+		if ( tree == null || !Arrays.equals( tree.sources, sources ) || !Arrays.equals( tree.transformVersions, transformVersions ) )
+		{
+			final ArrayList< SourceBounds > bounds = new ArrayList<>();
+			for ( int i = 0; i < sources.length; ++i )
+			{
+				final Source< ? > source = sources[ i ];
+				if ( !source.isPresent( timepoint ) )
+					continue;
+				final RandomAccessibleInterval< ? > img = source.getSource( timepoint, 0 );
+				if ( img == null )
+					continue;
+				final AffineTransform3D sourceTransform = new AffineTransform3D();
+				source.getSourceTransform( timepoint, 0, sourceTransform );
+				bounds.add( new SourceBounds( i, new FinalInterval( img ), sourceTransform ) );
+			}
+			tree = new Tree( sources, transformVersions, bounds );
+			trees.put( timepoint, tree );
+		}
+		return tree;
+	}
+
+	/**
+	 * Get a counter that changes whenever the transform of {@code source}
+	 * changes, if {@code source} is a (possibly nested)
+	 * {@link TransformedSource}. Otherwise 0.
+	 */
+	private static long getTransformVersion( Source< ? > source )
+	{
+		long version = 0;
+		while ( source instanceof TransformedSource )
+		{
+			final TransformedSource< ? > transformed = ( TransformedSource< ? > ) source;
+			version += transformed.getTransformVersion();
+			source = transformed.getWrappedSource();
+		}
+		return version;
+	}
+
+	/**
+	 * Build the hierarchy for {@code bounds[from, to)} by splitting at the
+	 * median of the box centers along the axis of largest extent.
+	 */
+	private static Node build( final SourceBounds[] bounds, final int from, final int to )
+	{
+		final Node node = new Node();
+		Arrays.fill( node.min, Double.POSITIVE_INFINITY );
+		Arrays.fill( node.max, Double.NEGATIVE_INFINITY );
+		final double[] cmin = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		final double[] cmax = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for ( int i = from; i < to; ++i )
+		{
+			final SourceBounds b = bounds[ i ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				node.min[ d ] = Math.min( node.min[ d ], b.min[ d ] );
+				node.max[ d ] = Math.max( node.max[ d ], b.max[ d ] );
+				cmin[ d ] = Math.min( cmin[ d ], b.center( d ) );
+				cmax[ d ] = Math.max( cmax[ d ], b.center( d ) );
+			}
+		}
+
+		if ( to - from <= LEAF_SIZE )
+		{
+			node.leaves = Arrays.copyOfRange( bounds, from, to );
+			return node;
+		}
+
+		int axis = 0;
+		for ( int d = 1; d < 3; ++d )
+			if ( cmax[ d ] - cmin[ d ] > cmax[ axis ] - cmin[ axis ] )
+				axis = d;
+		final int a = axis;
+		Arrays.sort( bounds, from, to, Comparator.comparingDouble( b -> b.center( a ) ) );
+		final int mid = ( from + to ) >>> 1;
+		node.left = build( bounds, from, mid );
+		node.right = build( bounds, mid, to );
+		return node;
+	}
+
+	private static class Query
+	{
+		private final AffineTransform3D viewerTransform;
+
+		private final double[] boxMin;
+
+		private final double[] boxMax;
+
+		private final double[] globalMin;
+
+		private final double[] globalMax;
+
+		private final BitSet result;
+
+		private final AffineTransform3D sourceToViewer = new AffineTransform3D();
+
+		private final double[] sourceMin = new double[ 3 ];
+
+		private final double[] sourceMax = new double[ 3 ];
+
+		private final double[] min = new double[ 3 ];
+
+		private final double[] max = new double[ 3 ];
+
+		Query(
+				final AffineTransform3D viewerTransform,
+				final double[] boxMin,
+				final double[] boxMax,
+				final double[] globalMin,
+				final double[] globalMax,
+				final BitSet result )
+		{
+			this.viewerTransform = viewerTransform;
+			this.boxMin = boxMin;
+			this.boxMax = boxMax;
+			this.globalMin = globalMin;
+			this.globalMax = globalMax;
+			this.result = result;
+		}
+
+		void visit( final Node node )
+		{
+			// separating axes of the global coordinate system
+			if ( !overlaps( node.min, node.max, globalMin, globalMax ) )
+				return;
+			// separating axes of the viewer coordinate system
+			transformBoundingBox( node.min, node.max, viewerTransform, min, max );
+			if ( !overlaps( min, max, boxMin, boxMax ) )
+				return;
+
+			if ( node.leaves != null )
+			{
+				for ( final SourceBounds b : node.leaves )
+					if ( intersects( b ) )
+						result.set( b.sourceIndex );
+			}
+			else
+			{
+				visit( node.left );
+				visit( node.right );
+			}
+		}
+
+		/**
+		 * Test the oriented source box (instead of its bounding box in
+		 * global coordinates) against the viewer box.
+		 */
+		private boolean intersects( final SourceBounds b )
+		{
+			if ( !overlaps( b.min, b.max, globalMin, globalMax ) )
+				return false;
+			sourceToViewer.set( viewerTransform );
+			sourceToViewer.concatenate( b.sourceTransform );
+			getSourceBox( b.sourceInterval, sourceMin, sourceMax );
+			transformBoundingBox( sourceMin, sourceMax, sourceToViewer, min, max );
+			return overlaps( min, max, boxMin, boxMax );
+		}
+	}
+
+	private static boolean overlaps( final double[] amin, final double[] amax, final double[] bmin, final double[] bmax )
+	{
+		for ( int d = 0; d < 3; ++d )
+			if ( amax[ d ] < bmin[ d ] || amin[ d ] > bmax[ d ] )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Get the box covered by {@code interval} in source coordinates, with a
+	 * margin of one voxel to account for the support of interpolation.
+	 */
+	private static void getSourceBox( final Interval interval, final double[] min, final double[] max )
+	{
+		for ( int d = 0; d < 3; ++d )
+		{
+			min[ d ] = interval.min( d ) - 1;
+			max[ d ] = interval.max( d ) + 1;
+		}
+	}
+
+	private static void getBoundingBox( final Interval interval, final AffineTransform3D transform, final double[] min, final double[] max )
+	{
+		final double[] sourceMin = new double[ 3 ];
+		final double[] sourceMax = new double[ 3 ];
+		getSourceBox( interval, sourceMin, sourceMax );
+		transformBoundingBox( sourceMin, sourceMax, transform, min, max );
+	}
+
+	/**
+	 * Compute the axis-aligned bounding box of the box
+	 * {@code [min, max]} transformed by {@code transform}.
+	 */
+	private static void transformBoundingBox(
+			final double[] min,
+			final double[] max,
+			final AffineTransform3D transform,
+			final double[] tmin,
+			final double[] tmax )
+	{
+		for ( int r = 0; r < 3; ++r )
+		{
+			double lo = transform.get( r, 3 );
+			double hi = lo;
+			for ( int c = 0; c < 3; ++c )
+			{
+				final double a = transform.get( r, c ) * min[ c ];
+				final double b = transform.get( r, c ) * max[ c ];
+				lo += Math.min( a, b );
+				hi += Math.max( a, b );
+			}
+			tmin[ r ] = lo;
+			tmax[ r ] = hi;
+		}
+	}
+}
@@ -0,0 +1,561 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongSupplier;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.display.LookupTableARGBColorConverter;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileShortAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+/**
+ * A {@link VolatileHierarchyProjector} specialized for
+ * {@link VolatileUnsignedShortType} {@link VolatileCachedCellImg cell images},
+ * nearest-neighbor interpolation, {@link RealARGBColorConverter}, and
+ * {@link ARGBScreenImage} targets.
+ * <p>
+ * Instead of going through a generic {@link RandomAccess} on a transformed,
+ * interpolated, and extended view of the source, each screen row is walked in
+ * source coordinates. The cell containing the current sample is resolved only
+ * when the row leaves the previous cell, its validity is checked once per
+ * cell, and values are read from the underlying {@code short[]} and written as
+ * packed ARGB {@code int}s to the target. If the converter is a
+ * {@link LookupTableARGBColorConverter}, values are converted by indexing its
+ * table directly.
+ * <p>
+ * If the screen axes are aligned with source axes (for example the XY, ZY,
+ * and XZ planes of {@code ViewerPanel.AlignPlane} without in-plane rotation),
+ * a row of screen pixels maps to a row of voxels along one source axis. Then
+ * rows are filled by strided reads from the cell arrays, replicating voxels
+ * along X when zoomed in. Screen rows that map to the same source row as the
+ * row above are copied from the row above.
+ * <p>
+ * Samples outside of the source image are rendered as value 0, like the
+ * zero-extended interpolated sources of {@code AbstractSpimSource}.
+ */
+public class UnsignedShortVolatileHierarchyProjector extends VolatileHierarchyProjector< VolatileUnsignedShortType, ARGBType >
+{
+	/**
+	 * For each hierarchy level, the source image.
+	 */
+	protected final List< VolatileCachedCellImg< VolatileUnsignedShortType, ? > > imgs;
+
+	/**
+	 * For each hierarchy level, the transform from screen to source
+	 * coordinates.
+	 */
+	protected final List< AffineTransform3D > screenToSource;
+
+	/**
+	 * For each hierarchy level, the {@link AxisAlignment} of screen to source
+	 * axes, or {@code null} if screen axes are not aligned with source axes.
+	 */
+	protected final List< AxisAlignment > axisAlignments;
+
+	protected final RealARGBColorConverter< VolatileUnsignedShortType > colorConverter;
+
+	/**
+	 * The target pixels.
+	 */
+	protected final int[] targetData;
+
+	/**
+	 * The lookup table used in the current {@link #map(boolean)} pass, or
+	 * {@code null}.
+	 */
+	private int[] passLut;
+
+	/**
+	 * @param sources
+	 *            hierarchy levels, ordered from best to worst, as transformed,
+	 *            interpolated views. They are used only for the
+	 *            {@link VolatileHierarchyProjector} bookkeeping.
+	 * @param levelGenerations
+	 *            for each level, a counter that changes whenever new data
+	 *            becomes available for that level. May be {@code null}.
+	 * @param imgs
+	 *            for each level, the underlying source image.
+	 * @param sourceToScreen
+	 *            for each level, the transform from source to screen
+	 *            coordinates.
+	 * @param converter
+	 *            converts source values to ARGB.
+	 * @param target
+	 *            the screen image to render to.
+	 * @param maskArray
+	 *            mask storage, see {@link VolatileHierarchyProjector}.
+	 * @param clearMask
+	 *            whether to clear {@code maskArray}.
+	 * @param numThreads
+	 *            how many threads to use for rendering.
+	 * @param executorService
+	 *            used for rendering. May be {@code null}.
+	 */
+	public UnsignedShortVolatileHierarchyProjector(
+			final List< ? extends RandomAccessible< VolatileUnsignedShortType > > sources,
+			final List< ? extends LongSupplier > levelGenerations,
+			final List< ? extends VolatileCachedCellImg< VolatileUnsignedShortType, ? > > imgs,
+			final List< AffineTransform3D > sourceToScreen,
+			final RealARGBColorConverter< VolatileUnsignedShortType > converter,
+			final ARGBScreenImage target,
+			final byte[] maskArray,
+			final boolean clearMask,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		super( sources, levelGenerations, converter, target, maskArray, clearMask, numThreads, executorService );
+		this.imgs = new ArrayList<>( imgs );
+		this.screenToSource = new ArrayList<>();
+		this.axisAlignments = new ArrayList<>();
+		for ( final AffineTransform3D t : sourceToScreen )
+		{
+			final AffineTransform3D inverse = t.inverse();
+			this.screenToSource.add( inverse );
+			this.axisAlignments.add( AxisAlignment.create( inverse ) );
+		}
+		this.colorConverter = converter;
+		this.targetData = target.getData();
+	}
+
+	@Override
+	public boolean map( final boolean clearUntouchedTargetPixels )
+	{
+		passLut = getLut();
+		return super.map( clearUntouchedTargetPixels );
+	}
+
+	@Override
+	protected int mapTile( final byte level, final int minX, final int minY, final int maxX, final int maxY )
+	{
+		final AxisAlignment alignment = axisAlignments.get( level );
+		if ( alignment != null )
+			return mapTileAxisAligned( level, minX, minY, maxX, maxY, alignment );
+
+		final CellWalker walker = new CellWalker( imgs.get( level ) );
+		final AffineTransform3D t = screenToSource.get( level );
+		final int[] lut = passLut;
+		final int outsideARGB = lut != null ? lut[ 0 ] : colorConverter.toARGB( 0 );
+		int myNumInvalidPixels = 0;
+
+		// increments in source coordinates when moving one pixel in screen X
+		final double dx = t.get( 0, 0 );
+		final double dy = t.get( 1, 0 );
+		final double dz = t.get( 2, 0 );
+
+		for ( int y = minY; y < maxY; ++y )
+		{
+			if ( interrupted.get() )
+				return myNumInvalidPixels;
+
+			final int[] spans = rowSpans[ y ];
+			final int numSpans = rowNumSpans[ y ];
+			final int offset = y * width;
+			final double sy = min[ 1 ] + y;
+
+			for ( int k = 0; k < 2 * numSpans && spans[ k ] < maxX; k += 2 )
+			{
+				final int start = Math.max( spans[ k ], minX );
+				final int end = Math.min( spans[ k + 1 ], maxX );
+				if ( start >= end )
+					continue;
+				final double sx = min[ 0 ] + start;
+
+				// source position, offset by 0.5 to round to nearest by truncation
+				double px = t.get( 0, 0 ) * sx + t.get( 0, 1 ) * sy + t.get( 0, 3 ) + 0.5;
+				double py = t.get( 1, 0 ) * sx + t.get( 1, 1 ) * sy + t.get( 1, 3 ) + 0.5;
+				double pz = t.get( 2, 0 ) * sx + t.get( 2, 1 ) * sy + t.get( 2, 3 ) + 0.5;
+
+				for ( int x = start; x < end; ++x )
+				{
+					final int i = offset + x;
+					if ( maskArray[ i ] > level )
+					{
+						if ( px < 0 || py < 0 || pz < 0 || !walker.isInside( ( long ) px, ( long ) py, ( long ) pz ) )
+						{
+							targetData[ i ] = outsideARGB;
+							maskArray[ i ] = level;
+						}
+						else if ( walker.moveTo( ( long ) px, ( long ) py, ( long ) pz ) )
+						{
+							final int value = walker.get( ( long ) px, ( long ) py, ( long ) pz );
+							targetData[ i ] = lut != null ? lut[ value ] : colorConverter.toARGB( value );
+							maskArray[ i ] = level;
+						}
+						else
+							++myNumInvalidPixels;
+					}
+					px += dx;
+					py += dy;
+					pz += dz;
+				}
+			}
+		}
+		return myNumInvalidPixels;
+	}
+
+	/**
+	 * Get the lookup table of {@link #colorConverter}, if it is a
+	 * {@link LookupTableARGBColorConverter} covering all unsigned short
+	 * values.
+	 *
+	 * @return the table, or {@code null}.
+	 */
+	private int[] getLut()
+	{
+		if ( colorConverter instanceof LookupTableARGBColorConverter )
+		{
+			final LookupTableARGBColorConverter< ? > lutConverter = ( LookupTableARGBColorConverter< ? > ) colorConverter;
+			if ( lutConverter.getSize() >= 0x10000 )
+				return lutConverter.getLut();
+		}
+		return null;
+	}
+
+	/**
+	 * Variant of {@link #mapTile(byte, int, int, int, int)} for screen axes
+	 * that are aligned with source axes.
+	 */
+	protected int mapTileAxisAligned( final byte level, final int minX, final int minY, final int maxX, final int maxY, final AxisAlignment alignment )
+	{
+		final CellWalker walker = new CellWalker( imgs.get( level ) );
+		final int[] lut = passLut;
+		final int outsideARGB = lut != null ? lut[ 0 ] : colorConverter.toARGB( 0 );
+		int myNumInvalidPixels = 0;
+
+		final int ax = alignment.axisX;
+		final int ay = alignment.axisY;
+		final int az = alignment.axisZ;
+		final double stepX = alignment.stepX;
+		final long[] dims = walker.dims;
+		final long[] pos = new long[ 3 ];
+
+		// offset by 0.5 to round to nearest by truncation
+		final double rz = alignment.offsetZ + 0.5;
+		pos[ az ] = ( long ) rz;
+		final boolean sliceInside = rz >= 0 && pos[ az ] < dims[ az ];
+
+		// source row of the previous screen row, or -1
+		long previousRow = -1;
+
+		for ( int y = minY; y < maxY; ++y )
+		{
+			if ( interrupted.get() )
+				return myNumInvalidPixels;
+
+			final int[] spans = rowSpans[ y ];
+			final int numSpans = rowNumSpans[ y ];
+			final int offset = y * width;
+
+			final double ry = alignment.stepY * ( min[ 1 ] + y ) + alignment.offsetY + 0.5;
+			final boolean rowInside = sliceInside && ry >= 0 && ( long ) ry < dims[ ay ];
+			final long row = rowInside ? ( long ) ry : -1;
+			// the row above was rendered by this task from the same source row
+			final boolean sameAsAbove = rowInside && y > minY && row == previousRow;
+			previousRow = row;
+			pos[ ay ] = row;
+
+			for ( int k = 0; k < 2 * numSpans && spans[ k ] < maxX; k += 2 )
+			{
+				final int end = Math.min( spans[ k + 1 ], maxX );
+				int x = Math.max( spans[ k ], minX );
+				double rx = stepX * ( min[ 0 ] + x ) + alignment.offsetX + 0.5;
+				while ( x < end )
+				{
+					if ( !rowInside || rx < 0 || ( long ) rx >= dims[ ax ] )
+					{
+						final int i = offset + x;
+						if ( maskArray[ i ] > level )
+						{
+							targetData[ i ] = outsideARGB;
+							maskArray[ i ] = level;
+						}
+						++x;
+						rx += stepX;
+						continue;
+					}
+
+					// resolve the cell and walk along its row until leaving it
+					pos[ ax ] = ( long ) rx;
+					final boolean valid = walker.moveTo( pos[ 0 ], pos[ 1 ], pos[ 2 ] );
+					final long cellMin = walker.min[ ax ];
+					final long cellMax = walker.max[ ax ];
+					final int stride = walker.steps[ ax ];
+					final int base = walker.index( pos[ 0 ], pos[ 1 ], pos[ 2 ] ) - ( int ) ( pos[ ax ] - cellMin ) * stride;
+					for ( ; x < end; ++x, rx += stepX )
+					{
+						if ( rx < 0 )
+							break;
+						final long ix = ( long ) rx;
+						if ( ix < cellMin || ix > cellMax )
+							break;
+						final int i = offset + x;
+						if ( maskArray[ i ] > level )
+						{
+							if ( sameAsAbove && maskArray[ i - width ] == level )
+							{
+								targetData[ i ] = targetData[ i - width ];
+								maskArray[ i ] = level;
+							}
+							else if ( valid )
+							{
+								final int value = walker.get( base + ( int ) ( ix - cellMin ) * stride );
+								targetData[ i ] = lut != null ? lut[ value ] : colorConverter.toARGB( value );
+								maskArray[ i ] = level;
+							}
+							else
+								++myNumInvalidPixels;
+						}
+					}
+				}
+			}
+		}
+		return myNumInvalidPixels;
+	}
+
+	/**
+	 * Describes a screen-to-source transform that maps screen X and Y to
+	 * source axes {@link #axisX} and {@link #axisY}, respectively. The
+	 * screen plane is at source coordinate {@link #offsetZ} along
+	 * {@link #axisZ}.
+	 */
+	protected static final class AxisAlignment
+	{
+		final int axisX;
+
+		final int axisY;
+
+		final int axisZ;
+
+		final double stepX;
+
+		final double offsetX;
+
+		final double stepY;
+
+		final double offsetY;
+
+		final double offsetZ;
+
+		private AxisAlignment( final int axisX, final int axisY, final AffineTransform3D screenToSource )
+		{
+			this.axisX = axisX;
+			this.axisY = axisY;
+			this.axisZ = 3 - axisX - axisY;
+			stepX = screenToSource.get( axisX, 0 );
+			offsetX = screenToSource.get( axisX, 3 );
+			stepY = screenToSource.get( axisY, 1 );
+			offsetY = screenToSource.get( axisY, 3 );
+			offsetZ = screenToSource.get( axisZ, 3 );
+		}
+
+		/**
+		 * @return the {@link AxisAlignment} of {@code screenToSource}, or
+		 *         {@code null} if screen X and Y are not aligned with source
+		 *         axes.
+		 */
+		static AxisAlignment create( final AffineTransform3D screenToSource )
+		{
+			final int axisX = alignedAxis( screenToSource, 0 );
+			final int axisY = alignedAxis( screenToSource, 1 );
+			if ( axisX < 0 || axisY < 0 || axisX == axisY )
+				return null;
+			return new AxisAlignment( axisX, axisY, screenToSource );
+		}
+
+		/**
+		 * @return the only source axis that is affected by moving along screen
+		 *         axis {@code screenAxis}, or -1 if there is no such axis.
+		 */
+		private static int alignedAxis( final AffineTransform3D screenToSource, final int screenAxis )
+		{
+			double max = 0;
+			for ( int d = 0; d < 3; ++d )
+				max = Math.max( max, Math.abs( screenToSource.get( d, screenAxis ) ) );
+			if ( max == 0 )
+				return -1;
+			int axis = -1;
+			for ( int d = 0; d < 3; ++d )
+			{
+				if ( Math.abs( screenToSource.get( d, screenAxis ) ) > 1e-10 * max )
+				{
+					if ( axis >= 0 )
+						return -1;
+					axis = d;
+				}
+			}
+			return axis;
+		}
+	}
+
+	/**
+	 * Resolves cells of a {@link VolatileCachedCellImg} and reads values from
+	 * the current cell.
+	 */
+	protected static final class CellWalker
+	{
+		private final RandomAccess< ? extends Cell< ? > > cellsAccess;
+
+		private final long dimX, dimY, dimZ;
+
+		/**
+		 * Image dimensions.
+		 */
+		final long[] dims;
+
+		/**
+		 * Min, max, and index steps of the current cell, per dimension.
+		 */
+		final long[] min = new long[ 3 ];
+
+		final long[] max = new long[ 3 ];
+
+		final int[] steps = new int[ 3 ];
+
+		private final int cellDimX, cellDimY, cellDimZ;
+
+		private long cellMinX, cellMinY, cellMinZ;
+
+		private long cellMaxX = -1, cellMaxY = -1, cellMaxZ = -1;
+
+		private int cellStepY, cellStepZ;
+
+		private boolean cellValid;
+
+		private VolatileShortAccess cellAccess;
+
+		private short[] cellData;
+
+		public CellWalker( final VolatileCachedCellImg< VolatileUnsignedShortType, ? > img )
+		{
+			cellsAccess = img.getCells().randomAccess();
+			dimX = img.dimension( 0 );
+			dimY = img.dimension( 1 );
+			dimZ = img.dimension( 2 );
+			dims = new long[] { dimX, dimY, dimZ };
+			final int[] cellDims = new int[ 3 ];
+			img.getCellGrid().cellDimensions( cellDims );
+			cellDimX = cellDims[ 0 ];
+			cellDimY = cellDims[ 1 ];
+			cellDimZ = cellDims[ 2 ];
+		}
+
+		/**
+		 * Whether the given non-negative position is inside the image.
+		 */
+		public boolean isInside( final long x, final long y, final long z )
+		{
+			return x < dimX && y < dimY && z < dimZ;
+		}
+
+		/**
+		 * Make the cell containing the given position (which must be inside
+		 * the image) current, if it is not current already.
+		 *
+		 * @return whether the current cell is valid.
+		 */
+		public boolean moveTo( final long x, final long y, final long z )
+		{
+			if ( x < cellMinX || x > cellMaxX || y < cellMinY || y > cellMaxY || z < cellMinZ || z > cellMaxZ )
+			{
+				final long gx = x / cellDimX;
+				final long gy = y / cellDimY;
+				final long gz = z / cellDimZ;
+				cellMinX = gx * cellDimX;
+				cellMinY = gy * cellDimY;
+				cellMinZ = gz * cellDimZ;
+				final int sx = ( int ) Math.min( cellDimX, dimX - cellMinX );
+				final int sy = ( int ) Math.min( cellDimY, dimY - cellMinY );
+				final int sz = ( int ) Math.min( cellDimZ, dimZ - cellMinZ );
+				cellMaxX = cellMinX + sx - 1;
+				cellMaxY = cellMinY + sy - 1;
+				cellMaxZ = cellMinZ + sz - 1;
+				cellStepY = sx;
+				cellStepZ = sx * sy;
+				min[ 0 ] = cellMinX;
+				min[ 1 ] = cellMinY;
+				min[ 2 ] = cellMinZ;
+				max[ 0 ] = cellMaxX;
+				max[ 1 ] = cellMaxY;
+				max[ 2 ] = cellMaxZ;
+				steps[ 0 ] = 1;
+				steps[ 1 ] = cellStepY;
+				steps[ 2 ] = cellStepZ;
+
+				cellsAccess.setPosition( gx, 0 );
+				cellsAccess.setPosition( gy, 1 );
+				cellsAccess.setPosition( gz, 2 );
+				cellAccess = ( VolatileShortAccess ) cellsAccess.get().getData();
+				cellValid = cellAccess.isValid();
+				cellData = ( cellAccess instanceof VolatileShortArray )
+						? ( ( VolatileShortArray ) cellAccess ).getCurrentStorageArray()
+						: null;
+			}
+			return cellValid;
+		}
+
+		/**
+		 * Get the unsigned value at the given position, which must be in the
+		 * current cell.
+		 */
+		public int get( final long x, final long y, final long z )
+		{
+			return get( index( x, y, z ) );
+		}
+
+		/**
+		 * Get the index of the given position, which must be in the current
+		 * cell, in the cell data.
+		 */
+		public int index( final long x, final long y, final long z )
+		{
+			return ( int ) ( x - cellMinX ) + cellStepY * ( int ) ( y - cellMinY ) + cellStepZ * ( int ) ( z - cellMinZ );
+		}
+
+		/**
+		 * Get the unsigned value at index {@code i} in the current cell data.
+		 */
+		public int get( final int i )
+		{
+			return ( cellData != null ? cellData[ i ] : cellAccess.getValue( i ) ) & 0xffff;
+		}
+	}
+}
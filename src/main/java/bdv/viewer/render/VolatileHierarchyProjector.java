@@ -32,13 +32,12 @@ package bdv.viewer.render;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
-import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
@@ -48,6 +47,7 @@ import net.imglib2.Volatile;
 import net.imglib2.cache.iotiming.CacheIoTiming;
 import net.imglib2.cache.iotiming.IoStatistics;
 import net.imglib2.converter.Converter;
+import net.imglib2.display.LookupTableARGBColorConverter;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.type.numeric.NumericType;
@@ -60,6 +60,13 @@ import net.imglib2.view.Views;
  * {@link VolatileProjector} for a hierarchy of {@link Volatile} inputs.  After each
  * {@link #map()} call, the projector has a {@link #isValid() state} that
  * signalizes whether all projected pixels were perfect.
+ * <p>
+ * Pixels that are not yet perfect (mask &gt; 0) are tracked as per-row lists
+ * of spans, such that repeated {@link #map()} calls only revisit those pixels.
+ * Optionally, a generation counter can be provided for each hierarchy level
+ * (for example {@code VolatileCachedCellImg.getNumLoadedCells()}). A level is
+ * then skipped entirely if no new data arrived for it since it was last
+ * visited.
  *
  * @author Stephan Saalfeld &lt;saalfeld@mpi-cbg.de&gt;
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
@@ -68,7 +75,11 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 {
 	protected final ArrayList< RandomAccessible< A > > sources = new ArrayList<>();
 
-	private final byte[] maskArray;
+	/**
+	 * For each pixel, the index of the hierarchy level it was rendered from,
+	 * or {@code Byte.MAX_VALUE} if it was not rendered yet.
+	 */
+	protected final byte[] maskArray;
 
 	protected final Img< ByteType > mask;
 
@@ -76,6 +87,43 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 
 	protected int numInvalidLevels;
 
+	/**
+	 * For each target row, the spans {@code [start, end)} of pixels that are
+	 * not yet rendered from the best level (mask &gt; 0). Span {@code k} of row
+	 * {@code y} is {@code rowSpans[y][2k]} to {@code rowSpans[y][2k+1]}.
+	 */
+	protected final int[][] rowSpans;
+
+	/**
+	 * For each target row, the number of spans in {@link #rowSpans}.
+	 */
+	protected final int[] rowNumSpans;
+
+	/**
+	 * For each hierarchy level, a supplier of a counter that changes whenever
+	 * new data becomes available for that level. May be {@code null}, and may
+	 * contain {@code null} entries for levels that should always be visited.
+	 */
+	protected final List< ? extends LongSupplier > levelGenerations;
+
+	/**
+	 * For each level, the generation observed at the start of the last
+	 * complete visit of that level.
+	 */
+	private final long[] visitedGeneration;
+
+	/**
+	 * For each level, whether the last complete visit of that level was
+	 * already the second one with unchanged {@link #visitedGeneration}.
+	 */
+	private final boolean[] confirmedGeneration;
+
+	/**
+	 * The {@link #converter} to use in the current {@link #map(boolean)}
+	 * pass, see {@link LookupTableARGBColorConverter#fixTable(Converter)}.
+	 */
+	private Converter< ? super A, B > passConverter;
+
 	/**
 	 * Extends of the source to be used for mapping.
 	 */
@@ -107,6 +155,18 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 	 */
 	protected final int numThreads;
 
+	/**
+	 * Distributes square tiles of the target to rendering threads, according
+	 * to the time spent on each tile in the previous pass.
+	 */
+	protected final AdaptiveTileScheduler scheduler;
+
+	/**
+	 * Distributes ranges of target rows to threads, for
+	 * {@link #compactSpans(int) compacting} the invalid spans.
+	 */
+	private final AdaptiveTileScheduler rowScheduler;
+
 	protected final ExecutorService executorService;
 
 	/**
@@ -126,6 +186,13 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 	 */
 	protected final AtomicInteger numInvalidPixels = new AtomicInteger();
 
+	/**
+	 * For each hierarchy level, the number of pixels that were not valid at
+	 * that level in the last {@link #map()} call, or -1 if the level was not
+	 * visited.
+	 */
+	protected final int[] lastFrameInvalidPixels;
+
 	/**
 	 * Flag to indicate that someone is trying to interrupt rendering.
 	 */
@@ -148,11 +215,64 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 			final byte[] maskArray,
 			final int numThreads,
 			final ExecutorService executorService )
+	{
+		this( sources, null, converter, target, maskArray, numThreads, executorService );
+	}
+
+	/**
+	 * @param sources
+	 *            hierarchy levels, ordered from best to worst.
+	 * @param levelGenerations
+	 *            for each level, a counter that changes whenever new data
+	 *            becomes available for that level. A level is skipped if its
+	 *            counter did not change since the previous visits. May be
+	 *            {@code null}, or contain {@code null} entries.
+	 */
+	public VolatileHierarchyProjector(
+			final List< ? extends RandomAccessible< A > > sources,
+			final List< ? extends LongSupplier > levelGenerations,
+			final Converter< ? super A, B > converter,
+			final RandomAccessibleInterval< B > target,
+			final byte[] maskArray,
+			final int numThreads,
+			final ExecutorService executorService )
+	{
+		this( sources, levelGenerations, converter, target, maskArray, true, numThreads, executorService );
+	}
+
+	/**
+	 * @param sources
+	 *            hierarchy levels, ordered from best to worst.
+	 * @param levelGenerations
+	 *            for each level, a counter that changes whenever new data
+	 *            becomes available for that level. A level is skipped if its
+	 *            counter did not change since the previous visits. May be
+	 *            {@code null}, or contain {@code null} entries.
+	 * @param clearMask
+	 *            whether to {@link #clearMask() clear} {@code maskArray}. If
+	 *            {@code false}, the existing {@code maskArray} and
+	 *            {@code target} contents are kept, i.e., pixels with mask 0
+	 *            are not rendered again. This is used to reuse the contents
+	 *            of a previous frame.
+	 */
+	public VolatileHierarchyProjector(
+			final List< ? extends RandomAccessible< A > > sources,
+			final List< ? extends LongSupplier > levelGenerations,
+			final Converter< ? super A, B > converter,
+			final RandomAccessibleInterval< B > target,
+			final byte[] maskArray,
+			final boolean clearMask,
+			final int numThreads,
+			final ExecutorService executorService )
 	{
 		super( Math.max( 2, sources.get( 0 ).numDimensions() ), converter, target );
 
 		this.sources.addAll( sources );
+		this.levelGenerations = levelGenerations;
 		numInvalidLevels = sources.size();
+		visitedGeneration = new long[ sources.size() ];
+		confirmedGeneration = new boolean[ sources.size() ];
+		lastFrameInvalidPixels = new int[ sources.size() ];
 
 		this.maskArray = maskArray;
 		mask = ArrayImgs.bytes( maskArray, target.dimension( 0 ), target.dimension( 1 ) );
@@ -170,11 +290,19 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 		height = ( int )target.dimension( 1 );
 		cr = -width;
 
+		rowSpans = new int[ height ][ 2 ];
+		rowNumSpans = new int[ height ];
+
 		this.numThreads = numThreads;
 		this.executorService = executorService;
+		scheduler = new AdaptiveTileScheduler( width, height, AdaptiveTileScheduler.DEFAULT_TILE_SIZE, numThreads );
+		rowScheduler = new AdaptiveTileScheduler( height, numThreads );
 
 		lastFrameRenderNanoTime = -1;
-		clearMask();
+		if ( clearMask )
+			clearMask();
+		else
+			resetSpans();
 	}
 
 	@Override
@@ -194,12 +322,28 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 		return lastFrameIoNanoTime;
 	}
 
+	/**
+	 * Get the number of pixels that were not valid at each hierarchy level in
+	 * the last {@link #map()} call. Levels that were not visited (because they
+	 * were skipped, or finer levels were already complete) are -1.
+	 */
+	public int[] getLastFrameInvalidPixels()
+	{
+		return lastFrameInvalidPixels.clone();
+	}
+
 	@Override
 	public boolean isValid()
 	{
 		return valid;
 	}
 
+	@Override
+	public void setFocus( final int x, final int y )
+	{
+		scheduler.setFocus( x, y );
+	}
+
 	/**
 	 * Set all pixels in target to 100% transparent zero, and mask to all
 	 * Integer.MAX_VALUE.
@@ -208,6 +352,34 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 	{
 		Arrays.fill( maskArray, 0, ( int ) mask.size(), Byte.MAX_VALUE );
 		numInvalidLevels = sources.size();
+		for ( int y = 0; y < height; ++y )
+		{
+			final int[] spans = rowSpans[ y ];
+			spans[ 0 ] = 0;
+			spans[ 1 ] = width;
+			rowNumSpans[ y ] = width > 0 ? 1 : 0;
+		}
+		Arrays.fill( visitedGeneration, Long.MIN_VALUE );
+		Arrays.fill( confirmedGeneration, false );
+	}
+
+	/**
+	 * Compute the {@link #rowSpans invalid spans} from the current mask,
+	 * without modifying the mask.
+	 */
+	protected void resetSpans()
+	{
+		numInvalidLevels = sources.size();
+		for ( int y = 0; y < height; ++y )
+		{
+			final int[] spans = rowSpans[ y ];
+			spans[ 0 ] = 0;
+			spans[ 1 ] = width;
+			rowNumSpans[ y ] = width > 0 ? 1 : 0;
+			compactSpans( y );
+		}
+		Arrays.fill( visitedGeneration, Long.MIN_VALUE );
+		Arrays.fill( confirmedGeneration, false );
 	}
 
 	/**
@@ -215,10 +387,26 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 	 */
 	protected void clearUntouchedTargetPixels()
 	{
-		final Cursor< ByteType > maskCursor = mask.cursor();
-		for ( final B t : iterableTarget )
-			if ( maskCursor.next().get() == Byte.MAX_VALUE )
-				t.setZero();
+		final RandomAccess< B > targetRandomAccess = target.randomAccess( target );
+		for ( int y = 0; y < height; ++y )
+		{
+			final int[] spans = rowSpans[ y ];
+			final int numSpans = rowNumSpans[ y ];
+			final int offset = y * width;
+			for ( int k = 0; k < 2 * numSpans; k += 2 )
+			{
+				final int end = spans[ k + 1 ];
+				for ( int x = spans[ k ]; x < end; ++x )
+				{
+					if ( maskArray[ offset + x ] == Byte.MAX_VALUE )
+					{
+						targetRandomAccess.setPosition( min[ 0 ] + x, 0 );
+						targetRandomAccess.setPosition( min[ 1 ] + y, 1 );
+						targetRandomAccess.get().setZero();
+					}
+				}
+			}
+		}
 	}
 
 	@Override
@@ -231,6 +419,7 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 	public boolean map( final boolean clearUntouchedTargetPixels )
 	{
 		interrupted.set( false );
+		passConverter = LookupTableARGBColorConverter.fixTable( converter );
 
 		final StopWatch stopWatch = new StopWatch();
 		stopWatch.start();
@@ -239,18 +428,10 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 		final long startTimeIoCumulative = iostat.getCumulativeIoNanoTime();
 //		final long startIoBytes = iostat.getIoBytes();
 
-		final int numTasks;
-		if ( numThreads > 1 )
-		{
-			numTasks = Math.min( numThreads * 10, height );
-		}
-		else
-			numTasks = 1;
-		final double taskHeight = ( double )height / numTasks;
-
 		int i;
 
 		valid = false;
+		Arrays.fill( lastFrameInvalidPixels, -1 );
 
 		final boolean createExecutor = ( executorService == null );
 		final ExecutorService ex = createExecutor ? Executors.newFixedThreadPool( numThreads ) : executorService;
@@ -258,91 +439,44 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 		{
 			final byte iFinal = ( byte ) i;
 
-			valid = true;
-			numInvalidPixels.set( 0 );
-
-			final ArrayList< Callable< Void > > tasks = new ArrayList<>( numTasks );
-			for ( int taskNum = 0; taskNum < numTasks; ++taskNum )
+			if ( skipLevel( i ) )
 			{
-				final int myOffset = width * ( int ) ( taskNum * taskHeight );
-				final long myMinY = min[ 1 ] + ( int ) ( taskNum * taskHeight );
-				final int myHeight = ( int ) ( ( (taskNum == numTasks - 1 ) ? height : ( int ) ( ( taskNum + 1 ) * taskHeight ) ) - myMinY - min[ 1 ] );
-
-				final Callable< Void > r = new Callable< Void >()
-				{
-					@Override
-					public Void call()
-					{
-						if ( interrupted.get() )
-							return null;
-
-						final RandomAccess< B > targetRandomAccess = target.randomAccess( target );
-						final Cursor< ByteType > maskCursor = mask.cursor();
-						final RandomAccess< A > sourceRandomAccess = sources.get( iFinal ).randomAccess( sourceInterval );
-						int myNumInvalidPixels = 0;
-
-						final long[] smin = new long[ n ];
-						System.arraycopy( min, 0, smin, 0, n );
-						smin[ 1 ] = myMinY;
-						sourceRandomAccess.setPosition( smin );
-
-						targetRandomAccess.setPosition( min[ 0 ], 0 );
-						targetRandomAccess.setPosition( myMinY, 1 );
+				// nothing new arrived for this level since it was last visited
+				continue;
+			}
 
-						maskCursor.jumpFwd( myOffset );
+			valid = true;
+			numInvalidPixels.set( 0 );
 
-						for ( int y = 0; y < myHeight; ++y )
-						{
-							if ( interrupted.get() )
-								return null;
-
-							for ( int x = 0; x < width; ++x )
-							{
-								final ByteType m = maskCursor.next();
-								if ( m.get() > iFinal )
-								{
-									final A a = sourceRandomAccess.get();
-									final boolean v = a.isValid();
-									if ( v )
-									{
-										converter.convert( a, targetRandomAccess.get() );
-										m.set( iFinal );
-									}
-									else
-										++myNumInvalidPixels;
-								}
-								sourceRandomAccess.fwd( 0 );
-								targetRandomAccess.fwd( 0 );
-							}
-							++smin[ 1 ];
-							sourceRandomAccess.setPosition( smin );
-							targetRandomAccess.move( cr, 0 );
-							targetRandomAccess.fwd( 1 );
-						}
-						numInvalidPixels.addAndGet( myNumInvalidPixels );
-						if ( myNumInvalidPixels != 0 )
-							valid = false;
-						return null;
-					}
-				};
-				tasks.add( r );
-			}
-			try
-			{
-				ex.invokeAll( tasks );
-			}
-			catch ( final InterruptedException e )
-			{
-				Thread.currentThread().interrupt();
-			}
+			scheduler.run( ex, ( myMinX, myMinY, myMaxX, myMaxY ) -> {
+				if ( interrupted.get() || !hasSpans( myMinX, myMinY, myMaxX, myMaxY ) )
+					return;
+
+				final int myNumInvalidPixels = mapTile( iFinal, myMinX, myMinY, myMaxX, myMaxY );
+				if ( interrupted.get() )
+					return;
+
+				numInvalidPixels.addAndGet( myNumInvalidPixels );
+				if ( myNumInvalidPixels != 0 )
+					valid = false;
+			}, interrupted::get );
+
+			// spans are shared by the tiles of a row, so they are compacted
+			// after all tiles are done
+			if ( i == 0 && !interrupted.get() )
+				rowScheduler.run( ex, ( myMinY, myMaxY ) -> {
+					for ( int y = myMinY; y < myMaxY; ++y )
+						compactSpans( y );
+				} );
 			if ( interrupted.get() )
 			{
 //				System.out.println( "interrupted" );
+				visitedGeneration[ i ] = Long.MIN_VALUE;
 				if ( createExecutor )
 					ex.shutdown();
 				return false;
 			}
-//			System.out.println( "numInvalidPixels(" + i + ") = " + numInvalidPixels );
+			lastFrameInvalidPixels[ i ] = numInvalidPixels.get();
 		}
 		if ( createExecutor )
 			ex.shutdown();
@@ -366,4 +500,155 @@ public class VolatileHierarchyProjector< A extends Volatile< ? >, B extends Nume
 
 		return !interrupted.get();
 	}
+
+	/**
+	 * Check whether {@code level} can be skipped in the current pass, and
+	 * record the generation of {@code level} if it is visited.
+	 * <p>
+	 * The generation counter may be incremented slightly before the new data
+	 * is actually visible to the renderer. Therefore a level is only skipped
+	 * if its generation was unchanged for two complete visits.
+	 */
+	private boolean skipLevel( final int level )
+	{
+		if ( levelGenerations == null || level >= levelGenerations.size() )
+			return false;
+		final LongSupplier supplier = levelGenerations.get( level );
+		if ( supplier == null )
+			return false;
+		final long generation = supplier.getAsLong();
+		if ( generation < 0 )
+			return false;
+		if ( generation != visitedGeneration[ level ] )
+		{
+			visitedGeneration[ level ] = generation;
+			confirmedGeneration[ level ] = false;
+			return false;
+		}
+		if ( !confirmedGeneration[ level ] )
+		{
+			confirmedGeneration[ level ] = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the tile {@code minX, minY} (inclusive) to {@code maxX, maxY}
+	 * (exclusive) contains pixels that are not yet rendered from the best
+	 * level.
+	 */
+	protected boolean hasSpans( final int minX, final int minY, final int maxX, final int maxY )
+	{
+		for ( int y = minY; y < maxY; ++y )
+		{
+			final int[] spans = rowSpans[ y ];
+			final int numSpans = rowNumSpans[ y ];
+			for ( int k = 0; k < 2 * numSpans && spans[ k ] < maxX; k += 2 )
+				if ( spans[ k + 1 ] > minX )
+					return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Render the pixels of the tile {@code minX, minY} (inclusive) to
+	 * {@code maxX, maxY} (exclusive) that are in the {@link #rowSpans invalid
+	 * spans} and have mask &gt; {@code level} from hierarchy level
+	 * {@code level}. Pixels that are valid at that level are converted into
+	 * the target and their mask is set to {@code level}.
+	 *
+	 * @return the number of visited pixels that were not valid at
+	 *         {@code level}.
+	 */
+	protected int mapTile( final byte level, final int minX, final int minY, final int maxX, final int maxY )
+	{
+		final RandomAccess< B > targetRandomAccess = target.randomAccess( target );
+		final RandomAccess< A > sourceRandomAccess = sources.get( level ).randomAccess( sourceInterval );
+		int myNumInvalidPixels = 0;
+
+		final long[] smin = new long[ n ];
+		System.arraycopy( min, 0, smin, 0, n );
+
+		for ( int y = minY; y < maxY; ++y )
+		{
+			if ( interrupted.get() )
+				return myNumInvalidPixels;
+
+			final int[] spans = rowSpans[ y ];
+			final int numSpans = rowNumSpans[ y ];
+			final int offset = y * width;
+			smin[ 1 ] = min[ 1 ] + y;
+			targetRandomAccess.setPosition( smin[ 1 ], 1 );
+
+			for ( int k = 0; k < 2 * numSpans && spans[ k ] < maxX; k += 2 )
+			{
+				final int start = Math.max( spans[ k ], minX );
+				final int end = Math.min( spans[ k + 1 ], maxX );
+				if ( start >= end )
+					continue;
+				smin[ 0 ] = min[ 0 ] + start;
+				sourceRandomAccess.setPosition( smin );
+				targetRandomAccess.setPosition( smin[ 0 ], 0 );
+				for ( int x = start; x < end; ++x )
+				{
+					if ( maskArray[ offset + x ] > level )
+					{
+						final A a = sourceRandomAccess.get();
+						final boolean v = a.isValid();
+						if ( v )
+						{
+							passConverter.convert( a, targetRandomAccess.get() );
+							maskArray[ offset + x ] = level;
+						}
+						else
+							++myNumInvalidPixels;
+					}
+					sourceRandomAccess.fwd( 0 );
+					targetRandomAccess.fwd( 0 );
+				}
+			}
+		}
+		return myNumInvalidPixels;
+	}
+
+	/**
+	 * Recompute the {@link #rowSpans invalid spans} of row {@code y}, dropping
+	 * pixels that are now rendered from the best level (mask == 0).
+	 */
+	protected void compactSpans( final int y )
+	{
+		final int numSpans = rowNumSpans[ y ];
+		if ( numSpans == 0 )
+			return;
+
+		int[] spans = rowSpans[ y ];
+		final int[] oldSpans = spans.clone();
+		final int offset = y * width;
+		int numNewSpans = 0;
+		for ( int k = 0; k < 2 * numSpans; k += 2 )
+		{
+			final int end = oldSpans[ k + 1 ];
+			int x = oldSpans[ k ];
+			while ( x < end )
+			{
+				while ( x < end && maskArray[ offset + x ] == 0 )
+					++x;
+				if ( x == end )
+					break;
+				final int start = x;
+				while ( x < end && maskArray[ offset + x ] != 0 )
+					++x;
+				if ( 2 * numNewSpans + 2 > spans.length )
+				{
+					spans = Arrays.copyOf( spans, 2 * spans.length );
+					rowSpans[ y ] = spans;
+				}
+				spans[ 2 * numNewSpans ] = start;
+				spans[ 2 * numNewSpans + 1 ] = x;
+				++numNewSpans;
+			}
+		}
+		rowNumSpans[ y ] = numNewSpans;
+	}
 }
@@ -47,4 +47,18 @@ public interface VolatileProjector extends InterruptibleProjector
 	 * @return true if all mapped pixels were {@link Volatile#isValid() valid}.
 	 */
 	public boolean isValid();
+
+	/**
+	 * Set the target pixel around which rendering should start. Projectors
+	 * that render in parallel chunks process chunks closer to the focus
+	 * first, such that the region of interest is refined first. The default
+	 * implementation ignores the focus.
+	 *
+	 * @param x
+	 *            focus x coordinate in the target image.
+	 * @param y
+	 *            focus y coordinate in the target image.
+	 */
+	public default void setFocus( final int x, final int y )
+	{}
 }
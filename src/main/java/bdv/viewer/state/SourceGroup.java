@@ -56,6 +56,12 @@ public class SourceGroup
 	 */
 	protected boolean isCurrent;
 
+	/**
+	 * The {@link ViewerState} that contains this group, which is notified of
+	 * modifications, or {@code null}.
+	 */
+	ViewerState owner;
+
 	public SourceGroup( final String name )
 	{
 		sourceIds = new TreeSet<>();
@@ -79,11 +85,13 @@ public class SourceGroup
 
 	public void addSource( final int sourceId )
 	{
+		changed();
 		sourceIds.add( sourceId );
 	}
 
 	public void removeSource( final int sourceId )
 	{
+		changed();
 		sourceIds.remove( sourceId );
 	}
 
@@ -117,6 +125,7 @@ public class SourceGroup
 	 */
 	public void setActive( final boolean isActive )
 	{
+		changed();
 		this.isActive = isActive;
 	}
 
@@ -135,6 +144,14 @@ public class SourceGroup
 	 */
 	public void setCurrent( final boolean isCurrent )
 	{
+		changed();
 		this.isCurrent = isCurrent;
 	}
+
+	private void changed()
+	{
+		final ViewerState state = owner;
+		if ( state != null )
+			state.changed( ViewerState.Aspect.VISIBILITY );
+	}
 }
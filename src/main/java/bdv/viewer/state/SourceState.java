@@ -140,6 +140,7 @@ public class SourceState< T > extends SourceAndConverter< T >
 	{
 		synchronized ( owner )
 		{
+			owner.changed( ViewerState.Aspect.VISIBILITY );
 			data.isActive = isActive;
 		}
 	}
@@ -161,6 +162,7 @@ public class SourceState< T > extends SourceAndConverter< T >
 	{
 		synchronized ( owner )
 		{
+			owner.changed( ViewerState.Aspect.VISIBILITY );
 			data.isCurrent = isCurrent;
 		}
 	}
@@ -34,7 +34,9 @@ import static bdv.viewer.DisplayMode.SINGLE;
 import static bdv.viewer.Interpolation.NEARESTNEIGHBOR;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -42,19 +44,67 @@ import java.util.TreeSet;
 import bdv.util.MipmapTransforms;
 import bdv.viewer.DisplayMode;
 import bdv.viewer.Interpolation;
+import bdv.viewer.ProjectionMode;
 import bdv.viewer.Source;
 import bdv.viewer.SourceAndConverter;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ColorConverter;
+import net.imglib2.display.LookupTableARGBColorConverter;
 import net.imglib2.realtransform.AffineTransform3D;
 
 /**
  * Description of everything required to render the current image, such as the
  * current timepoint, the visible and current sources and groups respectively,
  * the viewer transformation, etc.
+ * <p>
+ * Every modification increments the version of the modified {@link Aspect}.
+ * For rendering, an immutable {@link #snapshot() snapshot} of the state can
+ * be obtained, which is reused until the next modification. A new snapshot
+ * shares the sources and groups of the previous one unless their
+ * {@link Aspect#VISIBILITY visibility} was modified. Snapshots can be
+ * read by the renderer without contending with UI threads that modify the
+ * state, and {@link #getChangedAspects(ViewerState)} tells which aspects
+ * changed between two snapshots.
  *
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
  */
 public class ViewerState
 {
+	/**
+	 * Aspects of the state that are versioned separately, such that a
+	 * renderer can tell what changed since the last frame.
+	 */
+	public enum Aspect
+	{
+		/**
+		 * The viewer transform.
+		 */
+		TRANSFORM,
+
+		/**
+		 * The current timepoint and the number of timepoints.
+		 */
+		TIMEPOINT,
+
+		/**
+		 * Which sources are visible: sources, groups, display mode, current
+		 * source and group, and active flags.
+		 */
+		VISIBILITY,
+
+		/**
+		 * Settings (range and color) of the sources' {@link ColorConverter}s.
+		 * Changes are detected when a {@link ViewerState#snapshot() snapshot}
+		 * is taken.
+		 */
+		CONVERTER,
+
+		/**
+		 * Interpolation, projection mode, and slab thickness.
+		 */
+		RENDERING
+	}
+
 	private final ArrayList< SourceState< ? > > sources;
 
 	/**
@@ -113,6 +163,51 @@ public class ViewerState
 	 */
 	private int currentTimepoint;
 
+	/**
+	 * How sources are projected onto the screen.
+	 */
+	private ProjectionMode projectionMode;
+
+	/**
+	 * Thickness of the slab around the plane {@code z = 0} that is projected
+	 * in {@link ProjectionMode#MAX} and {@link ProjectionMode#COMPOSITE}
+	 * modes, in viewer coordinates.
+	 */
+	private double slabThickness;
+
+	/**
+	 * Whether this is an immutable {@link #snapshot() snapshot}.
+	 */
+	private final boolean isSnapshot;
+
+	/**
+	 * Version of each {@link Aspect}, indexed by ordinal.
+	 */
+	private final long[] versions;
+
+	/**
+	 * Shared by a state and all its copies and snapshots, whose versions are
+	 * therefore comparable.
+	 */
+	private final Object lineage;
+
+	/**
+	 * The last snapshot that was taken, or {@code null}. It is returned by
+	 * {@link #snapshot()} while its {@link #versions} are current.
+	 */
+	private ViewerState snapshot;
+
+	/**
+	 * Range and color of all source converters when the last snapshot was
+	 * taken.
+	 */
+	private double[] converterSettings;
+
+	/**
+	 * Visible source indices of a snapshot, computed on first use.
+	 */
+	private List< Integer > visibleSourceIndices;
+
 	public ViewerState( final List< SourceAndConverter< ? > > sources, final int numTimePoints )
 	{
 		this( sources, null, numTimePoints );
@@ -132,6 +227,8 @@ public class ViewerState
 			this.sources.add( SourceState.create( source, this ) );
 		unmodifiableSources = Collections.unmodifiableList( this.sources );
 		groups = ( sourceGroups == null ) ? new ArrayList<>() : new ArrayList<>( sourceGroups );
+		for ( final SourceGroup group : groups )
+			group.owner = this;
 		unmodifiableGroups = Collections.unmodifiableList( this.groups );
 		this.numTimepoints = numTimePoints;
 
@@ -141,6 +238,11 @@ public class ViewerState
 		currentSource = sources.isEmpty() ? -1 : 0;
 		currentGroup = groups.isEmpty() ? -1 : 0;
 		currentTimepoint = 0;
+		projectionMode = ProjectionMode.PLANE;
+		slabThickness = 20;
+		isSnapshot = false;
+		versions = new long[ Aspect.values().length ];
+		lineage = new Object();
 	}
 
 	/**
@@ -149,14 +251,41 @@ public class ViewerState
 	 */
 	protected ViewerState( final ViewerState s )
 	{
-		sources = new ArrayList<>( s.sources.size() );
-		for ( final SourceState< ? > source : s.sources )
-			this.sources.add( source.copy( this ) );
-		unmodifiableSources = Collections.unmodifiableList( sources );
-		groups = new ArrayList<>( s.groups.size() );
-		for ( final SourceGroup group : s.groups )
-			groups.add( group.copy() );
-		unmodifiableGroups = Collections.unmodifiableList( groups );
+		this( s, false, null );
+	}
+
+	/**
+	 * @param shared
+	 *            a snapshot of {@code s} whose sources and groups are reused
+	 *            instead of copied, or {@code null}. This must only be given
+	 *            if the {@link Aspect#VISIBILITY visibility} of {@code s} did
+	 *            not change since {@code shared} was taken.
+	 */
+	private ViewerState( final ViewerState s, final boolean isSnapshot, final ViewerState shared )
+	{
+		if ( shared != null )
+		{
+			// snapshots are immutable, so their sources and groups can be shared
+			sources = shared.sources;
+			unmodifiableSources = shared.unmodifiableSources;
+			groups = shared.groups;
+			unmodifiableGroups = shared.unmodifiableGroups;
+		}
+		else
+		{
+			sources = new ArrayList<>( s.sources.size() );
+			for ( final SourceState< ? > source : s.sources )
+				this.sources.add( source.copy( this ) );
+			unmodifiableSources = Collections.unmodifiableList( sources );
+			groups = new ArrayList<>( s.groups.size() );
+			for ( final SourceGroup group : s.groups )
+			{
+				final SourceGroup copy = group.copy();
+				copy.owner = this;
+				groups.add( copy );
+			}
+			unmodifiableGroups = Collections.unmodifiableList( groups );
+		}
 		numTimepoints = s.numTimepoints;
 		viewerTransform = s.viewerTransform.copy();
 		interpolation = s.interpolation;
@@ -164,6 +293,11 @@ public class ViewerState
 		currentSource = s.currentSource;
 		currentGroup = s.currentGroup;
 		currentTimepoint = s.currentTimepoint;
+		projectionMode = s.projectionMode;
+		slabThickness = s.slabThickness;
+		this.isSnapshot = isSnapshot;
+		versions = s.versions.clone();
+		lineage = s.lineage;
 	}
 
 	public synchronized ViewerState copy()
@@ -171,6 +305,137 @@ public class ViewerState
 		return new ViewerState( this );
 	}
 
+	/**
+	 * Get an immutable snapshot of the current version of this state. The
+	 * same snapshot is returned until the state is modified (or the settings
+	 * of a source converter change), so taking a snapshot for every
+	 * rendering pass is cheap. After a modification, the sources and groups
+	 * are only copied if their {@link Aspect#VISIBILITY visibility} changed.
+	 * Otherwise they are shared with the previous snapshot, such that for
+	 * example changing the viewer transform only copies the transform.
+	 * <p>
+	 * The snapshot is only read by its users, so its (synchronized) accessors
+	 * never contend with threads that modify this state. Modifying the
+	 * snapshot throws {@link UnsupportedOperationException}.
+	 *
+	 * @return immutable snapshot of this state.
+	 */
+	public synchronized ViewerState snapshot()
+	{
+		if ( isSnapshot )
+			return this;
+		final double[] settings = getConverterSettings();
+		if ( !Arrays.equals( settings, converterSettings ) )
+		{
+			if ( converterSettings != null )
+				changed( Aspect.CONVERTER );
+			converterSettings = settings;
+		}
+		if ( snapshot == null )
+			snapshot = new ViewerState( this, true, null );
+		else if ( !Arrays.equals( snapshot.versions, versions ) )
+		{
+			final int visibility = Aspect.VISIBILITY.ordinal();
+			final boolean share = snapshot.versions[ visibility ] == versions[ visibility ];
+			snapshot = new ViewerState( this, true, share ? snapshot : null );
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Whether this state is an immutable {@link #snapshot() snapshot}.
+	 */
+	public boolean isSnapshot()
+	{
+		return isSnapshot;
+	}
+
+	/**
+	 * Get the version of the given {@link Aspect}. It is incremented whenever
+	 * the aspect is modified.
+	 */
+	public synchronized long getVersion( final Aspect aspect )
+	{
+		return versions[ aspect.ordinal() ];
+	}
+
+	/**
+	 * Get the {@link Aspect}s that were modified between {@code previous} and
+	 * this state. If {@code previous} is {@code null}, or not a copy or
+	 * snapshot of the same state, all aspects are considered modified.
+	 *
+	 * @param previous
+	 *            an earlier copy or snapshot of this state.
+	 * @return the modified aspects.
+	 */
+	public EnumSet< Aspect > getChangedAspects( final ViewerState previous )
+	{
+		if ( previous == null || previous.lineage != lineage )
+			return EnumSet.allOf( Aspect.class );
+		final long[] previousVersions;
+		synchronized ( previous )
+		{
+			previousVersions = previous.versions.clone();
+		}
+		final EnumSet< Aspect > changed = EnumSet.noneOf( Aspect.class );
+		synchronized ( this )
+		{
+			for ( final Aspect aspect : Aspect.values() )
+				if ( versions[ aspect.ordinal() ] != previousVersions[ aspect.ordinal() ] )
+					changed.add( aspect );
+		}
+		return changed;
+	}
+
+	/**
+	 * Record a modification of {@code aspect}: increment its version, such
+	 * that the next {@link #snapshot()} is a new one. Must be called before
+	 * modifying the state.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if this is a snapshot.
+	 */
+	synchronized void changed( final Aspect aspect )
+	{
+		if ( isSnapshot )
+			throw new UnsupportedOperationException( "ViewerState snapshots cannot be modified" );
+		++versions[ aspect.ordinal() ];
+	}
+
+	/**
+	 * Collect range and color of the {@link ColorConverter}s of all sources
+	 * (non-volatile and volatile), to detect changes of converter settings,
+	 * which are not made through this state. For
+	 * {@link LookupTableARGBColorConverter}s, the version is included to
+	 * detect gamma and colormap changes.
+	 */
+	private double[] getConverterSettings()
+	{
+		final double[] settings = new double[ 8 * sources.size() ];
+		int i = 0;
+		for ( final SourceState< ? > source : sources )
+		{
+			i = getConverterSettings( source.getConverter(), settings, i );
+			final SourceAndConverter< ? > volatileSource = source.asVolatile();
+			i = getConverterSettings( volatileSource == null ? null : volatileSource.getConverter(), settings, i );
+		}
+		return settings;
+	}
+
+	private static int getConverterSettings( final Converter< ?, ? > converter, final double[] settings, final int i )
+	{
+		if ( converter instanceof ColorConverter )
+		{
+			final ColorConverter c = ( ColorConverter ) converter;
+			settings[ i ] = c.getMin();
+			settings[ i + 1 ] = c.getMax();
+			settings[ i + 2 ] = c.getColor().get();
+			if ( converter instanceof LookupTableARGBColorConverter )
+				settings[ i + 3 ] = ( ( LookupTableARGBColorConverter< ? > ) converter ).getVersion();
+		}
+		return i + 4;
+	}
+
 
 	/*
 	 * Renderer state.
@@ -194,6 +459,7 @@ public class ViewerState
 	 */
 	public synchronized void setViewerTransform( final AffineTransform3D t )
 	{
+		changed( Aspect.TRANSFORM );
 		viewerTransform.set( t );
 	}
 
@@ -213,6 +479,7 @@ public class ViewerState
 		final int minIndex = sources.isEmpty() ? -1 : 0;
 		if ( index >= minIndex && index < sources.size() )
 		{
+			changed( Aspect.VISIBILITY );
 			sources.get( currentSource ).setCurrent( false );
 			currentSource = index;
 			sources.get( currentSource ).setCurrent( true );
@@ -244,6 +511,7 @@ public class ViewerState
 	{
 		if ( index >= 0 && index < groups.size() )
 		{
+			changed( Aspect.VISIBILITY );
 			groups.get( currentGroup ).setCurrent( false );
 			currentGroup = index;
 			groups.get( currentGroup ).setCurrent( true );
@@ -277,6 +545,7 @@ public class ViewerState
 	 */
 	public synchronized void setInterpolation( final Interpolation method )
 	{
+		changed( Aspect.RENDERING );
 		interpolation = method;
 	}
 
@@ -330,6 +599,7 @@ public class ViewerState
 	 */
 	public synchronized void setDisplayMode( final DisplayMode mode )
 	{
+		changed( Aspect.VISIBILITY );
 		displayMode = mode;
 	}
 
@@ -350,6 +620,54 @@ public class ViewerState
 		return displayMode;
 	}
 
+	/**
+	 * Get the current {@link ProjectionMode}.
+	 *
+	 * @return the current projection mode
+	 */
+	public synchronized ProjectionMode getProjectionMode()
+	{
+		return projectionMode;
+	}
+
+	/**
+	 * Set the {@link ProjectionMode}.
+	 *
+	 * @param mode
+	 *            the projection mode
+	 */
+	public synchronized void setProjectionMode( final ProjectionMode mode )
+	{
+		changed( Aspect.RENDERING );
+		projectionMode = mode;
+	}
+
+	/**
+	 * Get the thickness of the slab that is projected in
+	 * {@link ProjectionMode#MAX} and {@link ProjectionMode#COMPOSITE} modes.
+	 *
+	 * @return slab thickness in viewer coordinates
+	 */
+	public synchronized double getSlabThickness()
+	{
+		return slabThickness;
+	}
+
+	/**
+	 * Set the thickness of the slab that is projected in
+	 * {@link ProjectionMode#MAX} and {@link ProjectionMode#COMPOSITE} modes.
+	 * The slab extends {@code thickness / 2} to both sides of the plane
+	 * {@code z = 0}.
+	 *
+	 * @param thickness
+	 *            slab thickness in viewer coordinates
+	 */
+	public synchronized void setSlabThickness( final double thickness )
+	{
+		changed( Aspect.RENDERING );
+		slabThickness = thickness;
+	}
+
 	/**
 	 * Get the timepoint index that is currently displayed.
 	 *
@@ -368,6 +686,7 @@ public class ViewerState
 	 */
 	public synchronized void setCurrentTimepoint( final int timepoint )
 	{
+		changed( Aspect.TIMEPOINT );
 		currentTimepoint = timepoint;
 	}
 
@@ -413,6 +732,7 @@ public class ViewerState
 
 	public synchronized void addSource( final SourceAndConverter< ? > source )
 	{
+		changed( Aspect.VISIBILITY );
 		sources.add( SourceState.create( source, this ) );
 		if ( currentSource < 0 )
 			currentSource = 0;
@@ -420,6 +740,7 @@ public class ViewerState
 
 	public synchronized void removeSource( final Source< ? > source )
 	{
+		changed( Aspect.VISIBILITY );
 		for ( int i = 0; i < sources.size(); )
 		{
 			final SourceState< ? > s = sources.get( i );
@@ -458,6 +779,8 @@ public class ViewerState
 	{
 		if ( !groups.contains( group ) )
 		{
+			changed( Aspect.VISIBILITY );
+			group.owner = this;
 			groups.add( group );
 			if ( currentGroup < 0 )
 				currentGroup = 0;
@@ -468,12 +791,15 @@ public class ViewerState
 	{
 		final int i = groups.indexOf( group );
 		if ( i >= 0 )
+		{
+			changed( Aspect.VISIBILITY );
 			removeGroup( i );
+		}
 	}
 
 	protected void removeGroup( final int index )
 	{
-		groups.remove( index );
+		groups.remove( index ).owner = null;
 		if ( groups.isEmpty() )
 			currentGroup = -1;
 		else if ( currentGroup == index )
@@ -507,11 +833,24 @@ public class ViewerState
 	}
 
 	/**
-	 * Returns a list of the indices of all currently visible sources.
+	 * Returns a list of the indices of all currently visible sources. For a
+	 * {@link #snapshot() snapshot}, the list is computed once and is
+	 * unmodifiable.
 	 *
 	 * @return indices of all currently visible sources.
 	 */
 	public synchronized List< Integer > getVisibleSourceIndices()
+	{
+		if ( isSnapshot )
+		{
+			if ( visibleSourceIndices == null )
+				visibleSourceIndices = Collections.unmodifiableList( computeVisibleSourceIndices() );
+			return visibleSourceIndices;
+		}
+		return computeVisibleSourceIndices();
+	}
+
+	private ArrayList< Integer > computeVisibleSourceIndices()
 	{
 		final ArrayList< Integer > visible = new ArrayList<>();
 		switch ( displayMode )
@@ -583,6 +922,7 @@ public class ViewerState
 	 */
 	public synchronized void setNumTimepoints( final int numTimepoints )
 	{
+		changed( Aspect.TIMEPOINT );
 		this.numTimepoints = numTimepoints;
 	}
 
@@ -598,6 +938,7 @@ public class ViewerState
 	{
 		sources.clear();
 		groups.clear();
+		snapshot = null;
 	}
 
 	/**
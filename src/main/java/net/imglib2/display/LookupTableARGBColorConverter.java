@@ -0,0 +1,302 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.display;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imglib2.converter.Converter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A {@link RealARGBColorConverter} for integer types with a small range of
+ * values, such as {@code UnsignedByteType} and {@code UnsignedShortType}.
+ * Instead of scaling every value, it looks up precomputed ARGB values in a
+ * table with one entry per possible value.
+ * <p>
+ * The table is rebuilt on first use after the range, color, gamma, or
+ * colormap changed. Besides the linear ramp to a color, it supports a
+ * {@link #setGamma(double) gamma} correction and arbitrary
+ * {@link #setColormap(int[]) colormaps} without cost per pixel.
+ * <p>
+ * As with {@link RealARGBColorConverter}, there are two identical
+ * implementations {@link Imp0} and {@link Imp1} that can be used for volatile
+ * and non-volatile sources, respectively, to keep call sites monomorphic.
+ *
+ * @param <R>
+ *            input type. Values must be integers. Values outside
+ *            {@code [0, size)} are clamped.
+ */
+public abstract class LookupTableARGBColorConverter< R extends RealType< ? > > extends RealARGBColorConverter< R >
+{
+	/**
+	 * A lookup table, and the {@link #version} of the settings from which it
+	 * was built.
+	 */
+	private static final class Table
+	{
+		final int[] argb;
+
+		final long version;
+
+		Table( final int[] argb, final long version )
+		{
+			this.argb = argb;
+			this.version = version;
+		}
+	}
+
+	private final int size;
+
+	private double gamma = 1;
+
+	private int[] colormap;
+
+	/**
+	 * Incremented whenever a setting changes.
+	 */
+	private volatile long version;
+
+	private final AtomicReference< Table > table = new AtomicReference<>();
+
+	/**
+	 * @param min
+	 *            value mapped to black (or the first colormap entry).
+	 * @param max
+	 *            value mapped to the color (or the last colormap entry).
+	 * @param size
+	 *            number of possible input values, for example {@code 256}
+	 *            for {@code UnsignedByteType} or {@code 65536} for
+	 *            {@code UnsignedShortType}.
+	 */
+	public LookupTableARGBColorConverter( final double min, final double max, final int size )
+	{
+		super( min, max );
+		this.size = size;
+	}
+
+	/**
+	 * Get the number of entries of the lookup table.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	public double getGamma()
+	{
+		return gamma;
+	}
+
+	/**
+	 * Set the gamma correction. Values between {@code min} and {@code max}
+	 * are normalized to {@code [0, 1]} and raised to the power of
+	 * {@code gamma} before looking up the color.
+	 */
+	public void setGamma( final double gamma )
+	{
+		this.gamma = gamma;
+		update();
+	}
+
+	public int[] getColormap()
+	{
+		return colormap;
+	}
+
+	/**
+	 * Set a colormap. If non-null, normalized values in {@code [0, 1]} are
+	 * mapped to its (ARGB) entries, evenly spaced, instead of scaling the
+	 * {@link #getColor() color}.
+	 *
+	 * @param colormap
+	 *            ARGB colors, or {@code null} to scale the color. The array
+	 *            is not copied, and must not be modified afterwards.
+	 */
+	public void setColormap( final int[] colormap )
+	{
+		this.colormap = colormap;
+		update();
+	}
+
+	@Override
+	public boolean supportsColor()
+	{
+		return colormap == null;
+	}
+
+	/**
+	 * Get a counter that changes whenever range, color, gamma, or colormap
+	 * change.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Get the lookup table, which maps input values {@code 0} to
+	 * {@code size - 1} to ARGB. It is rebuilt if settings changed since it
+	 * was last built. The returned array must not be modified.
+	 * <p>
+	 * Renderers should get the table once per pass, and then index it
+	 * directly.
+	 */
+	public int[] getLut()
+	{
+		Table t = table.get();
+		while ( true )
+		{
+			final long v = version;
+			if ( t != null && t.version >= v )
+				return t.argb;
+			final Table built = new Table( createLut(), v );
+			// do not replace a table that another thread built meanwhile, it
+			// may be newer than ours
+			if ( table.compareAndSet( t, built ) )
+				return built.argb;
+			t = table.get();
+		}
+	}
+
+	/**
+	 * Get a converter to use for one rendering pass. If {@code converter} is
+	 * a {@link LookupTableARGBColorConverter}, the returned converter indexes
+	 * its current {@link #getLut() table} directly, instead of checking for
+	 * changed settings at every pixel. Otherwise, {@code converter} is
+	 * returned.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static < A, B > Converter< ? super A, B > fixTable( final Converter< ? super A, B > converter )
+	{
+		if ( converter instanceof LookupTableARGBColorConverter )
+		{
+			final LookupTableARGBColorConverter< ? > lutConverter = ( LookupTableARGBColorConverter< ? > ) converter;
+			return new FixedTable( lutConverter.getLut() );
+		}
+		return converter;
+	}
+
+	@Override
+	public int toARGB( final double value )
+	{
+		return getLut()[ index( value ) ];
+	}
+
+	@Override
+	protected void update()
+	{
+		super.update();
+		++version;
+	}
+
+	protected int index( final double value )
+	{
+		return Math.max( 0, Math.min( size - 1, ( int ) value ) );
+	}
+
+	private int[] createLut()
+	{
+		final int[] lut = new int[ size ];
+		final int[] cmap = colormap;
+		if ( cmap == null && gamma == 1 )
+		{
+			// same as RealARGBColorConverter
+			for ( int i = 0; i < size; ++i )
+				lut[ i ] = super.toARGB( i );
+			return lut;
+		}
+
+		final int value = color.get();
+		final int r = ARGBType.red( value );
+		final int g = ARGBType.green( value );
+		final int b = ARGBType.blue( value );
+		for ( int i = 0; i < size; ++i )
+		{
+			double t = max > min
+					? Math.max( 0, Math.min( 1, ( i - min ) / ( max - min ) ) )
+					: ( i > min ? 1 : 0 );
+			if ( gamma != 1 )
+				t = Math.pow( t, gamma );
+			if ( cmap != null )
+				lut[ i ] = cmap[ ( int ) ( t * ( cmap.length - 1 ) + 0.5 ) ];
+			else
+				lut[ i ] = ARGBType.rgba( ( int ) ( r * t + 0.5 ), ( int ) ( g * t + 0.5 ), ( int ) ( b * t + 0.5 ), A );
+		}
+		return lut;
+	}
+
+	public static class Imp0< R extends RealType< ? > > extends LookupTableARGBColorConverter< R >
+	{
+		public Imp0( final double min, final double max, final int size )
+		{
+			super( min, max, size );
+		}
+
+		@Override
+		public void convert( final R input, final ARGBType output )
+		{
+			output.set( getLut()[ index( input.getRealDouble() ) ] );
+		}
+	}
+
+	public static class Imp1< R extends RealType< ? > > extends LookupTableARGBColorConverter< R >
+	{
+		public Imp1( final double min, final double max, final int size )
+		{
+			super( min, max, size );
+		}
+
+		@Override
+		public void convert( final R input, final ARGBType output )
+		{
+			output.set( getLut()[ index( input.getRealDouble() ) ] );
+		}
+	}
+
+	/**
+	 * Converts by indexing a fixed lookup table.
+	 */
+	private static final class FixedTable< R extends RealType< ? > > implements Converter< R, ARGBType >
+	{
+		private final int[] lut;
+
+		FixedTable( final int[] lut )
+		{
+			this.lut = lut;
+		}
+
+		@Override
+		public void convert( final R input, final ARGBType output )
+		{
+			output.set( lut[ Math.max( 0, Math.min( lut.length - 1, ( int ) input.getRealDouble() ) ) ] );
+		}
+	}
+}
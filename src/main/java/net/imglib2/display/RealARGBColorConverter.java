@@ -103,7 +103,31 @@ public abstract class RealARGBColorConverter< R extends RealType< ? > > implemen
 		update();
 	}
 
-	private void update()
+	/**
+	 * Convert a {@code value} to a packed ARGB {@code int}, in the same way as
+	 * {@link #convert(Object, Object)} does for a {@link RealType} with that
+	 * value. This can be used by specialized projectors that read primitive
+	 * values directly from the underlying storage.
+	 *
+	 * @param value
+	 *            the value to convert.
+	 * @return packed ARGB value.
+	 */
+	public int toARGB( final double value )
+	{
+		final double v = value - min;
+		if ( v < 0 )
+			return black;
+		final int r0 = ( int ) ( scaleR * v + 0.5 );
+		final int g0 = ( int ) ( scaleG * v + 0.5 );
+		final int b0 = ( int ) ( scaleB * v + 0.5 );
+		final int r = Math.min( 255, r0 );
+		final int g = Math.min( 255, g0 );
+		final int b = Math.min( 255, b0 );
+		return ARGBType.rgba( r, g, b, A );
+	}
+
+	protected void update()
 	{
 		final double scale = 1.0 / ( max - min );
 		final int value = color.get();
@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
+import net.imglib2.RandomAccessible;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.view.Views;
+
+/**
+ * Compares {@link AccumulateProjectorARGB} on the {@code int[]} path
+ * ({@link ARGBScreenImage} sources) and on the {@code Cursor} path (sources
+ * wrapped as views) with a straightforward per-pixel implementation of each
+ * {@link BlendMode}.
+ */
+public class AccumulateProjectorARGBTest
+{
+	private static final int WIDTH = 301;
+
+	private static final int HEIGHT = 67;
+
+	private static final int NUM_SOURCES = 5;
+
+	private static final int NUM_THREADS = 3;
+
+	private static ExecutorService executorService;
+
+	private static ArrayList< ARGBScreenImage > sourceImages;
+
+	@BeforeClass
+	public static void setup()
+	{
+		executorService = Executors.newFixedThreadPool( NUM_THREADS );
+		final Random random = new Random( 1 );
+		sourceImages = new ArrayList<>();
+		for ( int s = 0; s < NUM_SOURCES; ++s )
+		{
+			final ARGBScreenImage img = new ARGBScreenImage( WIDTH, HEIGHT );
+			final int[] data = img.getData();
+			for ( int i = 0; i < data.length; ++i )
+				data[ i ] = random.nextInt();
+			// include fully transparent and fully opaque pixels
+			data[ 0 ] &= 0x00ffffff;
+			data[ 1 ] |= 0xff000000;
+			sourceImages.add( img );
+		}
+	}
+
+	@AfterClass
+	public static void teardown()
+	{
+		executorService.shutdown();
+	}
+
+	@Test
+	public void testSum()
+	{
+		check( BlendMode.SUM, NUM_SOURCES );
+	}
+
+	@Test
+	public void testMax()
+	{
+		check( BlendMode.MAX, NUM_SOURCES );
+	}
+
+	@Test
+	public void testAverage()
+	{
+		check( BlendMode.AVERAGE, NUM_SOURCES );
+	}
+
+	@Test
+	public void testAverageWithCulledSources()
+	{
+		check( BlendMode.AVERAGE, NUM_SOURCES + 3 );
+	}
+
+	@Test
+	public void testAlphaOver()
+	{
+		check( BlendMode.ALPHA_OVER, NUM_SOURCES );
+	}
+
+	private static void check( final BlendMode blendMode, final int averageDivisor )
+	{
+		final int[] expected = new int[ WIDTH * HEIGHT ];
+		final int[] values = new int[ NUM_SOURCES ];
+		for ( int i = 0; i < expected.length; ++i )
+		{
+			for ( int s = 0; s < NUM_SOURCES; ++s )
+				values[ s ] = sourceImages.get( s ).getData()[ i ];
+			expected[ i ] = blend( blendMode, values, averageDivisor );
+		}
+
+		final ArrayList< VolatileProjector > sourceProjectors = new ArrayList<>();
+		final ArrayList< RandomAccessible< ARGBType > > arraySources = new ArrayList<>();
+		final ArrayList< RandomAccessible< ARGBType > > cursorSources = new ArrayList<>();
+		for ( final ARGBScreenImage img : sourceImages )
+		{
+			sourceProjectors.add( new EmptyProjector<>( img ) );
+			arraySources.add( img );
+			cursorSources.add( Views.translate( img, 0, 0 ) );
+		}
+
+		final ARGBScreenImage arrayTarget = new ARGBScreenImage( WIDTH, HEIGHT );
+		new AccumulateProjectorARGB( sourceProjectors, arraySources, arrayTarget, blendMode, averageDivisor, NUM_THREADS, executorService ).map();
+		assertPixelsEqual( blendMode + " int[] path", expected, arrayTarget.getData() );
+
+		final ARGBScreenImage cursorTarget = new ARGBScreenImage( WIDTH, HEIGHT );
+		new AccumulateProjectorARGB( sourceProjectors, cursorSources, cursorTarget, blendMode, averageDivisor, NUM_THREADS, executorService ).map();
+		assertPixelsEqual( blendMode + " cursor path", expected, cursorTarget.getData() );
+	}
+
+	private static void assertPixelsEqual( final String message, final int[] expected, final int[] actual )
+	{
+		for ( int i = 0; i < expected.length; ++i )
+			if ( expected[ i ] != actual[ i ] )
+				assertEquals( message + " at pixel " + i, Integer.toHexString( expected[ i ] ), Integer.toHexString( actual[ i ] ) );
+	}
+
+	/**
+	 * Reference implementation of {@code blendMode} for one pixel.
+	 */
+	private static int blend( final BlendMode blendMode, final int[] values, final int averageDivisor )
+	{
+		final int[] result = new int[ 4 ];
+		switch ( blendMode )
+		{
+		case SUM:
+			for ( final int v : values )
+				for ( int c = 0; c < 4; ++c )
+					result[ c ] += channel( v, c );
+			for ( int c = 0; c < 4; ++c )
+				result[ c ] = Math.min( 255, result[ c ] );
+			break;
+		case MAX:
+			for ( final int v : values )
+				for ( int c = 0; c < 4; ++c )
+					result[ c ] = Math.max( result[ c ], channel( v, c ) );
+			break;
+		case AVERAGE:
+			for ( final int v : values )
+				for ( int c = 0; c < 4; ++c )
+					result[ c ] += channel( v, c );
+			for ( int c = 0; c < 4; ++c )
+				result[ c ] = Math.min( 255, ( int ) Math.floor( ( double ) result[ c ] / averageDivisor + 0.5 ) );
+			break;
+		case ALPHA_OVER:
+			for ( final int v : values )
+			{
+				final int a = channel( v, 0 );
+				for ( int c = 1; c < 4; ++c )
+					result[ c ] = round255( channel( v, c ) * a + result[ c ] * ( 255 - a ) );
+				result[ 0 ] = a + round255( result[ 0 ] * ( 255 - a ) );
+			}
+			break;
+		}
+		return ( result[ 0 ] << 24 ) | ( result[ 1 ] << 16 ) | ( result[ 2 ] << 8 ) | result[ 3 ];
+	}
+
+	/**
+	 * Channel {@code c} (0 = alpha, 1 = red, 2 = green, 3 = blue) of ARGB
+	 * value {@code v}.
+	 */
+	private static int channel( final int v, final int c )
+	{
+		return ( v >>> ( 24 - 8 * c ) ) & 0xff;
+	}
+
+	private static int round255( final int x )
+	{
+		return ( int ) Math.floor( x / 255.0 + 0.5 );
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
+import net.imglib2.RandomAccessible;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.view.Views;
+
+/**
+ * Benchmarks {@link AccumulateProjectorARGB} for all {@link BlendMode}s, on
+ * the {@code int[]} path ({@link ARGBScreenImage} sources) and on the
+ * {@code Cursor} path (sources wrapped as views).
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@BenchmarkMode( { Mode.AverageTime, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class AccumulateProjectorBenchmark
+{
+	private static final int WIDTH = 1920;
+
+	private static final int HEIGHT = 1080;
+
+	@Param( { "SUM", "MAX", "AVERAGE", "ALPHA_OVER" } )
+	private BlendMode blendMode;
+
+	@Param( { "8" } )
+	private int numSources;
+
+	@Param( { "array", "cursor" } )
+	private String path;
+
+	private ArrayList< VolatileProjector > sourceProjectors;
+
+	private ArrayList< RandomAccessible< ARGBType > > sourceImages;
+
+	private ARGBScreenImage target;
+
+	private ExecutorService executorService;
+
+	private final int numThreads = Runtime.getRuntime().availableProcessors();
+
+	@Setup
+	public void setup()
+	{
+		final Random random = new Random( 1 );
+		sourceProjectors = new ArrayList<>();
+		sourceImages = new ArrayList<>();
+		for ( int s = 0; s < numSources; ++s )
+		{
+			final ARGBScreenImage img = new ARGBScreenImage( WIDTH, HEIGHT );
+			final int[] data = img.getData();
+			for ( int i = 0; i < data.length; ++i )
+				data[ i ] = random.nextInt();
+			sourceImages.add( path.equals( "array" ) ? img : Views.translate( img, 0, 0 ) );
+			// valid projectors, so that only accumulation is measured
+			sourceProjectors.add( new EmptyProjector<>( img ) );
+		}
+		target = new ARGBScreenImage( WIDTH, HEIGHT );
+		executorService = Executors.newFixedThreadPool( numThreads );
+	}
+
+	@TearDown
+	public void teardown()
+	{
+		executorService.shutdown();
+	}
+
+	@Benchmark
+	public void accumulate()
+	{
+		new AccumulateProjectorARGB( sourceProjectors, sourceImages, target, blendMode, numThreads, executorService ).map();
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( AccumulateProjectorBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Compares the {@link FrameReprojection} helpers that reuse the previous frame
+ * with straightforward per-pixel implementations.
+ */
+public class FrameReprojectionTest
+{
+	private static final int WIDTH = 37;
+
+	private static final int HEIGHT = 23;
+
+	private static final int[] SHIFTS = { -40, -23, -5, -1, 0, 1, 3, 22, 40 };
+
+	@Test
+	public void testShiftInt()
+	{
+		final int[] src = randomInts( WIDTH * HEIGHT, 1 );
+		for ( final int dx : SHIFTS )
+			for ( final int dy : SHIFTS )
+			{
+				final int[] expected = referenceShift( src, dx, dy, 7 );
+
+				final int[] dst = new int[ src.length ];
+				FrameReprojection.shift( src, dst, WIDTH, HEIGHT, dx, dy, 7 );
+				assertArrayEquals( "dx=" + dx + " dy=" + dy, expected, dst );
+
+				final int[] inPlace = src.clone();
+				FrameReprojection.shift( inPlace, inPlace, WIDTH, HEIGHT, dx, dy, 7 );
+				assertArrayEquals( "in place, dx=" + dx + " dy=" + dy, expected, inPlace );
+			}
+	}
+
+	@Test
+	public void testShiftByte()
+	{
+		final int[] ints = randomInts( WIDTH * HEIGHT, 2 );
+		final byte[] src = new byte[ ints.length ];
+		for ( int i = 0; i < src.length; ++i )
+			src[ i ] = ( byte ) ints[ i ];
+		for ( final int dx : SHIFTS )
+			for ( final int dy : SHIFTS )
+			{
+				final int[] expectedInts = referenceShift( ints, dx, dy, Byte.MAX_VALUE );
+				final byte[] expected = new byte[ src.length ];
+				for ( int i = 0; i < expected.length; ++i )
+					expected[ i ] = ( byte ) expectedInts[ i ];
+
+				final byte[] inPlace = src.clone();
+				FrameReprojection.shift( inPlace, inPlace, WIDTH, HEIGHT, dx, dy, Byte.MAX_VALUE );
+				assertArrayEquals( "dx=" + dx + " dy=" + dy, expected, inPlace );
+			}
+	}
+
+	@Test
+	public void testWarpIntegerTranslationEqualsShift()
+	{
+		final int[] src = randomInts( WIDTH * HEIGHT, 3 );
+		for ( final int dx : SHIFTS )
+			for ( final int dy : SHIFTS )
+			{
+				final AffineTransform3D delta = new AffineTransform3D();
+				delta.translate( dx, dy, 0 );
+				final int[] dst = new int[ src.length ];
+				FrameReprojection.warp( src, dst, WIDTH, HEIGHT, delta );
+				assertArrayEquals( "dx=" + dx + " dy=" + dy, referenceShift( src, dx, dy, 0 ), dst );
+			}
+	}
+
+	@Test
+	public void testWarpScaled()
+	{
+		final int srcWidth = 20;
+		final int srcHeight = 10;
+		final int[] src = randomInts( srcWidth * srcHeight, 4 );
+		// previous frame at half the resolution of the current frame
+		final AffineTransform3D delta = new AffineTransform3D();
+		delta.set(
+				2, 0, 0, 0.5,
+				0, 2, 0, 0.5,
+				0, 0, 1, 0 );
+		final int[] dst = new int[ WIDTH * HEIGHT ];
+		FrameReprojection.warp( src, srcWidth, srcHeight, dst, WIDTH, HEIGHT, delta );
+		for ( int y = 0; y < HEIGHT; ++y )
+			for ( int x = 0; x < WIDTH; ++x )
+			{
+				// nearest source pixel of the center of (x, y)
+				final int sx = ( int ) Math.floor( ( x - 0.5 ) / 2 + 0.5 );
+				final int sy = ( int ) Math.floor( ( y - 0.5 ) / 2 + 0.5 );
+				final int expected = ( sx >= 0 && sx < srcWidth && sy >= 0 && sy < srcHeight ) ? src[ sy * srcWidth + sx ] : 0;
+				assertEquals( "x=" + x + " y=" + y, expected, dst[ y * WIDTH + x ] );
+			}
+	}
+
+	@Test
+	public void testScreenDelta()
+	{
+		final AffineTransform3D previous = new AffineTransform3D();
+		previous.rotate( 2, 0.3 );
+		previous.scale( 1.7 );
+		previous.translate( 100, -20, 5 );
+		final AffineTransform3D current = previous.copy();
+		current.rotate( 0, 0.2 );
+		current.translate( 3.25, 1, 0 );
+		final AffineTransform3D previousScale = screenScaleTransform( 0.5 );
+		final AffineTransform3D currentScale = screenScaleTransform( 0.25 );
+
+		final AffineTransform3D delta = FrameReprojection.getScreenDelta( previous, current, previousScale, currentScale );
+
+		final Random random = new Random( 5 );
+		final double[] global = new double[ 3 ];
+		final double[] previousScreen = new double[ 3 ];
+		final double[] currentScreen = new double[ 3 ];
+		final double[] mapped = new double[ 3 ];
+		for ( int i = 0; i < 100; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+				global[ d ] = 1000 * random.nextDouble() - 500;
+			previous.apply( global, previousScreen );
+			previousScale.apply( previousScreen, previousScreen );
+			current.apply( global, currentScreen );
+			currentScale.apply( currentScreen, currentScreen );
+			delta.apply( previousScreen, mapped );
+			assertArrayEquals( currentScreen, mapped, 1e-6 );
+		}
+	}
+
+	@Test
+	public void testIntegerTranslation()
+	{
+		final AffineTransform3D previous = new AffineTransform3D();
+		previous.scale( 2.5 );
+		previous.rotate( 2, 0.7 );
+		final AffineTransform3D screenScale = screenScaleTransform( 0.5 );
+		final int[] shift = new int[ 2 ];
+
+		// panning by whole screen pixels at the current screen scale
+		final AffineTransform3D current = previous.copy();
+		current.translate( 6, -10, 0 );
+		AffineTransform3D delta = FrameReprojection.getScreenDelta( previous, current, screenScale );
+		assertTrue( FrameReprojection.isInPlane( delta ) );
+		assertTrue( FrameReprojection.isIntegerTranslation( delta, shift ) );
+		assertArrayEquals( new int[] { 3, -5 }, shift );
+
+		// panning by a fraction of a screen pixel
+		current.set( previous );
+		current.translate( 1, 0, 0 );
+		delta = FrameReprojection.getScreenDelta( previous, current, screenScale );
+		assertTrue( FrameReprojection.isInPlane( delta ) );
+		assertFalse( FrameReprojection.isIntegerTranslation( delta, shift ) );
+
+		// in-plane rotation
+		current.set( previous );
+		current.rotate( 2, 0.1 );
+		delta = FrameReprojection.getScreenDelta( previous, current, screenScale );
+		assertTrue( FrameReprojection.isInPlane( delta ) );
+		assertFalse( FrameReprojection.isIntegerTranslation( delta, shift ) );
+
+		// out-of-plane rotation
+		current.set( previous );
+		current.rotate( 0, 0.1 );
+		delta = FrameReprojection.getScreenDelta( previous, current, screenScale );
+		assertFalse( FrameReprojection.isInPlane( delta ) );
+		assertFalse( FrameReprojection.isIntegerTranslation( delta, shift ) );
+
+		// moving along the viewing direction
+		current.set( previous );
+		current.translate( 0, 0, 1 );
+		delta = FrameReprojection.getScreenDelta( previous, current, screenScale );
+		assertFalse( FrameReprojection.isInPlane( delta ) );
+	}
+
+	/**
+	 * The transform from viewer coordinates to screen coordinates at
+	 * {@code screenScale}, as set up by {@link MultiResolutionRenderer}.
+	 */
+	private static AffineTransform3D screenScaleTransform( final double screenScale )
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.set( screenScale, 0, 0 );
+		t.set( screenScale, 1, 1 );
+		t.set( 0.5 * screenScale - 0.5, 0, 3 );
+		t.set( 0.5 * screenScale - 0.5, 1, 3 );
+		return t;
+	}
+
+	private static int[] referenceShift( final int[] src, final int dx, final int dy, final int fill )
+	{
+		final int[] dst = new int[ src.length ];
+		for ( int y = 0; y < HEIGHT; ++y )
+			for ( int x = 0; x < WIDTH; ++x )
+			{
+				final int sx = x - dx;
+				final int sy = y - dy;
+				dst[ y * WIDTH + x ] = ( sx >= 0 && sx < WIDTH && sy >= 0 && sy < HEIGHT ) ? src[ sy * WIDTH + sx ] : fill;
+			}
+		return dst;
+	}
+
+	private static int[] randomInts( final int size, final long seed )
+	{
+		final Random random = new Random( seed );
+		final int[] data = new int[ size ];
+		for ( int i = 0; i < size; ++i )
+			data[ i ] = random.nextInt();
+		return data;
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
+import bdv.viewer.render.FusedVolatileProjector.FusedSource;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Compares {@link FusedVolatileProjector} with rendering every source by a
+ * {@link VolatileHierarchyProjector} and combining the results with
+ * {@link AccumulateProjectorARGB}, and checks the blending weights of mosaic
+ * sources against a direct computation.
+ */
+public class FusedVolatileProjectorTest
+{
+	private static final int WIDTH = 160;
+
+	private static final int HEIGHT = 90;
+
+	@Test
+	public void testMatchesPerSourceRendering()
+	{
+		for ( final BlendMode blendMode : new BlendMode[] { BlendMode.SUM, BlendMode.MAX, BlendMode.AVERAGE } )
+		{
+			final Random random = new Random( 1 );
+			final List< FusedSource< ? > > fusedSources = new ArrayList<>();
+			final ArrayList< VolatileProjector > projectors = new ArrayList<>();
+			final ArrayList< ARGBScreenImage > sourceImages = new ArrayList<>();
+			for ( int s = 0; s < 3; ++s )
+			{
+				final AffineTransform3D viewer = new AffineTransform3D();
+				viewer.translate( -32, -24, -10 );
+				viewer.rotate( 2, 0.4 * s );
+				viewer.rotate( 0, 0.2 * s );
+				viewer.scale( 1 + 0.5 * s );
+				viewer.translate( 40 + 35 * s, 30 + 10 * s, 0 );
+
+				// alpha 0, such that value 0 converts to 0 like pixels outside the screen bounds
+				final RealARGBColorConverter< VolatileUnsignedShortType > converter = new RealARGBColorConverter.Imp0<>( 0, 4095 );
+				converter.setColor( new ARGBType( ARGBType.rgba( 255, 200 - 50 * s, 100 + 50 * s, 0 ) ) );
+
+				final List< RandomAccessible< VolatileUnsignedShortType > > levels = createLevels( viewer, random );
+				fusedSources.add( new FusedSource<>( levels, null, converter, true,
+						FusedVolatileProjector.getScreenBounds( new FinalInterval( 64, 48, 20 ), viewer ) ) );
+
+				final ARGBScreenImage sourceImage = new ARGBScreenImage( WIDTH, HEIGHT );
+				new VolatileHierarchyProjector<>( levels, converter, sourceImage, new byte[ WIDTH * HEIGHT ], 1, null ).map();
+				sourceImages.add( sourceImage );
+				projectors.add( new EmptyProjector<>( sourceImage ) );
+			}
+
+			final ARGBScreenImage expected = new ARGBScreenImage( WIDTH, HEIGHT );
+			new AccumulateProjectorARGB( projectors, sourceImages, expected, blendMode, 1, null ).map();
+
+			final ARGBScreenImage actual = new ARGBScreenImage( WIDTH, HEIGHT );
+			new FusedVolatileProjector( fusedSources, actual, blendMode, 2, null ).map();
+			assertPixelsEqual( blendMode.toString(), expected.getData(), actual.getData(), 0 );
+		}
+	}
+
+	@Test
+	public void testMosaicWeights()
+	{
+		final int red = ARGBType.rgba( 255, 0, 0, 255 );
+		final int blue = ARGBType.rgba( 0, 0, 255, 255 );
+		final double blendWidth = 8;
+		final List< FusedSource< ? > > sources = Arrays.asList(
+				createMosaicSource( red, 100, HEIGHT, 0, blendWidth, 0 ),
+				createMosaicSource( blue, 100, HEIGHT, 60, blendWidth, 0 ) );
+		final ARGBScreenImage actual = new ARGBScreenImage( WIDTH, HEIGHT );
+		new FusedVolatileProjector( sources, actual, BlendMode.SUM, 2, null ).map();
+
+		final int[] expected = new int[ WIDTH * HEIGHT ];
+		for ( int y = 0; y < HEIGHT; ++y )
+			for ( int x = 0; x < WIDTH; ++x )
+			{
+				final double wa = referenceWeight( x, y, 100, HEIGHT, blendWidth );
+				final double wb = referenceWeight( x - 60, y, 100, HEIGHT, blendWidth );
+				int value = 0;
+				for ( int shift = 0; shift < 32; shift += 8 )
+				{
+					final double c = ( wa * ( ( red >>> shift ) & 0xff ) + wb * ( ( blue >>> shift ) & 0xff ) ) / ( wa + wb );
+					value |= ( int ) Math.min( 255, c + 0.5 ) << shift;
+				}
+				expected[ y * WIDTH + x ] = value;
+			}
+		// weights are accumulated in float precision
+		assertPixelsEqual( "mosaic", expected, actual.getData(), 1 );
+	}
+
+	@Test
+	public void testMosaicWithoutSeams()
+	{
+		final int color = ARGBType.rgba( 10, 200, 77, 255 );
+		final List< FusedSource< ? > > sources = Arrays.asList(
+				createMosaicSource( color, 100, HEIGHT, 0, 8, 0 ),
+				createMosaicSource( color, 100, HEIGHT, 60, 8, 0 ) );
+		final ARGBScreenImage actual = new ARGBScreenImage( WIDTH, HEIGHT );
+		new FusedVolatileProjector( sources, actual, BlendMode.SUM, 2, null ).map();
+
+		final int[] expected = new int[ WIDTH * HEIGHT ];
+		Arrays.fill( expected, color );
+		assertPixelsEqual( "uniform mosaic", expected, actual.getData(), 0 );
+	}
+
+	@Test
+	public void testGroupsAreBlendedSeparately()
+	{
+		final int red = ARGBType.rgba( 255, 0, 0, 255 );
+		final int green = ARGBType.rgba( 0, 255, 0, 255 );
+
+		// two channels covering the same region: each group keeps its color, and the groups are summed
+		final ARGBScreenImage channels = new ARGBScreenImage( WIDTH, HEIGHT );
+		new FusedVolatileProjector( Arrays.asList(
+				createMosaicSource( red, WIDTH, HEIGHT, 0, 8, 0 ),
+				createMosaicSource( green, WIDTH, HEIGHT, 0, 8, 1 ) ),
+				channels, BlendMode.SUM, 2, null ).map();
+		final int[] expected = new int[ WIDTH * HEIGHT ];
+		Arrays.fill( expected, ARGBType.rgba( 255, 255, 0, 255 ) );
+		assertPixelsEqual( "separate groups", expected, channels.getData(), 0 );
+
+		// the same sources in one group are averaged
+		final ARGBScreenImage oneGroup = new ARGBScreenImage( WIDTH, HEIGHT );
+		new FusedVolatileProjector( Arrays.asList(
+				createMosaicSource( red, WIDTH, HEIGHT, 0, 8, 0 ),
+				createMosaicSource( green, WIDTH, HEIGHT, 0, 8, 0 ) ),
+				oneGroup, BlendMode.SUM, 2, null ).map();
+		Arrays.fill( expected, ARGBType.rgba( 128, 128, 0, 255 ) );
+		assertPixelsEqual( "one group", expected, oneGroup.getData(), 1 );
+	}
+
+	/**
+	 * Create two hierarchy levels of random uint16 data (the best level with
+	 * invalid cells), transformed to screen coordinates by {@code viewer}.
+	 */
+	private static List< RandomAccessible< VolatileUnsignedShortType > > createLevels( final AffineTransform3D viewer, final Random random )
+	{
+		final VolatileUnsignedShortType zero = new VolatileUnsignedShortType();
+		zero.setZero();
+		zero.setValid( true );
+		final List< RandomAccessible< VolatileUnsignedShortType > > levels = new ArrayList<>();
+		for ( int l = 0; l < 2; ++l )
+		{
+			final long[] dimensions = new long[] { 64 >> l, 48 >> l, 20 >> l };
+			final Img< VolatileUnsignedShortType > img = createImg( dimensions, new int[] { 16, 16, 16 }, l == 0 ? 0.5 : 1, random );
+			final double s = 1 << l;
+			final AffineTransform3D t = new AffineTransform3D();
+			t.set(
+					s, 0, 0, 0.5 * ( s - 1 ),
+					0, s, 0, 0.5 * ( s - 1 ),
+					0, 0, s, 0.5 * ( s - 1 ) );
+			t.preConcatenate( viewer );
+			levels.add( RealViews.affine(
+					Views.interpolate( Views.extendValue( img, zero ), new NearestNeighborInterpolatorFactory<>() ),
+					t ) );
+		}
+		return levels;
+	}
+
+	/**
+	 * Create a {@link VolatileCachedCellImg} with all cells prebuilt and
+	 * filled with random values in {@code [0, 4096)}. Approximately
+	 * {@code validFraction} of the cells are valid.
+	 */
+	private static VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > createImg(
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final double validFraction,
+			final Random random )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final int numCells = ( int ) Intervals.numElements( grid.getGridDimensions() );
+		@SuppressWarnings( "unchecked" )
+		final Cell< VolatileShortArray >[] cells = new Cell[ numCells ];
+		final long[] cellMin = new long[ dimensions.length ];
+		final int[] cellDims = new int[ dimensions.length ];
+		for ( int i = 0; i < numCells; ++i )
+		{
+			grid.getCellDimensions( i, cellMin, cellDims );
+			final short[] data = new short[ ( int ) Intervals.numElements( cellDims ) ];
+			for ( int j = 0; j < data.length; ++j )
+				data[ j ] = ( short ) random.nextInt( 4096 );
+			cells[ i ] = new Cell<>( cellDims, cellMin, new VolatileShortArray( data, random.nextDouble() < validFraction ) );
+		}
+		return new VolatileCachedCellImg<>(
+				grid,
+				new VolatileUnsignedShortType(),
+				new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				( i, h ) -> cells[ ( int ) i ] );
+	}
+
+	/**
+	 * Create a non-volatile source of {@code width} by {@code height} (by 1)
+	 * pixels of constant {@code color}, shifted by {@code offsetX} screen
+	 * pixels, with blending weights.
+	 */
+	private static FusedSource< ARGBType > createMosaicSource( final int color, final int width, final int height, final int offsetX, final double blendWidth, final int group )
+	{
+		final Img< ARGBType > img = ArrayImgs.argbs( width, height, 1 );
+		for ( final ARGBType t : img )
+			t.set( color );
+		final AffineTransform3D sourceToScreen = new AffineTransform3D();
+		sourceToScreen.translate( offsetX, 0, 0 );
+		final Converter< ARGBType, ARGBType > converter = ( a, b ) -> b.set( a );
+		final List< RandomAccessible< ARGBType > > levels = new ArrayList<>();
+		levels.add( RealViews.affine(
+				Views.interpolate( Views.extendZero( img ), new NearestNeighborInterpolatorFactory<>() ),
+				sourceToScreen ) );
+		return new FusedSource<>( levels, null, converter, false, img, sourceToScreen, blendWidth, group );
+	}
+
+	/**
+	 * Blending weight at voxel {@code (x, y)} of a {@code width} by
+	 * {@code height} (by 1) source: the product of smoothstep ramps from the
+	 * voxel borders of the source.
+	 */
+	private static double referenceWeight( final double x, final double y, final int width, final int height, final double blendWidth )
+	{
+		return ramp( Math.min( x + 0.5, width - 0.5 - x ), blendWidth ) * ramp( Math.min( y + 0.5, height - 0.5 - y ), blendWidth );
+	}
+
+	private static double ramp( final double dist, final double blendWidth )
+	{
+		if ( dist <= 0 )
+			return 0;
+		if ( dist >= blendWidth )
+			return 1;
+		final double r = dist / blendWidth;
+		return r * r * ( 3 - 2 * r );
+	}
+
+	private static void assertPixelsEqual( final String message, final int[] expected, final int[] actual, final int tolerance )
+	{
+		for ( int i = 0; i < expected.length; ++i )
+			for ( int shift = 0; shift < 32; shift += 8 )
+			{
+				final int e = ( expected[ i ] >>> shift ) & 0xff;
+				final int a = ( actual[ i ] >>> shift ) & 0xff;
+				if ( Math.abs( e - a ) > tolerance )
+					assertEquals( message + " at pixel (" + ( i % WIDTH ) + ", " + ( i / WIDTH ) + ")", Integer.toHexString( expected[ i ] ), Integer.toHexString( actual[ i ] ) );
+			}
+	}
+}
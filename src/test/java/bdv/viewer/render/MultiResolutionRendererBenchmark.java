@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bdv.cache.CacheControl;
+import bdv.viewer.DisplayMode;
+import bdv.viewer.Interpolation;
+import bdv.viewer.SourceAndConverter;
+import bdv.viewer.render.AccumulateProjectorARGB.BlendMode;
+import bdv.viewer.state.SourceState;
+import bdv.viewer.state.ViewerState;
+import net.imglib2.ui.RenderTarget;
+
+/**
+ * Benchmarks a complete {@link MultiResolutionRenderer#paint(ViewerState)}
+ * cycle (projector creation, mapping all sources, accumulation, and handing
+ * the frame to the {@link RenderTarget}) into an offscreen target, for
+ * {@link SyntheticMultiResolutionSource synthetic} sources. Compositing is
+ * done either by the {@link AccumulateProjectorARGB default} per-source
+ * projectors, or by the {@link FusedVolatileProjector fused} projector.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class MultiResolutionRendererBenchmark
+{
+	private static final int WIDTH = 1920;
+
+	private static final int HEIGHT = 1080;
+
+	@Param( { "1", "4" } )
+	private int numSources;
+
+	@Param( { "default", "fused" } )
+	private String compositing;
+
+	@Param( { "NEARESTNEIGHBOR", "NLINEAR" } )
+	private Interpolation interpolation;
+
+	private ViewerState state;
+
+	private MultiResolutionRenderer renderer;
+
+	private ForkJoinPool executorService;
+
+	@Setup
+	public void setup()
+	{
+		final List< SourceAndConverter< ? > > sources = new ArrayList<>();
+		for ( int s = 0; s < numSources; ++s )
+			sources.add( SyntheticMultiResolutionSource.create(
+					new long[] { 1024, 1024, 256 }, new int[] { 32, 32, 32 }, 3, 1, s ) );
+		state = new ViewerState( sources, 1 );
+		for ( final SourceState< ? > source : state.getSources() )
+			source.setActive( true );
+		state.setDisplayMode( DisplayMode.FUSED );
+		state.setInterpolation( interpolation );
+		state.setViewerTransform( VolatileHierarchyProjectorBenchmark.createViewerTransform( "oblique", WIDTH, HEIGHT ) );
+
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+		executorService = new ForkJoinPool( numThreads );
+		renderer = new MultiResolutionRenderer(
+				new OffscreenTarget(), null, new double[] { 1 }, 0, false,
+				numThreads, executorService, true,
+				AccumulateProjectorARGB.factory, new CacheControl.Dummy() );
+		if ( compositing.equals( "fused" ) )
+			renderer.setFusedCompositing( BlendMode.SUM );
+	}
+
+	@TearDown
+	public void teardown()
+	{
+		renderer.kill();
+		executorService.shutdown();
+	}
+
+	@Benchmark
+	public void paint()
+	{
+		renderer.requestRepaint();
+		renderer.paint( state );
+	}
+
+	private static class OffscreenTarget implements RenderTarget
+	{
+		@Override
+		public BufferedImage setBufferedImage( final BufferedImage bufferedImage )
+		{
+			return null;
+		}
+
+		@Override
+		public int getWidth()
+		{
+			return WIDTH;
+		}
+
+		@Override
+		public int getHeight()
+		{
+			return HEIGHT;
+		}
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( MultiResolutionRendererBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
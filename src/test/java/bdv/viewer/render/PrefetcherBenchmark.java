@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.viewer.Interpolation;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+/**
+ * Benchmarks {@link Prefetcher} determining the cells needed for a
+ * 1920x1080 screen, for a large (all cells sharing the same data) source.
+ * The {@code cellDimensions} parameter determines how many cells intersect
+ * the screen.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class PrefetcherBenchmark
+{
+	private static final int WIDTH = 1920;
+
+	private static final int HEIGHT = 1080;
+
+	@Param( { "16", "32", "64" } )
+	private int cellSize;
+
+	@Param( { "aligned", "oblique" } )
+	private String orientation;
+
+	@Param( { "NEARESTNEIGHBOR", "NLINEAR" } )
+	private Interpolation interpolation;
+
+	private final long[] dimensions = new long[] { 8192, 8192, 2048 };
+
+	private int[] cellDimensions;
+
+	private AffineTransform3D sourceToScreen;
+
+	private RandomAccess< Cell< VolatileShortArray > > cellsRandomAccess;
+
+	private final FinalDimensions screenInterval = new FinalDimensions( WIDTH, HEIGHT );
+
+	private final double[] focus = new double[] { WIDTH / 2, HEIGHT / 2 };
+
+	@Setup
+	public void setup()
+	{
+		cellDimensions = new int[] { cellSize, cellSize, cellSize };
+		final VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > img =
+				SyntheticMultiResolutionSource.createSharedCellImg( dimensions, cellDimensions );
+		cellsRandomAccess = img.getCells().randomAccess();
+
+		sourceToScreen = new AffineTransform3D();
+		sourceToScreen.translate( -dimensions[ 0 ] / 2, -dimensions[ 1 ] / 2, -dimensions[ 2 ] / 2 );
+		if ( orientation.equals( "oblique" ) )
+		{
+			sourceToScreen.rotate( 0, 0.3 );
+			sourceToScreen.rotate( 2, 0.5 );
+		}
+		sourceToScreen.translate( WIDTH / 2, HEIGHT / 2, 0 );
+	}
+
+	@Benchmark
+	public void fetchCells()
+	{
+		Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+	}
+
+	@Benchmark
+	public void fetchCellsFocused()
+	{
+		Prefetcher.fetchCells( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess, focus, false );
+	}
+
+	@Benchmark
+	public boolean cellsValid()
+	{
+		return Prefetcher.cellsValid( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( PrefetcherBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
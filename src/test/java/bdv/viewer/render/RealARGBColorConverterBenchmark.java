@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.imglib2.Cursor;
+import net.imglib2.display.LookupTableARGBColorConverter;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Benchmarks {@link RealARGBColorConverter} converting one screen worth of
+ * uint16 values, through {@link RealARGBColorConverter#convert(Object, Object)
+ * convert()} of the {@link RealARGBColorConverter.Imp0 Imp0} and
+ * {@link RealARGBColorConverter.Imp1 Imp1} implementations and the
+ * {@link LookupTableARGBColorConverter}, through
+ * {@link RealARGBColorConverter#toARGB(double) toARGB()} on the primitive
+ * values, and by indexing the lookup table directly.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class RealARGBColorConverterBenchmark
+{
+	private static final int WIDTH = 1920;
+
+	private static final int HEIGHT = 1080;
+
+	@Param( { "Imp0", "Imp1", "Lut" } )
+	private String implementation;
+
+	private RealARGBColorConverter< UnsignedShortType > converter;
+
+	private ArrayImg< UnsignedShortType, ShortArray > source;
+
+	private ArrayImg< ARGBType, IntArray > target;
+
+	@Setup
+	public void setup()
+	{
+		switch ( implementation )
+		{
+		case "Imp0":
+			converter = new RealARGBColorConverter.Imp0<>( 0, 4095 );
+			break;
+		case "Imp1":
+			converter = new RealARGBColorConverter.Imp1<>( 0, 4095 );
+			break;
+		default:
+			converter = new LookupTableARGBColorConverter.Imp1<>( 0, 4095, 1 << 16 );
+			break;
+		}
+		converter.setColor( new ARGBType( 0xff00ff00 ) );
+
+		final Random random = new Random( 1 );
+		final short[] data = new short[ WIDTH * HEIGHT ];
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = ( short ) random.nextInt( 4096 );
+		source = ArrayImgs.unsignedShorts( data, WIDTH, HEIGHT );
+		target = ArrayImgs.argbs( WIDTH, HEIGHT );
+	}
+
+	@Benchmark
+	public void convert()
+	{
+		final Cursor< UnsignedShortType > in = source.cursor();
+		final Cursor< ARGBType > out = target.cursor();
+		while ( in.hasNext() )
+			converter.convert( in.next(), out.next() );
+	}
+
+	@Benchmark
+	public void toARGB()
+	{
+		final short[] in = source.update( null ).getCurrentStorageArray();
+		final int[] out = target.update( null ).getCurrentStorageArray();
+		for ( int i = 0; i < in.length; ++i )
+			out[ i ] = converter.toARGB( in[ i ] & 0xffff );
+	}
+
+	@Benchmark
+	public void lookup()
+	{
+		final short[] in = source.update( null ).getCurrentStorageArray();
+		final int[] out = target.update( null ).getCurrentStorageArray();
+		if ( converter instanceof LookupTableARGBColorConverter )
+		{
+			final int[] lut = ( ( LookupTableARGBColorConverter< ? > ) converter ).getLut();
+			for ( int i = 0; i < in.length; ++i )
+				out[ i ] = lut[ in[ i ] & 0xffff ];
+		}
+		else
+		{
+			for ( int i = 0; i < in.length; ++i )
+				out[ i ] = converter.toARGB( in[ i ] & 0xffff );
+		}
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( RealARGBColorConverterBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Compares the sources found by {@link SourceBoundsIndex} with a brute-force
+ * test of every source, for a scattered set of rotated and scaled sources
+ * and random viewer transforms.
+ */
+public class SourceBoundsIndexTest
+{
+	private static final int NUM_SOURCES = 300;
+
+	@Test
+	public void testIntersectMatchesBruteForce()
+	{
+		final Random random = new Random( 1 );
+		final List< SourceAndConverter< UnsignedShortType > > sources = createSources( random );
+		final SourceBoundsIndex index = new SourceBoundsIndex();
+
+		int numFound = 0;
+		for ( int i = 0; i < 50; ++i )
+		{
+			final AffineTransform3D viewerTransform = randomTransform( random, 2000 );
+			final double halfWidth = 200 + 1000 * random.nextDouble();
+			final double halfHeight = 200 + 1000 * random.nextDouble();
+			final double halfDepth = i % 2 == 0 ? 0 : 50 * random.nextDouble();
+			final RealInterval viewerBox = new FinalRealInterval(
+					new double[] { -halfWidth, -halfHeight, -halfDepth },
+					new double[] { halfWidth, halfHeight, halfDepth } );
+
+			final BitSet found = index.intersect( sources, 0, viewerTransform, viewerBox );
+			for ( int s = 0; s < sources.size(); ++s )
+			{
+				final AffineTransform3D sourceTransform = new AffineTransform3D();
+				sources.get( s ).getSpimSource().getSourceTransform( 0, 0, sourceTransform );
+				final Interval interval = sources.get( s ).getSpimSource().getSource( 0, 0 );
+				assertEquals( "source " + s, intersects( interval, sourceTransform, viewerTransform, viewerBox ), found.get( s ) );
+				if ( containsVoxel( interval, sourceTransform, viewerTransform, viewerBox ) )
+					assertTrue( "source " + s + " is visible but was culled", found.get( s ) );
+			}
+			numFound += found.cardinality();
+		}
+		// make sure the test covers both outcomes
+		assertTrue( numFound > 0 );
+		assertTrue( numFound < 50 * NUM_SOURCES );
+	}
+
+	@Test
+	public void testSourceBoundsFollowSourceList()
+	{
+		final Random random = new Random( 2 );
+		final List< SourceAndConverter< UnsignedShortType > > sources = createSources( random );
+		final SourceBoundsIndex index = new SourceBoundsIndex();
+		assertEquals( NUM_SOURCES, index.getSourceBounds( sources, 0 ).size() );
+
+		final List< SourceAndConverter< UnsignedShortType > > subset = new ArrayList<>( sources.subList( 0, 10 ) );
+		Collections.reverse( subset );
+		final List< SourceBoundsIndex.SourceBounds > bounds = index.getSourceBounds( subset, 0 );
+		assertEquals( 10, bounds.size() );
+		for ( int i = 0; i < 10; ++i )
+			assertEquals( i, bounds.get( i ).getSourceIndex() );
+	}
+
+	/**
+	 * The test of {@link SourceBoundsIndex}, applied to one source: the
+	 * bounding box (in global coordinates) of the source box must overlap the
+	 * bounding box of the viewer box, and the bounding box (in viewer
+	 * coordinates) of the source box must overlap the viewer box. The source
+	 * box is padded by one voxel for interpolation.
+	 */
+	private static boolean intersects( final Interval interval, final AffineTransform3D sourceTransform, final AffineTransform3D viewerTransform, final RealInterval viewerBox )
+	{
+		final double[] sourceMin = new double[ 3 ];
+		final double[] sourceMax = new double[ 3 ];
+		final double[] boxMin = new double[ 3 ];
+		final double[] boxMax = new double[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+		{
+			sourceMin[ d ] = interval.min( d ) - 1;
+			sourceMax[ d ] = interval.max( d ) + 1;
+			boxMin[ d ] = viewerBox.realMin( d );
+			boxMax[ d ] = viewerBox.realMax( d );
+		}
+
+		final AffineTransform3D sourceToViewer = viewerTransform.copy();
+		sourceToViewer.concatenate( sourceTransform );
+		final double[][] viewerBounds = boundingBox( sourceMin, sourceMax, sourceToViewer );
+		if ( !overlaps( viewerBounds[ 0 ], viewerBounds[ 1 ], boxMin, boxMax ) )
+			return false;
+
+		final double[][] globalSourceBounds = boundingBox( sourceMin, sourceMax, sourceTransform );
+		final double[][] globalBoxBounds = boundingBox( boxMin, boxMax, viewerTransform.inverse() );
+		return overlaps( globalSourceBounds[ 0 ], globalSourceBounds[ 1 ], globalBoxBounds[ 0 ], globalBoxBounds[ 1 ] );
+	}
+
+	/**
+	 * Whether the center of some voxel of the source lies in the viewer box.
+	 */
+	private static boolean containsVoxel( final Interval interval, final AffineTransform3D sourceTransform, final AffineTransform3D viewerTransform, final RealInterval viewerBox )
+	{
+		final AffineTransform3D sourceToViewer = viewerTransform.copy();
+		sourceToViewer.concatenate( sourceTransform );
+		final double[] pos = new double[ 3 ];
+		for ( long z = interval.min( 2 ); z <= interval.max( 2 ); ++z )
+			for ( long y = interval.min( 1 ); y <= interval.max( 1 ); ++y )
+				for ( long x = interval.min( 0 ); x <= interval.max( 0 ); ++x )
+				{
+					pos[ 0 ] = x;
+					pos[ 1 ] = y;
+					pos[ 2 ] = z;
+					sourceToViewer.apply( pos, pos );
+					boolean inside = true;
+					for ( int d = 0; d < 3; ++d )
+						inside &= pos[ d ] >= viewerBox.realMin( d ) && pos[ d ] <= viewerBox.realMax( d );
+					if ( inside )
+						return true;
+				}
+		return false;
+	}
+
+	private static double[][] boundingBox( final double[] min, final double[] max, final AffineTransform3D transform )
+	{
+		final double[][] bounds = new double[ 2 ][ 3 ];
+		for ( int d = 0; d < 3; ++d )
+		{
+			bounds[ 0 ][ d ] = Double.POSITIVE_INFINITY;
+			bounds[ 1 ][ d ] = Double.NEGATIVE_INFINITY;
+		}
+		final double[] corner = new double[ 3 ];
+		final double[] transformed = new double[ 3 ];
+		for ( int c = 0; c < 8; ++c )
+		{
+			for ( int d = 0; d < 3; ++d )
+				corner[ d ] = ( ( c >> d ) & 1 ) == 0 ? min[ d ] : max[ d ];
+			transform.apply( corner, transformed );
+			for ( int d = 0; d < 3; ++d )
+			{
+				bounds[ 0 ][ d ] = Math.min( bounds[ 0 ][ d ], transformed[ d ] );
+				bounds[ 1 ][ d ] = Math.max( bounds[ 1 ][ d ], transformed[ d ] );
+			}
+		}
+		return bounds;
+	}
+
+	private static boolean overlaps( final double[] amin, final double[] amax, final double[] bmin, final double[] bmax )
+	{
+		for ( int d = 0; d < 3; ++d )
+			if ( amax[ d ] < bmin[ d ] || amin[ d ] > bmax[ d ] )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Create small sources scattered over a volume of 4000^3, with random
+	 * rotations and scales.
+	 */
+	private static List< SourceAndConverter< UnsignedShortType > > createSources( final Random random )
+	{
+		final List< SourceAndConverter< UnsignedShortType > > sources = new ArrayList<>();
+		for ( int s = 0; s < NUM_SOURCES; ++s )
+		{
+			final long[] dimensions = new long[] { 2 + random.nextInt( 8 ), 2 + random.nextInt( 8 ), 1 + random.nextInt( 4 ) };
+			final RandomAccessibleInterval< UnsignedShortType > img = ArrayImgs.unsignedShorts( dimensions );
+			final AffineTransform3D transform = new AffineTransform3D();
+			transform.scale( 5 + 20 * random.nextDouble() );
+			transform.preConcatenate( randomTransform( random, 2000 ) );
+			final SyntheticMultiResolutionSource< UnsignedShortType > source = new SyntheticMultiResolutionSource<>(
+					Collections.singletonList( img ),
+					Collections.singletonList( transform ),
+					new UnsignedShortType(),
+					"source-" + s );
+			sources.add( new SourceAndConverter<>( source, null ) );
+		}
+		return sources;
+	}
+
+	/**
+	 * A random rotation followed by a random translation of up to
+	 * {@code range} in each dimension.
+	 */
+	private static AffineTransform3D randomTransform( final Random random, final double range )
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.rotate( 0, 2 * Math.PI * random.nextDouble() );
+		t.rotate( 1, 2 * Math.PI * random.nextDouble() );
+		t.rotate( 2, 2 * Math.PI * random.nextDouble() );
+		t.translate( range * ( 2 * random.nextDouble() - 1 ), range * ( 2 * random.nextDouble() - 1 ), range * ( 2 * random.nextDouble() - 1 ) );
+		return t;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.converter.Converters;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.InterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * In-memory multi-resolution {@link Source} for benchmarks, so that no files,
+ * loaders, or GUI are needed. Every mipmap level is a
+ * {@link VolatileCachedCellImg} with prebuilt cells of random uint16 data.
+ * Level {@code l} is downsampled by {@code 2^l} in each dimension. All
+ * timepoints show the same data.
+ *
+ * @param <T>
+ *            pixel type
+ */
+class SyntheticMultiResolutionSource< T extends NumericType< T > > implements Source< T >
+{
+	private final List< RandomAccessibleInterval< T > > levels;
+
+	private final List< AffineTransform3D > transforms;
+
+	private final T type;
+
+	private final String name;
+
+	SyntheticMultiResolutionSource( final List< RandomAccessibleInterval< T > > levels, final List< AffineTransform3D > transforms, final T type, final String name )
+	{
+		this.levels = levels;
+		this.transforms = transforms;
+		this.type = type;
+		this.name = name;
+	}
+
+	/**
+	 * Create a {@link SourceAndConverter} with a volatile and a non-volatile
+	 * synthetic source.
+	 *
+	 * @param dimensions
+	 *            dimensions of the full resolution level.
+	 * @param cellDimensions
+	 *            cell size of all levels.
+	 * @param numLevels
+	 *            number of mipmap levels.
+	 * @param validFraction
+	 *            fraction of cells that is valid on all but the coarsest
+	 *            level (which is always completely valid). Invalid cells
+	 *            make the renderer fall back to coarser levels.
+	 * @param seed
+	 *            random seed for the data.
+	 */
+	static SourceAndConverter< UnsignedShortType > create(
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final int numLevels,
+			final double validFraction,
+			final long seed )
+	{
+		final Random random = new Random( seed );
+		final List< RandomAccessibleInterval< VolatileUnsignedShortType > > volatileLevels = new ArrayList<>();
+		final List< RandomAccessibleInterval< UnsignedShortType > > nonVolatileLevels = new ArrayList<>();
+		final List< AffineTransform3D > transforms = new ArrayList<>();
+		for ( int l = 0; l < numLevels; ++l )
+		{
+			final long[] levelDimensions = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				levelDimensions[ d ] = Math.max( 1, dimensions[ d ] >> l );
+			final double valid = ( l == numLevels - 1 ) ? 1 : validFraction;
+			final VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > img = createImg( levelDimensions, cellDimensions, valid, random );
+			volatileLevels.add( img );
+			nonVolatileLevels.add( Converters.convert(
+					( RandomAccessibleInterval< VolatileUnsignedShortType > ) img,
+					( a, b ) -> b.set( a.get() ),
+					new UnsignedShortType() ) );
+
+			final double s = 1 << l;
+			final AffineTransform3D transform = new AffineTransform3D();
+			transform.set(
+					s, 0, 0, 0.5 * ( s - 1 ),
+					0, s, 0, 0.5 * ( s - 1 ),
+					0, 0, s, 0.5 * ( s - 1 ) );
+			transforms.add( transform );
+		}
+
+		final RealARGBColorConverter< VolatileUnsignedShortType > vconverter = new RealARGBColorConverter.Imp0<>( 0, 4095 );
+		vconverter.setColor( new ARGBType( 0xffffffff ) );
+		final RealARGBColorConverter< UnsignedShortType > converter = new RealARGBColorConverter.Imp1<>( 0, 4095 );
+		converter.setColor( new ARGBType( 0xffffffff ) );
+
+		final String name = "synthetic-" + seed;
+		final SyntheticMultiResolutionSource< VolatileUnsignedShortType > vs = new SyntheticMultiResolutionSource<>( volatileLevels, transforms, new VolatileUnsignedShortType(), name );
+		final SyntheticMultiResolutionSource< UnsignedShortType > s = new SyntheticMultiResolutionSource<>( nonVolatileLevels, transforms, new UnsignedShortType(), name );
+		return new SourceAndConverter<>( s, converter, new SourceAndConverter<>( vs, vconverter ) );
+	}
+
+	/**
+	 * Create a {@link VolatileCachedCellImg} with all cells prebuilt and
+	 * filled with random values in {@code [0, 4096)}. Approximately
+	 * {@code validFraction} of the cells are valid.
+	 */
+	static VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > createImg(
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final double validFraction,
+			final Random random )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final int numCells = ( int ) Intervals.numElements( grid.getGridDimensions() );
+		@SuppressWarnings( "unchecked" )
+		final Cell< VolatileShortArray >[] cells = new Cell[ numCells ];
+		final long[] cellMin = new long[ dimensions.length ];
+		final int[] cellDims = new int[ dimensions.length ];
+		for ( int i = 0; i < numCells; ++i )
+		{
+			grid.getCellDimensions( i, cellMin, cellDims );
+			final short[] data = new short[ ( int ) Intervals.numElements( cellDims ) ];
+			for ( int j = 0; j < data.length; ++j )
+				data[ j ] = ( short ) random.nextInt( 4096 );
+			cells[ i ] = new Cell<>( cellDims, cellMin, new VolatileShortArray( data, random.nextDouble() < validFraction ) );
+		}
+		return new VolatileCachedCellImg<>(
+				grid,
+				new VolatileUnsignedShortType(),
+				new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				( i, h ) -> cells[ ( int ) i ] );
+	}
+
+	/**
+	 * Create a {@link VolatileCachedCellImg} of (potentially huge)
+	 * {@code dimensions} in which all cells share the same (valid) data. This
+	 * is useful to benchmark cell access patterns without allocating memory
+	 * for the data.
+	 */
+	static VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > createSharedCellImg(
+			final long[] dimensions,
+			final int[] cellDimensions )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Cell< VolatileShortArray > cell = new Cell<>(
+				cellDimensions,
+				new long[ dimensions.length ],
+				new VolatileShortArray( ( int ) Intervals.numElements( cellDimensions ), true ) );
+		return new VolatileCachedCellImg<>(
+				grid,
+				new VolatileUnsignedShortType(),
+				new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				( i, h ) -> cell );
+	}
+
+	@Override
+	public boolean isPresent( final int t )
+	{
+		return true;
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getSource( final int t, final int level )
+	{
+		return levels.get( level );
+	}
+
+	@Override
+	public RealRandomAccessible< T > getInterpolatedSource( final int t, final int level, final Interpolation method )
+	{
+		final T zero = type.createVariable();
+		zero.setZero();
+		final RandomAccessible< T > extended = Views.extendValue( getSource( t, level ), zero );
+		final InterpolatorFactory< T, RandomAccessible< T > > factory = method == Interpolation.NLINEAR
+				? new NLinearInterpolatorFactory< T >()
+				: new NearestNeighborInterpolatorFactory< T >();
+		return Views.interpolate( extended, factory );
+	}
+
+	@Override
+	public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+	{
+		transform.set( transforms.get( level ) );
+	}
+
+	@Override
+	public T getType()
+	{
+		return type;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public VoxelDimensions getVoxelDimensions()
+	{
+		return new FinalVoxelDimensions( "px", 1, 1, 1 );
+	}
+
+	@Override
+	public int getNumMipmapLevels()
+	{
+		return levels.size();
+	}
+}
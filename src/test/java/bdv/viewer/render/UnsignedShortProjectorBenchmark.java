@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Compares rendering a uint16 {@link VolatileCachedCellImg} with the generic
+ * {@link VolatileHierarchyProjector} and with the specialized
+ * {@link UnsignedShortVolatileHierarchyProjector}. All cells are prebuilt and
+ * valid, so only the projection itself is measured. Slices are either
+ * oblique, or aligned with the source axes (XZ plane at 3x zoom).
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class UnsignedShortProjectorBenchmark
+{
+	private static final int WIDTH = 1024;
+
+	private static final int HEIGHT = 1024;
+
+	@Param( { "oblique", "aligned" } )
+	private String orientation;
+
+	private VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > img;
+
+	private AffineTransform3D sourceToScreen;
+
+	private List< RandomAccessible< VolatileUnsignedShortType > > sources;
+
+	private RealARGBColorConverter< VolatileUnsignedShortType > converter;
+
+	private ARGBScreenImage target;
+
+	private byte[] maskArray;
+
+	private ExecutorService executorService;
+
+	@Setup
+	public void setup()
+	{
+		img = createImg( new long[] { 512, 512, 128 }, new int[] { 32, 32, 32 } );
+
+		sourceToScreen = new AffineTransform3D();
+		sourceToScreen.translate( -256, -256, -64 );
+		if ( orientation.equals( "aligned" ) )
+		{
+			// XZ slice through the middle of the volume, zoomed in 3x
+			sourceToScreen.rotate( 0, -Math.PI / 2 );
+			sourceToScreen.scale( 3 );
+		}
+		else
+		{
+			// oblique slice through the middle of the volume, zoomed in 2x
+			sourceToScreen.rotate( 0, 0.3 );
+			sourceToScreen.rotate( 2, 0.5 );
+			sourceToScreen.scale( 2 );
+		}
+		sourceToScreen.translate( WIDTH / 2, HEIGHT / 2, 0 );
+
+		final VolatileUnsignedShortType zero = new VolatileUnsignedShortType();
+		zero.setZero();
+		sources = Collections.singletonList( RealViews.affine(
+				Views.interpolate( Views.extendValue( img, zero ), new NearestNeighborInterpolatorFactory<>() ),
+				sourceToScreen ) );
+		converter = new RealARGBColorConverter.Imp0<>( 0, 4095 );
+		target = new ARGBScreenImage( WIDTH, HEIGHT );
+		maskArray = new byte[ WIDTH * HEIGHT ];
+		executorService = Executors.newSingleThreadExecutor();
+	}
+
+	@TearDown
+	public void teardown()
+	{
+		executorService.shutdown();
+	}
+
+	@Benchmark
+	public void generic()
+	{
+		new VolatileHierarchyProjector<>( sources, converter, target, maskArray, 1, executorService ).map();
+	}
+
+	@Benchmark
+	public void unsignedShort()
+	{
+		new UnsignedShortVolatileHierarchyProjector(
+				sources, null,
+				Collections.singletonList( img ),
+				Collections.singletonList( sourceToScreen ),
+				converter, target, maskArray, true, 1, executorService ).map();
+	}
+
+	/**
+	 * Create a {@link VolatileCachedCellImg} with all cells prebuilt, valid,
+	 * and filled with random values.
+	 */
+	static VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > createImg( final long[] dimensions, final int[] cellDimensions )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final int numCells = ( int ) Intervals.numElements( grid.getGridDimensions() );
+		final Random random = new Random( 1 );
+		@SuppressWarnings( "unchecked" )
+		final Cell< VolatileShortArray >[] cells = new Cell[ numCells ];
+		final long[] cellMin = new long[ dimensions.length ];
+		final int[] cellDims = new int[ dimensions.length ];
+		for ( int i = 0; i < numCells; ++i )
+		{
+			grid.getCellDimensions( i, cellMin, cellDims );
+			final short[] data = new short[ ( int ) Intervals.numElements( cellDims ) ];
+			for ( int j = 0; j < data.length; ++j )
+				data[ j ] = ( short ) random.nextInt( 4096 );
+			cells[ i ] = new Cell<>( cellDims, cellMin, new VolatileShortArray( data, true ) );
+		}
+		return new VolatileCachedCellImg<>(
+				grid,
+				new VolatileUnsignedShortType(),
+				new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				( i, h ) -> cells[ ( int ) i ] );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( UnsignedShortProjectorBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
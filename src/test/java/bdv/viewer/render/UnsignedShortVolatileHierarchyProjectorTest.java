@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.display.LookupTableARGBColorConverter;
+import net.imglib2.display.RealARGBColorConverter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Compares {@link UnsignedShortVolatileHierarchyProjector} with the generic
+ * {@link VolatileHierarchyProjector} on transformed, interpolated views of
+ * the same images, for oblique slices and for slices aligned with the source
+ * axes. The best level has invalid cells, so that both projectors fall back
+ * to the coarser level for some pixels.
+ * <p>
+ * The specialized projector walks rows incrementally in source coordinates,
+ * while the generic one transforms every pixel. Rounding may therefore
+ * differ for samples that are almost exactly between two voxels, and a tiny
+ * fraction of differing pixels is tolerated.
+ */
+public class UnsignedShortVolatileHierarchyProjectorTest
+{
+	private static final int WIDTH = 200;
+
+	private static final int HEIGHT = 150;
+
+	private static final double MAX_MISMATCH_FRACTION = 1e-3;
+
+	@Test
+	public void testOblique()
+	{
+		final AffineTransform3D viewer = centered();
+		viewer.rotate( 0, 0.3 );
+		viewer.rotate( 2, 0.5 );
+		viewer.scale( 1.7 );
+		viewer.translate( WIDTH / 2, HEIGHT / 2, 0 );
+		compare( viewer, new RealARGBColorConverter.Imp0<>( 0, 4095 ) );
+	}
+
+	@Test
+	public void testAlignedZoomedIn()
+	{
+		final AffineTransform3D viewer = centered();
+		viewer.rotate( 0, -Math.PI / 2 );
+		viewer.scale( 3 );
+		viewer.translate( WIDTH / 2, HEIGHT / 2, 0 );
+		compare( viewer, new RealARGBColorConverter.Imp0<>( 0, 4095 ) );
+	}
+
+	@Test
+	public void testAlignedZoomedOut()
+	{
+		final AffineTransform3D viewer = centered();
+		viewer.scale( 0.75 );
+		viewer.translate( WIDTH / 2, HEIGHT / 2, 0 );
+		compare( viewer, new RealARGBColorConverter.Imp0<>( 0, 4095 ) );
+	}
+
+	@Test
+	public void testLookupTable()
+	{
+		final LookupTableARGBColorConverter< VolatileUnsignedShortType > converter = new LookupTableARGBColorConverter.Imp0<>( 100, 3000, 0x10000 );
+		converter.setColor( new ARGBType( ARGBType.rgba( 255, 128, 0, 255 ) ) );
+		converter.setGamma( 0.5 );
+
+		final AffineTransform3D oblique = centered();
+		oblique.rotate( 1, 0.4 );
+		oblique.translate( WIDTH / 2, HEIGHT / 2, 0 );
+		compare( oblique, converter );
+
+		final AffineTransform3D aligned = centered();
+		aligned.rotate( 1, Math.PI / 2 );
+		aligned.scale( 2 );
+		aligned.translate( WIDTH / 2, HEIGHT / 2, 0 );
+		compare( aligned, converter );
+	}
+
+	/**
+	 * A transform that moves the center of the best level to the origin.
+	 */
+	private static AffineTransform3D centered()
+	{
+		final AffineTransform3D t = new AffineTransform3D();
+		t.translate( -64, -48, -20 );
+		return t;
+	}
+
+	private static void compare( final AffineTransform3D viewer, final RealARGBColorConverter< VolatileUnsignedShortType > converter )
+	{
+		final Random random = new Random( 1 );
+		final List< VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > > imgs = new ArrayList<>();
+		imgs.add( createImg( new long[] { 128, 96, 40 }, new int[] { 16, 16, 16 }, 0.5, random ) );
+		imgs.add( createImg( new long[] { 64, 48, 20 }, new int[] { 16, 16, 16 }, 1, random ) );
+
+		final VolatileUnsignedShortType zero = new VolatileUnsignedShortType();
+		zero.setZero();
+		zero.setValid( true );
+		final List< AffineTransform3D > sourceToScreen = new ArrayList<>();
+		final List< RandomAccessible< VolatileUnsignedShortType > > sources = new ArrayList<>();
+		for ( int l = 0; l < imgs.size(); ++l )
+		{
+			// level l is downsampled by 2^l
+			final double s = 1 << l;
+			final AffineTransform3D t = new AffineTransform3D();
+			t.set(
+					s, 0, 0, 0.5 * ( s - 1 ),
+					0, s, 0, 0.5 * ( s - 1 ),
+					0, 0, s, 0.5 * ( s - 1 ) );
+			t.preConcatenate( viewer );
+			sourceToScreen.add( t );
+			sources.add( RealViews.affine(
+					Views.interpolate( Views.extendValue( imgs.get( l ), zero ), new NearestNeighborInterpolatorFactory<>() ),
+					t ) );
+		}
+
+		final ARGBScreenImage expected = new ARGBScreenImage( WIDTH, HEIGHT );
+		final byte[] expectedMask = new byte[ WIDTH * HEIGHT ];
+		new VolatileHierarchyProjector<>( sources, converter, expected, expectedMask, 1, null ).map();
+
+		final ARGBScreenImage actual = new ARGBScreenImage( WIDTH, HEIGHT );
+		final byte[] actualMask = new byte[ WIDTH * HEIGHT ];
+		new UnsignedShortVolatileHierarchyProjector(
+				sources, null, imgs, sourceToScreen,
+				converter, actual, actualMask, true, 2, null ).map();
+
+		final int[] expectedData = expected.getData();
+		final int[] actualData = actual.getData();
+		int numMismatches = 0;
+		int numFromBestLevel = 0;
+		int numFromCoarserLevel = 0;
+		for ( int i = 0; i < expectedData.length; ++i )
+		{
+			if ( expectedData[ i ] != actualData[ i ] || expectedMask[ i ] != actualMask[ i ] )
+				++numMismatches;
+			if ( expectedMask[ i ] == 0 )
+				++numFromBestLevel;
+			else if ( expectedMask[ i ] == 1 )
+				++numFromCoarserLevel;
+		}
+		assertTrue( numMismatches + " of " + expectedData.length + " pixels differ", numMismatches <= MAX_MISMATCH_FRACTION * expectedData.length );
+		// make sure both levels were used
+		assertTrue( numFromBestLevel > 0 );
+		assertTrue( numFromCoarserLevel > 0 );
+	}
+
+	/**
+	 * Create a {@link VolatileCachedCellImg} with all cells prebuilt and
+	 * filled with random values in {@code [0, 4096)}. Approximately
+	 * {@code validFraction} of the cells are valid.
+	 */
+	private static VolatileCachedCellImg< VolatileUnsignedShortType, VolatileShortArray > createImg(
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final double validFraction,
+			final Random random )
+	{
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final int numCells = ( int ) Intervals.numElements( grid.getGridDimensions() );
+		@SuppressWarnings( "unchecked" )
+		final Cell< VolatileShortArray >[] cells = new Cell[ numCells ];
+		final long[] cellMin = new long[ dimensions.length ];
+		final int[] cellDims = new int[ dimensions.length ];
+		for ( int i = 0; i < numCells; ++i )
+		{
+			grid.getCellDimensions( i, cellMin, cellDims );
+			final short[] data = new short[ ( int ) Intervals.numElements( cellDims ) ];
+			for ( int j = 0; j < data.length; ++j )
+				data[ j ] = ( short ) random.nextInt( 4096 );
+			cells[ i ] = new Cell<>( cellDims, cellMin, new VolatileShortArray( data, random.nextDouble() < validFraction ) );
+		}
+		return new VolatileCachedCellImg<>(
+				grid,
+				new VolatileUnsignedShortType(),
+				new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				( i, h ) -> cells[ ( int ) i ] );
+	}
+}
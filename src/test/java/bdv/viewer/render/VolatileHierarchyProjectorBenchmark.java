@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.viewer.render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import bdv.viewer.SourceAndConverter;
+import net.imglib2.RandomAccessible;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.screenimage.awt.ARGBScreenImage;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+/**
+ * Benchmarks {@link VolatileHierarchyProjector#map()} on a
+ * {@link SyntheticMultiResolutionSource}, for several screen sizes, numbers
+ * of hierarchy levels, interpolation methods, and slice orientations. With
+ * more than one level, half of the cells of the finer levels are invalid, so
+ * that the projector has to fall back to coarser levels.
+ * <p>
+ * Throughput and the latency distribution of complete frames are measured.
+ */
+@State( Scope.Benchmark )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+public class VolatileHierarchyProjectorBenchmark
+{
+	@Param( { "512x512", "1920x1080" } )
+	private String screenSize;
+
+	@Param( { "1", "3" } )
+	private int numLevels;
+
+	@Param( { "NEARESTNEIGHBOR", "NLINEAR" } )
+	private Interpolation interpolation;
+
+	@Param( { "aligned", "oblique" } )
+	private String orientation;
+
+	private List< RandomAccessible< VolatileUnsignedShortType > > sources;
+
+	private Converter< VolatileUnsignedShortType, ARGBType > converter;
+
+	private ARGBScreenImage target;
+
+	private byte[] maskArray;
+
+	private ForkJoinPool executorService;
+
+	private final int numThreads = Runtime.getRuntime().availableProcessors();
+
+	@Setup
+	public void setup()
+	{
+		final String[] size = screenSize.split( "x" );
+		final int width = Integer.parseInt( size[ 0 ] );
+		final int height = Integer.parseInt( size[ 1 ] );
+
+		final SourceAndConverter< UnsignedShortType > soc = SyntheticMultiResolutionSource.create(
+				new long[] { 1024, 1024, 256 }, new int[] { 32, 32, 32 }, numLevels, 0.5, 1 );
+		@SuppressWarnings( "unchecked" )
+		final SourceAndConverter< VolatileUnsignedShortType > vsoc = ( SourceAndConverter< VolatileUnsignedShortType > ) soc.asVolatile();
+		final Source< VolatileUnsignedShortType > source = vsoc.getSpimSource();
+		converter = vsoc.getConverter();
+
+		final AffineTransform3D viewerTransform = createViewerTransform( orientation, width, height );
+		sources = new ArrayList<>();
+		for ( int level = 0; level < numLevels; ++level )
+		{
+			final AffineTransform3D sourceToScreen = viewerTransform.copy();
+			final AffineTransform3D sourceTransform = new AffineTransform3D();
+			source.getSourceTransform( 0, level, sourceTransform );
+			sourceToScreen.concatenate( sourceTransform );
+			sources.add( RealViews.affine( source.getInterpolatedSource( 0, level, interpolation ), sourceToScreen ) );
+		}
+		target = new ARGBScreenImage( width, height );
+		maskArray = new byte[ width * height ];
+		executorService = new ForkJoinPool( numThreads );
+	}
+
+	/**
+	 * Viewer transform for a slice through the center of a 1024x1024x256
+	 * volume, either aligned with the XY plane at 1:1 zoom, or oblique at 1.5x
+	 * zoom.
+	 */
+	static AffineTransform3D createViewerTransform( final String orientation, final int width, final int height )
+	{
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.translate( -512, -512, -128 );
+		if ( orientation.equals( "oblique" ) )
+		{
+			transform.rotate( 0, 0.3 );
+			transform.rotate( 2, 0.5 );
+			transform.scale( 1.5 );
+		}
+		transform.translate( width / 2, height / 2, 0 );
+		return transform;
+	}
+
+	@TearDown
+	public void teardown()
+	{
+		executorService.shutdown();
+	}
+
+	@Benchmark
+	public void map()
+	{
+		new VolatileHierarchyProjector<>( sources, converter, target, maskArray, numThreads, executorService ).map( true );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final Options opt = new OptionsBuilder()
+				.include( VolatileHierarchyProjectorBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
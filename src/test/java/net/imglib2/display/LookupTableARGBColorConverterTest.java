@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2016 Tobias Pietzsch, Stephan Saalfeld, Stephan Preibisch,
+ * Jean-Yves Tinevez, HongKee Moon, Johannes Schindelin, Curtis Rueden, John Bogovic
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.display;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import net.imglib2.converter.Converter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Checks that {@link LookupTableARGBColorConverter} converts like
+ * {@link RealARGBColorConverter}, that its table follows setting changes, and
+ * that {@link LookupTableARGBColorConverter#fixTable(Converter)} converters
+ * keep the table of the pass they were created for.
+ */
+public class LookupTableARGBColorConverterTest
+{
+	private static final ARGBType COLOR = new ARGBType( ARGBType.rgba( 255, 128, 7, 200 ) );
+
+	@Test
+	public void testUnsignedShortMatchesRealARGBColorConverter()
+	{
+		final LookupTableARGBColorConverter< UnsignedShortType > lut = new LookupTableARGBColorConverter.Imp0<>( 100, 3000, 0x10000 );
+		final RealARGBColorConverter< UnsignedShortType > reference = new RealARGBColorConverter.Imp0<>( 100, 3000 );
+		lut.setColor( COLOR );
+		reference.setColor( COLOR );
+
+		final UnsignedShortType value = new UnsignedShortType();
+		final ARGBType expected = new ARGBType();
+		final ARGBType actual = new ARGBType();
+		for ( int i = 0; i < 0x10000; ++i )
+		{
+			value.set( i );
+			reference.convert( value, expected );
+			lut.convert( value, actual );
+			assertEquals( "value " + i, expected.get(), actual.get() );
+			assertEquals( "value " + i, expected.get(), lut.toARGB( i ) );
+		}
+	}
+
+	@Test
+	public void testUnsignedByteMatchesRealARGBColorConverter()
+	{
+		final LookupTableARGBColorConverter< UnsignedByteType > lut = new LookupTableARGBColorConverter.Imp1<>( 10, 200, 256 );
+		final RealARGBColorConverter< UnsignedByteType > reference = new RealARGBColorConverter.Imp1<>( 10, 200 );
+		lut.setColor( COLOR );
+		reference.setColor( COLOR );
+
+		final UnsignedByteType value = new UnsignedByteType();
+		final ARGBType expected = new ARGBType();
+		final ARGBType actual = new ARGBType();
+		for ( int i = 0; i < 256; ++i )
+		{
+			value.set( i );
+			reference.convert( value, expected );
+			lut.convert( value, actual );
+			assertEquals( "value " + i, expected.get(), actual.get() );
+		}
+	}
+
+	@Test
+	public void testTableFollowsSettings()
+	{
+		final LookupTableARGBColorConverter< UnsignedShortType > lut = new LookupTableARGBColorConverter.Imp0<>( 0, 1000, 0x10000 );
+		final int[] before = lut.getLut();
+		assertSame( before, lut.getLut() );
+
+		final long version = lut.getVersion();
+		lut.setMax( 500 );
+		assertEquals( version + 1, lut.getVersion() );
+		final int[] after = lut.getLut();
+		assertNotSame( before, after );
+		assertArrayEquals( createReferenceLut( 0, 500, new ARGBType( 0xffffffff ), 0x10000 ), after );
+	}
+
+	@Test
+	public void testFixTable()
+	{
+		final LookupTableARGBColorConverter< UnsignedShortType > lut = new LookupTableARGBColorConverter.Imp0<>( 0, 1000, 0x10000 );
+		lut.setColor( COLOR );
+		final Converter< ? super UnsignedShortType, ARGBType > pass = LookupTableARGBColorConverter.fixTable( lut );
+
+		final UnsignedShortType value = new UnsignedShortType();
+		final ARGBType expected = new ARGBType();
+		final ARGBType actual = new ARGBType();
+		for ( int i = 0; i < 0x10000; i += 7 )
+		{
+			value.set( i );
+			lut.convert( value, expected );
+			pass.convert( value, actual );
+			assertEquals( "value " + i, expected.get(), actual.get() );
+		}
+
+		// a pass converter keeps the table it was created with
+		value.set( 750 );
+		pass.convert( value, expected );
+		lut.setMax( 500 );
+		pass.convert( value, actual );
+		assertEquals( expected.get(), actual.get() );
+		LookupTableARGBColorConverter.fixTable( lut ).convert( value, actual );
+		assertEquals( lut.toARGB( 750 ), actual.get() );
+
+		// other converters are used as they are
+		final RealARGBColorConverter< UnsignedShortType > other = new RealARGBColorConverter.Imp0<>( 0, 1000 );
+		assertSame( other, LookupTableARGBColorConverter.fixTable( other ) );
+	}
+
+	@Test
+	public void testConcurrentRebuildKeepsNewestTable() throws InterruptedException
+	{
+		final LookupTableARGBColorConverter< UnsignedShortType > lut = new LookupTableARGBColorConverter.Imp0<>( 0, 1000, 0x10000 );
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List< Thread > readers = new ArrayList<>();
+		for ( int i = 0; i < 4; ++i )
+		{
+			final Thread reader = new Thread( () -> {
+				while ( !stop.get() )
+					lut.getLut();
+			} );
+			reader.start();
+			readers.add( reader );
+		}
+		for ( int max = 1001; max <= 1200; ++max )
+			lut.setMax( max );
+		stop.set( true );
+		for ( final Thread reader : readers )
+			reader.join();
+
+		assertArrayEquals( createReferenceLut( 0, 1200, new ARGBType( 0xffffffff ), 0x10000 ), lut.getLut() );
+	}
+
+	private static int[] createReferenceLut( final double min, final double max, final ARGBType color, final int size )
+	{
+		final RealARGBColorConverter< UnsignedShortType > reference = new RealARGBColorConverter.Imp0<>( min, max );
+		reference.setColor( color );
+		final int[] lut = new int[ size ];
+		for ( int i = 0; i < size; ++i )
+			lut[ i ] = reference.toARGB( i );
+		return lut;
+	}
+}